@@ -0,0 +1,136 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Measures the throughput and the latency distribution of the core operations, run
+ * in-process through the whole interceptor chain against each partition implementation.
+ * The operations are done with the admin session on randomly chosen preloaded entries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class CoreOperationBenchmark
+{
+    private static int randomEntry( DirectoryServiceState state )
+    {
+        return ThreadLocalRandom.current().nextInt( state.entryCount );
+    }
+
+
+    /**
+     * Looks up a preloaded entry.
+     */
+    @Benchmark
+    public Entry lookup( DirectoryServiceState state ) throws Exception
+    {
+        return state.getSession().lookup( state.getPersonDn( randomEntry( state ) ) );
+    }
+
+
+    /**
+     * Replaces the description of a preloaded entry.
+     */
+    @Benchmark
+    public void modify( DirectoryServiceState state ) throws Exception
+    {
+        int number = randomEntry( state );
+
+        state.getSession().modify( state.getPersonDn( number ),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "description",
+                "Modified user " + number + " " + System.nanoTime() ) );
+    }
+
+
+    /**
+     * Adds a new entry. The added entries are kept, so the partition grows during the
+     * measurement.
+     */
+    @Benchmark
+    public void add( DirectoryServiceState state ) throws Exception
+    {
+        long number = state.nextAddNumber();
+
+        state.getSession().add( DirectoryServiceState.createPerson( state.getSchemaManager(),
+            "uid=added" + number + "," + DirectoryServiceState.ADDED, number ) );
+    }
+
+
+    /**
+     * Searches a preloaded entry by its uid, one level below its parent.
+     */
+    @Benchmark
+    public void oneLevelSearch( DirectoryServiceState state, Blackhole blackhole ) throws Exception
+    {
+        search( state, state.getPeopleDn(), SearchScope.ONELEVEL, "(uid=user" + randomEntry( state ) + ")",
+            blackhole );
+    }
+
+
+    /**
+     * Searches a preloaded entry by its cn, in the whole partition.
+     */
+    @Benchmark
+    public void subtreeSearch( DirectoryServiceState state, Blackhole blackhole ) throws Exception
+    {
+        search( state, state.getSuffixDn(), SearchScope.SUBTREE, "(cn=User " + randomEntry( state ) + ")",
+            blackhole );
+    }
+
+
+    private void search( DirectoryServiceState state, Dn base, SearchScope scope, String filter,
+        Blackhole blackhole ) throws Exception
+    {
+        try ( Cursor<Entry> cursor = state.getSession().search( base, scope,
+            FilterParser.parse( state.getSchemaManager(), filter ), AliasDerefMode.NEVER_DEREF_ALIASES ) )
+        {
+            while ( cursor.next() )
+            {
+                blackhole.consume( cursor.get() );
+            }
+        }
+    }
+}
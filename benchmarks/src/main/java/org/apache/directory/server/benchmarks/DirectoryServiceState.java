@@ -0,0 +1,265 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.server.core.DefaultDirectoryService;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.factory.AvlPartitionFactory;
+import org.apache.directory.server.core.factory.DefaultDirectoryServiceFactory;
+import org.apache.directory.server.core.factory.JdbmPartitionFactory;
+import org.apache.directory.server.core.factory.MavibotPartitionFactory;
+import org.apache.directory.server.core.factory.PartitionFactory;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * The JMH state shared by the operation benchmarks : an in-process DirectoryService
+ * with a partition of the benchmarked type, loaded with <code>entryCount</code>
+ * inetOrgPerson entries stored under <code>ou=people,ou=benchmark</code>.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+public class DirectoryServiceState
+{
+    /** The partition suffix */
+    public static final String SUFFIX = "ou=benchmark";
+
+    /** The parent of the preloaded entries */
+    public static final String PEOPLE = "ou=people," + SUFFIX;
+
+    /** The parent of the entries created by the add benchmark */
+    public static final String ADDED = "ou=added," + SUFFIX;
+
+    /** The partition implementation : avl, jdbm or mavibot */
+    @Param({ "avl", "jdbm", "mavibot" })
+    public String partitionType;
+
+    /** The number of entries loaded before the measurement */
+    @Param({ "10000" })
+    public int entryCount;
+
+    /** The running service */
+    private DirectoryService directoryService;
+
+    /** The admin session used to run the operations */
+    private CoreSession session;
+
+    /** The partition suffix DN */
+    private Dn suffixDn;
+
+    /** The parent of the preloaded entries DN */
+    private Dn peopleDn;
+
+    /** The preloaded entries DN, so that they don't have to be parsed during the measurement */
+    private Dn[] peopleDns;
+
+    /** A counter used to create unique entries in the add benchmark */
+    private final AtomicLong addCounter = new AtomicLong();
+
+
+    /**
+     * Starts the DirectoryService and loads the benchmark partition.
+     *
+     * @throws Exception If the service can't be started
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        String name = "benchmark-" + partitionType;
+        PartitionFactory partitionFactory = createPartitionFactory();
+
+        // The factory wipes any previous instance directory, so each trial starts from scratch
+        DefaultDirectoryService service = new DefaultDirectoryService();
+        service.setShutdownHookEnabled( false );
+
+        DefaultDirectoryServiceFactory factory = new DefaultDirectoryServiceFactory( service, partitionFactory );
+        factory.init( name );
+        directoryService = factory.getDirectoryService();
+
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+
+        Partition partition = partitionFactory.createPartition( schemaManager, directoryService.getDnFactory(),
+            "benchmark", SUFFIX, 1000, new File( directoryService.getInstanceLayout().getPartitionsDirectory(),
+                "benchmark" ) );
+        partitionFactory.addIndex( partition, "uid", 100 );
+        partitionFactory.addIndex( partition, "cn", 100 );
+        directoryService.addPartition( partition );
+
+        session = directoryService.getAdminSession();
+        suffixDn = new Dn( schemaManager, SUFFIX );
+        peopleDn = new Dn( schemaManager, PEOPLE );
+
+        session.add( new DefaultEntry( schemaManager, SUFFIX,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: benchmark" ) );
+
+        session.add( new DefaultEntry( schemaManager, PEOPLE,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: people" ) );
+
+        session.add( new DefaultEntry( schemaManager, ADDED,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: added" ) );
+
+        peopleDns = new Dn[entryCount];
+
+        for ( int i = 0; i < entryCount; i++ )
+        {
+            Entry entry = createPerson( schemaManager, "uid=user" + i + "," + PEOPLE, i );
+            session.add( entry );
+            peopleDns[i] = entry.getDn();
+        }
+    }
+
+
+    /**
+     * Stops the DirectoryService and removes its working directory.
+     *
+     * @throws Exception If the service can't be stopped
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        if ( directoryService != null )
+        {
+            File instanceDirectory = directoryService.getInstanceLayout().getInstanceDirectory();
+            directoryService.shutdown();
+            FileUtils.deleteDirectory( instanceDirectory );
+        }
+    }
+
+
+    private PartitionFactory createPartitionFactory()
+    {
+        switch ( partitionType )
+        {
+            case "avl":
+                return new AvlPartitionFactory();
+
+            case "jdbm":
+                return new JdbmPartitionFactory();
+
+            case "mavibot":
+                return new MavibotPartitionFactory();
+
+            default:
+                throw new IllegalArgumentException( "Unknown partition type " + partitionType );
+        }
+    }
+
+
+    /**
+     * Creates an inetOrgPerson entry.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param dn The entry DN
+     * @param number The entry number, used to build the attribute values
+     * @return The new entry
+     * @throws Exception If the entry can't be created
+     */
+    static Entry createPerson( SchemaManager schemaManager, String dn, long number ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "uid: user" + number,
+            "cn: User " + number,
+            "sn: " + number,
+            "description: Benchmark user " + number,
+            "userPassword: secret" );
+    }
+
+
+    /**
+     * @return The admin session
+     */
+    public CoreSession getSession()
+    {
+        return session;
+    }
+
+
+    /**
+     * @return The SchemaManager instance
+     */
+    public SchemaManager getSchemaManager()
+    {
+        return directoryService.getSchemaManager();
+    }
+
+
+    /**
+     * @return The partition suffix DN
+     */
+    public Dn getSuffixDn()
+    {
+        return suffixDn;
+    }
+
+
+    /**
+     * @return The DN of the preloaded entries parent
+     */
+    public Dn getPeopleDn()
+    {
+        return peopleDn;
+    }
+
+
+    /**
+     * @param index The entry number
+     * @return The DN of a preloaded entry
+     */
+    public Dn getPersonDn( int index )
+    {
+        return peopleDns[index];
+    }
+
+
+    /**
+     * @return A number which has never been returned before
+     */
+    public long nextAddNumber()
+    {
+        return addCounter.getAndIncrement();
+    }
+}
@@ -24,6 +24,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.apache.directory.server.core.api.OperationLockMode;
 import org.apache.directory.server.core.factory.DefaultDirectoryServiceFactory;
 
 
@@ -57,6 +58,10 @@ public @interface CreateDS
     boolean enableChangeLog() default true;
 
 
+    /** @return the way the partitions are locked against concurrent operations, default is GLOBAL */
+    OperationLockMode operationLockMode() default OperationLockMode.GLOBAL;
+
+
     /** @return The list of partitions to create */
     CreatePartition[] partitions() default
         {};
@@ -99,6 +99,7 @@ public final class DSAnnotationProcessor
         service.setAccessControlEnabled( dsBuilder.enableAccessControl() );
         service.setAllowAnonymousAccess( dsBuilder.allowAnonAccess() );
         service.getChangeLog().setEnabled( dsBuilder.enableChangeLog() );
+        service.getOperationManager().setLockMode( dsBuilder.operationLockMode() );
 
         dsf.init( dsBuilder.name() );
 
@@ -530,6 +530,22 @@ public interface DirectoryService extends ServerEntryFactory
     void setMaxPDUSize( int maxPDUSize );
 
 
+    /**
+     * @return The maximum number of entries sorted in memory when processing a sort
+     * control, before sorted runs are spilled to disk
+     */
+    int getSortBufferSize();
+
+
+    /**
+     * Set the maximum number of entries sorted in memory when processing a sort control.
+     * Larger results are sorted in runs of this size, spilled to disk and merged.
+     * @param sortBufferSize A positive number of entries. A negative or null value will
+     * be transformed to the default size
+     */
+    void setSortBufferSize( int sortBufferSize );
+
+
     /**
      * Get an Interceptor instance from its name
      * @param interceptorName The interceptor's name for which we want the instance
@@ -0,0 +1,43 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.api;
+
+
+/**
+ * The way the {@link OperationManager} protects the partitions against concurrent
+ * operations.
+ * <ul>
+ * <li>GLOBAL : a single ReadWrite lock is shared by all the partitions. A write
+ * operation blocks every other operation, whatever the partition it applies on.</li>
+ * <li>PARTITION : each partition has its own ReadWrite lock. Writes on disjoint
+ * partitions are processed in parallel, and a read only waits for the writes done
+ * on the partition it reads from.</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum OperationLockMode
+{
+    /** One single lock for the whole DIT */
+    GLOBAL,
+
+    /** One lock per partition */
+    PARTITION
+}
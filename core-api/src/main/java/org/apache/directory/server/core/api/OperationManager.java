@@ -38,6 +38,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
 
 
 /**
@@ -198,4 +199,31 @@ public interface OperationManager
      * @return the OperationManager R/W lock
      */
     ReadWriteLock getRWLock();
+
+
+    /**
+     * Get the R/W lock protecting a given partition. In {@link OperationLockMode#GLOBAL}
+     * mode, this is the OperationManager R/W lock, otherwise it's a lock dedicated to
+     * the partition. Its Read and Write locks also hold the OperationManager ReadLock,
+     * so that the OperationManager WriteLock waits until they are released.
+     *
+     * @param partition The partition we want the lock for
+     * @return the R/W lock protecting the partition
+     */
+    ReadWriteLock getRWLock( Partition partition );
+
+
+    /**
+     * @return the way the OperationManager protects the partitions against concurrent operations
+     */
+    OperationLockMode getLockMode();
+
+
+    /**
+     * Set the way the OperationManager protects the partitions against concurrent operations.
+     * It can't be changed once the DirectoryService has been started.
+     *
+     * @param lockMode The lock mode to use
+     */
+    void setLockMode( OperationLockMode lockMode );
 }
@@ -81,6 +81,13 @@ public interface DirectoryListener
      * @param moveAndRenameContext the move/rename operation context responsible for the change
      */
     void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext );
+
+
+    /**
+     * Called when an event has not been delivered to this asynchronous listener, because
+     * it was too slow to process the previous events. The listener has missed a change.
+     */
+    void eventDropped();
     
     
     /**
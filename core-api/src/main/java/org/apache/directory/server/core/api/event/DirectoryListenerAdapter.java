@@ -73,6 +73,12 @@ public abstract class DirectoryListenerAdapter implements DirectoryListener
     }
 
 
+    @Override
+    public void eventDropped()
+    {
+    }
+
+
     @Override
     public boolean isSynchronous()
     {
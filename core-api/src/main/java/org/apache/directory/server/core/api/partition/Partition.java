@@ -336,4 +336,17 @@ public interface Partition
      * @throws LdapException If we had an issue while processing the request
      */
     Subordinates getSubordinates( PartitionTxn partitionTxn, Entry entry ) throws LdapException;
+
+
+    /**
+     * Return the number of immediate children of a given entry, without reading the entry
+     * nor its children.
+     *
+     * @param partitionTxn The transaction to use
+     * @param dn The normalized entry Dn
+     * @return The number of children, or -1 if the entry does not exist in this partition or
+     * if the partition does not maintain the count
+     * @throws LdapException If we had an issue while processing the request
+     */
+    long getChildCount( PartitionTxn partitionTxn, Dn dn ) throws LdapException;
 }
@@ -46,6 +46,33 @@ public class PartitionWriteTxn implements PartitionTxn
     }
 
 
+    /**
+     * Waits until the committed changes are durable. It's called after a successful
+     * {@link #commit()}, once the partition lock has been released, so that a partition
+     * can flush the changes of several transactions at once. By default, the changes are
+     * considered durable when the commit returns, and nothing is done.
+     *
+     * @throws IOException If the changes can't be flushed
+     */
+    public void sync() throws IOException
+    {
+    }
+
+
+    /**
+     * Registers an action to run once the changes done in this transaction have been
+     * committed, like updating an in-memory structure which must not see the changes
+     * of an aborted transaction. By default, the changes can't be rolled back, and the
+     * action is run immediately.
+     *
+     * @param action The action to run on commit
+     */
+    public void addCommitAction( Runnable action )
+    {
+        action.run();
+    }
+
+
     /**
      * {@inheritDoc}
      */
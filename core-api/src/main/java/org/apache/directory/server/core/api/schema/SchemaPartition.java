@@ -586,6 +586,16 @@ public final class SchemaPartition extends AbstractPartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getChildCount( PartitionTxn partitionTxn, Dn dn ) throws LdapException
+    {
+        return wrapped.getChildCount( partitionTxn, dn );
+    }
+
+
     @Override
     public PartitionReadTxn beginReadTransaction()
     {
@@ -438,6 +438,18 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public int getSortBufferSize()
+    {
+        return 10000;
+    }
+
+
+    public void setSortBufferSize( int sortBufferSize )
+    {
+        // Do nothing
+    }
+
+
     public Interceptor getInterceptor( String interceptorName )
     {
         return null;
@@ -156,4 +156,30 @@ public class MockOperationManager implements OperationManager
     {
         return new ReentrantReadWriteLock();
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ReadWriteLock getRWLock( Partition partition )
+    {
+        return new ReentrantReadWriteLock();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public OperationLockMode getLockMode()
+    {
+        return OperationLockMode.GLOBAL;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setLockMode( OperationLockMode lockMode )
+    {
+    }
 }
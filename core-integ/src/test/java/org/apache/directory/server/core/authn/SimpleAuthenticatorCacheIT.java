@@ -0,0 +1,297 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import static org.apache.directory.server.core.integ.IntegrationUtils.apply;
+import static org.apache.directory.server.core.integ.IntegrationUtils.getConnectionAs;
+import static org.apache.directory.server.core.integ.IntegrationUtils.getUserAddLdif;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyConfiguration;
+import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
+import org.apache.directory.server.core.authn.ppolicy.PpolicyConfigContainer;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+
+
+/**
+ * Tests the credential cache of the SimpleAuthenticator : a password must never be read
+ * from the cache once it has been modified, or its entry deleted or renamed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "SimpleAuthenticatorCacheIT-DS")
+public class SimpleAuthenticatorCacheIT extends AbstractLdapTestUnit
+{
+    private static final String USER_DN = "uid=akarasulu,ou=users,ou=system";
+
+    private static final String ADMIN_DN = "uid=admin,ou=system";
+
+    private SimpleAuthenticator authenticator;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        apply( getService(), getUserAddLdif() );
+
+        for ( Authenticator candidate : getAuthenticationInterceptor().getAuthenticators() )
+        {
+            if ( candidate instanceof SimpleAuthenticator )
+            {
+                authenticator = ( SimpleAuthenticator ) candidate;
+            }
+        }
+
+        // Start each test without the user's password in the cache
+        authenticator.invalidateCache( new Dn( getService().getSchemaManager(), USER_DN ) );
+    }
+
+
+    @After
+    public void closeConnections()
+    {
+        getAuthenticationInterceptor().setPwdPolicies( null );
+        IntegrationUtils.closeConnections();
+    }
+
+
+    private AuthenticationInterceptor getAuthenticationInterceptor()
+    {
+        return ( AuthenticationInterceptor ) getService().getInterceptor(
+            InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
+    }
+
+
+    private static void assertBindFails( LdapConnection connection, String dn, String password ) throws Exception
+    {
+        try
+        {
+            connection.bind( dn, password );
+            fail();
+        }
+        catch ( LdapAuthenticationException lae )
+        {
+            assertTrue( true );
+        }
+    }
+
+
+    @Test
+    public void testCacheHitAndMiss() throws Exception
+    {
+        long hits = authenticator.getCacheHitCount();
+        long misses = authenticator.getCacheMissCount();
+
+        LdapConnection connection = getConnectionAs( getService(), USER_DN, "test" );
+        assertEquals( hits, authenticator.getCacheHitCount() );
+        assertEquals( misses + 1, authenticator.getCacheMissCount() );
+
+        connection.bind( USER_DN, "test" );
+        assertEquals( hits + 1, authenticator.getCacheHitCount() );
+        assertEquals( misses + 1, authenticator.getCacheMissCount() );
+
+        // A wrong password is checked against the cached one
+        assertBindFails( connection, USER_DN, "wrong" );
+        assertEquals( hits + 2, authenticator.getCacheHitCount() );
+
+        connection.close();
+    }
+
+
+    @Test
+    public void testModifiedPasswordIsNotCached() throws Exception
+    {
+        LdapConnection connection = getConnectionAs( getService(), USER_DN, "test" );
+        connection.close();
+
+        LdapConnection adminConnection = getConnectionAs( getService(), ADMIN_DN, "secret" );
+        ModifyRequest modReq = new ModifyRequestImpl();
+        modReq.setName( new Dn( getService().getSchemaManager(), USER_DN ) );
+        modReq.replace( "userPassword", "newpwd" );
+        adminConnection.modify( modReq );
+
+        long misses = authenticator.getCacheMissCount();
+
+        assertBindFails( connection, USER_DN, "test" );
+        assertEquals( misses + 1, authenticator.getCacheMissCount() );
+
+        connection.bind( USER_DN, "newpwd" );
+        assertTrue( connection.isAuthenticated() );
+
+        // The password is modified back, removing the current value
+        modReq = new ModifyRequestImpl();
+        modReq.setName( new Dn( getService().getSchemaManager(), USER_DN ) );
+        modReq.remove( "userPassword" );
+        adminConnection.modify( modReq );
+
+        assertBindFails( connection, USER_DN, "newpwd" );
+    }
+
+
+    @Test
+    public void testDeletedEntryPasswordIsNotCached() throws Exception
+    {
+        LdapConnection connection = getConnectionAs( getService(), USER_DN, "test" );
+        connection.close();
+
+        LdapConnection adminConnection = getConnectionAs( getService(), ADMIN_DN, "secret" );
+        adminConnection.delete( USER_DN );
+
+        assertBindFails( connection, USER_DN, "test" );
+
+        // The same entry is created again, with another password
+        apply( getService(), getUserAddLdif( USER_DN, Strings.getBytesUtf8( "other" ), "Alex Karasulu",
+            "Karasulu" ) );
+
+        assertBindFails( connection, USER_DN, "test" );
+        connection.bind( USER_DN, "other" );
+        assertTrue( connection.isAuthenticated() );
+    }
+
+
+    @Test
+    public void testRenamedEntryPasswordIsNotCached() throws Exception
+    {
+        LdapConnection connection = getConnectionAs( getService(), USER_DN, "test" );
+        connection.close();
+
+        LdapConnection adminConnection = getConnectionAs( getService(), ADMIN_DN, "secret" );
+        adminConnection.rename( USER_DN, "uid=alex" );
+
+        // Another entry takes the old name, with another password
+        apply( getService(), getUserAddLdif( USER_DN, Strings.getBytesUtf8( "other" ), "Alex Karasulu",
+            "Karasulu" ) );
+
+        assertBindFails( connection, USER_DN, "test" );
+        connection.bind( USER_DN, "other" );
+        assertTrue( connection.isAuthenticated() );
+
+        connection.bind( "uid=alex,ou=users,ou=system", "test" );
+        assertTrue( connection.isAuthenticated() );
+    }
+
+
+    /**
+     * Authenticates a user directly on the authenticator, the entry containing the stored
+     * password being provided instead of being read from the backend
+     */
+    private void authenticate( SimpleAuthenticator simpleAuthenticator, String storedPassword, String password )
+        throws Exception
+    {
+        Dn dn = new Dn( getService().getSchemaManager(), USER_DN );
+        BindOperationContext bindContext = new BindOperationContext( getService().getAdminSession() );
+        bindContext.setDn( dn );
+        bindContext.setCredentials( Strings.getBytesUtf8( password ) );
+        bindContext.setPrincipal( new DefaultEntry( getService().getSchemaManager(), dn,
+            "objectClass: person",
+            "cn: Alex Karasulu",
+            "sn: Karasulu",
+            "userPassword", storedPassword ) );
+
+        simpleAuthenticator.authenticate( bindContext );
+    }
+
+
+    @Test
+    public void testCacheExpiry() throws Exception
+    {
+        AtomicLong time = new AtomicLong();
+        Ticker ticker = time::get;
+
+        SimpleAuthenticator expiringAuthenticator = new SimpleAuthenticator( 10, Duration.ofMinutes( 1L ), ticker,
+            Dn.ROOT_DSE );
+        expiringAuthenticator.init( getService() );
+
+        authenticate( expiringAuthenticator, "test", "test" );
+        assertEquals( 1, expiringAuthenticator.getCacheMissCount() );
+
+        // The password is changed behind the cache's back : the cached one is still used
+        time.addAndGet( TimeUnit.SECONDS.toNanos( 30L ) );
+        authenticate( expiringAuthenticator, "changed", "test" );
+        assertEquals( 1, expiringAuthenticator.getCacheHitCount() );
+
+        // Once expired, the password is read again
+        time.addAndGet( TimeUnit.SECONDS.toNanos( 31L ) );
+
+        try
+        {
+            authenticate( expiringAuthenticator, "changed", "test" );
+            fail();
+        }
+        catch ( LdapAuthenticationException lae )
+        {
+            assertEquals( 2, expiringAuthenticator.getCacheMissCount() );
+        }
+
+        authenticate( expiringAuthenticator, "changed", "changed" );
+        assertEquals( 2, expiringAuthenticator.getCacheHitCount() );
+    }
+
+
+    @Test
+    public void testCacheBypassedWithPasswordPolicy() throws Exception
+    {
+        PasswordPolicyConfiguration policyConfig = new PasswordPolicyConfiguration();
+        PpolicyConfigContainer policyContainer = new PpolicyConfigContainer();
+        Dn defaultPolicyDn = new Dn( getService().getSchemaManager(), "cn=default" );
+        policyContainer.addPolicy( defaultPolicyDn, policyConfig );
+        policyContainer.setDefaultPolicyDn( defaultPolicyDn );
+        getAuthenticationInterceptor().setPwdPolicies( policyContainer );
+
+        long hits = authenticator.getCacheHitCount();
+        long misses = authenticator.getCacheMissCount();
+
+        LdapConnection connection = getConnectionAs( getService(), USER_DN, "test" );
+        connection.bind( USER_DN, "test" );
+        assertTrue( connection.isAuthenticated() );
+
+        // The cache is neither read nor filled
+        assertEquals( hits, authenticator.getCacheHitCount() );
+        assertEquals( misses, authenticator.getCacheMissCount() );
+
+        connection.close();
+    }
+}
@@ -23,10 +23,14 @@ package org.apache.directory.server.core.event;
 import static org.apache.directory.server.core.integ.IntegrationUtils.getConnectionAs;
 import static org.apache.directory.server.core.integ.IntegrationUtils.getSystemContext;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EventObject;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.naming.NamingException;
 import javax.naming.directory.SearchControls;
@@ -38,8 +42,16 @@ import javax.naming.event.ObjectChangeListener;
 
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.ldap.client.api.LdapConnection;
 import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
 import org.apache.directory.server.core.integ.FrameworkRunner;
 import org.junit.Test;
@@ -161,6 +173,69 @@ public class EventServiceIT extends AbstractLdapTestUnit
     }
     
 
+    /**
+     * Test that an asynchronous listener can read the DIT while the entries are being
+     * added, and that it receives the events in the order the entries were added.
+     */
+    @Test
+    public void testListenerReadingTheDit() throws Exception
+    {
+        int nbEntries = 50;
+        CountDownLatch received = new CountDownLatch( nbEntries );
+        List<String> readEntries = Collections.synchronizedList( new ArrayList<String>() );
+        CoreSession adminSession = getService().getAdminSession();
+
+        DirectoryListenerAdapter listener = new DirectoryListenerAdapter()
+        {
+            @Override
+            public void entryAdded( AddOperationContext addContext )
+            {
+                try
+                {
+                    Entry entry = adminSession.lookup( addContext.getDn() );
+                    readEntries.add( entry.get( "ou" ).getString() );
+                }
+                catch ( LdapException le )
+                {
+                    readEntries.add( le.getMessage() );
+                }
+
+                received.countDown();
+            }
+        };
+
+        NotificationCriteria criteria = new NotificationCriteria( getService().getSchemaManager() );
+        criteria.setBase( new Dn( getService().getSchemaManager(), "ou=system" ) );
+        criteria.setScope( SearchScope.ONELEVEL );
+        criteria.setEventMask( EventType.ADD );
+        getService().getEventService().addListener( listener, criteria );
+
+        try
+        {
+            LdapConnection connection = getConnectionAs( getService(), "uid=admin,ou=system", "secret" );
+            List<String> expected = new ArrayList<>();
+
+            for ( int i = 0; i < nbEntries; i++ )
+            {
+                String ou = "entry" + i;
+                expected.add( ou );
+
+                connection.add( new DefaultEntry( "ou=" + ou + ",ou=system",
+                    "objectClass: top",
+                    "objectClass: organizationalUnit",
+                    "ou", ou ) );
+            }
+
+            assertTrue( received.await( 10, TimeUnit.SECONDS ) );
+            assertEquals( expected, readEntries );
+        }
+        finally
+        {
+            getService().getEventService().removeListener( listener );
+        }
+    }
+
+
     public class TestListener implements ObjectChangeListener, NamespaceChangeListener
     {
         List<EventRecord> events = new ArrayList<EventRecord>();
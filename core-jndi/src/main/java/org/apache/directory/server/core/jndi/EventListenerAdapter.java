@@ -259,4 +259,13 @@ public class EventListenerAdapter implements DirectoryListener
             deliverNamingExceptionEvent( e );
         }
     }
+
+
+    /**
+     * Tells the JNDI listener that it has missed a change.
+     */
+    public void eventDropped()
+    {
+        deliverNamingExceptionEvent( new NamingException( "An event has not been delivered, the listener was too slow" ) );
+    }
 }
@@ -20,10 +20,8 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
-import java.nio.file.Files;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -33,8 +31,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
-import jdbm.recman.BaseRecordManager;
-
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -95,6 +91,7 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.mina.core.session.IoSession;
 import org.slf4j.Logger;
@@ -1220,7 +1217,8 @@ public class DefaultCoreSession implements CoreSession
 
             if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS ) )
             {
-                cursor = sortResults( cursor, sortControl, getDirectoryService().getSchemaManager() );
+                cursor = sortResults( cursor, sortControl, searchContext.getSizeLimit(),
+                    getDirectoryService().getSchemaManager() );
             }
 
             // the below condition is to satisfy the scenario 6 in section 2 of rfc2891
@@ -1394,6 +1392,7 @@ public class DefaultCoreSession implements CoreSession
      * 
      * @param unsortedEntries the cursor containing un-sorted entries
      * @param control the sort control
+     * @param sizeLimit the search size limit, 0 if there is none
      * @param schemaManager schema manager
      * @return a cursor containing sorted entries
      * @throws CursorException
@@ -1401,19 +1400,13 @@ public class DefaultCoreSession implements CoreSession
      * @throws IOException
      * @throws KeyNotFoundException 
      */
-    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, SchemaManager schemaManager )
-        throws CursorException, LdapException, IOException
+    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, long sizeLimit,
+        SchemaManager schemaManager ) throws CursorException, LdapException, IOException
     {
         unsortedEntries.beforeFirst();
 
-        Entry first = null;
-
-        if ( unsortedEntries.next() )
-        {
-            first = unsortedEntries.get();
-        }
-
-        if ( !unsortedEntries.next() )
+        // Nothing to sort if there is less than two entries
+        if ( !unsortedEntries.next() || !unsortedEntries.next() )
         {
             unsortedEntries.beforeFirst();
 
@@ -1427,42 +1420,19 @@ public class DefaultCoreSession implements CoreSession
         SortedEntryComparator comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(),
             schemaManager );
 
-        SortedEntrySerializer keySerializer = new SortedEntrySerializer();
+        SortedEntrySerializer serializer = new SortedEntrySerializer();
         SortedEntrySerializer.setSchemaManager( schemaManager );
-        
-        File file = null;
-        
-        try 
-        {
-            file = Files.createTempFile( "replica", ".sorted-data" ).toFile();    // see DIRSERVER-2007
-        } 
-        catch ( IOException e ) 
-        {
-            // see DIRSERVER-2091
-            LOG.error( "Error creating temp file in directory {} for sorting: {}",  
-                System.getProperty( "java.io.tmpdir" ),  e.getMessage(), e );
-            throw e;
-        }
-
-        BaseRecordManager recMan = new BaseRecordManager( file.getAbsolutePath() );
 
-        jdbm.btree.BTree<Entry, String> btree = new jdbm.btree.BTree<>( recMan, comparator, keySerializer, NullStringSerializer.INSTANCE );
-        
-
-        btree.insert( first, "", false );
-
-        // at this stage the cursor will be _on_ the next element, so read it
-        btree.insert( unsortedEntries.get(), "", false );
+        EntrySorter sorter = new EntrySorter( comparator, serializer, getDirectoryService().getSortBufferSize() );
 
-        while ( unsortedEntries.next() )
-        {
-            Entry entry = unsortedEntries.get();
-            btree.insert( entry, "", false );
-        }
+        // With a size limit, only the first entries have to be sorted. One more entry is kept,
+        // so that the search handler knows the size limit has been exceeded.
+        long limit = ( sizeLimit > 0L ) ? sizeLimit + 1 : 0L;
 
-        unsortedEntries.close();
+        // Read the entries again from the start
+        unsortedEntries.beforeFirst();
 
-        return new SortedEntryCursor( btree, recMan, file );
+        return sorter.sort( unsortedEntries, limit );
     }
 
 
@@ -1520,6 +1490,15 @@ public class DefaultCoreSession implements CoreSession
             {
                 partitionTxn.getValue().commit();
             }
+
+            // Now wait for the changes to be durable
+            for ( Map.Entry<String, PartitionTxn> partitionTxn : transactionMap.entrySet() )
+            {
+                if ( partitionTxn.getValue() instanceof PartitionWriteTxn )
+                {
+                    ( ( PartitionWriteTxn ) partitionTxn.getValue() ).sync();
+                }
+            }
         }
         else
         {
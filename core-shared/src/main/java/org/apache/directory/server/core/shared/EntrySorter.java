@@ -0,0 +1,365 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sorts the entries returned by a search for the sort control. The entries are sorted in
+ * memory, as long as there are less of them than the configured buffer size. Bigger results
+ * are sorted by chunks of this size, each sorted chunk (a run) being written in a temporary
+ * file, and the runs are merged when the sorted entries are read (see {@link SortedEntryCursor}).
+ * <br>
+ * The sort key of each entry is computed only once, before sorting. A run record contains
+ * the entry's sort key followed by the serialized entry, so that the merge only compares
+ * keys, and deserializes an entry only when it is returned.
+ * <br>
+ * When only the first entries are needed (the search has a size limit), and they fit in
+ * memory, the entries are selected using a bounded heap instead, without sorting the
+ * whole result.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class EntrySorter
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EntrySorter.class );
+
+    /** The key types stored in a run */
+    static final int NULL_KEY = 0;
+    static final int STRING_KEY = 1;
+    static final int BYTES_KEY = 2;
+
+    /** The comparator used to sort the entries */
+    private final SortedEntryComparator comparator;
+
+    /** The serializer used to store the entries in the runs */
+    private final SortedEntrySerializer serializer;
+
+    /** The maximum number of entries sorted in memory */
+    private final int bufferSize;
+
+    /** The order of the entries, the entries with the same key being kept in the search order */
+    private final Comparator<KeyedEntry> order;
+
+
+    /**
+     * An entry associated with its sort key
+     */
+    private static class KeyedEntry
+    {
+        private final Object key;
+        private final Entry entry;
+
+        /** The position of the entry in the search results */
+        private final long rank;
+
+
+        KeyedEntry( Object key, Entry entry, long rank )
+        {
+            this.key = key;
+            this.entry = entry;
+            this.rank = rank;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of EntrySorter.
+     *
+     * @param comparator The comparator used to sort the entries
+     * @param serializer The serializer used to store the entries in the runs
+     * @param bufferSize The maximum number of entries sorted in memory
+     */
+    EntrySorter( SortedEntryComparator comparator, SortedEntrySerializer serializer, int bufferSize )
+    {
+        this.comparator = comparator;
+        this.serializer = serializer;
+        this.bufferSize = bufferSize;
+
+        order = ( keyedEntry1, keyedEntry2 ) ->
+        {
+            int c = comparator.compare( keyedEntry1.key, keyedEntry2.key );
+
+            return ( c != 0 ) ? c : Long.compare( keyedEntry1.rank, keyedEntry2.rank );
+        };
+    }
+
+
+    /**
+     * Sorts the entries of a cursor. The cursor is read from its current position, and closed.
+     *
+     * @param entries The cursor containing the un-sorted entries
+     * @param limit The maximum number of sorted entries to return, or 0 to return all of them
+     * @return A cursor containing the sorted entries
+     * @throws LdapException If the entries can't be read
+     * @throws CursorException If the entries can't be read
+     * @throws IOException If a run can't be written
+     */
+    Cursor<Entry> sort( Cursor<Entry> entries, long limit ) throws LdapException, CursorException, IOException
+    {
+        if ( ( limit > 0L ) && ( limit <= bufferSize ) )
+        {
+            return top( entries, ( int ) limit );
+        }
+
+        List<KeyedEntry> buffer = new ArrayList<>();
+        List<File> runs = new ArrayList<>();
+        long count = 0L;
+
+        try
+        {
+            while ( entries.next() )
+            {
+                Entry entry = entries.get();
+                buffer.add( new KeyedEntry( comparator.getSortKey( entry ), entry, count ) );
+                count++;
+
+                if ( buffer.size() >= bufferSize )
+                {
+                    runs.add( writeRun( buffer ) );
+                    buffer.clear();
+                }
+            }
+
+            entries.close();
+
+            if ( runs.isEmpty() )
+            {
+                // Everything fits in memory
+                sortBuffer( buffer );
+                List<Entry> sorted = new ArrayList<>( buffer.size() );
+
+                for ( KeyedEntry keyedEntry : buffer )
+                {
+                    sorted.add( keyedEntry.entry );
+                }
+
+                return new ListCursor<>( sorted );
+            }
+
+            if ( !buffer.isEmpty() )
+            {
+                runs.add( writeRun( buffer ) );
+            }
+
+            LOG.debug( "Sorted {} entries in {} runs", count, runs.size() );
+
+            return new SortedEntryCursor( runs, comparator, serializer, count );
+        }
+        catch ( LdapException | CursorException | IOException | RuntimeException e )
+        {
+            for ( File run : runs )
+            {
+                deleteRun( run );
+            }
+
+            throw e;
+        }
+    }
+
+
+    /**
+     * Selects the first entries of a cursor, keeping in memory only the entries which
+     * are lower than the last selected one.
+     */
+    private Cursor<Entry> top( Cursor<Entry> entries, int limit ) throws LdapException, CursorException, IOException
+    {
+        // The greatest selected entry is on top of the heap
+        PriorityQueue<KeyedEntry> heap = new PriorityQueue<>( Math.min( limit, 1024 ), order.reversed() );
+        long count = 0L;
+
+        while ( entries.next() )
+        {
+            Entry entry = entries.get();
+            KeyedEntry keyedEntry = new KeyedEntry( comparator.getSortKey( entry ), entry, count );
+            count++;
+
+            if ( heap.size() < limit )
+            {
+                heap.add( keyedEntry );
+            }
+            else if ( order.compare( keyedEntry, heap.peek() ) < 0 )
+            {
+                heap.poll();
+                heap.add( keyedEntry );
+            }
+        }
+
+        entries.close();
+
+        LOG.debug( "Selected the first {} of {} entries", heap.size(), count );
+
+        List<KeyedEntry> selected = new ArrayList<>( heap );
+        sortBuffer( selected );
+        List<Entry> sorted = new ArrayList<>( selected.size() );
+
+        for ( KeyedEntry keyedEntry : selected )
+        {
+            sorted.add( keyedEntry.entry );
+        }
+
+        return new ListCursor<>( sorted );
+    }
+
+
+    /**
+     * Sorts the buffer. Entries with the same key keep the order they have been returned
+     * by the search.
+     */
+    private void sortBuffer( List<KeyedEntry> buffer )
+    {
+        buffer.sort( order );
+    }
+
+
+    /**
+     * Sorts the buffer and writes it in a temporary file
+     */
+    private File writeRun( List<KeyedEntry> buffer ) throws IOException
+    {
+        sortBuffer( buffer );
+
+        File file;
+
+        try
+        {
+            file = Files.createTempFile( "sorted-entries", ".run" ).toFile(); // see DIRSERVER-2007
+        }
+        catch ( IOException e )
+        {
+            // see DIRSERVER-2091
+            LOG.error( "Error creating temp file in directory {} for sorting: {}",
+                System.getProperty( "java.io.tmpdir" ), e.getMessage(), e );
+            throw e;
+        }
+
+        try ( DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( new FileOutputStream( file ) ) ) )
+        {
+            for ( KeyedEntry keyedEntry : buffer )
+            {
+                writeKey( out, keyedEntry.key );
+                byte[] serialized = serializer.serialize( keyedEntry.entry );
+                out.writeInt( serialized.length );
+                out.write( serialized );
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            deleteRun( file );
+            throw e;
+        }
+
+        return file;
+    }
+
+
+    /**
+     * Writes a sort key
+     */
+    private static void writeKey( DataOutput out, Object key ) throws IOException
+    {
+        byte[] bytes;
+
+        if ( key == null )
+        {
+            out.writeByte( NULL_KEY );
+
+            return;
+        }
+        else if ( key instanceof String )
+        {
+            out.writeByte( STRING_KEY );
+            bytes = Strings.getBytesUtf8( ( String ) key );
+        }
+        else
+        {
+            out.writeByte( BYTES_KEY );
+            bytes = ( byte[] ) key;
+        }
+
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    /**
+     * Reads a sort key which type has already been read
+     *
+     * @param in The run to read the key from
+     * @param type The key type
+     * @return The key
+     * @throws IOException If the key can't be read
+     */
+    static Object readKey( DataInput in, int type ) throws IOException
+    {
+        if ( type == NULL_KEY )
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+
+        if ( type == STRING_KEY )
+        {
+            return Strings.utf8ToString( bytes );
+        }
+
+        return bytes;
+    }
+
+
+    /**
+     * Deletes a run file
+     *
+     * @param run The run to delete
+     */
+    static void deleteRun( File run )
+    {
+        if ( !run.delete() && run.exists() )
+        {
+            LOG.warn( "Failed to delete the sorted entry run file {}", run );
+        }
+    }
+}
@@ -20,9 +20,7 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.Serializable;
 import java.util.Comparator;
-import java.util.TreeSet;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -36,18 +34,22 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.ParsedDnComparator;
 
 /**
- * A comparator to sort the entries as per <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>
+ * A comparator to sort the entries as per <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>.
+ * The entries are not compared directly : the sort key of each entry is computed once using
+ * {@link #getSortKey(Entry)}, and the comparator orders those keys. A key is the normalized
+ * value (or the bytes of a binary value) of the sorted attribute, or null if the entry does
+ * not have the attribute.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-class SortedEntryComparator implements Comparator<Entry>, Serializable
+class SortedEntryComparator implements Comparator<Object>
 {
 
     /** the attribute's type */
-    private transient AttributeType type;
+    private AttributeType type;
 
     /** comparator used for comparing the values of the given attribute type */
-    private transient LdapComparator comparator;
+    private LdapComparator comparator;
 
     /** flag to indicate if the attribute type is multivalued */
     private boolean multivalued;
@@ -110,100 +112,97 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
     }
 
 
-    @Override
-    public int compare( Entry entry1, Entry entry2 )
+    /**
+     * Computes the sort key of an entry. For a multi-valued attribute, the least value is used.
+     *
+     * @param entry The entry
+     * @return The entry's sort key, or null if the entry does not have the sorted attribute
+     */
+    @SuppressWarnings("unchecked")
+    Object getSortKey( Entry entry )
     {
-        Attribute at1 = entry1.get( type );
+        Attribute attribute = entry.get( type );
 
-        Attribute at2 = entry2.get( type );
-
-        // as per section 2.2 of the spec null values are considered larger
-        if ( at1 == null )
+        if ( ( attribute == null ) || ( attribute.size() == 0 ) )
         {
-            return reverse ? -1 : 1;
+            return null;
         }
-        else if ( at2 == null )
-        {
-            return reverse ? 1 : -1;
-        }
-
-        Object o1;
-        Object o2;
 
-        if ( multivalued )
+        if ( !multivalued )
         {
-            TreeSet ts = new TreeSet( comparator );
+            return getValueKey( attribute.get() );
+        }
 
-            o1 = sortAndGetFirst( at1, ts );
+        Object least = null;
 
-            ts.clear();
-            o2 = sortAndGetFirst( at2, ts );
-        }
-        else
+        for ( Value value : attribute )
         {
-            Value v1 = at1.get();
-            Value v2 = at2.get();
+            Object key = getValueKey( value );
 
-            if ( hr )
+            if ( ( least == null ) || ( comparator.compare( key, least ) < 0 ) )
             {
-                o1 = v1.getString();
-                o2 = v2.getString();
-            }
-            else
-            {
-                o1 = v1.getBytes();
-                o2 = v2.getBytes();
+                least = key;
             }
         }
 
-        int c;
+        return least;
+    }
 
-        try
+
+    /**
+     * Computes the key of a single value
+     */
+    private Object getValueKey( Value value )
+    {
+        if ( !hr )
         {
-            if ( reverse )
-            {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o2 ), o1 );
-            }
-            else
-            {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o1 ), o2 );
-            }
-    
-            if ( c == 0 )
-            {
-                return 1;
-            }
+            return value.getBytes();
+        }
 
-            return c;
+        try
+        {
+            return comparator.getNormalizer().normalize( value.getString() );
         }
         catch ( LdapException le )
         {
-            return 0;
+            return value.getString();
         }
     }
 
 
     /**
-     * sorts the values of an attribute and picks the least value
-     * 
-     * @param at the attribute
-     * @param ts the TreeSet for sorting 
-     * @return the least value among the values of the attribute
+     * Compares two sort keys. As per section 2.2 of the spec, a missing value is
+     * considered larger than any other value.
      */
-    private Object sortAndGetFirst( Attribute at, TreeSet ts )
+    @SuppressWarnings("unchecked")
+    @Override
+    public int compare( Object key1, Object key2 )
     {
-        for ( Value v : at )
+        if ( key1 == null )
         {
-            if ( hr )
-            {
-                ts.add( v.getNormalized() );
-            }
-            else
+            if ( key2 == null )
             {
-                ts.add( v.getBytes() );
+                return 0;
             }
+
+            return reverse ? -1 : 1;
+        }
+        else if ( key2 == null )
+        {
+            return reverse ? 1 : -1;
         }
 
-        return ts.first();
+        int c = comparator.compare( key1, key2 );
+
+        return reverse ? -c : c;
+    }
+
+
+    /**
+     * @return true if the keys are human readable Strings, false if they are byte[]
+     */
+    boolean isHumanReadable()
+    {
+        return hr;
     }
-}
\ No newline at end of file
+}
@@ -20,15 +20,13 @@
 package org.apache.directory.server.core.shared;
 
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.List;
-import java.util.NoSuchElementException;
-
-import jdbm.RecordManager;
-import jdbm.btree.BTree;
-import jdbm.helper.Tuple;
-import jdbm.helper.TupleBrowser;
+import java.util.PriorityQueue;
 
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -43,10 +41,15 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Cursor for sorted entries.
+ * Cursor for sorted entries. The entries are read by merging the sorted runs written
+ * by the {@link EntrySorter} : the runs are read sequentially, and the next entry is
+ * the one with the lowest sort key among the current record of each run.
  * 
- * Note: This currently uses JDBM, but will be migrated to use Mavibot
- *       when ready.
+ * The last entries read from the merge are kept in a bounded back buffer, so that moving
+ * backward by up to this number of entries does not read the runs again. Moving further
+ * backward, or positioning the cursor using {@link #before(Entry)} or {@link #after(Entry)},
+ * restarts the merge, which is only expected to happen a few times, as the entries are
+ * returned in order to the client.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -54,76 +57,212 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
 {
 
     private static final Logger LOG = LoggerFactory.getLogger( SortedEntryCursor.class );
-    
-    private TupleBrowser browser;
 
-    private final Tuple tuple = new Tuple();
+    /** The default number of entries kept to move backward */
+    static final int DEFAULT_BACK_BUFFER_SIZE = 100;
+
+    /** The sorted runs */
+    private final List<File> runs;
+
+    /** The comparator used to sort the runs */
+    private final SortedEntryComparator comparator;
+
+    /** The serializer used to read the entries back */
+    private final SortedEntrySerializer serializer;
+
+    /** The total number of entries */
+    private final long count;
+
+    /** The last entries read from the merge, the entry at position p being stored at (p - 1) % size */
+    private final Entry[] backBuffer;
+
+    /** The runs being merged, ordered by their current key */
+    private PriorityQueue<RunReader> queue;
+
+    /** The number of entries read from the merge */
+    private long merged;
+
+    /**
+     * The position of the cursor : 0 is before the first entry, count + 1 after the last one.
+     * When there is no current entry, the cursor is before the entry at this position.
+     */
+    private long position;
+
+    /** The current entry */
+    private Entry entry;
+
+
+    /**
+     * A reader over a sorted run, positioned on a record
+     */
+    private static class RunReader
+    {
+        /** The run's index, used to keep the sort stable */
+        private final int index;
+
+        private final DataInputStream in;
+
+        /** The current record's key */
+        private Object key;
+
+        /** The current record's serialized entry */
+        private byte[] entryBytes;
+
+
+        RunReader( int index, File run ) throws IOException
+        {
+            this.index = index;
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( run ) ) );
+        }
+
+
+        /**
+         * Reads the next record
+         *
+         * @return false if there is no more record in the run
+         */
+        boolean advance() throws IOException
+        {
+            int type = in.read();
+
+            if ( type == -1 )
+            {
+                return false;
+            }
+
+            key = EntrySorter.readKey( in, type );
+            entryBytes = new byte[in.readInt()];
+            in.readFully( entryBytes );
+
+            return true;
+        }
+
+
+        void close() throws IOException
+        {
+            in.close();
+        }
+    }
+
 
-    private RecordManager recMan;
+    /**
+     * Creates a new instance of SortedEntryCursor.
+     *
+     * @param runs The sorted runs
+     * @param comparator The comparator used to sort the runs
+     * @param serializer The serializer used to read the entries back
+     * @param count The total number of entries stored in the runs
+     */
+    SortedEntryCursor( List<File> runs, SortedEntryComparator comparator, SortedEntrySerializer serializer,
+        long count )
+    {
+        this( runs, comparator, serializer, count, DEFAULT_BACK_BUFFER_SIZE );
+    }
 
-    private File dataFile;
-    
-    private BTree<Entry, String> btree;
-    
 
-    public SortedEntryCursor( BTree<Entry, String> btree, RecordManager recMan, File dataFile ) throws IOException
+    /**
+     * Creates a new instance of SortedEntryCursor.
+     *
+     * @param runs The sorted runs
+     * @param comparator The comparator used to sort the runs
+     * @param serializer The serializer used to read the entries back
+     * @param count The total number of entries stored in the runs
+     * @param backBufferSize The number of entries kept to move backward
+     */
+    SortedEntryCursor( List<File> runs, SortedEntryComparator comparator, SortedEntrySerializer serializer,
+        long count, int backBufferSize )
     {
-        this.recMan = recMan;
-        this.dataFile = dataFile;
-        this.btree = btree;
-        browser = btree.browse();
+        this.runs = runs;
+        this.comparator = comparator;
+        this.serializer = serializer;
+        this.count = count;
+        backBuffer = new Entry[Math.max( 1, backBufferSize )];
     }
 
 
     @Override
     public boolean available()
     {
-        return tuple.getKey() != null;
+        return entry != null;
     }
 
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The cursor is positioned before the first entry which sort key is greater than or
+     * equal to the given entry's sort key.
+     */
     @Override
     public void before( Entry element ) throws LdapException, CursorException
     {
-        throw new UnsupportedOperationException();
+        seek( element, false );
     }
 
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The cursor is positioned before the first entry which sort key is greater than
+     * the given entry's sort key.
+     */
     @Override
     public void after( Entry element ) throws LdapException, CursorException
     {
-        throw new UnsupportedOperationException();
+        seek( element, true );
     }
 
 
-    @Override
-    public void beforeFirst() throws LdapException, CursorException
+    /**
+     * Restarts the merge, and reads the entries lower than the given entry (or equal to it
+     * if strict), so that the next entry is the first one which is not.
+     */
+    private void seek( Entry element, boolean strict ) throws CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse();
-        }
-        catch ( IOException e )
+        checkNotClosed();
+
+        Object key = comparator.getSortKey( element );
+        restartMerge();
+
+        while ( merged < count )
         {
-            throw new CursorException( e );
+            RunReader head = queue.peek();
+
+            if ( head == null )
+            {
+                break;
+            }
+
+            int c = comparator.compare( head.key, key );
+
+            if ( ( c > 0 ) || ( ( c == 0 ) && !strict ) )
+            {
+                break;
+            }
+
+            mergeNext();
         }
+
+        position = merged + 1;
+        entry = null;
     }
 
 
     @Override
-    public void afterLast() throws LdapException, CursorException
+    public void beforeFirst() throws LdapException, CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse( null );
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
+        checkNotClosed();
+        position = 0L;
+        entry = null;
+    }
+
 
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        position = count + 1;
+        entry = null;
     }
 
 
@@ -146,80 +285,167 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public boolean previous() throws LdapException, CursorException
     {
-        try
+        return moveTo( position - 1 );
+    }
+
+
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        if ( ( entry == null ) && ( position >= 1L ) && ( position <= count ) )
+        {
+            // The cursor is before the entry at this position
+            return moveTo( position );
+        }
+
+        return moveTo( position + 1 );
+    }
+
+
+    /**
+     * Moves the cursor on the entry at the given position, reading it from the back buffer
+     * when it's still there, and from the merge otherwise.
+     */
+    private boolean moveTo( long target ) throws CursorException
+    {
+        checkNotClosed();
+
+        if ( target <= 0L )
+        {
+            position = 0L;
+            entry = null;
+
+            return false;
+        }
+
+        if ( target > count )
         {
+            position = count + 1;
+            entry = null;
+
+            return false;
+        }
 
-            if ( browser == null )
+        if ( ( target > merged ) || ( target <= merged - backBuffer.length ) )
+        {
+            if ( ( queue == null ) || ( target <= merged ) )
             {
-                browser = btree.browse( null );
+                // The entry is not in the back buffer anymore
+                restartMerge();
             }
-            
-            if ( browser.getPrevious( tuple ) )
+
+            while ( merged < target )
             {
-                return true;
+                if ( !mergeNext() )
+                {
+                    position = count + 1;
+                    entry = null;
+
+                    return false;
+                }
             }
         }
-        catch ( IOException e )
+
+        position = target;
+        entry = backBuffer[( int ) ( ( target - 1 ) % backBuffer.length )];
+
+        return true;
+    }
+
+
+    /**
+     * Opens the runs, and positions the merge before the first entry
+     */
+    private void restartMerge() throws CursorException
+    {
+        try
         {
-            throw new CursorException( e );
+            closeReaders();
+            queue = new PriorityQueue<>( runs.size(), ( reader1, reader2 ) ->
+            {
+                int c = comparator.compare( reader1.key, reader2.key );
+
+                return ( c != 0 ) ? c : Integer.compare( reader1.index, reader2.index );
+            } );
+
+            for ( int i = 0; i < runs.size(); i++ )
+            {
+                RunReader reader = new RunReader( i, runs.get( i ) );
+
+                if ( reader.advance() )
+                {
+                    queue.add( reader );
+                }
+                else
+                {
+                    reader.close();
+                }
+            }
         }
-        catch ( NoSuchElementException e )
+        catch ( IOException e )
         {
-            // ignore this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasPrev())
+            throw new CursorException( e );
         }
 
-        clearValue();
-        return false;
+        merged = 0L;
     }
 
 
-    @Override
-    public boolean next() throws LdapException, CursorException
+    /**
+     * Reads the next entry of the merge in the back buffer
+     *
+     * @return false if all the runs have been read
+     */
+    private boolean mergeNext() throws CursorException
     {
+        RunReader reader = queue.poll();
+
+        if ( reader == null )
+        {
+            return false;
+        }
+
         try
         {
-            if ( browser == null )
+            backBuffer[( int ) ( merged % backBuffer.length )] = ( Entry ) serializer.deserialize( reader.entryBytes );
+            merged++;
+
+            if ( reader.advance() )
             {
-                browser = btree.browse();
+                queue.add( reader );
             }
-            
-            if ( browser.getNext( tuple ) )
+            else
             {
-                return true;
+                reader.close();
             }
         }
         catch ( IOException e )
         {
             throw new CursorException( e );
         }
-        catch ( NoSuchElementException e )
-        {
-            // ignore, this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasNext())
-        }
 
-        clearValue();
-        return false;
+        return true;
     }
 
 
     @Override
     public Entry get() throws CursorException
     {
-        if ( tuple.getKey() == null )
+        checkNotClosed();
+
+        if ( entry == null )
         {
             throw new InvalidCursorPositionException();
         }
 
-        return ( Entry ) tuple.getKey();
+        return entry;
     }
 
 
     @Override
     public void close() throws IOException
     {
-        deleteFile();
+        deleteRuns();
         super.close();
     }
 
@@ -227,7 +453,7 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public void close( Exception cause ) throws IOException
     {
-        deleteFile();
+        deleteRuns();
         super.close( cause );
     }
 
@@ -252,29 +478,44 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
         return null;
     }
 
-    
-    private void clearValue()
-    {
-        tuple.setKey( null );
-        tuple.setValue( null );
-    }
 
-    
-    private void deleteFile()
+    private void closeReaders() throws IOException
     {
-        if ( recMan == null )
+        if ( queue != null )
         {
-            return;
+            for ( RunReader reader : queue )
+            {
+                reader.close();
+            }
+
+            queue = null;
         }
+    }
+
 
+    /**
+     * @return The sorted runs
+     */
+    List<File> getRuns()
+    {
+        return runs;
+    }
+
+
+    private void deleteRuns()
+    {
         try
         {
-            recMan.close();
-            dataFile.delete();
+            closeReaders();
         }
         catch ( IOException e )
         {
-            LOG.warn( "Failed to delete the sorted entry data file {}", dataFile, e );
+            LOG.warn( "Failed to close the sorted entry runs", e );
+        }
+
+        for ( File run : runs )
+        {
+            EntrySorter.deleteRun( run );
         }
     }
 }
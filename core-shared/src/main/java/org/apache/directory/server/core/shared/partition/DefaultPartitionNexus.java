@@ -1128,6 +1128,33 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getChildCount( PartitionTxn partitionTxn, Dn dn ) throws LdapException
+    {
+        if ( Dn.isNullOrEmpty( dn ) )
+        {
+            return -1L;
+        }
+
+        Partition partition;
+
+        synchronized ( partitionLookupTree )
+        {
+            partition = partitionLookupTree.getElement( dn );
+        }
+
+        if ( partition == null )
+        {
+            return -1L;
+        }
+
+        return partition.getChildCount( partitionTxn, dn );
+    }
+
+
     @Override
     public PartitionReadTxn beginReadTransaction()
     {
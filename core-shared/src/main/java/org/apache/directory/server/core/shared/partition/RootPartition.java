@@ -24,6 +24,7 @@ import javax.naming.InvalidNameException;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
@@ -83,6 +84,13 @@ public class RootPartition extends AbstractPartition
     }
 
 
+    @Override
+    public long getChildCount( PartitionTxn partitionTxn, Dn dn ) throws LdapException
+    {
+        return -1L;
+    }
+
+
     @Override
     public void add( AddOperationContext addContext ) throws LdapException
     {
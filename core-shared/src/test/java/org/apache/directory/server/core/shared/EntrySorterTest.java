@@ -0,0 +1,332 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the EntrySorter, and the SortedEntryCursor merging its runs.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntrySorterTest
+{
+    private static SchemaManager schemaManager;
+
+    private static SortedEntryComparator comparator;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+        SortedEntrySerializer.setSchemaManager( schemaManager );
+
+        AttributeType sn = schemaManager.lookupAttributeTypeRegistry( "sn" );
+        comparator = new SortedEntryComparator( sn, null, false, schemaManager );
+    }
+
+
+    /**
+     * Creates entries which sn values are "key-000" to "key-049", each value being
+     * used by several entries when there are more than 50 of them.
+     */
+    private static List<Entry> createEntries( int count ) throws Exception
+    {
+        List<Entry> entries = new ArrayList<>();
+
+        for ( int i = 0; i < count; i++ )
+        {
+            entries.add( new DefaultEntry( schemaManager, "cn=entry" + i + ",ou=system",
+                "objectClass: person",
+                "cn: entry" + i,
+                "sn: " + String.format( "key-%03d", ( i * 37 ) % 50 ) ) );
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * @return The cn of the entries sorted on their sn, the entries with the same sn being
+     * kept in their original order
+     */
+    private static List<String> expectedOrder( List<Entry> entries ) throws Exception
+    {
+        List<Entry> sorted = new ArrayList<>( entries );
+        sorted.sort( Comparator.comparing( entry -> entry.get( "sn" ).get().getString() ) );
+
+        List<String> cns = new ArrayList<>();
+
+        for ( Entry entry : sorted )
+        {
+            cns.add( cn( entry ) );
+        }
+
+        return cns;
+    }
+
+
+    private static String cn( Entry entry ) throws Exception
+    {
+        return entry.get( "cn" ).getString();
+    }
+
+
+    private static Cursor<Entry> sort( List<Entry> entries, int bufferSize, long limit ) throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator, new SortedEntrySerializer(), bufferSize );
+
+        return sorter.sort( new ListCursor<>( entries ), limit );
+    }
+
+
+    @Test
+    public void testSortInMemory() throws Exception
+    {
+        List<Entry> entries = createEntries( 120 );
+        Cursor<Entry> cursor = sort( entries, 1000, 0L );
+
+        assertFalse( cursor instanceof SortedEntryCursor );
+
+        List<String> cns = new ArrayList<>();
+
+        while ( cursor.next() )
+        {
+            cns.add( cn( cursor.get() ) );
+        }
+
+        cursor.close();
+
+        assertEquals( expectedOrder( entries ), cns );
+    }
+
+
+    @Test
+    public void testSortWithRuns() throws Exception
+    {
+        List<Entry> entries = createEntries( 250 );
+        Cursor<Entry> cursor = sort( entries, 16, 0L );
+
+        assertTrue( cursor instanceof SortedEntryCursor );
+
+        List<File> runs = ( ( SortedEntryCursor ) cursor ).getRuns();
+        assertEquals( 16, runs.size() );
+
+        for ( File run : runs )
+        {
+            assertTrue( run.exists() );
+        }
+
+        List<String> cns = new ArrayList<>();
+
+        while ( cursor.next() )
+        {
+            cns.add( cn( cursor.get() ) );
+        }
+
+        assertEquals( expectedOrder( entries ), cns );
+
+        cursor.close();
+
+        // The temporary files are deleted with the cursor
+        for ( File run : runs )
+        {
+            assertFalse( run.exists() );
+        }
+    }
+
+
+    @Test
+    public void testMoveBackward() throws Exception
+    {
+        List<Entry> entries = createEntries( 250 );
+        List<String> expected = expectedOrder( entries );
+        Cursor<Entry> cursor = sort( entries, 16, 0L );
+
+        while ( cursor.next() )
+        {
+            // Read all the entries
+        }
+
+        // Going back to the first entry goes beyond the back buffer
+        for ( int i = expected.size() - 1; i >= 0; i-- )
+        {
+            assertTrue( cursor.previous() );
+            assertEquals( expected.get( i ), cn( cursor.get() ) );
+        }
+
+        assertFalse( cursor.previous() );
+        assertFalse( cursor.available() );
+
+        assertTrue( cursor.next() );
+        assertEquals( expected.get( 0 ), cn( cursor.get() ) );
+
+        assertTrue( cursor.last() );
+        assertEquals( expected.get( expected.size() - 1 ), cn( cursor.get() ) );
+        assertFalse( cursor.next() );
+        assertTrue( cursor.previous() );
+        assertEquals( expected.get( expected.size() - 1 ), cn( cursor.get() ) );
+
+        assertTrue( cursor.first() );
+        assertEquals( expected.get( 0 ), cn( cursor.get() ) );
+
+        cursor.close();
+    }
+
+
+    @Test
+    public void testBeforeAfter() throws Exception
+    {
+        List<Entry> entries = createEntries( 250 );
+        List<String> expected = expectedOrder( entries );
+        Cursor<Entry> cursor = sort( entries, 16, 0L );
+
+        // Each key is used by 5 entries
+        Entry element = new DefaultEntry( schemaManager, "cn=element,ou=system",
+            "objectClass: person",
+            "cn: element",
+            "sn: key-010" );
+
+        cursor.before( element );
+        assertFalse( cursor.available() );
+        assertTrue( cursor.next() );
+        assertEquals( expected.get( 50 ), cn( cursor.get() ) );
+
+        cursor.before( element );
+        assertTrue( cursor.previous() );
+        assertEquals( expected.get( 49 ), cn( cursor.get() ) );
+
+        cursor.after( element );
+        assertTrue( cursor.next() );
+        assertEquals( expected.get( 55 ), cn( cursor.get() ) );
+
+        // After the greatest key
+        element.get( "sn" ).clear();
+        element.get( "sn" ).add( "key-999" );
+        cursor.after( element );
+        assertFalse( cursor.next() );
+        assertTrue( cursor.previous() );
+        assertEquals( expected.get( expected.size() - 1 ), cn( cursor.get() ) );
+
+        cursor.close();
+    }
+
+
+    /**
+     * Reads at most the given number of entries, the way the search handler does
+     */
+    private static List<String> read( Cursor<Entry> cursor, long max ) throws Exception
+    {
+        List<String> cns = new ArrayList<>();
+
+        while ( ( cns.size() < max ) && cursor.next() )
+        {
+            cns.add( cn( cursor.get() ) );
+        }
+
+        cursor.close();
+
+        return cns;
+    }
+
+
+    /**
+     * Sorts the entries with a size limit, the way DefaultCoreSession does (keeping one more
+     * entry than the limit), and checks the returned entries and the sizeLimitExceeded signal
+     * are the same as with an unbounded sort.
+     */
+    private static void checkSizeLimit( List<Entry> entries, int bufferSize, long sizeLimit ) throws Exception
+    {
+        List<String> unbounded = read( sort( entries, bufferSize, 0L ), Long.MAX_VALUE );
+        List<String> bounded = read( sort( entries, bufferSize, sizeLimit + 1 ), sizeLimit + 1 );
+
+        boolean exceeded = unbounded.size() > sizeLimit;
+        assertEquals( exceeded, bounded.size() > sizeLimit );
+
+        int returned = ( int ) Math.min( unbounded.size(), sizeLimit );
+        assertEquals( unbounded.subList( 0, returned ), bounded.subList( 0, returned ) );
+    }
+
+
+    @Test
+    public void testSizeLimitBelowCount() throws Exception
+    {
+        List<Entry> entries = createEntries( 120 );
+
+        // Each key is used by 2 or 3 entries : the limit cuts a group of duplicates
+        checkSizeLimit( entries, 200, 30L );
+        checkSizeLimit( entries, 200, 32L );
+        checkSizeLimit( entries, 200, 1L );
+
+        // The selected entries don't fit in the buffer : the whole result is sorted in runs
+        checkSizeLimit( entries, 16, 30L );
+    }
+
+
+    @Test
+    public void testSizeLimitEqualToCount() throws Exception
+    {
+        List<Entry> entries = createEntries( 120 );
+
+        checkSizeLimit( entries, 200, 120L );
+        checkSizeLimit( entries, 16, 120L );
+    }
+
+
+    @Test
+    public void testSizeLimitAboveCount() throws Exception
+    {
+        List<Entry> entries = createEntries( 120 );
+
+        checkSizeLimit( entries, 200, 150L );
+        checkSizeLimit( entries, 16, 150L );
+    }
+
+
+    @Test
+    public void testSizeLimitKeepsOnlyTheFirstEntries() throws Exception
+    {
+        List<Entry> entries = createEntries( 120 );
+        Cursor<Entry> cursor = sort( entries, 200, 11L );
+
+        assertFalse( cursor instanceof SortedEntryCursor );
+        assertEquals( expectedOrder( entries ).subList( 0, 11 ), read( cursor, Long.MAX_VALUE ) );
+    }
+}
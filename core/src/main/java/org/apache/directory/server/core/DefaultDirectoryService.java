@@ -261,6 +261,12 @@ public class DefaultDirectoryService implements DirectoryService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The default number of entries sorted in memory for a sort control */
+    public static final int DEFAULT_SORT_BUFFER_SIZE = 10000;
+
+    /** The number of entries sorted in memory for a sort control */
+    private int sortBufferSize = DEFAULT_SORT_BUFFER_SIZE;
+
     /** lock file for directory service's working directory */
     private RandomAccessFile lockFile = null;
 
@@ -2193,6 +2199,31 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSortBufferSize()
+    {
+        return sortBufferSize;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSortBufferSize( int sortBufferSize )
+    {
+        if ( sortBufferSize <= 0 )
+        {
+            sortBufferSize = DEFAULT_SORT_BUFFER_SIZE;
+        }
+
+        this.sortBufferSize = sortBufferSize;
+    }
+
+
     /**
      * {@inheritDoc}
      */
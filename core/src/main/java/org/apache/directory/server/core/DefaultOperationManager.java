@@ -23,6 +23,11 @@ package org.apache.directory.server.core;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -52,6 +57,7 @@ import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationLockMode;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.ReferralManager;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -72,6 +78,7 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -101,8 +108,23 @@ public class DefaultOperationManager implements OperationManager
     /** The directory service instance */
     private final DirectoryService directoryService;
 
+    /** The default time we wait for a partition lock when we already hold another one */
+    public static final long DEFAULT_NESTED_LOCK_TIMEOUT = 10000L;
+
     /** A lock used to protect against concurrent operations */
-    private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
+    private ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock( true );
+
+    /** The way we protect the partitions against concurrent operations */
+    private volatile OperationLockMode lockMode = OperationLockMode.GLOBAL;
+
+    /** The per partition locks, used in PARTITION mode. The key is the partition's suffix normalized name */
+    private final Map<String, PartitionLock> partitionLocks = new ConcurrentHashMap<>();
+
+    /** The number of partition locks the current thread is holding */
+    private final ThreadLocal<int[]> heldPartitionLocks = ThreadLocal.withInitial( () -> new int[1] );
+
+    /** The time we wait for a partition lock when the current thread already holds another partition lock */
+    private long nestedLockTimeout = DEFAULT_NESTED_LOCK_TIMEOUT;
 
     /** A reference to the ObjectClass AT */
     protected AttributeType objectClassAT;
@@ -161,6 +183,327 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReadWriteLock getRWLock( Partition partition )
+    {
+        if ( lockMode == OperationLockMode.GLOBAL )
+        {
+            return rwLock;
+        }
+
+        PartitionLock partitionLock = getPartitionRWLock( partition );
+
+        if ( partitionLock == null )
+        {
+            return rwLock;
+        }
+
+        return partitionLock;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public OperationLockMode getLockMode()
+    {
+        return lockMode;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLockMode( OperationLockMode lockMode )
+    {
+        if ( directoryService.isStarted() )
+        {
+            throw new IllegalStateException( I18n.err( I18n.ERR_752_LOCK_MODE_CHANGE_AFTER_STARTUP ) );
+        }
+
+        this.lockMode = lockMode;
+    }
+
+
+    /**
+     * @return the time, in milliseconds, a thread already holding a partition lock waits
+     * for another partition lock before giving up
+     */
+    public long getNestedLockTimeout()
+    {
+        return nestedLockTimeout;
+    }
+
+
+    /**
+     * @param nestedLockTimeout the time, in milliseconds, a thread already holding a partition
+     * lock waits for another partition lock before giving up
+     */
+    public void setNestedLockTimeout( long nestedLockTimeout )
+    {
+        this.nestedLockTimeout = nestedLockTimeout;
+    }
+
+
+    /**
+     * Get the lock associated with a partition, creating it if needed. The lock is
+     * associated with the partition suffix, so that a partition wrapping another one
+     * (like the SchemaPartition) shares the wrapped partition lock.
+     *
+     * @param partition The partition
+     * @return The partition lock, or null if the partition has no suffix (the RootDSE)
+     */
+    private PartitionLock getPartitionRWLock( Partition partition )
+    {
+        if ( partition == null )
+        {
+            return null;
+        }
+
+        Dn suffixDn = partition.getSuffixDn();
+
+        if ( ( suffixDn == null ) || suffixDn.isRootDse() )
+        {
+            return null;
+        }
+
+        return partitionLocks.computeIfAbsent( suffixDn.getNormName(), suffix -> new PartitionLock( rwLock ) );
+    }
+
+
+    /**
+     * Get the lock dedicated to a partition, without the global ReadLock. The caller
+     * must hold the global ReadLock before acquiring it.
+     *
+     * @param partition The partition
+     * @return The partition lock, or null if the partition has no suffix (the RootDSE)
+     */
+    private ReentrantReadWriteLock getPartitionLock( Partition partition )
+    {
+        PartitionLock partitionLock = getPartitionRWLock( partition );
+
+        if ( partitionLock == null )
+        {
+            return null;
+        }
+
+        return partitionLock.partitionLock;
+    }
+
+
+    /**
+     * Acquires a partition lock. If the current thread already holds a lock on another
+     * partition (an interceptor doing a nested operation), we don't wait forever : two
+     * threads writing in two partitions and reading each other partition would otherwise
+     * deadlock. In this case, we first try to barge in, then wait for a bounded time.
+     *
+     * @param partitionLock The partition R/W lock
+     * @param lock The read or write lock to acquire
+     * @param partition The partition we are locking
+     * @throws LdapException If we can't get the lock in time
+     */
+    private void acquirePartitionLock( ReentrantReadWriteLock partitionLock, Lock lock, Partition partition )
+        throws LdapException
+    {
+        int[] held = heldPartitionLocks.get();
+
+        if ( ( held[0] == 0 ) || partitionLock.isWriteLockedByCurrentThread()
+            || ( partitionLock.getReadHoldCount() > 0 ) )
+        {
+            lock.lock();
+        }
+        else if ( !lock.tryLock() )
+        {
+            try
+            {
+                if ( !lock.tryLock( nestedLockTimeout, TimeUnit.MILLISECONDS ) )
+                {
+                    String message = I18n.err( I18n.ERR_751_PARTITION_LOCK_TIMEOUT, partition.getSuffixDn(),
+                        nestedLockTimeout );
+                    OPERATION_LOG.error( message );
+
+                    throw new LdapServiceUnavailableException( ResultCodeEnum.BUSY, message );
+                }
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+
+                throw new LdapServiceUnavailableException( ResultCodeEnum.BUSY, ie.getMessage() );
+            }
+        }
+
+        held[0]++;
+    }
+
+
+    /**
+     * Releases a partition lock
+     *
+     * @param lock The read or write lock to release
+     */
+    private void releasePartitionLock( Lock lock )
+    {
+        lock.unlock();
+        heldPartitionLocks.get()[0]--;
+    }
+
+
+    /**
+     * Acquires a ReadLock on the given partition. In GLOBAL mode, this is the global
+     * ReadLock. In PARTITION mode, we hold the global ReadLock (so that a global WriteLock
+     * still blocks everything) plus the partition ReadLock.
+     *
+     * @param partition The partition we are going to read
+     * @throws LdapException If we can't get the lock
+     */
+    private void lockRead( Partition partition ) throws LdapException
+    {
+        rwLock.readLock().lock();
+
+        if ( lockMode == OperationLockMode.GLOBAL )
+        {
+            return;
+        }
+
+        ReentrantReadWriteLock partitionLock = getPartitionLock( partition );
+
+        if ( partitionLock != null )
+        {
+            try
+            {
+                acquirePartitionLock( partitionLock, partitionLock.readLock(), partition );
+            }
+            catch ( LdapException le )
+            {
+                rwLock.readLock().unlock();
+
+                throw le;
+            }
+        }
+    }
+
+
+    /**
+     * Releases the ReadLock acquired by {@link #lockRead(Partition)}
+     *
+     * @param partition The partition we have read
+     */
+    private void unlockRead( Partition partition )
+    {
+        if ( lockMode == OperationLockMode.PARTITION )
+        {
+            ReentrantReadWriteLock partitionLock = getPartitionLock( partition );
+
+            if ( partitionLock != null )
+            {
+                releasePartitionLock( partitionLock.readLock() );
+            }
+        }
+
+        rwLock.readLock().unlock();
+    }
+
+
+    /**
+     * Acquires a WriteLock on the given partition. In GLOBAL mode, this is the global
+     * WriteLock. In PARTITION mode, we hold the global ReadLock plus the partition WriteLock,
+     * unless the operation does not apply on a real partition (the RootDSE or the subschemaSubentry),
+     * in which case we take the global WriteLock.
+     *
+     * @param partition The partition we are going to modify
+     * @throws LdapException If we can't get the lock
+     */
+    private void lockWrite( Partition partition ) throws LdapException
+    {
+        ReentrantReadWriteLock partitionLock = null;
+
+        if ( lockMode == OperationLockMode.PARTITION )
+        {
+            partitionLock = getPartitionLock( partition );
+        }
+
+        if ( partitionLock == null )
+        {
+            rwLock.writeLock().lock();
+
+            return;
+        }
+
+        rwLock.readLock().lock();
+
+        try
+        {
+            acquirePartitionLock( partitionLock, partitionLock.writeLock(), partition );
+        }
+        catch ( LdapException le )
+        {
+            rwLock.readLock().unlock();
+
+            throw le;
+        }
+    }
+
+
+    /**
+     * Waits until the changes committed by an operation are durable. This is done once the
+     * WriteLock has been released, so that the partition can flush the changes of several
+     * concurrent operations at once. Nothing is done when the transaction belongs to a
+     * session transaction, which is committed later.
+     *
+     * @param opContext The operation context
+     * @param transaction The committed transaction
+     * @throws LdapException If the changes can't be flushed
+     */
+    private void syncTransaction( OperationContext opContext, PartitionTxn transaction ) throws LdapException
+    {
+        if ( opContext.getSession().hasSessionTransaction() || !( transaction instanceof PartitionWriteTxn ) )
+        {
+            return;
+        }
+
+        try
+        {
+            ( ( PartitionWriteTxn ) transaction ).sync();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Releases the WriteLock acquired by {@link #lockWrite(Partition)}
+     *
+     * @param partition The partition we have modified
+     */
+    private void unlockWrite( Partition partition )
+    {
+        ReentrantReadWriteLock partitionLock = null;
+
+        if ( lockMode == OperationLockMode.PARTITION )
+        {
+            partitionLock = getPartitionLock( partition );
+        }
+
+        if ( partitionLock == null )
+        {
+            rwLock.writeLock().unlock();
+
+            return;
+        }
+
+        releasePartitionLock( partitionLock.writeLock() );
+        rwLock.readLock().unlock();
+    }
+
+
     /**
      * Eagerly populates fields of operation contexts so multiple Interceptors
      * in the processing pathway can reuse this value without performing a
@@ -409,7 +752,7 @@ public class DefaultOperationManager implements OperationManager
         // Call the Add method
         Interceptor head = directoryService.getInterceptor( addContext.getNextInterceptor() );
 
-        lockWrite();
+        lockWrite( partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = addContext.getSession().getTransaction( partition ); 
@@ -466,9 +809,11 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        syncTransaction( addContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< AddOperation successful" );
@@ -512,12 +857,12 @@ public class DefaultOperationManager implements OperationManager
             bindContext.setDn( dn );
         }
 
-        lockRead();
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 bindContext.setPartition( partition );
@@ -532,7 +877,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -627,12 +972,12 @@ public class DefaultOperationManager implements OperationManager
 
         boolean result = false;
 
-        lockRead();
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 compareContext.setPartition( partition );
@@ -647,7 +992,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -795,7 +1140,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // populate the context with the old entry
-        lockWrite();
+        lockWrite( partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = deleteContext.getSession().getTransaction( partition ); 
@@ -889,9 +1234,11 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        syncTransaction( deleteContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< DeleteOperation successful" );
@@ -926,12 +1273,12 @@ public class DefaultOperationManager implements OperationManager
         Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
         Entry root;
 
+        Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
+
+        lockRead( partition );
+
         try
         {
-            lockRead();
-            
-            Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 getRootDseContext.setPartition( partition );
@@ -946,7 +1293,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -986,8 +1333,6 @@ public class DefaultOperationManager implements OperationManager
 
         boolean result = false;
 
-        lockRead();
-
         // Normalize the addContext Dn
         Dn dn = hasEntryContext.getDn();
         
@@ -997,10 +1342,12 @@ public class DefaultOperationManager implements OperationManager
             hasEntryContext.setDn( dn );
         }
 
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
+
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 hasEntryContext.setPartition( partition );
@@ -1015,7 +1362,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -1072,7 +1419,7 @@ public class DefaultOperationManager implements OperationManager
         {
             lookupContext.setTransaction( transaction );
 
-            lockRead();
+            lockRead( partition );
     
             try
             {
@@ -1080,7 +1427,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                unlockRead( partition );
             }
         }
         catch ( IOException ioe )
@@ -1187,7 +1534,7 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         modifyContext.setPartition( partition );
         
-        lockWrite();
+        lockWrite( partition );
         
         // Start a Write transaction right away
         PartitionTxn transaction = modifyContext.getSession().getTransaction( partition ); 
@@ -1250,9 +1597,11 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        syncTransaction( modifyContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< ModifyOperation successful" );
@@ -1358,12 +1707,12 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-        
         // Find the working partition
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         moveContext.setPartition( partition );
 
+        lockWrite( partition );
+
         // Start a Write transaction right away
         PartitionTxn transaction = moveContext.getSession().getTransaction( partition ); 
         
@@ -1428,9 +1777,11 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        syncTransaction( moveContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< MoveOperation successful" );
@@ -1541,7 +1892,7 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         moveAndRenameContext.setPartition( partition );
 
-        lockWrite();
+        lockWrite( partition );
         
         // Start a Write transaction right away
         PartitionTxn transaction = moveAndRenameContext.getSession().getTransaction( partition ); 
@@ -1603,9 +1954,11 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        syncTransaction( moveAndRenameContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< MoveAndRenameOperation successful" );
@@ -1709,10 +2062,10 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
 
+        lockWrite( partition );
+
         // Start a Write transaction right away
         PartitionTxn transaction = renameContext.getSession().getTransaction( partition ); 
         
@@ -1823,9 +2176,11 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        syncTransaction( renameContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< RenameOperation successful" );
@@ -1922,7 +2277,7 @@ public class DefaultOperationManager implements OperationManager
         {
             searchContext.setPartition( partition );
             searchContext.setTransaction( partitionTxn );
-            lockRead();
+            lockRead( partition );
     
             try
             {
@@ -1930,7 +2285,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                unlockRead( partition );
             }
         }
         catch ( IOException ioe )
@@ -1995,4 +2350,176 @@ public class DefaultOperationManager implements OperationManager
             throw new LdapServiceUnavailableException( ResultCodeEnum.UNAVAILABLE, I18n.err( I18n.ERR_316 ) );
         }
     }
+
+
+    /**
+     * The lock of a partition, in PARTITION mode. The Read and Write locks it hands
+     * out first acquire the global ReadLock, so that the global WriteLock (taken on
+     * shutdown) also waits for the cursors still reading the partition, and for the
+     * operations the partitions lock by themselves.
+     */
+    private static final class PartitionLock implements ReadWriteLock
+    {
+        /** The lock dedicated to the partition */
+        private final ReentrantReadWriteLock partitionLock = new ReentrantReadWriteLock( true );
+
+        /** The global ReadLock followed by the partition ReadLock */
+        private final Lock readLock;
+
+        /** The global ReadLock followed by the partition WriteLock */
+        private final Lock writeLock;
+
+
+        private PartitionLock( ReentrantReadWriteLock globalLock )
+        {
+            readLock = new ChainedLock( globalLock.readLock(), partitionLock.readLock() );
+            writeLock = new ChainedLock( globalLock.readLock(), partitionLock.writeLock() );
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Lock readLock()
+        {
+            return readLock;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Lock writeLock()
+        {
+            return writeLock;
+        }
+    }
+
+
+    /**
+     * Two locks acquired in order, and released in the reverse order.
+     */
+    private static final class ChainedLock implements Lock
+    {
+        /** The lock acquired first */
+        private final Lock outerLock;
+
+        /** The lock acquired second */
+        private final Lock innerLock;
+
+
+        private ChainedLock( Lock outerLock, Lock innerLock )
+        {
+            this.outerLock = outerLock;
+            this.innerLock = innerLock;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void lock()
+        {
+            outerLock.lock();
+            innerLock.lock();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void lockInterruptibly() throws InterruptedException
+        {
+            outerLock.lockInterruptibly();
+
+            try
+            {
+                innerLock.lockInterruptibly();
+            }
+            catch ( InterruptedException ie )
+            {
+                outerLock.unlock();
+
+                throw ie;
+            }
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean tryLock()
+        {
+            if ( !outerLock.tryLock() )
+            {
+                return false;
+            }
+
+            if ( innerLock.tryLock() )
+            {
+                return true;
+            }
+
+            outerLock.unlock();
+
+            return false;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean tryLock( long time, TimeUnit unit ) throws InterruptedException
+        {
+            long deadline = System.nanoTime() + unit.toNanos( time );
+
+            if ( !outerLock.tryLock( time, unit ) )
+            {
+                return false;
+            }
+
+            boolean locked = false;
+
+            try
+            {
+                locked = innerLock.tryLock( deadline - System.nanoTime(), TimeUnit.NANOSECONDS );
+            }
+            finally
+            {
+                if ( !locked )
+                {
+                    outerLock.unlock();
+                }
+            }
+
+            return locked;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void unlock()
+        {
+            innerLock.unlock();
+            outerLock.unlock();
+        }
+
+
+        /**
+         * Conditions are not supported
+         */
+        @Override
+        public Condition newCondition()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
@@ -0,0 +1,251 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core;
+
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.OperationLockMode;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the locks handed out by the DefaultOperationManager, in GLOBAL and PARTITION modes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DefaultOperationManagerLockTest
+{
+    private OperationManager operationManager;
+    private Partition partitionA;
+    private Partition partitionB;
+    private Partition rootDse;
+
+    /** The thread competing with the test thread for the locks */
+    private ExecutorService otherThread;
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        operationManager = new DefaultDirectoryService().getOperationManager();
+        partitionA = createPartition( new Dn( "dc=a" ) );
+        partitionB = createPartition( new Dn( "dc=b" ) );
+        rootDse = createPartition( Dn.ROOT_DSE );
+        otherThread = Executors.newSingleThreadExecutor();
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        otherThread.shutdownNow();
+    }
+
+
+    /**
+     * A Partition only knowing its suffix, which is all the OperationManager needs to lock it
+     */
+    private static Partition createPartition( Dn suffixDn )
+    {
+        return ( Partition ) Proxy.newProxyInstance( Partition.class.getClassLoader(),
+            new Class<?>[]
+                { Partition.class }, ( proxy, method, args ) ->
+                {
+                    if ( "getSuffixDn".equals( method.getName() ) )
+                    {
+                        return suffixDn;
+                    }
+
+                    throw new UnsupportedOperationException( method.getName() );
+                } );
+    }
+
+
+    /**
+     * Tries to acquire a lock from another thread, and releases it immediately
+     */
+    private boolean isFreeForOtherThread( Lock lock ) throws Exception
+    {
+        return otherThread.submit( () ->
+        {
+            if ( lock.tryLock( 50L, TimeUnit.MILLISECONDS ) )
+            {
+                lock.unlock();
+
+                return true;
+            }
+
+            return false;
+        } ).get();
+    }
+
+
+    @Test
+    public void testGlobalModeSharesOneLock() throws Exception
+    {
+        ReadWriteLock globalLock = operationManager.getRWLock();
+
+        assertSame( globalLock, operationManager.getRWLock( partitionA ) );
+        assertSame( globalLock, operationManager.getRWLock( partitionB ) );
+
+        // A write on a partition blocks the reads on every other partition
+        Lock writeLock = operationManager.getRWLock( partitionA ).writeLock();
+        writeLock.lock();
+
+        try
+        {
+            assertFalse( isFreeForOtherThread( operationManager.getRWLock( partitionB ).readLock() ) );
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+
+        assertTrue( isFreeForOtherThread( operationManager.getRWLock( partitionB ).readLock() ) );
+    }
+
+
+    @Test
+    public void testPartitionModeDisjointWrites() throws Exception
+    {
+        operationManager.setLockMode( OperationLockMode.PARTITION );
+
+        assertNotSame( operationManager.getRWLock( partitionA ), operationManager.getRWLock( partitionB ) );
+        assertSame( operationManager.getRWLock( partitionA ),
+            operationManager.getRWLock( createPartition( new Dn( "dc=a" ) ) ) );
+
+        Lock writeLock = operationManager.getRWLock( partitionA ).writeLock();
+        writeLock.lock();
+
+        try
+        {
+            // Another partition can be read and written
+            assertTrue( isFreeForOtherThread( operationManager.getRWLock( partitionB ).readLock() ) );
+            assertTrue( isFreeForOtherThread( operationManager.getRWLock( partitionB ).writeLock() ) );
+
+            // But not the locked partition
+            assertFalse( isFreeForOtherThread( operationManager.getRWLock( partitionA ).readLock() ) );
+            assertFalse( isFreeForOtherThread( operationManager.getRWLock( partitionA ).writeLock() ) );
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+
+        assertTrue( isFreeForOtherThread( operationManager.getRWLock( partitionA ).readLock() ) );
+    }
+
+
+    @Test
+    public void testPartitionModeConcurrentReads() throws Exception
+    {
+        operationManager.setLockMode( OperationLockMode.PARTITION );
+
+        Lock readLock = operationManager.getRWLock( partitionA ).readLock();
+        readLock.lock();
+
+        try
+        {
+            assertTrue( isFreeForOtherThread( operationManager.getRWLock( partitionA ).readLock() ) );
+            assertFalse( isFreeForOtherThread( operationManager.getRWLock( partitionA ).writeLock() ) );
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+    }
+
+
+    @Test
+    public void testPartitionModeGlobalWriteWaitsForPartitionLocks() throws Exception
+    {
+        operationManager.setLockMode( OperationLockMode.PARTITION );
+
+        // A cursor reading a partition delays the global WriteLock taken on shutdown
+        Lock readLock = operationManager.getRWLock( partitionA ).readLock();
+        readLock.lock();
+
+        try
+        {
+            assertFalse( isFreeForOtherThread( operationManager.getRWLock().writeLock() ) );
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+
+        assertTrue( isFreeForOtherThread( operationManager.getRWLock().writeLock() ) );
+
+        // So does a write on a partition
+        Lock writeLock = operationManager.getRWLock( partitionB ).writeLock();
+        writeLock.lock();
+
+        try
+        {
+            assertFalse( isFreeForOtherThread( operationManager.getRWLock().writeLock() ) );
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+
+        // And the global WriteLock blocks every partition
+        Lock globalWriteLock = operationManager.getRWLock().writeLock();
+        globalWriteLock.lock();
+
+        try
+        {
+            assertFalse( isFreeForOtherThread( operationManager.getRWLock( partitionA ).readLock() ) );
+            assertFalse( isFreeForOtherThread( operationManager.getRWLock( partitionB ).writeLock() ) );
+        }
+        finally
+        {
+            globalWriteLock.unlock();
+        }
+
+        assertTrue( isFreeForOtherThread( operationManager.getRWLock( partitionA ).readLock() ) );
+    }
+
+
+    @Test
+    public void testPartitionModeRootDseUsesGlobalLock() throws Exception
+    {
+        operationManager.setLockMode( OperationLockMode.PARTITION );
+
+        assertSame( operationManager.getRWLock(), operationManager.getRWLock( rootDse ) );
+        assertSame( operationManager.getRWLock(), operationManager.getRWLock( null ) );
+    }
+}
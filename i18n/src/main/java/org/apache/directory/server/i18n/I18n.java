@@ -784,7 +784,12 @@ public enum I18n
     ERR_747("ERR_747"),
     ERR_748("ERR_748"),
     ERR_749("ERR_749"),
-    ERR_750("ERR_750");
+    ERR_750("ERR_750"),
+    ERR_751_PARTITION_LOCK_TIMEOUT("ERR_751_PARTITION_LOCK_TIMEOUT"),
+    ERR_752_LOCK_MODE_CHANGE_AFTER_STARTUP("ERR_752_LOCK_MODE_CHANGE_AFTER_STARTUP"),
+    ERR_753_LMDB_KEY_TOO_LONG("ERR_753_LMDB_KEY_TOO_LONG"),
+    ERR_754_LMDB_DIGEST_COLLISION("ERR_754_LMDB_DIGEST_COLLISION"),
+    ERR_755_LMDB_OVERFLOW_MISSING("ERR_755_LMDB_OVERFLOW_MISSING");
 
     private static final ResourceBundle ERR_BUNDLE = ResourceBundle
         .getBundle( "org.apache.directory.server.i18n.errors", Locale.ROOT );
@@ -21,10 +21,10 @@ package org.apache.directory.server.core.authn;
 
 
 import java.net.SocketAddress;
+import java.time.Duration;
 
 import javax.naming.Context;
 
-import org.apache.commons.collections4.map.LRUMap;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -45,6 +45,10 @@ import org.apache.directory.server.core.api.interceptor.context.LookupOperationC
 import org.apache.directory.server.i18n.I18n;
 import org.apache.mina.core.session.IoSession;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+
 
 /**
  * A simple {@link Authenticator} that authenticates clear text passwords
@@ -75,13 +79,21 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      * just have to offer an access to refresh the local cache.
      *
      * We need to be sure that frequently used passwords be always in cache, and not discarded.
-     * We will use a LRU cache for this purpose.
+     * The cache is bounded in size, and its elements expire after a while, so that a password
+     * modified behind our back (for instance by a replication consumer) is eventually reloaded.
+     * It's a concurrent cache, so that the binds are not serialized on a single lock.
+     *
+     * The cache stores the passwords, keyed by the normalized Dn. A new principal is created for
+     * each bind, as it holds the client and server addresses.
      */
-    private final LRUMap credentialCache;
+    private final Cache<String, byte[][]> credentialCache;
 
     /** Declare a default for this cache. 100 entries seems to be enough */
     private static final int DEFAULT_CACHE_SIZE = 100;
 
+    /** The default time a password is kept in the cache */
+    private static final Duration DEFAULT_CACHE_TTL = Duration.ofMinutes( 10L );
+
 
     /**
      * Creates a new instance.
@@ -89,7 +101,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     public SimpleAuthenticator()
     {
         super( AuthenticationLevel.SIMPLE );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        credentialCache = createCache( DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL );
     }
 
 
@@ -102,7 +114,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     public SimpleAuthenticator( Dn baseDn )
     {
         super( AuthenticationLevel.SIMPLE, baseDn );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        credentialCache = createCache( DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL );
     }
 
 
@@ -114,7 +126,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     {
         super( AuthenticationLevel.SIMPLE, Dn.ROOT_DSE );
 
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        credentialCache = createCache( cacheSize, DEFAULT_CACHE_TTL );
     }
 
 
@@ -128,7 +140,63 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     {
         super( AuthenticationLevel.SIMPLE, baseDn );
 
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        credentialCache = createCache( cacheSize, DEFAULT_CACHE_TTL );
+    }
+
+
+    /**
+     * Creates a new instance, with an initial cache size and a cache expiration delay
+     *
+     * @param cacheSize the size of the credential cache
+     * @param cacheTtl the time a password is kept in the cache
+     * @param baseDn The base Dn
+     */
+    public SimpleAuthenticator( int cacheSize, Duration cacheTtl, Dn baseDn )
+    {
+        this( cacheSize, cacheTtl, null, baseDn );
+    }
+
+
+    /**
+     * Creates a new instance, with an initial cache size, a cache expiration delay, and the
+     * time source used to expire the passwords (tests can provide their own).
+     *
+     * @param cacheSize the size of the credential cache
+     * @param cacheTtl the time a password is kept in the cache
+     * @param ticker the time source of the cache, or null to use the system time
+     * @param baseDn The base Dn
+     */
+    public SimpleAuthenticator( int cacheSize, Duration cacheTtl, Ticker ticker, Dn baseDn )
+    {
+        super( AuthenticationLevel.SIMPLE, baseDn );
+
+        credentialCache = createCache( cacheSize, cacheTtl, ticker );
+    }
+
+
+    private static Cache<String, byte[][]> createCache( int cacheSize, Duration cacheTtl )
+    {
+        return createCache( cacheSize, cacheTtl, null );
+    }
+
+
+    private static Cache<String, byte[][]> createCache( int cacheSize, Duration cacheTtl, Ticker ticker )
+    {
+        if ( ( cacheTtl == null ) || cacheTtl.isNegative() || cacheTtl.isZero() )
+        {
+            cacheTtl = DEFAULT_CACHE_TTL;
+        }
+
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+            .maximumSize( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE )
+            .expireAfterWrite( cacheTtl ).recordStats();
+
+        if ( ticker != null )
+        {
+            builder.ticker( ticker );
+        }
+
+        return builder.build();
     }
 
 
@@ -140,20 +208,16 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      */
     private LdapPrincipal getStoredPassword( BindOperationContext bindContext ) throws LdapException
     {
-        LdapPrincipal principal = null;
+        byte[][] storedPasswords = null;
+        boolean useCache = !getDirectoryService().isPwdPolicyEnabled();
 
         // use cache only if pwdpolicy is not enabled
-        if ( !getDirectoryService().isPwdPolicyEnabled() )
+        if ( useCache )
         {
-            synchronized ( credentialCache )
-            {
-                principal = ( LdapPrincipal ) credentialCache.get( bindContext.getDn() );
-            }
+            storedPasswords = credentialCache.getIfPresent( bindContext.getDn().getNormName() );
         }
 
-        byte[][] storedPasswords;
-
-        if ( principal == null )
+        if ( storedPasswords == null )
         {
             // Not found in the cache
             // Get the user password from the backend
@@ -169,21 +233,17 @@ public class SimpleAuthenticator extends AbstractAuthenticator
                     {};
             }
 
-            // Create the new principal before storing it in the cache
-            principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), bindContext.getDn(),
-                AuthenticationLevel.SIMPLE );
-            principal.setUserPassword( storedPasswords );
-
             // Now, update the local cache ONLY if pwdpolicy is not enabled.
-            if ( !getDirectoryService().isPwdPolicyEnabled() )
+            if ( useCache )
             {
-                synchronized ( credentialCache )
-                {
-                    credentialCache.put( bindContext.getDn().getNormName(), principal );
-                }
+                credentialCache.put( bindContext.getDn().getNormName(), storedPasswords );
             }
         }
 
+        LdapPrincipal principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), bindContext.getDn(),
+            AuthenticationLevel.SIMPLE );
+        principal.setUserPassword( storedPasswords );
+
         return principal;
     }
 
@@ -354,9 +414,24 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     @Override
     public void invalidateCache( Dn bindDn )
     {
-        synchronized ( credentialCache )
-        {
-            credentialCache.remove( bindDn.getNormName() );
-        }
+        credentialCache.invalidate( bindDn.getNormName() );
+    }
+
+
+    /**
+     * @return The number of binds which have found the password in the cache
+     */
+    public long getCacheHitCount()
+    {
+        return credentialCache.stats().hitCount();
+    }
+
+
+    /**
+     * @return The number of binds which had to read the password from the backend
+     */
+    public long getCacheMissCount()
+    {
+        return credentialCache.stats().missCount();
     }
 }
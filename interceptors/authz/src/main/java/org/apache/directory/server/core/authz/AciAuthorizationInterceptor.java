@@ -81,6 +81,7 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.subtree.SubentryUtils;
 import org.apache.directory.server.core.authz.support.ACDFEngine;
 import org.apache.directory.server.core.authz.support.AciContext;
+import org.apache.directory.server.core.authz.support.OperationScope;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -152,6 +153,9 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
     /** a groupCache that responds to add, delete, and modify attempts */
     private GroupCache groupCache;
 
+    /** the decisions taken when filtering the search results */
+    private AciDecisionCache decisionCache;
+
     /** a normalizing ACIItem parser */
     private ACIItemParser aciParser;
 
@@ -296,6 +300,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         // Create the caches
         tupleCache = new TupleCache( adminSession );
         groupCache = new GroupCache( directoryService );
+        decisionCache = new AciDecisionCache();
 
         // Iitialize the ACI PARSER and ACDF engine
         aciParser = new ACIItemParser( new ConcreteNameComponentNormalizer( schemaManager ), schemaManager );
@@ -1354,10 +1359,31 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         LdapPrincipal principal = opContext.getSession().getEffectivePrincipal();
         Dn userDn = principal.getDn();
         Set<String> userGroups = groupCache.getGroups( userDn.getNormName() );
-        Collection<ACITuple> tuples = new HashSet<>();
-        addPerscriptiveAciTuples( opContext, tuples, normName, clonedEntry );
-        addEntryAciTuples( tuples, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
-        addSubentryAciTuples( opContext, tuples, normName, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
+        Entry originalEntry = ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry();
+
+        // Read the version before the tuples, so that decisions are never cached with a newer version
+        long tuplesVersion = tupleCache.getVersion();
+        Set<String> subentries = null;
+        List<AciTupleSet> tupleSets = null;
+        Collection<ACITuple> tuples = null;
+
+        if ( originalEntry.containsAttribute( directoryService.getAtProvider().getEntryACI() )
+            || originalEntry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.SUBENTRY_OC ) )
+        {
+            // The entryACI and subentryACI tuples are not pre-compiled
+            tuples = new HashSet<>();
+            addPerscriptiveAciTuples( opContext, tuples, normName, clonedEntry );
+            addEntryAciTuples( tuples, originalEntry );
+            addSubentryAciTuples( opContext, tuples, normName, originalEntry );
+        }
+        else
+        {
+            subentries = new HashSet<>();
+            tupleSets = getTupleSets( originalEntry, subentries );
+        }
+
+        AciDecisionCache.Decisions decisions = getDecisions( principal, userGroups, tuplesVersion, subentries,
+            tupleSets );
 
         AciContext aciContext = new AciContext( schemaManager, opContext );
         aciContext.setUserGroupNames( userGroups );
@@ -1365,10 +1391,10 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         aciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
         aciContext.setEntryDn( normName );
         aciContext.setMicroOperations( SEARCH_ENTRY_PERMS );
-        aciContext.setAciTuples( tuples );
-        aciContext.setEntry( ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
+        aciContext.setAciTuples( selectTuples( tuples, tupleSets, null, SEARCH_ENTRY_PERMS ) );
+        aciContext.setEntry( originalEntry );
 
-        if ( !engine.hasPermission( aciContext ) )
+        if ( !hasPermission( decisions, null, OperationScope.ENTRY, aciContext ) )
         {
             return false;
         }
@@ -1387,6 +1413,8 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             // if attribute type scope access is not allowed then remove the attribute and continue
             AttributeType attributeType = attribute.getAttributeType();
             Attribute attr = clonedEntry.get( attributeType );
+            Collection<ACITuple> attributeTuples = selectTuples( tuples, tupleSets, attributeType,
+                SEARCH_ATTRVAL_PERMS );
 
             aciContext = new AciContext( schemaManager, opContext );
             aciContext.setUserGroupNames( userGroups );
@@ -1395,10 +1423,10 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             aciContext.setEntryDn( normName );
             aciContext.setAttributeType( attributeType );
             aciContext.setMicroOperations( SEARCH_ATTRVAL_PERMS );
-            aciContext.setAciTuples( tuples );
+            aciContext.setAciTuples( attributeTuples );
             aciContext.setEntry( clonedEntry );
 
-            if ( !engine.hasPermission( aciContext ) )
+            if ( !hasPermission( decisions, attributeType, OperationScope.ATTRIBUTE_TYPE, aciContext ) )
             {
                 attributeToRemove.add( attributeType );
 
@@ -1418,10 +1446,10 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
                 aciContext.setAttributeType( attr.getAttributeType() );
                 aciContext.setAttrValue( value );
                 aciContext.setMicroOperations( SEARCH_ATTRVAL_PERMS );
-                aciContext.setAciTuples( tuples );
+                aciContext.setAciTuples( attributeTuples );
                 aciContext.setEntry( clonedEntry );
 
-                if ( !engine.hasPermission( aciContext ) )
+                if ( !hasPermission( decisions, attributeType, OperationScope.ATTRIBUTE_TYPE_AND_VALUE, aciContext ) )
                 {
                     valueToRemove.add( value );
                 }
@@ -1446,6 +1474,118 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         return true;
     }
 
+
+    /**
+     * Gets the pre-compiled tuples of the access control subentries an entry belongs to.
+     *
+     * @param originalEntry the entry, which is not a subentry
+     * @param subentries the set the normalized names of the subentries are added to
+     * @return the tuples of each subentry
+     */
+    private List<AciTupleSet> getTupleSets( Entry originalEntry, Set<String> subentries ) throws LdapException
+    {
+        Attribute subentriesAttr = originalEntry.get( directoryService.getAtProvider().getAccessControlSubentries() );
+
+        if ( subentriesAttr == null )
+        {
+            return Collections.emptyList();
+        }
+
+        List<AciTupleSet> tupleSets = new ArrayList<>( subentriesAttr.size() );
+
+        for ( Value value : subentriesAttr )
+        {
+            String subentryDn = dnFactory.create( value.getString() ).getNormName();
+
+            if ( subentries.add( subentryDn ) )
+            {
+                tupleSets.add( tupleCache.getTupleSet( subentryDn ) );
+            }
+        }
+
+        return tupleSets;
+    }
+
+
+    /**
+     * Selects the tuples related to the entry, or to an attribute type, and to some micro
+     * operations. When the tuples have not been pre-compiled, they are all returned and
+     * the ACDF engine filters them.
+     */
+    private Collection<ACITuple> selectTuples( Collection<ACITuple> tuples, List<AciTupleSet> tupleSets,
+        AttributeType attributeType, Collection<MicroOperation> microOperations )
+    {
+        if ( tupleSets == null )
+        {
+            return tuples;
+        }
+
+        if ( tupleSets.size() == 1 )
+        {
+            return tupleSets.get( 0 ).getTuples( attributeType, microOperations );
+        }
+
+        Collection<ACITuple> selection = new HashSet<>();
+
+        for ( AciTupleSet tupleSet : tupleSets )
+        {
+            selection.addAll( tupleSet.getTuples( attributeType, microOperations ) );
+        }
+
+        return selection;
+    }
+
+
+    /**
+     * Gets the cached decisions for a user and an entry. The decisions can only be shared
+     * with other entries when the tuples all come from the access control subentries and
+     * do not depend on the entry, so the entries having an entryACI, and the subentries,
+     * are not cached.
+     */
+    private AciDecisionCache.Decisions getDecisions( LdapPrincipal principal, Set<String> userGroups,
+        long tuplesVersion, Set<String> subentries, List<AciTupleSet> tupleSets )
+    {
+        if ( tupleSets == null )
+        {
+            return null;
+        }
+
+        for ( AciTupleSet tupleSet : tupleSets )
+        {
+            if ( !tupleSet.isEntryIndependent() )
+            {
+                return null;
+            }
+        }
+
+        return decisionCache.getDecisions( tuplesVersion, principal.getDn().getNormName(), userGroups,
+            principal.getAuthenticationLevel(), subentries );
+    }
+
+
+    /**
+     * Checks a permission, using the cached decision if any.
+     */
+    private boolean hasPermission( AciDecisionCache.Decisions decisions, AttributeType attributeType,
+        OperationScope scope, AciContext aciContext ) throws LdapException
+    {
+        if ( decisions == null )
+        {
+            return engine.hasPermission( aciContext );
+        }
+
+        Boolean decision = decisions.get( attributeType, scope );
+
+        if ( decision == null )
+        {
+            decision = engine.hasPermission( aciContext );
+            decisions.put( attributeType, scope, decision );
+        }
+
+        return decision;
+    }
+
+
     /**
      * WARNING: create one of these filters fresh every time for each new search.
      */
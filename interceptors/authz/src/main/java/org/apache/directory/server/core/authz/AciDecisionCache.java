@@ -0,0 +1,313 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.aci.protectedItem.AllAttributeValuesItem;
+import org.apache.directory.api.ldap.aci.protectedItem.AttributeTypeItem;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
+import org.apache.directory.server.core.authz.support.OperationScope;
+
+
+/**
+ * A cache for the access control decisions taken when filtering the search results.
+ * <p>
+ * A decision can be reused for another entry when it depends only on the user and
+ * on the tuples of the access control subentries the entry belongs to : the user
+ * classes must not refer to the entry (thisEntry, parentOfEntry), and the protected
+ * items must not refer to its values (attributeValue, selfValue, rangeOfValues,
+ * classes, maxValueCount, maxImmSub, restrictedBy). The decisions are keyed by the
+ * user Dn, groups and authentication level, the set of access control subentries,
+ * the attribute type and the operation scope, so a change in the group membership
+ * or in the subentries an entry belongs to leads to new decisions. The whole cache
+ * is cleared when the prescriptiveACIs change.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AciDecisionCache
+{
+    /** The default maximum number of cached decisions */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** The maximum number of cached decisions */
+    private final int maxSize;
+
+    /** The cached decisions */
+    private final Map<DecisionKey, Boolean> decisions = new ConcurrentHashMap<>();
+
+    /** The version of the tuple cache the decisions have been taken with */
+    private volatile long tuplesVersion = -1L;
+
+
+    /**
+     * Creates a new instance of AciDecisionCache, with the default maximum size.
+     */
+    public AciDecisionCache()
+    {
+        this( DEFAULT_MAX_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of AciDecisionCache.
+     *
+     * @param maxSize The maximum number of cached decisions
+     */
+    public AciDecisionCache( int maxSize )
+    {
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Gets the decisions for a user and an entry. The tuples of the subentries must be
+     * independent of the entry, see {@link AciTupleSet#isEntryIndependent()}.
+     *
+     * @param tuplesVersion The current version of the tuple cache
+     * @param userDn The normalized user Dn
+     * @param userGroups The normalized Dn of the user groups
+     * @param authenticationLevel The user authentication level
+     * @param subentries The normalized Dn of the access control subentries the entry belongs to
+     * @return The decisions
+     */
+    public Decisions getDecisions( long tuplesVersion, String userDn, Set<String> userGroups,
+        AuthenticationLevel authenticationLevel, Set<String> subentries )
+    {
+        if ( this.tuplesVersion != tuplesVersion )
+        {
+            clear();
+            this.tuplesVersion = tuplesVersion;
+        }
+
+        // The version is part of the key, so that a decision taken with the previous
+        // tuples while the cache was cleared is never used
+        return new Decisions( tuplesVersion, userDn, userGroups, authenticationLevel, subentries );
+    }
+
+
+    /**
+     * Clears all the cached decisions.
+     */
+    public void clear()
+    {
+        decisions.clear();
+    }
+
+
+    /**
+     * @return The number of cached decisions
+     */
+    public int size()
+    {
+        return decisions.size();
+    }
+
+
+    /**
+     * Tells if the decisions taken from some tuples only depend on the user and on
+     * the attribute type.
+     *
+     * @param tuples The tuples
+     * @return true if the decisions can be reused for other entries
+     */
+    static boolean isCacheable( Collection<ACITuple> tuples )
+    {
+        for ( ACITuple tuple : tuples )
+        {
+            for ( UserClass userClass : tuple.getUserClasses() )
+            {
+                if ( ( userClass == UserClass.THIS_ENTRY ) || ( userClass == UserClass.PARENT_OF_ENTRY ) )
+                {
+                    return false;
+                }
+
+                if ( userClass instanceof UserClass.Subtree )
+                {
+                    // A refinement is evaluated against the user entry, which may change
+                    for ( SubtreeSpecification subtreeSpecification : ( ( UserClass.Subtree ) userClass )
+                        .getSubtreeSpecifications() )
+                    {
+                        if ( subtreeSpecification.getRefinement() != null )
+                        {
+                            return false;
+                        }
+                    }
+                }
+            }
+
+            for ( ProtectedItem item : tuple.getProtectedItems() )
+            {
+                if ( ( item != ProtectedItem.ENTRY )
+                    && ( item != ProtectedItem.ALL_USER_ATTRIBUTE_TYPES )
+                    && ( item != ProtectedItem.ALL_USER_ATTRIBUTE_TYPES_AND_VALUES )
+                    && !( item instanceof AttributeTypeItem )
+                    && !( item instanceof AllAttributeValuesItem ) )
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * The decisions for a user and a set of access control subentries.
+     */
+    public final class Decisions
+    {
+        private final long tuplesVersion;
+        private final String userDn;
+        private final Set<String> userGroups;
+        private final AuthenticationLevel authenticationLevel;
+        private final Set<String> subentries;
+        private final int hashCode;
+
+
+        private Decisions( long tuplesVersion, String userDn, Set<String> userGroups,
+            AuthenticationLevel authenticationLevel, Set<String> subentries )
+        {
+            this.tuplesVersion = tuplesVersion;
+            this.userDn = userDn;
+            this.userGroups = userGroups;
+            this.authenticationLevel = authenticationLevel;
+            this.subentries = subentries;
+            hashCode = Objects.hash( tuplesVersion, userDn, userGroups, authenticationLevel, subentries );
+        }
+
+
+        /**
+         * Gets a cached decision.
+         *
+         * @param attributeType The attribute type, or null for the entry
+         * @param scope The operation scope
+         * @return The decision, or null if it has not been cached
+         */
+        public Boolean get( AttributeType attributeType, OperationScope scope )
+        {
+            return decisions.get( new DecisionKey( this, attributeType, scope ) );
+        }
+
+
+        /**
+         * Caches a decision.
+         *
+         * @param attributeType The attribute type, or null for the entry
+         * @param scope The operation scope
+         * @param granted The decision
+         */
+        public void put( AttributeType attributeType, OperationScope scope, boolean granted )
+        {
+            if ( decisions.size() >= maxSize )
+            {
+                // The cache is full, start again
+                decisions.clear();
+            }
+
+            decisions.put( new DecisionKey( this, attributeType, scope ), granted );
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj )
+            {
+                return true;
+            }
+
+            if ( !( obj instanceof Decisions ) )
+            {
+                return false;
+            }
+
+            Decisions other = ( Decisions ) obj;
+
+            return ( hashCode == other.hashCode ) && ( tuplesVersion == other.tuplesVersion )
+                && userDn.equals( other.userDn )
+                && ( authenticationLevel == other.authenticationLevel ) && userGroups.equals( other.userGroups )
+                && subentries.equals( other.subentries );
+        }
+    }
+
+
+    /**
+     * The key of a decision.
+     */
+    private static final class DecisionKey
+    {
+        private final Decisions decisions;
+        private final String oid;
+        private final OperationScope scope;
+
+
+        private DecisionKey( Decisions decisions, AttributeType attributeType, OperationScope scope )
+        {
+            this.decisions = decisions;
+            this.oid = ( attributeType == null ) ? null : attributeType.getOid();
+            this.scope = scope;
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * ( 31 * decisions.hashCode() + Objects.hashCode( oid ) ) + scope.hashCode();
+        }
+
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj )
+            {
+                return true;
+            }
+
+            if ( !( obj instanceof DecisionKey ) )
+            {
+                return false;
+            }
+
+            DecisionKey other = ( DecisionKey ) obj;
+
+            return ( scope == other.scope ) && Objects.equals( oid, other.oid ) && decisions.equals( other.decisions );
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.protectedItem.AllAttributeValuesItem;
+import org.apache.directory.api.ldap.aci.protectedItem.AttributeTypeItem;
+import org.apache.directory.api.ldap.aci.protectedItem.AttributeValueItem;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxValueCountElem;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxValueCountItem;
+import org.apache.directory.api.ldap.aci.protectedItem.RestrictedByElem;
+import org.apache.directory.api.ldap.aci.protectedItem.RestrictedByItem;
+import org.apache.directory.api.ldap.aci.protectedItem.SelfValueItem;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+
+
+/**
+ * The tuples of an access control subentry, indexed so that the tuples which may be
+ * related to a check are found without scanning all of them. The tuples are bucketed
+ * by micro operation, and by protected item : the tuples protecting the entry, the
+ * tuples protecting any attribute, and the tuples protecting some given attribute
+ * types. A tuple is only excluded when the {@link RelatedProtectedItemFilter} or the
+ * {@link MicroOperationFilter} would have removed it, so the result of the ACDF engine
+ * is unchanged.
+ * <p>
+ * An instance is never modified once built : the {@link TupleCache} replaces it when
+ * the subentry changes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class AciTupleSet
+{
+    /** An empty set of tuples */
+    public static final AciTupleSet EMPTY = new AciTupleSet( Collections.<ACITuple> emptyList() );
+
+    /** All the tuples */
+    private final List<ACITuple> tuples;
+
+    /** The tuples related to the entry scope */
+    private final List<ACITuple> entryTuples = new ArrayList<>();
+
+    /** The tuples related to any attribute type */
+    private final List<ACITuple> anyAttributeTuples = new ArrayList<>();
+
+    /** The tuples related to some attribute types, by OID */
+    private final Map<String, List<ACITuple>> attributeTuples = new HashMap<>();
+
+    /** The tuples granting or denying each micro operation */
+    private final Map<MicroOperation, Set<ACITuple>> microOperationTuples = new HashMap<>();
+
+    /** Tells if the decisions taken from these tuples do not depend on the protected entry */
+    private final boolean entryIndependent;
+
+    /** The tuples already selected for an attribute type and some micro operations */
+    private final Map<SelectionKey, List<ACITuple>> selections = new ConcurrentHashMap<>();
+
+
+    /**
+     * Creates a new instance of AciTupleSet.
+     *
+     * @param tuples The subentry tuples
+     */
+    public AciTupleSet( List<ACITuple> tuples )
+    {
+        this.tuples = Collections.unmodifiableList( new ArrayList<>( tuples ) );
+
+        for ( ACITuple tuple : this.tuples )
+        {
+            for ( MicroOperation microOperation : tuple.getMicroOperations() )
+            {
+                microOperationTuples.computeIfAbsent( microOperation, m -> new HashSet<>() ).add( tuple );
+            }
+
+            Set<String> oids = new HashSet<>();
+            boolean entry = false;
+            boolean anyAttribute = false;
+
+            for ( ProtectedItem item : tuple.getProtectedItems() )
+            {
+                if ( item == ProtectedItem.ENTRY )
+                {
+                    entry = true;
+                }
+                else if ( ( item == ProtectedItem.ALL_USER_ATTRIBUTE_TYPES )
+                    || ( item == ProtectedItem.ALL_USER_ATTRIBUTE_TYPES_AND_VALUES ) )
+                {
+                    anyAttribute = true;
+                }
+                else if ( item instanceof AllAttributeValuesItem )
+                {
+                    ( ( AllAttributeValuesItem ) item ).iterator().forEachRemaining( at -> oids.add( at.getOid() ) );
+                }
+                else if ( item instanceof AttributeTypeItem )
+                {
+                    ( ( AttributeTypeItem ) item ).iterator().forEachRemaining( at -> oids.add( at.getOid() ) );
+                }
+                else if ( item instanceof SelfValueItem )
+                {
+                    ( ( SelfValueItem ) item ).iterator().forEachRemaining( at -> oids.add( at.getOid() ) );
+                }
+                else if ( item instanceof MaxValueCountItem )
+                {
+                    ( ( MaxValueCountItem ) item ).iterator().forEachRemaining(
+                        ( MaxValueCountElem elem ) -> oids.add( elem.getAttributeType().getOid() ) );
+                }
+                else if ( item instanceof RestrictedByItem )
+                {
+                    ( ( RestrictedByItem ) item ).iterator().forEachRemaining(
+                        ( RestrictedByElem elem ) -> oids.add( elem.getAttributeType().getOid() ) );
+                }
+                else if ( item instanceof AttributeValueItem )
+                {
+                    anyAttribute |= !addAttributeValueOids( ( AttributeValueItem ) item, oids );
+                }
+                else
+                {
+                    // The classes, rangeOfValues and maxImmSub items depend on the entry, whatever
+                    // the scope is
+                    entry = true;
+                    anyAttribute = true;
+                }
+            }
+
+            if ( entry )
+            {
+                entryTuples.add( tuple );
+            }
+
+            if ( anyAttribute )
+            {
+                anyAttributeTuples.add( tuple );
+            }
+            else
+            {
+                for ( String oid : oids )
+                {
+                    attributeTuples.computeIfAbsent( oid, o -> new ArrayList<>() ).add( tuple );
+                }
+            }
+        }
+
+        entryIndependent = AciDecisionCache.isCacheable( this.tuples );
+    }
+
+
+    /**
+     * Adds the OIDs of the attributes of an attributeValue item.
+     *
+     * @return false if an attribute has no AttributeType, so the OID is unknown
+     */
+    private static boolean addAttributeValueOids( AttributeValueItem item, Set<String> oids )
+    {
+        for ( Attribute attribute : ( Iterable<Attribute> ) item::iterator )
+        {
+            if ( attribute.getAttributeType() == null )
+            {
+                return false;
+            }
+
+            oids.add( attribute.getAttributeType().getOid() );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * @return All the tuples
+     */
+    public List<ACITuple> getTuples()
+    {
+        return tuples;
+    }
+
+
+    /**
+     * Gets the tuples which may be related to a check : the tuples protecting the entry
+     * when no attribute type is given, or the tuples protecting the attribute type, and
+     * containing all the micro operations.
+     *
+     * @param attributeType The checked attribute type, or null for the entry
+     * @param microOperations The checked micro operations
+     * @return The tuples, which must not be modified
+     */
+    public List<ACITuple> getTuples( AttributeType attributeType, Collection<MicroOperation> microOperations )
+    {
+        if ( tuples.isEmpty() )
+        {
+            return tuples;
+        }
+
+        SelectionKey key = new SelectionKey( attributeType, microOperations );
+
+        return selections.computeIfAbsent( key, this::select );
+    }
+
+
+    /**
+     * @return true if the decisions taken from these tuples do not depend on the protected entry
+     */
+    public boolean isEntryIndependent()
+    {
+        return entryIndependent;
+    }
+
+
+    private List<ACITuple> select( SelectionKey key )
+    {
+        // Start from the smallest micro operation bucket
+        Collection<ACITuple> candidates = tuples;
+
+        for ( MicroOperation microOperation : key.microOperations )
+        {
+            Set<ACITuple> bucket = microOperationTuples.get( microOperation );
+
+            if ( bucket == null )
+            {
+                return Collections.emptyList();
+            }
+
+            if ( bucket.size() < candidates.size() )
+            {
+                candidates = bucket;
+            }
+        }
+
+        Set<ACITuple> related;
+
+        if ( key.oid == null )
+        {
+            related = new HashSet<>( entryTuples );
+        }
+        else
+        {
+            related = new HashSet<>( anyAttributeTuples );
+            related.addAll( attributeTuples.getOrDefault( key.oid, Collections.<ACITuple> emptyList() ) );
+        }
+
+        List<ACITuple> selection = new ArrayList<>();
+
+        // Keep the tuples order
+        for ( ACITuple tuple : tuples )
+        {
+            if ( candidates.contains( tuple ) && related.contains( tuple )
+                && tuple.getMicroOperations().containsAll( key.microOperations ) )
+            {
+                selection.add( tuple );
+            }
+        }
+
+        return Collections.unmodifiableList( selection );
+    }
+
+
+    /**
+     * The key of a selection of tuples.
+     */
+    private static final class SelectionKey
+    {
+        private final String oid;
+        private final Set<MicroOperation> microOperations;
+
+
+        private SelectionKey( AttributeType attributeType, Collection<MicroOperation> microOperations )
+        {
+            this.oid = ( attributeType == null ) ? null : attributeType.getOid();
+            this.microOperations = new HashSet<>( microOperations );
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * Objects.hashCode( oid ) + microOperations.hashCode();
+        }
+
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( !( obj instanceof SelectionKey ) )
+            {
+                return false;
+            }
+
+            SelectionKey other = ( SelectionKey ) obj;
+
+            return Objects.equals( oid, other.oid ) && microOperations.equals( other.microOperations );
+        }
+    }
+}
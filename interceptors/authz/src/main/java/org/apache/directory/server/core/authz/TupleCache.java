@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.directory.SearchControls;
 
@@ -74,8 +75,14 @@ public class TupleCache
     /** the logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( TupleCache.class );
 
-    /** a map of strings to ACITuple collections */
-    private final Map<String, List<ACITuple>> tuples = new HashMap<>();
+    /**
+     * a map of subentry normalized names to their tuples. The map is never modified once
+     * published, it is replaced when a subentry changes, so it can be read without locking.
+     */
+    private volatile Map<String, AciTupleSet> tuples = Collections.emptyMap();
+
+    /** incremented each time the tuples change */
+    private final AtomicLong version = new AtomicLong();
 
     /** the directory service */
     private final DirectoryService directoryService;
@@ -199,14 +206,11 @@ public class TupleCache
     }
 
 
-    public void subentryAdded( Dn dn, Entry entry ) throws LdapException
+    /**
+     * Parses the prescriptiveACI of a subentry, and stores the resulting tuples in a new set
+     */
+    private AciTupleSet parseTuples( Entry entry )
     {
-        // only do something if the entry contains a prescriptiveACI
-        if ( !hasPrescriptiveACI( entry ) )
-        {
-            return;
-        }
-
         // Get the prescriptiveACI
         Attribute prescriptiveAci = entry.get( directoryService.getAtProvider().getPrescriptiveACI() );
 
@@ -234,22 +238,50 @@ public class TupleCache
             }
         }
 
-        tuples.put( dn.getNormName(), entryTuples );
+        return new AciTupleSet( entryTuples );
     }
 
 
-    public void subentryDeleted( Dn dn, Entry entry ) throws LdapException
+    /**
+     * Publishes the tuples of a subentry, replacing its previous tuples if any. The
+     * readers see either the old or the new tuples, and the version is bumped once.
+     */
+    private void publish( Dn dn, AciTupleSet tupleSet )
+    {
+        Map<String, AciTupleSet> newTuples = new HashMap<>( tuples );
+        newTuples.put( dn.getNormName(), tupleSet );
+        tuples = newTuples;
+        version.incrementAndGet();
+    }
+
+
+    public synchronized void subentryAdded( Dn dn, Entry entry ) throws LdapException
     {
+        // only do something if the entry contains a prescriptiveACI
         if ( !hasPrescriptiveACI( entry ) )
         {
             return;
         }
 
-        tuples.remove( dn.getNormName() );
+        publish( dn, parseTuples( entry ) );
     }
 
 
-    public void subentryModified( Dn normName, List<Modification> mods, Entry entry ) throws LdapException
+    public synchronized void subentryDeleted( Dn dn, Entry entry ) throws LdapException
+    {
+        if ( !hasPrescriptiveACI( entry ) )
+        {
+            return;
+        }
+
+        Map<String, AciTupleSet> newTuples = new HashMap<>( tuples );
+        newTuples.remove( dn.getNormName() );
+        tuples = newTuples;
+        version.incrementAndGet();
+    }
+
+
+    public synchronized void subentryModified( Dn normName, List<Modification> mods, Entry entry ) throws LdapException
     {
         if ( !hasPrescriptiveACI( entry ) )
         {
@@ -260,14 +292,16 @@ public class TupleCache
         {
             if ( mod.getAttribute().isInstanceOf( directoryService.getAtProvider().getPrescriptiveACI() ) )
             {
-                subentryDeleted( normName, entry );
-                subentryAdded( normName, entry );
+                // The entry holds all the modified values, its tuples are built once
+                publish( normName, parseTuples( entry ) );
+
+                return;
             }
         }
     }
 
 
-    public void subentryModified( Dn normName, Entry mods, Entry entry ) throws LdapException
+    public synchronized void subentryModified( Dn normName, Entry mods, Entry entry ) throws LdapException
     {
         if ( !hasPrescriptiveACI( entry ) )
         {
@@ -276,27 +310,58 @@ public class TupleCache
 
         if ( mods.get( directoryService.getAtProvider().getPrescriptiveACI() ) != null )
         {
-            subentryDeleted( normName, entry );
-            subentryAdded( normName, entry );
+            publish( normName, parseTuples( entry ) );
         }
     }
 
 
     public List<ACITuple> getACITuples( String subentryDn )
     {
-        List<ACITuple> aciTuples = tuples.get( subentryDn );
+        return getTupleSet( subentryDn ).getTuples();
+    }
+
+
+    /**
+     * Gets the tuples of an access control subentry, indexed by protected item and
+     * micro operation.
+     *
+     * @param subentryDn the normalized name of the subentry
+     * @return the subentry tuples, empty if the subentry is unknown
+     */
+    public AciTupleSet getTupleSet( String subentryDn )
+    {
+        AciTupleSet tupleSet = tuples.get( subentryDn );
 
-        if ( aciTuples == null )
+        if ( tupleSet == null )
         {
-            return Collections.emptyList();
+            return AciTupleSet.EMPTY;
         }
 
-        return Collections.unmodifiableList( aciTuples );
+        return tupleSet;
     }
 
 
-    public void subentryRenamed( Dn oldName, Dn newName )
+    public synchronized void subentryRenamed( Dn oldName, Dn newName )
+    {
+        Map<String, AciTupleSet> newTuples = new HashMap<>( tuples );
+        AciTupleSet tupleSet = newTuples.remove( oldName.getNormName() );
+
+        if ( tupleSet != null )
+        {
+            newTuples.put( newName.getNormName(), tupleSet );
+        }
+
+        tuples = newTuples;
+        version.incrementAndGet();
+    }
+
+
+    /**
+     * @return the version of the tuples, incremented each time an access control subentry
+     * is added, deleted, modified or renamed
+     */
+    public long getVersion()
     {
-        tuples.put( newName.getNormName(), tuples.remove( oldName.getNormName() ) );
+        return version.get();
     }
 }
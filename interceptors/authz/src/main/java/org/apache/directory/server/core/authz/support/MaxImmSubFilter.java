@@ -42,6 +42,7 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
 
 
 /**
@@ -99,7 +100,7 @@ public class MaxImmSubFilter implements ACITupleFilter
             return aciContext.getAciTuples();
         }
 
-        int immSubCount = -1;
+        long immSubCount = -1L;
 
         for ( Iterator<ACITuple> i = aciContext.getAciTuples().iterator(); i.hasNext(); )
         {
@@ -116,7 +117,8 @@ public class MaxImmSubFilter implements ACITupleFilter
                 {
                     if ( immSubCount < 0 )
                     {
-                        immSubCount = getImmSubCount( aciContext.getOperationContext(), aciContext.getEntryDn() );
+                        immSubCount = getImmSubCount( aciContext.getOperationContext(),
+                            aciContext.getEntryDn().getParent() );
                     }
 
                     MaxImmSubItem mis = ( MaxImmSubItem ) item;
@@ -134,15 +136,29 @@ public class MaxImmSubFilter implements ACITupleFilter
     }
 
 
-    private int getImmSubCount( OperationContext opContext, Dn entryName ) throws LdapException
+    /**
+     * Gets the number of immediate subordinates of an entry. The count maintained by the
+     * partition is used when available, otherwise the children are searched and counted.
+     */
+    private long getImmSubCount( OperationContext opContext, Dn baseDn ) throws LdapException
     {
-        int cnt = 0;
+        Partition partition = opContext.getPartition();
+
+        if ( partition != null )
+        {
+            long nbChildren = partition.getChildCount( opContext.getTransaction(), baseDn );
+
+            if ( nbChildren >= 0L )
+            {
+                return nbChildren;
+            }
+        }
+
+        long cnt = 0L;
         EntryFilteringCursor results = null;
 
         try
         {
-            Dn baseDn = new Dn( opContext.getSession().getDirectoryService().getSchemaManager(),
-                entryName.getRdn( entryName.size() - 1 ) );
             SearchOperationContext searchContext = new SearchOperationContext( opContext.getSession(),
                 baseDn, childrenFilter, childrenSearchControls );
             searchContext.setAliasDerefMode( AliasDerefMode.DEREF_ALWAYS );
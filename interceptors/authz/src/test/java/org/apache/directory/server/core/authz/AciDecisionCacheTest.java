@@ -0,0 +1,115 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxImmSubItem;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.server.core.authz.support.OperationScope;
+import org.junit.Test;
+
+
+/**
+ * Tests {@link AciDecisionCache}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AciDecisionCacheTest
+{
+    private static final Set<String> USER_GROUPS = Collections.singleton( "cn=group,ou=system" );
+    private static final Set<String> SUBENTRIES = Collections.singleton( "cn=acsubentry,ou=system" );
+    private static final Set<MicroOperation> READ = Collections.singleton( MicroOperation.READ );
+
+
+    private static List<ACITuple> tuples( UserClass userClass, ProtectedItem protectedItem )
+    {
+        Collection<UserClass> userClasses = new ArrayList<>();
+        userClasses.add( userClass );
+        Collection<ProtectedItem> protectedItems = new ArrayList<>();
+        protectedItems.add( protectedItem );
+
+        List<ACITuple> tuples = new ArrayList<>();
+        tuples.add( new ACITuple( userClasses, AuthenticationLevel.NONE, protectedItems, READ, true, 0 ) );
+
+        return tuples;
+    }
+
+
+    @Test
+    public void testIsCacheable()
+    {
+        assertTrue( AciDecisionCache.isCacheable( tuples( UserClass.ALL_USERS, ProtectedItem.ENTRY ) ) );
+        assertTrue( AciDecisionCache.isCacheable( tuples( new UserClass.Name( USER_GROUPS ),
+            ProtectedItem.ALL_USER_ATTRIBUTE_TYPES_AND_VALUES ) ) );
+
+        // Depends on the entry Dn
+        assertFalse( AciDecisionCache.isCacheable( tuples( UserClass.THIS_ENTRY, ProtectedItem.ENTRY ) ) );
+
+        // Depends on the entry children
+        assertFalse( AciDecisionCache.isCacheable( tuples( UserClass.ALL_USERS, new MaxImmSubItem( 10 ) ) ) );
+    }
+
+
+    @Test
+    public void testDecisions()
+    {
+        AciDecisionCache cache = new AciDecisionCache();
+
+        AciDecisionCache.Decisions decisions = cache.getDecisions( 1L, "uid=admin,ou=system", USER_GROUPS,
+            AuthenticationLevel.SIMPLE, SUBENTRIES );
+        assertNull( decisions.get( null, OperationScope.ENTRY ) );
+        decisions.put( null, OperationScope.ENTRY, true );
+
+        // Another entry in the same subentries
+        decisions = cache.getDecisions( 1L, "uid=admin,ou=system", new HashSet<>( USER_GROUPS ),
+            AuthenticationLevel.SIMPLE, new HashSet<>( SUBENTRIES ) );
+        assertEquals( Boolean.TRUE, decisions.get( null, OperationScope.ENTRY ) );
+        assertNull( decisions.get( null, OperationScope.ATTRIBUTE_TYPE ) );
+
+        // Another user
+        decisions = cache.getDecisions( 1L, "uid=user,ou=system", USER_GROUPS, AuthenticationLevel.SIMPLE,
+            SUBENTRIES );
+        assertNull( decisions.get( null, OperationScope.ENTRY ) );
+
+        // The tuples have changed
+        decisions = cache.getDecisions( 2L, "uid=admin,ou=system", USER_GROUPS, AuthenticationLevel.SIMPLE,
+            SUBENTRIES );
+        assertNotNull( decisions );
+        assertNull( decisions.get( null, OperationScope.ENTRY ) );
+        assertEquals( 0, cache.size() );
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.aci.protectedItem.AttributeTypeItem;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxImmSubItem;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests {@link AciTupleSet}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AciTupleSetTest
+{
+    private static final Set<MicroOperation> READ = Collections.singleton( MicroOperation.READ );
+    private static final Set<MicroOperation> BROWSE = Collections.singleton( MicroOperation.BROWSE );
+
+    /** The CN attribute Type */
+    private static AttributeType CN_AT;
+
+    /** The SN attribute Type */
+    private static AttributeType SN_AT;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        SchemaManager schemaManager = new DefaultSchemaManager();
+        CN_AT = schemaManager.lookupAttributeTypeRegistry( "cn" );
+        SN_AT = schemaManager.lookupAttributeTypeRegistry( "sn" );
+    }
+
+
+    private static ACITuple tuple( ProtectedItem protectedItem, Set<MicroOperation> microOperations )
+    {
+        Collection<UserClass> userClasses = new ArrayList<>();
+        userClasses.add( UserClass.ALL_USERS );
+        Collection<ProtectedItem> protectedItems = new ArrayList<>();
+        protectedItems.add( protectedItem );
+
+        return new ACITuple( userClasses, AuthenticationLevel.NONE, protectedItems, microOperations, true, 0 );
+    }
+
+
+    @Test
+    public void testSelection()
+    {
+        Set<AttributeType> cn = new HashSet<>();
+        cn.add( CN_AT );
+
+        ACITuple entryBrowse = tuple( ProtectedItem.ENTRY, BROWSE );
+        ACITuple allAttributesRead = tuple( ProtectedItem.ALL_USER_ATTRIBUTE_TYPES_AND_VALUES, READ );
+        ACITuple cnRead = tuple( new AttributeTypeItem( cn ), READ );
+        ACITuple cnBrowse = tuple( new AttributeTypeItem( cn ), BROWSE );
+
+        List<ACITuple> tuples = new ArrayList<>();
+        tuples.add( entryBrowse );
+        tuples.add( allAttributesRead );
+        tuples.add( cnRead );
+        tuples.add( cnBrowse );
+
+        AciTupleSet tupleSet = new AciTupleSet( tuples );
+
+        assertEquals( tuples, tupleSet.getTuples() );
+        assertTrue( tupleSet.isEntryIndependent() );
+
+        // The entry
+        List<ACITuple> selection = tupleSet.getTuples( null, BROWSE );
+        assertEquals( 1, selection.size() );
+        assertTrue( selection.contains( entryBrowse ) );
+        assertTrue( tupleSet.getTuples( null, READ ).isEmpty() );
+
+        // The cn attribute
+        selection = tupleSet.getTuples( CN_AT, READ );
+        assertEquals( 2, selection.size() );
+        assertTrue( selection.contains( allAttributesRead ) );
+        assertTrue( selection.contains( cnRead ) );
+
+        // The selection is kept
+        assertSame( selection, tupleSet.getTuples( CN_AT, Collections.singletonList( MicroOperation.READ ) ) );
+
+        // The sn attribute
+        selection = tupleSet.getTuples( SN_AT, READ );
+        assertEquals( 1, selection.size() );
+        assertTrue( selection.contains( allAttributesRead ) );
+    }
+
+
+    @Test
+    public void testEntryDependentItem()
+    {
+        ACITuple maxImmSub = tuple( new MaxImmSubItem( 10 ), READ );
+        AciTupleSet tupleSet = new AciTupleSet( Collections.singletonList( maxImmSub ) );
+
+        // Related to any scope
+        assertTrue( tupleSet.getTuples( null, READ ).contains( maxImmSub ) );
+        assertTrue( tupleSet.getTuples( CN_AT, READ ).contains( maxImmSub ) );
+        assertFalse( tupleSet.isEntryIndependent() );
+    }
+}
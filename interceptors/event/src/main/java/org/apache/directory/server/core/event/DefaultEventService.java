@@ -20,12 +20,21 @@
 package org.apache.directory.server.core.event;
 
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.ExtensibleNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
 import org.apache.directory.api.ldap.model.schema.normalizers.NameComponentNormalizer;
@@ -40,6 +49,12 @@ import org.apache.directory.server.core.api.normalization.FilterNormalizingVisit
 /**
  * A class implementing the EventService interface. It stores all the Listener 
  * associated with a DirectoryService.
+ * <br>
+ * The registrations are also indexed by their base Dn, so that the registrations
+ * which may select an entry are found by walking up the entry's ancestors, instead of
+ * checking every registration. The attributes an entry must have to match a
+ * registration's filter are also computed once, to discard a registration without
+ * evaluating its filter.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -48,6 +63,9 @@ class DefaultEventService implements EventService
     /** The list of RegistrationEntries being registered */
     private List<RegistrationEntry> registrations = new CopyOnWriteArrayList<>();
 
+    /** The registrations, indexed by the normalized base Dn */
+    private Map<String, List<IndexedRegistration>> registrationsByBase = new ConcurrentHashMap<>();
+
     /** The DirectoryService instance */
     private DirectoryService directoryService;
 
@@ -55,6 +73,87 @@ class DefaultEventService implements EventService
     private FilterNormalizingVisitor filterNormalizer;
 
 
+    /**
+     * A registration, with the attributes an entry must have to match its filter
+     */
+    static class IndexedRegistration
+    {
+        /** The registration */
+        private final RegistrationEntry registration;
+
+        /** The attributes an entry must have to match the filter */
+        private final List<AttributeType> requiredAttributes;
+
+
+        IndexedRegistration( RegistrationEntry registration )
+        {
+            this.registration = registration;
+            requiredAttributes = new ArrayList<>();
+            collectRequiredAttributes( registration.getCriteria().getFilter() );
+        }
+
+
+        /**
+         * Collects the attributes used by the leaves of a filter which must all be true :
+         * the filter itself, or the children of a top level AND. An entry which does not
+         * have one of those attributes can't match the filter.
+         */
+        private void collectRequiredAttributes( ExprNode filter )
+        {
+            if ( filter instanceof AndNode )
+            {
+                for ( ExprNode child : ( ( AndNode ) filter ).getChildren() )
+                {
+                    collectRequiredAttributes( child );
+                }
+            }
+            else if ( ( filter instanceof LeafNode ) && !( filter instanceof ExtensibleNode ) )
+            {
+                AttributeType attributeType = ( ( LeafNode ) filter ).getAttributeType();
+
+                if ( attributeType != null )
+                {
+                    requiredAttributes.add( attributeType );
+                }
+            }
+        }
+
+
+        /**
+         * Tells if an entry has all the attributes required by the filter
+         *
+         * @param entry The entry
+         * @return false if the filter can't match the entry
+         */
+        boolean mayMatch( Entry entry )
+        {
+            if ( entry == null )
+            {
+                return true;
+            }
+
+            for ( AttributeType attributeType : requiredAttributes )
+            {
+                if ( entry.get( attributeType ) == null )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+
+        /**
+         * @return The registration
+         */
+        RegistrationEntry getRegistration()
+        {
+            return registration;
+        }
+    }
+
+
     /**
      * Create an instance of EventService
      * @param directoryService The associated DirectoryService
@@ -82,7 +181,18 @@ class DefaultEventService implements EventService
 
         ExprNode result = ( ExprNode ) criteria.getFilter().accept( filterNormalizer );
         criteria.setFilter( result );
-        registrations.add( new RegistrationEntry( listener, criteria ) );
+        RegistrationEntry registration = new RegistrationEntry( listener, criteria );
+        registrations.add( registration );
+        IndexedRegistration indexed = new IndexedRegistration( registration );
+
+        registrationsByBase.compute( criteria.getBase().getNormName(), ( base, baseRegistrations ) ->
+        {
+            List<IndexedRegistration> updated = ( baseRegistrations == null ) ? new CopyOnWriteArrayList<>()
+                : baseRegistrations;
+            updated.add( indexed );
+
+            return updated;
+        } );
     }
 
 
@@ -99,6 +209,16 @@ class DefaultEventService implements EventService
                 registrations.remove( entry );
             }
         }
+
+        for ( String base : registrationsByBase.keySet() )
+        {
+            registrationsByBase.computeIfPresent( base, ( key, baseRegistrations ) ->
+            {
+                baseRegistrations.removeIf( indexed -> indexed.getRegistration().getListener() == listener );
+
+                return baseRegistrations.isEmpty() ? null : baseRegistrations;
+            } );
+        }
     }
 
 
@@ -110,4 +230,59 @@ class DefaultEventService implements EventService
     {
         return Collections.unmodifiableList( registrations );
     }
+
+
+    /**
+     * Gets the registrations which may select an entry : the registrations which base
+     * is an ancestor of the entry (or the entry itself) within the registration's scope,
+     * and which filter only uses attributes present in the entry. The filters still
+     * have to be evaluated.
+     *
+     * @param dn The entry's Dn
+     * @param entry The entry
+     * @return The candidate registrations
+     */
+    List<RegistrationEntry> getCandidateRegistrations( Dn dn, Entry entry )
+    {
+        if ( registrationsByBase.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        List<RegistrationEntry> candidates = new ArrayList<>();
+        Dn ancestor = dn;
+        int depth = 0;
+
+        while ( true )
+        {
+            List<IndexedRegistration> baseRegistrations = registrationsByBase.get( ancestor.getNormName() );
+
+            if ( baseRegistrations != null )
+            {
+                for ( IndexedRegistration indexed : baseRegistrations )
+                {
+                    SearchScope scope = indexed.getRegistration().getCriteria().getScope();
+
+                    boolean inScope = ( scope == SearchScope.SUBTREE )
+                        || ( ( scope == SearchScope.ONELEVEL ) && ( depth == 1 ) )
+                        || ( ( scope == SearchScope.OBJECT ) && ( depth == 0 ) );
+
+                    if ( inScope && indexed.mayMatch( entry ) )
+                    {
+                        candidates.add( indexed.getRegistration() );
+                    }
+                }
+            }
+
+            if ( ancestor.isEmpty() )
+            {
+                break;
+            }
+
+            ancestor = ancestor.getParent();
+            depth++;
+        }
+
+        return candidates;
+    }
 }
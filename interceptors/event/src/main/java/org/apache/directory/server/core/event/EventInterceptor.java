@@ -20,24 +20,13 @@
 package org.apache.directory.server.core.event;
 
 
-import static org.apache.directory.api.ldap.model.message.SearchScope.OBJECT;
-import static org.apache.directory.api.ldap.model.message.SearchScope.ONELEVEL;
-import static org.apache.directory.api.ldap.model.message.SearchScope.SUBTREE;
-
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
@@ -47,7 +36,6 @@ import org.apache.directory.server.core.api.event.DirectoryListener;
 import org.apache.directory.server.core.api.event.Evaluator;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.ExpressionEvaluator;
-import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.api.event.RegistrationEntry;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
@@ -72,8 +60,31 @@ public class EventInterceptor extends BaseInterceptor
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( EventInterceptor.class );
 
+    /** The default number of threads used to call the asynchronous listeners */
+    public static final int DEFAULT_DELIVERY_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** The default number of pending events per delivery thread */
+    public static final int DEFAULT_DELIVERY_QUEUE_SIZE = 1000;
+
+    /** The default time an operation waits for some room in a full delivery queue, in milliseconds */
+    public static final long DEFAULT_DELIVERY_TIMEOUT = 100L;
+
     private Evaluator evaluator;
-    private ExecutorService executor;
+
+    /** The event service, which indexes the registrations */
+    private DefaultEventService eventService;
+
+    /** Calls the asynchronous listeners */
+    private ListenerNotifier notifier;
+
+    /** The number of threads used to call the asynchronous listeners */
+    private int deliveryThreads = DEFAULT_DELIVERY_THREADS;
+
+    /** The number of pending events per delivery thread */
+    private int deliveryQueueSize = DEFAULT_DELIVERY_QUEUE_SIZE;
+
+    /** The time an operation waits for some room in a full delivery queue */
+    private long deliveryTimeout = DEFAULT_DELIVERY_TIMEOUT;
 
 
     /**
@@ -96,28 +107,62 @@ public class EventInterceptor extends BaseInterceptor
         super.init( directoryService );
 
         evaluator = new ExpressionEvaluator( schemaManager );
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ) );
         
-        ThreadFactory threadFactory = new ThreadFactory() 
-        {
-            @Override
-            public Thread newThread( Runnable runnable ) 
-            {
-                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
-                newThread.setDaemon( true );
-                
-                return newThread;
-            }
-        };
-        
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ),
-            threadFactory );
+        notifier = new ListenerNotifier( deliveryThreads, deliveryQueueSize, deliveryTimeout );
 
-        this.directoryService.setEventService( new DefaultEventService( directoryService ) );
+        eventService = new DefaultEventService( directoryService );
+        this.directoryService.setEventService( eventService );
         LOG.info( "Initialization complete." );
     }
 
 
+    /**
+     * Sets the number of threads used to call the asynchronous listeners. It must be set
+     * before the interceptor is initialized.
+     *
+     * @param deliveryThreads The number of threads
+     */
+    public void setDeliveryThreads( int deliveryThreads )
+    {
+        this.deliveryThreads = ( deliveryThreads > 0 ) ? deliveryThreads : DEFAULT_DELIVERY_THREADS;
+    }
+
+
+    /**
+     * Sets the number of events waiting to be delivered by each thread, after which the
+     * operations wait for the listeners, and drop the event if the queue is still full
+     * after the delivery timeout. It must be set before the interceptor is initialized.
+     *
+     * @param deliveryQueueSize The number of pending events
+     */
+    public void setDeliveryQueueSize( int deliveryQueueSize )
+    {
+        this.deliveryQueueSize = ( deliveryQueueSize > 0 ) ? deliveryQueueSize : DEFAULT_DELIVERY_QUEUE_SIZE;
+    }
+
+
+    /**
+     * Sets the time an operation waits for some room in a full delivery queue, after
+     * which the event is dropped. It must be set before the interceptor is initialized.
+     *
+     * @param deliveryTimeout The time to wait, in milliseconds
+     */
+    public void setDeliveryTimeout( long deliveryTimeout )
+    {
+        this.deliveryTimeout = ( deliveryTimeout >= 0L ) ? deliveryTimeout : DEFAULT_DELIVERY_TIMEOUT;
+    }
+
+
+    /**
+     * @return The number of events which have not been delivered to the asynchronous
+     * listeners because they were too slow
+     */
+    public long getDroppedEventCount()
+    {
+        return notifier.getDroppedEventCount();
+    }
+
+
     /**
      * Call the listener passing it the context.
      */
@@ -132,7 +177,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    notifier.deliver( listener, new Runnable()
                     {
                         @Override
                         public void run()
@@ -151,7 +196,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    notifier.deliver( listener, new Runnable()
                     {
                         @Override
                         public void run()
@@ -170,7 +215,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    notifier.deliver( listener, new Runnable()
                     {
                         @Override
                         public void run()
@@ -189,7 +234,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    notifier.deliver( listener, new Runnable()
                     {
                         @Override
                         public void run()
@@ -208,7 +253,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    notifier.deliver( listener, new Runnable()
                     {
                         @Override
                         public void run()
@@ -227,7 +272,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    notifier.deliver( listener, new Runnable()
                     {
                         @Override
                         public void run()
@@ -427,12 +472,13 @@ public class EventInterceptor extends BaseInterceptor
 
 
     /**
-     * Find a list of registrationEntries given an entry and a name. We check against
-     * the criteria for each registrationEntry
+     * Find a list of registrationEntries given an entry and a name. The event service
+     * gives the registrations which base and scope include the entry (see DIRSERVER-1502),
+     * we then check the entry against their filter.
      */
     private List<RegistrationEntry> getSelectingRegistrations( Dn name, Entry entry ) throws LdapException
     {
-        List<RegistrationEntry> registrations = directoryService.getEventService().getRegistrationEntries();
+        List<RegistrationEntry> registrations = eventService.getCandidateRegistrations( name, entry );
 
         if ( registrations.isEmpty() )
         {
@@ -443,19 +489,8 @@ public class EventInterceptor extends BaseInterceptor
 
         for ( RegistrationEntry registration : registrations )
         {
-            NotificationCriteria criteria = registration.getCriteria();
-
-            Dn base = criteria.getBase();
-
-            SearchScope scope = criteria.getScope();
-            
-            // fix for DIRSERVER-1502
-            boolean inscope =
-                    ( ( ( scope == OBJECT ) && name.equals( base ) )
-                    || ( ( scope == ONELEVEL ) && name.getParent().equals( base ) )
-                    || ( ( scope == SUBTREE ) && ( name.isDescendantOf( base ) || name.equals( base ) ) ) );
-            
-            if ( inscope && evaluator.evaluate( criteria.getFilter(), base, entry ) )
+            if ( evaluator.evaluate( registration.getCriteria().getFilter(), registration.getCriteria().getBase(),
+                entry ) )
             {
                 selecting.add( registration );
             }
@@ -471,6 +506,6 @@ public class EventInterceptor extends BaseInterceptor
     @Override
     public void destroy()
     {
-       executor.shutdown();
+        notifier.shutdown();
     }
 }
@@ -0,0 +1,240 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Calls the asynchronous listeners. Each executor has a single thread, and a listener is
+ * always called by the same executor, so that it receives the events in the order they
+ * happened.
+ * <br>
+ * The events are notified while the operation holds the DIT lock, so the operation must
+ * never wait for a listener : when the queue of an executor is full, the operation waits
+ * at most for the given timeout, then the event is dropped and counted. A listener doing
+ * a write does not wait at all, as it could be waiting for itself. The listener which has
+ * missed the event is told so, as it can't otherwise know it's not up to date anymore.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class ListenerNotifier
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ListenerNotifier.class );
+
+    /** A warning is logged every time this number of events have been dropped */
+    private static final long DROP_LOG_INTERVAL = 1000L;
+
+    /** Set for the threads calling the listeners */
+    private static final ThreadLocal<Boolean> DELIVERY_THREAD = new ThreadLocal<>();
+
+    /** The executors calling the listeners */
+    private final ThreadPoolExecutor[] executors;
+
+    /** The time to wait for some room in a full queue, in milliseconds */
+    private final long offerTimeout;
+
+    /** The number of events which have not been delivered */
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of ListenerNotifier.
+     *
+     * @param deliveryThreads The number of threads calling the listeners
+     * @param deliveryQueueSize The number of pending events per thread
+     * @param offerTimeout The time to wait for some room in a full queue, in milliseconds
+     */
+    ListenerNotifier( int deliveryThreads, int deliveryQueueSize, long offerTimeout )
+    {
+        this.offerTimeout = offerTimeout;
+
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread newThread = Executors.defaultThreadFactory().newThread( () ->
+                {
+                    DELIVERY_THREAD.set( Boolean.TRUE );
+                    runnable.run();
+                } );
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        };
+
+        RejectedExecutionHandler boundedWait = ( runnable, pool ) ->
+        {
+            if ( pool.isShutdown() )
+            {
+                drop( runnable, "the event interceptor is stopped" );
+            }
+            else if ( DELIVERY_THREAD.get() != null )
+            {
+                if ( !pool.getQueue().offer( runnable ) )
+                {
+                    drop( runnable, "a listener is writing while the delivery queue is full" );
+                }
+            }
+            else
+            {
+                try
+                {
+                    if ( !pool.getQueue().offer( runnable, this.offerTimeout, TimeUnit.MILLISECONDS ) )
+                    {
+                        drop( runnable, "the delivery queue is full" );
+                    }
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                    drop( runnable, "the operation has been interrupted" );
+                }
+            }
+        };
+
+        executors = new ThreadPoolExecutor[deliveryThreads];
+
+        for ( int i = 0; i < deliveryThreads; i++ )
+        {
+            executors[i] = new ThreadPoolExecutor( 1, 1, 1000, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( deliveryQueueSize ), threadFactory, boundedWait );
+            executors[i].allowCoreThreadTimeOut( true );
+        }
+    }
+
+
+    /**
+     * Counts and logs a dropped event, and tells the listener it has missed it
+     */
+    private void drop( Runnable runnable, String reason )
+    {
+        long dropped = droppedEvents.incrementAndGet();
+
+        if ( ( dropped == 1L ) || ( dropped % DROP_LOG_INTERVAL == 0L ) )
+        {
+            LOG.warn( "An event has not been delivered, {} ({} events dropped so far)", reason, dropped );
+        }
+        else
+        {
+            LOG.debug( "An event has not been delivered, {}", reason );
+        }
+
+        if ( runnable instanceof Notification )
+        {
+            DirectoryListener listener = ( ( Notification ) runnable ).listener;
+
+            try
+            {
+                listener.eventDropped();
+            }
+            catch ( Exception e )
+            {
+                LOG.error( "The listener {} has failed to handle a dropped event", listener, e );
+            }
+        }
+    }
+
+
+    /**
+     * Gets the executor calling a listener
+     */
+    private ThreadPoolExecutor getExecutor( DirectoryListener listener )
+    {
+        int hash = System.identityHashCode( listener );
+
+        return executors[( hash & Integer.MAX_VALUE ) % executors.length];
+    }
+
+
+    /**
+     * Notifies a listener in the thread dedicated to it.
+     *
+     * @param listener The listener to notify
+     * @param notification The call to the listener
+     */
+    void deliver( DirectoryListener listener, Runnable notification )
+    {
+        getExecutor( listener ).execute( new Notification( listener, notification ) );
+    }
+
+
+    /**
+     * @return The number of events which have not been delivered because the listeners
+     * were too slow
+     */
+    long getDroppedEventCount()
+    {
+        return droppedEvents.get();
+    }
+
+
+    /**
+     * Stops the executors. The pending events are still delivered.
+     */
+    void shutdown()
+    {
+        for ( ThreadPoolExecutor executor : executors )
+        {
+            executor.shutdown();
+        }
+    }
+
+
+    /**
+     * A call to a listener, which is kept to tell the listener when the call is dropped
+     */
+    private static class Notification implements Runnable
+    {
+        /** The listener to notify */
+        private final DirectoryListener listener;
+
+        /** The call to the listener */
+        private final Runnable call;
+
+
+        Notification( DirectoryListener listener, Runnable call )
+        {
+            this.listener = listener;
+            this.call = call;
+        }
+
+
+        @Override
+        public void run()
+        {
+            call.run();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * Tests the delivery of the events to the asynchronous listeners.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ListenerNotifierTest
+{
+    private ListenerNotifier notifier;
+
+
+    @After
+    public void shutdown()
+    {
+        if ( notifier != null )
+        {
+            notifier.shutdown();
+        }
+    }
+
+
+    private static DirectoryListener newListener()
+    {
+        return new DirectoryListenerAdapter()
+        {
+        };
+    }
+
+
+    /**
+     * Blocks the thread delivering the events to a listener, until the returned latch
+     * is released
+     */
+    private CountDownLatch blockListener( DirectoryListener listener ) throws InterruptedException
+    {
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        notifier.deliver( listener, () ->
+        {
+            started.countDown();
+
+            try
+            {
+                release.await();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+        } );
+
+        assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+
+        return release;
+    }
+
+
+    @Test
+    public void testSaturatedQueueDoesNotBlock() throws Exception
+    {
+        notifier = new ListenerNotifier( 1, 2, 50L );
+        DirectoryListener listener = newListener();
+        CountDownLatch delivered = new CountDownLatch( 2 );
+
+        CountDownLatch release = blockListener( listener );
+
+        // Fill the queue
+        notifier.deliver( listener, delivered::countDown );
+        notifier.deliver( listener, delivered::countDown );
+        assertEquals( 0L, notifier.getDroppedEventCount() );
+
+        // The next events are dropped once the timeout is expired
+        long start = System.nanoTime();
+        notifier.deliver( listener, delivered::countDown );
+        notifier.deliver( listener, delivered::countDown );
+        long elapsed = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        assertEquals( 2L, notifier.getDroppedEventCount() );
+        assertTrue( elapsed >= 100L );
+        assertTrue( elapsed < 5000L );
+
+        // The queued events are still delivered
+        release.countDown();
+        assertTrue( delivered.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( 2L, notifier.getDroppedEventCount() );
+    }
+
+
+    @Test
+    public void testListenerToldOfDroppedEvent() throws Exception
+    {
+        notifier = new ListenerNotifier( 1, 1, 50L );
+        AtomicInteger dropped = new AtomicInteger();
+        DirectoryListener listener = new DirectoryListenerAdapter()
+        {
+            @Override
+            public void eventDropped()
+            {
+                dropped.incrementAndGet();
+            }
+        };
+
+        CountDownLatch release = blockListener( listener );
+        notifier.deliver( listener, () -> {} );
+        assertEquals( 0, dropped.get() );
+
+        // The queue is full, the listener misses this event and is told so
+        notifier.deliver( listener, () -> {} );
+        assertEquals( 1L, notifier.getDroppedEventCount() );
+        assertEquals( 1, dropped.get() );
+
+        // Another listener is not told anything
+        DirectoryListener other = newListener();
+        notifier.deliver( other, () -> {} );
+        assertEquals( 1, dropped.get() );
+
+        release.countDown();
+    }
+
+
+    @Test
+    public void testEventsDeliveredWhenRoomIsMade() throws Exception
+    {
+        notifier = new ListenerNotifier( 1, 1, 10000L );
+        DirectoryListener listener = newListener();
+        CountDownLatch delivered = new CountDownLatch( 2 );
+
+        CountDownLatch release = blockListener( listener );
+        notifier.deliver( listener, delivered::countDown );
+
+        // Make some room in the queue while the next event waits for it
+        new Thread( () ->
+        {
+            try
+            {
+                Thread.sleep( 100L );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            release.countDown();
+        } ).start();
+
+        notifier.deliver( listener, delivered::countDown );
+
+        assertTrue( delivered.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( 0L, notifier.getDroppedEventCount() );
+    }
+
+
+    @Test
+    public void testListenerNotifyingItselfDoesNotWait() throws Exception
+    {
+        notifier = new ListenerNotifier( 1, 1, 10000L );
+        DirectoryListener listener = newListener();
+        CountDownLatch done = new CountDownLatch( 1 );
+        long[] elapsed = new long[1];
+
+        // The listener fills its own queue, then writes again : it must not wait for itself
+        notifier.deliver( listener, () ->
+        {
+            long start = System.nanoTime();
+            notifier.deliver( listener, () -> {} );
+            notifier.deliver( listener, () -> {} );
+            elapsed[0] = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+            done.countDown();
+        } );
+
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertTrue( elapsed[0] < 5000L );
+        assertEquals( 1L, notifier.getDroppedEventCount() );
+    }
+
+
+    @Test
+    public void testOrderPerListener() throws Exception
+    {
+        int nbListeners = 16;
+        int nbEvents = 500;
+        notifier = new ListenerNotifier( 4, nbListeners * nbEvents, 1000L );
+        CountDownLatch delivered = new CountDownLatch( nbListeners * nbEvents );
+        List<DirectoryListener> listeners = new ArrayList<>();
+        List<List<Integer>> received = new ArrayList<>();
+
+        for ( int i = 0; i < nbListeners; i++ )
+        {
+            listeners.add( newListener() );
+            received.add( new ArrayList<Integer>() );
+        }
+
+        // The events of the listeners are interleaved, as they would be by the operations
+        for ( int event = 0; event < nbEvents; event++ )
+        {
+            for ( int i = 0; i < nbListeners; i++ )
+            {
+                List<Integer> events = received.get( i );
+                int value = event;
+
+                notifier.deliver( listeners.get( i ), () ->
+                {
+                    synchronized ( events )
+                    {
+                        events.add( value );
+                    }
+
+                    delivered.countDown();
+                } );
+            }
+        }
+
+        assertTrue( delivered.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( 0L, notifier.getDroppedEventCount() );
+
+        for ( List<Integer> events : received )
+        {
+            synchronized ( events )
+            {
+                assertEquals( nbEvents, events.size() );
+
+                for ( int event = 0; event < nbEvents; event++ )
+                {
+                    assertEquals( Integer.valueOf( event ), events.get( event ) );
+                }
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@
 package org.apache.directory.server.core.subtree;
 
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -105,6 +106,18 @@ public class SubentryInterceptor extends BaseInterceptor
     /** A reference to the nexus for direct backend operations */
     private PartitionNexus nexus;
 
+    /** The default number of entries updated in a single transaction by the background updates */
+    public static final int DEFAULT_BACKGROUND_BATCH_SIZE = 1000;
+
+    /** Tells if the references to a modified subentry are updated in the background */
+    private boolean backgroundUpdates = false;
+
+    /** The number of entries updated in a single transaction by the background updates */
+    private int backgroundBatchSize = DEFAULT_BACKGROUND_BATCH_SIZE;
+
+    /** The background updater */
+    private SubentryUpdater updater;
+
     /** An enum used for the entries update */
     private enum OperationEnum
     {
@@ -282,6 +295,130 @@ public class SubentryInterceptor extends BaseInterceptor
                 }
             }
         }
+
+        // Resume the background updates which have not been completed, now that
+        // the subentry cache is loaded
+        updater = new SubentryUpdater( this, directoryService, backgroundBatchSize );
+
+        try
+        {
+            updater.resume();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy()
+    {
+        if ( updater != null )
+        {
+            updater.stop();
+            updater = null;
+        }
+    }
+
+
+    //-------------------------------------------------------------------------------------------
+    // Background updates
+    //-------------------------------------------------------------------------------------------
+    /**
+     * @return <code>true</code> if the references to an added, deleted, moved or modified
+     * subentry are updated in the background
+     */
+    public boolean isBackgroundUpdates()
+    {
+        return backgroundUpdates;
+    }
+
+
+    /**
+     * Tells the interceptor to update the references to an added, deleted, moved or modified
+     * subentry in the background, instead of updating all the selected entries in the
+     * operation transaction. The operation returns as soon as the update has been stored,
+     * the entries being updated by batches. Disabled by default.
+     *
+     * @param backgroundUpdates <code>true</code> to update the references in the background
+     */
+    public void setBackgroundUpdates( boolean backgroundUpdates )
+    {
+        this.backgroundUpdates = backgroundUpdates;
+    }
+
+
+    /**
+     * @return The number of entries updated in a single transaction by the background updates
+     */
+    public int getBackgroundBatchSize()
+    {
+        return backgroundBatchSize;
+    }
+
+
+    /**
+     * Sets the number of entries updated in a single transaction by the background updates.
+     * It must be set before the interceptor is initialized.
+     *
+     * @param backgroundBatchSize The number of entries updated in a single transaction
+     */
+    public void setBackgroundBatchSize( int backgroundBatchSize )
+    {
+        if ( backgroundBatchSize <= 0 )
+        {
+            throw new IllegalArgumentException( "The batch size must be positive : " + backgroundBatchSize );
+        }
+
+        this.backgroundBatchSize = backgroundBatchSize;
+    }
+
+
+    /**
+     * @return A description of the background updates which have not been completed yet,
+     * with their progress
+     */
+    public List<String> getPendingUpdates()
+    {
+        if ( updater == null )
+        {
+            return new ArrayList<>();
+        }
+
+        return updater.getPendingJobs();
+    }
+
+
+    /**
+     * @return A description of the background updates which have failed on all their attempts.
+     * They will be run again when the server is restarted
+     */
+    public List<String> getFailedUpdates()
+    {
+        if ( updater == null )
+        {
+            return new ArrayList<>();
+        }
+
+        return updater.getFailedJobs();
+    }
+
+
+    /**
+     * Waits until all the background updates have been completed.
+     *
+     * @param timeout The maximum time to wait, in milliseconds
+     * @return <code>true</code> if all the updates have been completed
+     * @throws InterruptedException If the thread has been interrupted while waiting
+     * @throws LdapException If some updates have failed on all their attempts
+     */
+    public boolean awaitPendingUpdates( long timeout ) throws InterruptedException, LdapException
+    {
+        return ( updater == null ) || updater.awaitCompletion( timeout );
     }
 
 
@@ -825,6 +962,49 @@ public class SubentryInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Calculates the modifications to apply on an entry so that it references a subentry
+     * if and only if the subentry, as it is in the subentry cache, selects it. A subentry
+     * which is not in the cache anymore is not referenced. The returned list is empty if
+     * the entry is up to date.
+     *
+     * @param subentryDn the distinguished name of the subentry
+     * @param candidate the entry to update
+     * @return the modifications to apply on the entry
+     */
+    List<Modification> getOperationalModsForUpdate( Dn subentryDn, Entry candidate ) throws LdapException
+    {
+        Subentry subentry = directoryService.getSubentryCache().getSubentry( subentryDn );
+        Dn candidateDn = candidate.getDn();
+
+        if ( !candidateDn.isSchemaAware() )
+        {
+            candidateDn = new Dn( schemaManager, candidateDn );
+        }
+
+        if ( ( subentry != null )
+            && directoryService.getEvaluator().evaluate( subentry.getSubtreeSpecification(), subentryDn.getParent(),
+                candidateDn, candidate ) )
+        {
+            List<Attribute> missingAttributes = new ArrayList<>();
+
+            for ( Attribute operationalAttribute : getSubentryOperationalAttributes( subentryDn, subentry ) )
+            {
+                Attribute opAttrInEntry = candidate.get( operationalAttribute.getAttributeType() );
+
+                if ( ( opAttrInEntry == null ) || !opAttrInEntry.contains( subentryDn.getName() ) )
+                {
+                    missingAttributes.add( operationalAttribute );
+                }
+            }
+
+            return getOperationalModsForAdd( candidate, missingAttributes );
+        }
+
+        return getOperationalModsForRemove( subentryDn, candidate );
+    }
+
+
     /**
      * Get the list of modification to apply to all the entries
      */
@@ -969,8 +1149,15 @@ public class SubentryInterceptor extends BaseInterceptor
             Dn baseDn = apDn;
             baseDn = baseDn.add( subentry.getSubtreeSpecification().getBase() );
 
-            updateEntries( addContext, OperationEnum.ADD, apDn, subentry.getSubtreeSpecification(),
-                baseDn, operationalAttributes );
+            if ( backgroundUpdates )
+            {
+                updater.submit( dn, baseDn );
+            }
+            else
+            {
+                updateEntries( addContext, OperationEnum.ADD, apDn, subentry.getSubtreeSpecification(),
+                    baseDn, operationalAttributes );
+            }
 
             // Store the newly modified entry into the context for later use in interceptor
             // just in case
@@ -1063,6 +1250,16 @@ public class SubentryInterceptor extends BaseInterceptor
             Dn baseDn = apDn;
             baseDn = baseDn.add( removedSubentry.getSubtreeSpecification().getBase() );
 
+            if ( backgroundUpdates )
+            {
+                // The references will be removed once the subentry has been deleted
+                directoryService.getSubentryCache().removeSubentry( dn );
+                next( deleteContext );
+                updater.submit( dn, baseDn );
+
+                return;
+            }
+
             // Remove all the references to this removed subentry from all the selected entries
             updateEntries( deleteContext, OperationEnum.REMOVE, apDn,
                 removedSubentry.getSubtreeSpecification(), baseDn, null );
@@ -1146,6 +1343,20 @@ public class SubentryInterceptor extends BaseInterceptor
             Dn oldBaseDn = apName;
             oldBaseDn = oldBaseDn.add( ssOld.getBase() );
 
+            if ( backgroundUpdates )
+            {
+                // The entries below the old base are updated against the new SS
+                updater.submit( dn, oldBaseDn );
+                Dn newBaseDn = apName.add( ssNew.getBase() );
+
+                if ( !newBaseDn.equals( oldBaseDn ) )
+                {
+                    updater.submit( dn, newBaseDn );
+                }
+
+                return;
+            }
+
             ExprNode filter = new PresenceNode( directoryService.getAtProvider().getObjectClass() );
             SearchControls controls = new SearchControls();
             controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
@@ -1326,6 +1537,15 @@ public class SubentryInterceptor extends BaseInterceptor
 
             next( moveContext );
 
+            if ( backgroundUpdates )
+            {
+                // Remove the references to the old name, and add references to the new name
+                updater.submit( oldDn, baseDn );
+                updater.submit( newName, newName.getParent().add( ss.getBase() ) );
+
+                return;
+            }
+
             subentry = directoryService.getSubentryCache().getSubentry( newName );
 
             ExprNode filter = new PresenceNode( directoryService.getAtProvider().getObjectClass() );
@@ -1448,6 +1668,15 @@ public class SubentryInterceptor extends BaseInterceptor
 
             next( moveAndRenameContext );
 
+            if ( backgroundUpdates )
+            {
+                // Remove the references to the old name, and add references to the new name
+                updater.submit( oldDn, baseDn );
+                updater.submit( newName, newName.getParent().add( ss.getBase() ) );
+
+                return;
+            }
+
             subentry = directoryService.getSubentryCache().getSubentry( newName );
 
             ExprNode filter = new PresenceNode( directoryService.getAtProvider().getObjectClass() );
@@ -1557,6 +1786,15 @@ public class SubentryInterceptor extends BaseInterceptor
             directoryService.getSubentryCache().addSubentry( newName, subentry );
             next( renameContext );
 
+            if ( backgroundUpdates )
+            {
+                // Remove the references to the old name, and add references to the new name
+                updater.submit( oldDn, baseDn );
+                updater.submit( newName, newName.getParent().add( ss.getBase() ) );
+
+                return;
+            }
+
             subentry = directoryService.getSubentryCache().getSubentry( newName );
             ExprNode filter = new PresenceNode( directoryService.getAtProvider().getObjectClass() );
             SearchControls controls = new SearchControls();
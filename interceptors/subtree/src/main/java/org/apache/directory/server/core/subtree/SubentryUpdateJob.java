@@ -0,0 +1,432 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.subtree;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+
+/**
+ * A pending update of the references to a subentry stored in the entries of an
+ * administrative area. The job does not record what has changed in the subentry :
+ * once it has been run, each entry below the base Dn references the subentry if and
+ * only if the subentry, as it is in the subentry cache, selects it.
+ * <br>
+ * A job is stored in two files :
+ * <ul>
+ *   <li>&lt;id&gt;.job, a properties file containing the subentry and base Dns, and the progress</li>
+ *   <li>&lt;id&gt;.dns, the Dns of the entries to update, written once the base has been scanned</li>
+ * </ul>
+ * so that a job interrupted by a shutdown or a crash is resumed where it stopped. Running
+ * a job again on an entry which has already been updated does nothing.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class SubentryUpdateJob
+{
+    /** The job file extension */
+    static final String JOB_EXTN = ".job";
+
+    /** The candidates file extension */
+    static final String DNS_EXTN = ".dns";
+
+    /** The properties stored in the job file */
+    private static final String SUBENTRY_DN = "subentryDn";
+    private static final String BASE_DN = "baseDn";
+    private static final String SCANNED = "scanned";
+    private static final String CANDIDATES = "candidates";
+    private static final String APPLIED = "applied";
+
+    /** The job ID, giving the order in which the jobs are run */
+    private final long id;
+
+    /** The subentry which references have to be updated */
+    private final String subentryDn;
+
+    /** The base of the entries which may reference the subentry */
+    private final String baseDn;
+
+    /** The job file */
+    private final File jobFile;
+
+    /** The candidates file */
+    private final File dnsFile;
+
+    /** Tells if the candidates have been collected */
+    private volatile boolean scanned;
+
+    /** The number of entries to update */
+    private volatile long candidates;
+
+    /** The number of entries already updated */
+    private volatile long applied;
+
+
+    /**
+     * Creates a new SubentryUpdateJob instance.
+     *
+     * @param directory The directory where the job is stored
+     * @param id The job ID
+     * @param subentryDn The subentry which references have to be updated
+     * @param baseDn The base of the entries which may reference the subentry
+     */
+    SubentryUpdateJob( File directory, long id, String subentryDn, String baseDn )
+    {
+        this.id = id;
+        this.subentryDn = subentryDn;
+        this.baseDn = baseDn;
+
+        String name = String.format( "%020d", id );
+        jobFile = new File( directory, name + JOB_EXTN );
+        dnsFile = new File( directory, name + DNS_EXTN );
+    }
+
+
+    /**
+     * Reads a job stored on disk.
+     *
+     * @param jobFile The job file
+     * @return The job
+     * @throws IOException If the job file can't be read
+     */
+    static SubentryUpdateJob load( File jobFile ) throws IOException
+    {
+        String name = jobFile.getName();
+        long id = Long.parseLong( name.substring( 0, name.length() - JOB_EXTN.length() ) );
+        Properties properties = new Properties();
+
+        try ( InputStream in = new FileInputStream( jobFile ) )
+        {
+            properties.load( in );
+        }
+
+        String subentryDn = properties.getProperty( SUBENTRY_DN );
+        String baseDn = properties.getProperty( BASE_DN );
+
+        if ( ( subentryDn == null ) || ( baseDn == null ) )
+        {
+            throw new IOException( "Invalid subentry update job " + jobFile );
+        }
+
+        SubentryUpdateJob job = new SubentryUpdateJob( jobFile.getParentFile(), id, subentryDn, baseDn );
+        job.scanned = Boolean.parseBoolean( properties.getProperty( SCANNED ) );
+        job.candidates = Long.parseLong( properties.getProperty( CANDIDATES, "0" ) );
+        job.applied = Long.parseLong( properties.getProperty( APPLIED, "0" ) );
+
+        if ( job.scanned && !job.dnsFile.exists() )
+        {
+            // The candidates are lost, we have to scan the base again
+            job.scanned = false;
+            job.applied = 0L;
+        }
+
+        return job;
+    }
+
+
+    /**
+     * Writes the job file. The file is replaced atomically, so that a crash leaves
+     * either the previous or the new progress.
+     *
+     * @throws IOException If the file can't be written
+     */
+    void save() throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty( SUBENTRY_DN, subentryDn );
+        properties.setProperty( BASE_DN, baseDn );
+        properties.setProperty( SCANNED, Boolean.toString( scanned ) );
+        properties.setProperty( CANDIDATES, Long.toString( candidates ) );
+        properties.setProperty( APPLIED, Long.toString( applied ) );
+
+        File tmpFile = new File( jobFile.getParentFile(), jobFile.getName() + ".tmp" );
+
+        try ( FileOutputStream out = new FileOutputStream( tmpFile ) )
+        {
+            properties.store( out, null );
+            out.getFD().sync();
+        }
+
+        Files.move( tmpFile.toPath(), jobFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+    }
+
+
+    /**
+     * Creates the candidates file, to store the Dns of the entries to update.
+     *
+     * @return The writer to use to store the Dns
+     * @throws IOException If the candidates file can't be created
+     */
+    CandidateWriter createCandidates() throws IOException
+    {
+        return new CandidateWriter();
+    }
+
+
+    /**
+     * Opens the candidates file, positioned on the first entry which hasn't been updated yet.
+     *
+     * @return The reader to use to read the Dns
+     * @throws IOException If the candidates file can't be read
+     */
+    CandidateReader openCandidates() throws IOException
+    {
+        CandidateReader reader = new CandidateReader();
+
+        try
+        {
+            for ( long pos = 0L; pos < applied; pos++ )
+            {
+                reader.in.readUTF();
+            }
+        }
+        catch ( EOFException eofe )
+        {
+            // Everything has been applied
+        }
+        catch ( IOException ioe )
+        {
+            reader.close();
+            throw ioe;
+        }
+
+        return reader;
+    }
+
+
+    /**
+     * Records the number of entries updated so far.
+     *
+     * @param applied The number of entries updated
+     * @throws IOException If the job file can't be written
+     */
+    void checkpoint( long applied ) throws IOException
+    {
+        this.applied = applied;
+        save();
+    }
+
+
+    /**
+     * Deletes the job files, once the job is done.
+     */
+    void delete()
+    {
+        dnsFile.delete();
+        jobFile.delete();
+    }
+
+
+    /**
+     * @return The job ID
+     */
+    long getId()
+    {
+        return id;
+    }
+
+
+    /**
+     * @return The subentry which references are updated
+     */
+    String getSubentryDn()
+    {
+        return subentryDn;
+    }
+
+
+    /**
+     * @return The base of the entries which may reference the subentry
+     */
+    String getBaseDn()
+    {
+        return baseDn;
+    }
+
+
+    /**
+     * @return <code>true</code> if the entries to update have been collected
+     */
+    boolean isScanned()
+    {
+        return scanned;
+    }
+
+
+    /**
+     * @return The number of entries to update, once the base has been scanned
+     */
+    long getCandidates()
+    {
+        return candidates;
+    }
+
+
+    /**
+     * @return The number of entries already updated
+     */
+    long getApplied()
+    {
+        return applied;
+    }
+
+
+    /**
+     * Writes the Dns of the entries to update in the candidates file.
+     */
+    class CandidateWriter implements Closeable
+    {
+        private final FileOutputStream fileOut;
+        private final DataOutputStream out;
+        private long count;
+
+
+        private CandidateWriter() throws IOException
+        {
+            fileOut = new FileOutputStream( dnsFile );
+            out = new DataOutputStream( new BufferedOutputStream( fileOut ) );
+        }
+
+
+        /**
+         * Adds an entry to update.
+         *
+         * @param dn The entry Dn
+         * @throws IOException If the Dn can't be written
+         */
+        void add( String dn ) throws IOException
+        {
+            out.writeUTF( dn );
+            count++;
+        }
+
+
+        /**
+         * Syncs the candidates file, and marks the job as scanned.
+         *
+         * @throws IOException If the files can't be written
+         */
+        void commit() throws IOException
+        {
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+
+            candidates = count;
+            applied = 0L;
+            scanned = true;
+            save();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException
+        {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Reads the Dns of the entries to update from the candidates file.
+     */
+    class CandidateReader implements Closeable
+    {
+        private final DataInputStream in;
+
+
+        private CandidateReader() throws IOException
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( dnsFile ) ) );
+        }
+
+
+        /**
+         * Reads the next Dns.
+         *
+         * @param max The maximum number of Dns to read
+         * @return The Dns, an empty list if all of them have been read
+         * @throws IOException If the candidates file can't be read
+         */
+        List<String> next( int max ) throws IOException
+        {
+            List<String> dns = new ArrayList<>( max );
+
+            try
+            {
+                while ( dns.size() < max )
+                {
+                    dns.add( in.readUTF() );
+                }
+            }
+            catch ( EOFException eofe )
+            {
+                // No more candidates
+            }
+
+            return dns;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        if ( scanned )
+        {
+            return "Subentry update " + id + " of " + subentryDn + " under " + baseDn + " : " + applied + "/"
+                + candidates;
+        }
+
+        return "Subentry update " + id + " of " + subentryDn + " under " + baseDn + " : scanning";
+    }
+}
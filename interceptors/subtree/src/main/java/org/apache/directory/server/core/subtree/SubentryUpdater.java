@@ -0,0 +1,614 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.subtree;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import javax.naming.directory.SearchControls;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Updates the references to the subentries in the background. When a subentry is added,
+ * deleted, renamed or when its subtreeSpecification is modified, a {@link SubentryUpdateJob}
+ * is stored on disk, and run by a single thread, in the order the jobs have been submitted.
+ * <br>
+ * A job is run in two steps :
+ * <ul>
+ *   <li>the entries below the base are read in a read transaction, without any lock, and
+ *   the Dns of the entries which references have to be updated are stored</li>
+ *   <li>these entries are updated by batches, each batch being applied in its own write
+ *   transaction, holding the partition write lock only while the batch is applied. The
+ *   progress is stored after each batch.</li>
+ * </ul>
+ * Each entry is evaluated again against the subentry when it's updated, so entries which
+ * have been modified since the scan are correctly handled. A job which fails is run again
+ * after a growing delay, before the next jobs, and is reported as failed after a few attempts.
+ * The jobs which have not been completed are resumed when the server is restarted.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class SubentryUpdater
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SubentryUpdater.class );
+
+    /** The directory containing the pending jobs */
+    static final String JOBS_DIRECTORY = "subentry-jobs";
+
+    /** The default number of times a job is run before being reported as failed */
+    static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    /** The default delay before a failed job is run again, in milliseconds. It doubles on each attempt */
+    static final long DEFAULT_RETRY_DELAY = 1000L;
+
+    /** The maximum delay between two attempts, in milliseconds */
+    private static final long MAX_RETRY_DELAY = 60000L;
+
+    /** The interceptor computing the modifications */
+    private final SubentryInterceptor interceptor;
+
+    /** The DirectoryService instance */
+    private final DirectoryService directoryService;
+
+    /** The nexus, used to read and update the entries */
+    private final PartitionNexus nexus;
+
+    /** The SchemaManager instance */
+    private final SchemaManager schemaManager;
+
+    /** The directory where the jobs are stored */
+    private final File directory;
+
+    /** The number of entries updated in a single transaction */
+    private final int batchSize;
+
+    /** The number of times a job is run before being reported as failed */
+    private final int maxAttempts;
+
+    /** The delay before a failed job is run again */
+    private final long retryDelay;
+
+    /** The ID of the next job */
+    private final AtomicLong nextId = new AtomicLong();
+
+    /** The jobs which have not been completed, in the order they are run */
+    private final List<SubentryUpdateJob> pendingJobs = new ArrayList<>();
+
+    /** The jobs which have failed on all their attempts. They are kept on disk */
+    private final List<SubentryUpdateJob> failedJobs = new ArrayList<>();
+
+    /** The error of the last failed job */
+    private Exception lastFailure;
+
+    /** The thread running the jobs */
+    private final ExecutorService executor;
+
+    /** Set when the updater is stopped */
+    private volatile boolean stopped;
+
+    /** Released when the updater is stopped, to stop waiting before a retry */
+    private final CountDownLatch stopSignal = new CountDownLatch( 1 );
+
+
+    /**
+     * Creates a new SubentryUpdater instance.
+     *
+     * @param interceptor The interceptor computing the modifications
+     * @param directoryService The DirectoryService instance
+     * @param batchSize The number of entries updated in a single transaction
+     */
+    SubentryUpdater( SubentryInterceptor interceptor, DirectoryService directoryService, int batchSize )
+    {
+        this( interceptor, directoryService, batchSize, DEFAULT_MAX_ATTEMPTS, DEFAULT_RETRY_DELAY );
+    }
+
+
+    /**
+     * Creates a new SubentryUpdater instance.
+     *
+     * @param interceptor The interceptor computing the modifications
+     * @param directoryService The DirectoryService instance
+     * @param batchSize The number of entries updated in a single transaction
+     * @param maxAttempts The number of times a job is run before being reported as failed
+     * @param retryDelay The delay before a failed job is run again, in milliseconds
+     */
+    SubentryUpdater( SubentryInterceptor interceptor, DirectoryService directoryService, int batchSize,
+        int maxAttempts, long retryDelay )
+    {
+        this.interceptor = interceptor;
+        this.directoryService = directoryService;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = retryDelay;
+        nexus = directoryService.getPartitionNexus();
+        schemaManager = directoryService.getSchemaManager();
+        directory = new File( directoryService.getInstanceLayout().getRunDirectory(), JOBS_DIRECTORY );
+
+        executor = Executors.newSingleThreadExecutor( runnable ->
+        {
+            Thread thread = new Thread( runnable, "SubentryUpdater-" + directoryService.getInstanceId() );
+            thread.setDaemon( true );
+
+            return thread;
+        } );
+    }
+
+
+    /**
+     * Resumes the jobs which have not been completed before the server was stopped.
+     *
+     * @throws IOException If the jobs directory can't be read
+     */
+    void resume() throws IOException
+    {
+        if ( !directory.exists() && !directory.mkdirs() )
+        {
+            throw new IOException( "Cannot create the subentry jobs directory " + directory );
+        }
+
+        File[] jobFiles = directory.listFiles( ( dir, name ) -> name.endsWith( SubentryUpdateJob.JOB_EXTN ) );
+
+        if ( jobFiles == null )
+        {
+            throw new IOException( "Cannot read the subentry jobs directory " + directory );
+        }
+
+        // The file names are the zero padded job IDs
+        Arrays.sort( jobFiles );
+
+        for ( File jobFile : jobFiles )
+        {
+            SubentryUpdateJob job = SubentryUpdateJob.load( jobFile );
+            nextId.set( Math.max( nextId.get(), job.getId() + 1 ) );
+
+            LOG.info( "Resuming {}", job );
+            schedule( job );
+        }
+    }
+
+
+    /**
+     * Submits a job updating the references to a subentry in the entries below a base.
+     * The job is stored on disk before this method returns.
+     *
+     * @param subentryDn The subentry which references have to be updated
+     * @param baseDn The base of the entries which may reference the subentry
+     * @throws LdapException If the job can't be stored
+     */
+    void submit( Dn subentryDn, Dn baseDn ) throws LdapException
+    {
+        SubentryUpdateJob job = new SubentryUpdateJob( directory, nextId.getAndIncrement(), subentryDn.getName(),
+            baseDn.getName() );
+
+        try
+        {
+            job.save();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( "Cannot store the update of the subentry " + subentryDn, ioe );
+        }
+
+        LOG.debug( "Submitted {}", job );
+        schedule( job );
+    }
+
+
+    private void schedule( SubentryUpdateJob job )
+    {
+        synchronized ( pendingJobs )
+        {
+            pendingJobs.add( job );
+        }
+
+        executor.execute( () -> run( job ) );
+    }
+
+
+    /**
+     * @return A description of the jobs which have not been completed yet
+     */
+    List<String> getPendingJobs()
+    {
+        List<String> jobs = new ArrayList<>();
+
+        synchronized ( pendingJobs )
+        {
+            for ( SubentryUpdateJob job : pendingJobs )
+            {
+                jobs.add( job.toString() );
+            }
+        }
+
+        return jobs;
+    }
+
+
+    /**
+     * @return A description of the jobs which have failed on all their attempts. They will
+     * be run again when the server is restarted
+     */
+    List<String> getFailedJobs()
+    {
+        List<String> jobs = new ArrayList<>();
+
+        synchronized ( pendingJobs )
+        {
+            for ( SubentryUpdateJob job : failedJobs )
+            {
+                jobs.add( job.toString() );
+            }
+        }
+
+        return jobs;
+    }
+
+
+    /**
+     * Waits until all the pending jobs have been run.
+     *
+     * @param timeout The maximum time to wait, in milliseconds
+     * @return <code>true</code> if there is no more pending job
+     * @throws InterruptedException If the thread has been interrupted while waiting
+     * @throws LdapException If some jobs have failed on all their attempts
+     */
+    boolean awaitCompletion( long timeout ) throws InterruptedException, LdapException
+    {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        synchronized ( pendingJobs )
+        {
+            while ( !pendingJobs.isEmpty() )
+            {
+                long remaining = deadline - System.currentTimeMillis();
+
+                if ( remaining <= 0L )
+                {
+                    return false;
+                }
+
+                pendingJobs.wait( remaining );
+            }
+
+            if ( !failedJobs.isEmpty() )
+            {
+                throw new LdapOtherException( "The subentry updates " + failedJobs
+                    + " have failed, they will be resumed at startup", lastFailure );
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Stops the updater. The batch being applied is completed, the remaining updates
+     * are kept on disk, and will be resumed when the server is restarted.
+     */
+    void stop()
+    {
+        stopped = true;
+        stopSignal.countDown();
+        executor.shutdown();
+
+        try
+        {
+            if ( !executor.awaitTermination( 1, TimeUnit.MINUTES ) )
+            {
+                LOG.warn( "The subentry updater has not stopped, the pending updates will be resumed at startup" );
+                executor.shutdownNow();
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Runs a job, and deletes it once it's completed. A job which fails is run again after a
+     * growing delay, and is reported as failed when all its attempts have failed : it is then
+     * kept on disk, and will be run again when the server is restarted.
+     */
+    private void run( SubentryUpdateJob job )
+    {
+        long delay = retryDelay;
+
+        try
+        {
+            for ( int attempt = 1; !stopped; attempt++ )
+            {
+                try
+                {
+                    execute( job );
+
+                    return;
+                }
+                catch ( Exception e )
+                {
+                    if ( attempt >= maxAttempts )
+                    {
+                        LOG.error( "Failed to run {} after {} attempts, it will be resumed at startup", job, attempt,
+                            e );
+
+                        synchronized ( pendingJobs )
+                        {
+                            failedJobs.add( job );
+                            lastFailure = e;
+                        }
+
+                        return;
+                    }
+
+                    LOG.warn( "Failed to run {}, it will be run again in {} ms", job, delay, e );
+
+                    if ( stopSignal.await( delay, TimeUnit.MILLISECONDS ) )
+                    {
+                        return;
+                    }
+
+                    delay = Math.min( delay * 2L, MAX_RETRY_DELAY );
+                }
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            synchronized ( pendingJobs )
+            {
+                pendingJobs.remove( job );
+                pendingJobs.notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Runs a job once. It is resumed from its last stored progress.
+     */
+    private void execute( SubentryUpdateJob job ) throws Exception
+    {
+        Dn subentryDn = new Dn( schemaManager, job.getSubentryDn() );
+        Dn baseDn = new Dn( schemaManager, job.getBaseDn() );
+
+        if ( !job.isScanned() )
+        {
+            scan( job, subentryDn, baseDn );
+        }
+
+        if ( apply( job, subentryDn, baseDn ) )
+        {
+            job.delete();
+            LOG.info( "Completed {}", job );
+        }
+    }
+
+
+    /**
+     * Stores the Dns of the entries below the base which references have to be updated.
+     */
+    private void scan( SubentryUpdateJob job, Dn subentryDn, Dn baseDn ) throws Exception
+    {
+        CoreSession adminSession = directoryService.getAdminSession();
+        Partition partition = nexus.getPartition( baseDn );
+
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
+        controls.setReturningAttributes( new String[]
+            { SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES, SchemaConstants.ALL_USER_ATTRIBUTES } );
+
+        SearchOperationContext searchOperationContext = new SearchOperationContext( adminSession, baseDn,
+            ObjectClassNode.OBJECT_CLASS_NODE, controls );
+        searchOperationContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+        searchOperationContext.setPartition( partition );
+
+        try ( PartitionTxn partitionTxn = partition.beginReadTransaction();
+            SubentryUpdateJob.CandidateWriter candidates = job.createCandidates() )
+        {
+            searchOperationContext.setTransaction( partitionTxn );
+            EntryFilteringCursor cursor;
+
+            try
+            {
+                cursor = nexus.search( searchOperationContext );
+            }
+            catch ( LdapNoSuchObjectException lnsoe )
+            {
+                // The base does not exist anymore, there is nothing to update
+                candidates.commit();
+
+                return;
+            }
+
+            try
+            {
+                while ( cursor.next() )
+                {
+                    Entry candidate = cursor.get();
+
+                    if ( !interceptor.getOperationalModsForUpdate( subentryDn, candidate ).isEmpty() )
+                    {
+                        candidates.add( candidate.getDn().getName() );
+                    }
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            candidates.commit();
+        }
+
+        LOG.info( "Scanned {}", job );
+    }
+
+
+    /**
+     * Updates the stored entries, by batches.
+     *
+     * @return <code>true</code> if all the entries have been updated, <code>false</code> if
+     * the updater has been stopped
+     */
+    private boolean apply( SubentryUpdateJob job, Dn subentryDn, Dn baseDn ) throws Exception
+    {
+        long applied = job.getApplied();
+
+        try ( SubentryUpdateJob.CandidateReader candidates = job.openCandidates() )
+        {
+            while ( true )
+            {
+                if ( stopped )
+                {
+                    LOG.info( "Interrupted {}", job );
+
+                    return false;
+                }
+
+                List<String> batch = candidates.next( batchSize );
+
+                if ( batch.isEmpty() )
+                {
+                    return true;
+                }
+
+                applyBatch( subentryDn, baseDn, batch );
+                applied += batch.size();
+                job.checkpoint( applied );
+
+                LOG.debug( "{}", job );
+            }
+        }
+    }
+
+
+    /**
+     * Updates a batch of entries in a single transaction.
+     */
+    private void applyBatch( Dn subentryDn, Dn baseDn, List<String> dns ) throws Exception
+    {
+        CoreSession adminSession = directoryService.getAdminSession();
+        Partition partition = nexus.getPartition( baseDn );
+        OperationManager operationManager = directoryService.getOperationManager();
+        // The partition lock also holds the global ReadLock in PARTITION mode
+        ReadWriteLock partitionLock = operationManager.getRWLock( partition );
+        PartitionTxn partitionTxn = null;
+
+        partitionLock.writeLock().lock();
+
+        try
+        {
+            partitionTxn = partition.beginWriteTransaction();
+
+            for ( String dn : dns )
+            {
+                Dn candidateDn = new Dn( schemaManager, dn );
+                LookupOperationContext lookupContext = new LookupOperationContext( adminSession, candidateDn,
+                    SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+                lookupContext.setPartition( partition );
+                lookupContext.setTransaction( partitionTxn );
+                Entry candidate;
+
+                try
+                {
+                    candidate = nexus.lookup( lookupContext );
+                }
+                catch ( LdapNoSuchObjectException lnsoe )
+                {
+                    // The entry has been deleted since the scan
+                    continue;
+                }
+
+                List<Modification> modifications = interceptor.getOperationalModsForUpdate( subentryDn, candidate );
+
+                if ( !modifications.isEmpty() )
+                {
+                    ModifyOperationContext modifyContext = new ModifyOperationContext( adminSession, candidateDn,
+                        modifications );
+                    modifyContext.setPartition( partition );
+                    modifyContext.setTransaction( partitionTxn );
+
+                    nexus.modify( modifyContext );
+                }
+            }
+
+            partitionTxn.commit();
+        }
+        catch ( Exception e )
+        {
+            if ( partitionTxn != null )
+            {
+                partitionTxn.abort();
+            }
+
+            throw e;
+        }
+        finally
+        {
+            partitionLock.writeLock().unlock();
+        }
+
+        // The batch must be durable before the progress is stored
+        if ( partitionTxn instanceof PartitionWriteTxn )
+        {
+            ( ( PartitionWriteTxn ) partitionTxn ).sync();
+        }
+    }
+}
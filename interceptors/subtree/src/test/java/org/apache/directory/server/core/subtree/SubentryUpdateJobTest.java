@@ -0,0 +1,98 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.subtree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the storage of the subentry background updates, and their resumption.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubentryUpdateJobTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testResumeJob() throws Exception
+    {
+        File directory = folder.newFolder();
+        SubentryUpdateJob job = new SubentryUpdateJob( directory, 12L, "cn=subentry,ou=system", "ou=system" );
+        job.save();
+
+        // Not scanned yet
+        SubentryUpdateJob loaded = SubentryUpdateJob.load( new File( directory,
+            "00000000000000000012" + SubentryUpdateJob.JOB_EXTN ) );
+        assertEquals( 12L, loaded.getId() );
+        assertEquals( "cn=subentry,ou=system", loaded.getSubentryDn() );
+        assertEquals( "ou=system", loaded.getBaseDn() );
+        assertFalse( loaded.isScanned() );
+
+        try ( SubentryUpdateJob.CandidateWriter candidates = job.createCandidates() )
+        {
+            for ( int i = 0; i < 25; i++ )
+            {
+                candidates.add( "cn=entry" + i + ",ou=system" );
+            }
+
+            candidates.commit();
+        }
+
+        // Apply the first 2 batches
+        try ( SubentryUpdateJob.CandidateReader candidates = job.openCandidates() )
+        {
+            assertEquals( 10, candidates.next( 10 ).size() );
+            job.checkpoint( 10L );
+            assertEquals( 10, candidates.next( 10 ).size() );
+            job.checkpoint( 20L );
+        }
+
+        // The resumed job starts after the applied entries
+        loaded = SubentryUpdateJob.load( new File( directory, "00000000000000000012" + SubentryUpdateJob.JOB_EXTN ) );
+        assertTrue( loaded.isScanned() );
+        assertEquals( 25L, loaded.getCandidates() );
+        assertEquals( 20L, loaded.getApplied() );
+
+        try ( SubentryUpdateJob.CandidateReader candidates = loaded.openCandidates() )
+        {
+            List<String> dns = candidates.next( 10 );
+            assertEquals( 5, dns.size() );
+            assertEquals( "cn=entry20,ou=system", dns.get( 0 ) );
+            assertEquals( "cn=entry24,ou=system", dns.get( 4 ) );
+            assertTrue( candidates.next( 10 ).isEmpty() );
+        }
+
+        loaded.delete();
+        assertEquals( 0, directory.list().length );
+    }
+}
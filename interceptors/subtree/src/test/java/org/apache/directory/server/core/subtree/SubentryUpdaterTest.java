@@ -0,0 +1,234 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.subtree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the retries of the subentry background updates which fail. The partition is
+ * unavailable for a number of attempts, then the base of the update is not found,
+ * so the update has nothing to do.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubentryUpdaterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** The number of times the partition has been requested */
+    private AtomicInteger attempts = new AtomicInteger();
+
+    /** The number of attempts which fail */
+    private int failures;
+
+    private DirectoryService directoryService;
+
+    private File jobsDirectory;
+
+    private SubentryUpdater updater;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        InstanceLayout layout = new InstanceLayout( folder.newFolder() );
+        jobsDirectory = new File( layout.getRunDirectory(), SubentryUpdater.JOBS_DIRECTORY );
+
+        Partition partition = ( Partition ) Proxy.newProxyInstance( Partition.class.getClassLoader(),
+            new Class<?>[]
+                { Partition.class }, ( proxy, method, args ) ->
+                {
+                    if ( "beginReadTransaction".equals( method.getName() ) )
+                    {
+                        return new PartitionReadTxn();
+                    }
+
+                    throw new UnsupportedOperationException( method.getName() );
+                } );
+
+        PartitionNexus nexus = ( PartitionNexus ) Proxy.newProxyInstance( PartitionNexus.class.getClassLoader(),
+            new Class<?>[]
+                { PartitionNexus.class }, ( proxy, method, args ) ->
+                {
+                    switch ( method.getName() )
+                    {
+                        case "getPartition":
+                            if ( attempts.incrementAndGet() <= failures )
+                            {
+                                throw new LdapOtherException( "The partition is not available" );
+                            }
+
+                            return partition;
+
+                        case "search":
+                            throw new LdapNoSuchObjectException( "The base does not exist" );
+
+                        default:
+                            throw new UnsupportedOperationException( method.getName() );
+                    }
+                } );
+
+        directoryService = ( DirectoryService ) Proxy.newProxyInstance( DirectoryService.class.getClassLoader(),
+            new Class<?>[]
+                { DirectoryService.class }, ( proxy, method, args ) ->
+                {
+                    switch ( method.getName() )
+                    {
+                        case "getPartitionNexus":
+                            return nexus;
+
+                        case "getInstanceLayout":
+                            return layout;
+
+                        case "getInstanceId":
+                            return "test";
+
+                        case "getSchemaManager":
+                        case "getAdminSession":
+                            return null;
+
+                        default:
+                            throw new UnsupportedOperationException( method.getName() );
+                    }
+                } );
+    }
+
+
+    @After
+    public void stop()
+    {
+        if ( updater != null )
+        {
+            updater.stop();
+        }
+    }
+
+
+    private void submit() throws Exception
+    {
+        updater.submit( new Dn( "cn=subentry,ou=system" ), new Dn( "ou=system" ) );
+    }
+
+
+    private int countStoredJobs()
+    {
+        return jobsDirectory.listFiles( ( dir, name ) -> name.endsWith( SubentryUpdateJob.JOB_EXTN ) ).length;
+    }
+
+
+    @Test
+    public void testFailedJobIsRetried() throws Exception
+    {
+        failures = 2;
+        updater = new SubentryUpdater( null, directoryService, 10, 5, 10L );
+        updater.resume();
+
+        submit();
+
+        assertTrue( updater.awaitCompletion( 10000L ) );
+        assertEquals( 3, attempts.get() );
+        assertTrue( updater.getFailedJobs().isEmpty() );
+        assertEquals( 0, countStoredJobs() );
+    }
+
+
+    @Test
+    public void testFailedJobIsReported() throws Exception
+    {
+        failures = 3;
+        updater = new SubentryUpdater( null, directoryService, 10, 3, 10L );
+        updater.resume();
+
+        // The first job fails on all its attempts, the second one succeeds
+        submit();
+        submit();
+
+        try
+        {
+            updater.awaitCompletion( 10000L );
+            fail();
+        }
+        catch ( LdapOtherException loe )
+        {
+            assertTrue( true );
+        }
+
+        assertEquals( 4, attempts.get() );
+        assertEquals( 1, updater.getFailedJobs().size() );
+        assertTrue( updater.getPendingJobs().isEmpty() );
+
+        // The failed job is kept, to be resumed at startup
+        assertEquals( 1, countStoredJobs() );
+    }
+
+
+    @Test
+    public void testStopWhileWaitingForRetry() throws Exception
+    {
+        failures = Integer.MAX_VALUE;
+        updater = new SubentryUpdater( null, directoryService, 10, 5, 60000L );
+        updater.resume();
+
+        submit();
+
+        long deadline = System.currentTimeMillis() + 10000L;
+
+        while ( ( attempts.get() == 0 ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        assertEquals( 1, attempts.get() );
+
+        long start = System.nanoTime();
+        updater.stop();
+        assertTrue( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) < 10000L );
+
+        // The job is neither failed nor lost
+        assertTrue( updater.getFailedJobs().isEmpty() );
+        assertEquals( 1, countStoredJobs() );
+
+        updater = null;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import jdbm.RecordManager;
+import jdbm.recman.BaseRecordManager;
+import jdbm.recman.CacheRecordManager;
+
+
+/**
+ * Coalesces the log synchronizations of the transactions committed on a JDBM partition.
+ * Each committed transaction gets a ticket, and waits until a synchronization covering
+ * its ticket is done. The first waiting transaction flushes the log for all the transactions
+ * committed so far, while the others wait for it : the transactions committed during a
+ * flush are all made durable by the next one.
+ * <br>
+ * When some transactions have been committed during the previous flush, the next flush
+ * may be delayed a bit, so that more transactions can join it.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmGroupCommit
+{
+    /** The record manager which log is synchronized */
+    private final BaseRecordManager baseRecordManager;
+
+    /** The maximum time a flush waits for more transactions, in nanoseconds */
+    private final long delayNanos;
+
+    /** The ticket of the last committed transaction */
+    private long committed;
+
+    /** The ticket of the last transaction made durable */
+    private long synced;
+
+    /** Tells if a flush is in progress */
+    private boolean flushing;
+
+    /** Tells if some transactions have been committed while flushing */
+    private boolean concurrentCommits;
+
+
+    /**
+     * Creates a new instance of JdbmGroupCommit.
+     *
+     * @param recordManager The partition RecordManager
+     * @param delay The maximum time, in milliseconds, a flush waits for more transactions
+     */
+    public JdbmGroupCommit( RecordManager recordManager, long delay )
+    {
+        if ( recordManager instanceof CacheRecordManager )
+        {
+            baseRecordManager = ( BaseRecordManager ) ( ( CacheRecordManager ) recordManager ).getRecordManager();
+        }
+        else
+        {
+            baseRecordManager = ( BaseRecordManager ) recordManager;
+        }
+
+        delayNanos = TimeUnit.MILLISECONDS.toNanos( delay );
+    }
+
+
+    /**
+     * Registers a transaction which has just been committed in the record manager.
+     *
+     * @return The ticket to wait for with {@link #sync(long)}
+     */
+    public synchronized long commit()
+    {
+        committed++;
+
+        if ( flushing )
+        {
+            concurrentCommits = true;
+        }
+
+        return committed;
+    }
+
+
+    /**
+     * Waits until the transaction with the given ticket is durable, flushing the log
+     * if no other thread is doing so.
+     *
+     * @param ticket The ticket returned by {@link #commit()}
+     * @throws IOException If the log can't be flushed
+     */
+    public void sync( long ticket ) throws IOException
+    {
+        long target;
+
+        synchronized ( this )
+        {
+            while ( flushing && ( synced < ticket ) )
+            {
+                try
+                {
+                    wait();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+
+                    throw new InterruptedIOException( ie.getMessage() );
+                }
+            }
+
+            if ( synced >= ticket )
+            {
+                return;
+            }
+
+            // We are the leader : give the other writers a chance to join this flush
+            flushing = true;
+
+            if ( concurrentCommits )
+            {
+                delay();
+            }
+
+            concurrentCommits = false;
+            target = committed;
+        }
+
+        boolean done = false;
+
+        try
+        {
+            // The record manager methods are synchronized on the instance
+            synchronized ( baseRecordManager )
+            {
+                baseRecordManager.getTransactionManager().synchronizeLog();
+            }
+
+            done = true;
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                if ( done && ( target > synced ) )
+                {
+                    synced = target;
+                }
+
+                flushing = false;
+                notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Waits for the configured delay, releasing the monitor so that other transactions can
+     * be committed meanwhile. An interruption stops the wait, the flush being done anyway.
+     */
+    private void delay()
+    {
+        long deadline = System.nanoTime() + delayNanos;
+        long remaining = delayNanos;
+
+        try
+        {
+            while ( remaining > 0L )
+            {
+                TimeUnit.NANOSECONDS.timedWait( this, remaining );
+                remaining = deadline - System.nanoTime();
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jdbm.RecordManager;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.Index;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Builds a set of user indexes from the entries of a JDBM partition. The index tuples
+ * are collected in batches : each batch is sorted in the index key order, one thread per
+ * index, then inserted in the index B-trees and committed. Inserting sorted keys makes
+ * each insertion hit the B-tree pages modified by the previous one, which are still in the
+ * record manager cache, and committing each batch bounds the size of the JDBM transaction.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class JdbmIndexBuilder
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( JdbmIndexBuilder.class );
+
+    /** The default number of tuples collected before being inserted */
+    static final int DEFAULT_BATCH_SIZE = 200_000;
+
+    /** The record manager the indexes are stored in */
+    private final RecordManager recMan;
+
+    /** The presence index */
+    private final Index<String, String> presenceIdx;
+
+    /** The indexes being built, and their pending tuples */
+    private final List<IndexBatch> batches = new ArrayList<>();
+
+    /** The maximum number of pending tuples */
+    private final int batchSize;
+
+    /** The number of pending tuples */
+    private int pending;
+
+    /** The number of processed entries */
+    private long nbEntries;
+
+    /** The executor sorting the batches */
+    private final ExecutorService executor;
+
+
+    /**
+     * The pending tuples of an index
+     */
+    private static final class IndexBatch
+    {
+        private final Index<Object, String> index;
+        private final AttributeType attributeType;
+        private final Comparator<Object> keyComparator;
+        private final List<Object[]> tuples = new ArrayList<>();
+        private final List<String> presentIds = new ArrayList<>();
+
+
+        @SuppressWarnings("unchecked")
+        private IndexBatch( Index<?, String> index )
+        {
+            this.index = ( Index<Object, String> ) index;
+            this.attributeType = index.getAttribute();
+
+            if ( index instanceof JdbmIndex )
+            {
+                keyComparator = ( Comparator<Object> ) ( ( JdbmIndex<?> ) index ).forward.getKeyComparator();
+            }
+            else
+            {
+                keyComparator = null;
+            }
+        }
+
+
+        /**
+         * Sorts the tuples by key then by ID, and the IDs of the presence index
+         */
+        @SuppressWarnings("unchecked")
+        private void sort()
+        {
+            Comparator<Object> comparator = keyComparator;
+
+            if ( comparator == null )
+            {
+                comparator = ( k1, k2 ) -> ( ( Comparable<Object> ) k1 ).compareTo( k2 );
+            }
+
+            Comparator<Object> keyOrder = comparator;
+            tuples.sort( ( t1, t2 ) ->
+            {
+                int cmp = keyOrder.compare( t1[0], t2[0] );
+
+                return ( cmp != 0 ) ? cmp : ( ( String ) t1[1] ).compareTo( ( String ) t2[1] );
+            } );
+
+            presentIds.sort( null );
+        }
+    }
+
+
+    /**
+     * Creates a new instance of JdbmIndexBuilder.
+     *
+     * @param recMan The record manager the indexes are stored in
+     * @param presenceIdx The partition presence index
+     * @param indexes The indexes to build
+     * @param batchSize The number of tuples collected before being inserted
+     */
+    JdbmIndexBuilder( RecordManager recMan, Index<String, String> presenceIdx, List<Index<?, String>> indexes,
+        int batchSize )
+    {
+        this.recMan = recMan;
+        this.presenceIdx = presenceIdx;
+        this.batchSize = batchSize;
+
+        for ( Index<?, String> index : indexes )
+        {
+            batches.add( new IndexBatch( index ) );
+        }
+
+        int nbThreads = Math.max( 1, Math.min( batches.size(), Runtime.getRuntime().availableProcessors() ) );
+        executor = Executors.newFixedThreadPool( nbThreads );
+    }
+
+
+    /**
+     * Collects the index tuples of an entry, inserting the pending tuples if the batch is full.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param entry The entry
+     * @throws LdapException If the tuples can't be inserted
+     */
+    void add( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        for ( IndexBatch batch : batches )
+        {
+            Attribute attribute = entry.get( batch.attributeType );
+
+            if ( attribute != null )
+            {
+                for ( Value value : attribute )
+                {
+                    batch.tuples.add( new Object[]
+                        { value.getNormalized(), id } );
+                }
+
+                batch.presentIds.add( id );
+                pending += attribute.size() + 1;
+            }
+        }
+
+        nbEntries++;
+
+        if ( pending >= batchSize )
+        {
+            flush( partitionTxn );
+        }
+    }
+
+
+    /**
+     * Inserts the pending tuples, and stops the sorting threads.
+     *
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If the tuples can't be inserted
+     */
+    void finish( PartitionTxn partitionTxn ) throws LdapException
+    {
+        try
+        {
+            flush( partitionTxn );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        LOG.info( "Built {} indexes from {} entries", batches.size(), nbEntries );
+    }
+
+
+    /**
+     * Stops the sorting threads, when the build has failed.
+     */
+    void abort()
+    {
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Sorts the pending tuples in parallel, then inserts them in the indexes.
+     */
+    private void flush( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( pending == 0 )
+        {
+            return;
+        }
+
+        List<Future<?>> sorts = new ArrayList<>();
+
+        for ( IndexBatch batch : batches )
+        {
+            sorts.add( executor.submit( batch::sort ) );
+        }
+
+        try
+        {
+            for ( Future<?> sort : sorts )
+            {
+                sort.get();
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+
+            throw new LdapOtherException( ie.getMessage(), ie );
+        }
+        catch ( ExecutionException ee )
+        {
+            throw new LdapOtherException( ee.getMessage(), ee.getCause() );
+        }
+
+        // The B-trees can't be updated concurrently
+        for ( IndexBatch batch : batches )
+        {
+            for ( Object[] tuple : batch.tuples )
+            {
+                batch.index.add( partitionTxn, tuple[0], ( String ) tuple[1] );
+            }
+
+            String oid = batch.attributeType.getOid();
+
+            for ( String id : batch.presentIds )
+            {
+                presenceIdx.add( partitionTxn, oid, id );
+            }
+
+            batch.tuples.clear();
+            batch.presentIds.clear();
+        }
+
+        try
+        {
+            recMan.commit();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        LOG.debug( "Inserted {} index tuples, {} entries processed", pending, nbEntries );
+        pending = 0;
+    }
+}
@@ -112,6 +112,15 @@ public class JdbmPartition extends AbstractBTreePartition
     /** the entry cache */
     private Cache< String, Entry > entryCache;
 
+    /** Tells if the log flushes of the transactions are coalesced when syncOnWrite is set */
+    private boolean groupCommitEnabled = false;
+
+    /** The maximum time, in milliseconds, a group commit waits for more transactions */
+    private long groupCommitDelay = 0L;
+
+    /** The group commit coordinator, if enabled */
+    private JdbmGroupCommit groupCommit;
+
 
     /**
      * Creates a store based on JDBM B+Trees.
@@ -136,6 +145,53 @@ public class JdbmPartition extends AbstractBTreePartition
     }
     
     
+    /**
+     * @return <code>true</code> if the log flushes of concurrent transactions are coalesced
+     */
+    public boolean isGroupCommitEnabled()
+    {
+        return groupCommitEnabled;
+    }
+
+
+    /**
+     * Enables the group commit : when syncOnWrite is set, the log flush is not done
+     * by each commit, but once for all the transactions committed concurrently. Each
+     * operation still returns once its changes are durable.
+     *
+     * @param groupCommitEnabled <code>true</code> to coalesce the log flushes
+     */
+    public void setGroupCommitEnabled( boolean groupCommitEnabled )
+    {
+        checkInitialized( "groupCommitEnabled" );
+        this.groupCommitEnabled = groupCommitEnabled;
+    }
+
+
+    /**
+     * @return The maximum time, in milliseconds, a group commit waits for more transactions
+     */
+    public long getGroupCommitDelay()
+    {
+        return groupCommitDelay;
+    }
+
+
+    /**
+     * Sets the maximum time a group commit waits for more transactions before flushing
+     * the log. The wait only happens when some transactions have been committed during
+     * the previous flush, so that a single writer is never delayed. Defaults to 0, the
+     * transactions committed during a flush being grouped in the next one anyway.
+     *
+     * @param groupCommitDelay The maximum delay, in milliseconds
+     */
+    public void setGroupCommitDelay( long groupCommitDelay )
+    {
+        checkInitialized( "groupCommitDelay" );
+        this.groupCommitDelay = groupCommitDelay;
+    }
+
+
     /**
      * Rebuild the indexes 
      */
@@ -149,6 +205,10 @@ public class JdbmPartition extends AbstractBTreePartition
         System.out.println( "Re-building indices..." );
 
         boolean ctxEntryLoaded = false;
+        
+        // The user indexes are built by batches of sorted tuples
+        JdbmIndexBuilder indexBuilder = new JdbmIndexBuilder( recMan, presenceIdx,
+            new ArrayList<>( userIndices.values() ), JdbmIndexBuilder.DEFAULT_BATCH_SIZE );
 
         try
         {
@@ -241,34 +301,15 @@ public class JdbmPartition extends AbstractBTreePartition
                     presenceIdx.add( partitionTxn, administrativeRoleAT.getOid(), id );
                 }
 
-                // And the user indexess
-                // Now work on the user defined userIndices
-                for ( Attribute attribute : entry )
-                {
-                    AttributeType attributeType = attribute.getAttributeType();
-                    String attributeOid = attributeType.getOid();
-
-                    if ( hasUserIndexOn( attributeType ) )
-                    {
-                        Index<Object, String> idx = ( Index<Object, String> ) getUserIndex( attributeType );
-
-                        // here lookup by attributeId is OK since we got attributeId from
-                        // the entry via the enumeration - it's in there as is for sure
-
-                        for ( Value value : attribute )
-                        {
-                            idx.add( partitionTxn, value.getString(), id );
-                        }
-
-                        // Adds only those attributes that are indexed
-                        presenceIdx.add( partitionTxn, attributeOid, id );
-                    }
-                }
+                // And the user indexes
+                indexBuilder.add( partitionTxn, id, entry );
             }
             
+            indexBuilder.finish( partitionTxn );
         }
         catch ( Exception e )
         {
+            indexBuilder.abort();
             System.out.println( "Exiting after fetching entries " + repaired );
             throw new LdapOtherException( e.getMessage(), e );
         }
@@ -442,6 +483,11 @@ public class JdbmPartition extends AbstractBTreePartition
                 LOG.info( "Setting CacheRecondManager's cache size to {}", recCacheSize );
                 
                 recMan = new CacheRecordManager( base, new MRU( recCacheSize ) );
+                
+                if ( groupCommitEnabled && isSyncOnWrite() )
+                {
+                    groupCommit = new JdbmGroupCommit( recMan, groupCommitDelay );
+                }
             }
             catch ( IOException ioe )
             {
@@ -533,6 +579,9 @@ public class JdbmPartition extends AbstractBTreePartition
             if ( !indexToBuild.isEmpty() )
             {
                 buildUserIndex( beginReadTransaction(), indexToBuild );
+
+                // The substring indexes have been computed before the user indexes were built
+                buildSubstringIndices();
             }
 
             entryCache = Caffeine.newBuilder().maximumSize( cacheSize ).build();
@@ -704,6 +753,9 @@ public class JdbmPartition extends AbstractBTreePartition
      * 
      * Note: if the given list of indices contains any system index that will be skipped.
      * 
+     * The master table is read once, the index tuples being sorted and inserted by batches
+     * (see {@link JdbmIndexBuilder}).
+     * 
      * WARN: MUST be called after calling super.doInit()
      * 
      * @param indices then selected indexes that need to be built
@@ -711,53 +763,55 @@ public class JdbmPartition extends AbstractBTreePartition
      */
     private void buildUserIndex( PartitionTxn partitionTxn, List<Index<?, String>> indices ) throws LdapException
     {
-        try
+        List<Index<?, String>> userIndexes = new ArrayList<>();
+
+        for ( Index<?, String> index : indices )
+        {
+            AttributeType atType = index.getAttribute();
+
+            if ( systemIndices.get( atType.getOid() ) != null )
+            {
+                // skipping building of the system index
+                continue;
+            }
+
+            LOG.info( "building the index for attribute type {}", atType );
+            userIndexes.add( index );
+        }
+
+        if ( userIndexes.isEmpty() )
+        {
+            return;
+        }
+
+        JdbmIndexBuilder indexBuilder = new JdbmIndexBuilder( recMan, presenceIdx, userIndexes,
+            JdbmIndexBuilder.DEFAULT_BATCH_SIZE );
+
+        try ( Cursor<Tuple<String, Entry>> cursor = master.cursor() )
         {
-            Cursor<Tuple<String, Entry>> cursor = master.cursor();
             cursor.beforeFirst();
-    
+
             while ( cursor.next() )
             {
-                for ( Index index : indices )
-                {
-                    AttributeType atType = index.getAttribute();
-    
-                    String attributeOid = index.getAttribute().getOid();
-    
-                    if ( systemIndices.get( attributeOid ) != null )
-                    {
-                        // skipping building of the system index
-                        continue;
-                    }
-                    
-                    LOG.info( "building the index for attribute type {}", atType );
-    
-                    Tuple<String, Entry> tuple = cursor.get();
-    
-                    String id = tuple.getKey();
-                    Entry entry = tuple.getValue();
-    
-                    Attribute entryAttr = entry.get( atType );
-    
-                    if ( entryAttr != null )
-                    {
-                        for ( Value value : entryAttr )
-                        {
-                            index.add( partitionTxn, value.getString(), id );
-                        }
-    
-                        // Adds only those attributes that are indexed
-                        presenceIdx.add( partitionTxn, attributeOid, id );
-                    }
-                }
+                Tuple<String, Entry> tuple = cursor.get();
+
+                indexBuilder.add( partitionTxn, tuple.getKey(), tuple.getValue() );
             }
-    
-            cursor.close();
+
+            indexBuilder.finish( partitionTxn );
         }
         catch ( CursorException | IOException e )
         {
+            indexBuilder.abort();
+
             throw new LdapOtherException( e.getMessage(), e );
         }
+        catch ( LdapException le )
+        {
+            indexBuilder.abort();
+
+            throw le;
+        }
     }
 
 
@@ -1002,6 +1056,11 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public PartitionWriteTxn beginWriteTransaction()
     {
+        if ( groupCommit != null )
+        {
+            return new JdbmPartitionWriteTxn( recMan, groupCommit );
+        }
+
         return new JdbmPartitionWriteTxn( recMan, isSyncOnWrite() );
     }
 }
@@ -20,6 +20,8 @@
 package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 
@@ -40,6 +42,15 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     /** A flag used to flush data immediately or not */
     private boolean syncOnWrite = false;
     
+    /** The group commit coordinator, if the log flushes are coalesced */
+    private JdbmGroupCommit groupCommit;
+    
+    /** The group commit ticket of this transaction, once committed */
+    private long ticket;
+    
+    /** The actions to run once the transaction has been committed */
+    private List<Runnable> commitActions = new ArrayList<>();
+    
     /**
      * Create an instance of JdbmPartitionWriteTxn
      * 
@@ -53,6 +64,21 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     }
     
     
+    /**
+     * Create an instance of JdbmPartitionWriteTxn which log flush is done by a group commit
+     * when {@link #sync()} is called, instead of during the commit.
+     * 
+     * @param recordManager The RecordManager instance
+     * @param groupCommit The group commit coordinator
+     */
+    public JdbmPartitionWriteTxn( RecordManager recordManager, JdbmGroupCommit groupCommit )
+    {
+        this.recordManager = recordManager;
+        this.syncOnWrite = true;
+        this.groupCommit = groupCommit;
+    }
+    
+    
     /**
      * {@inheritDoc}
      */
@@ -60,6 +86,15 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     public void commit() throws IOException
     {
         recordManager.commit();
+        runCommitActions();
+        
+        if ( groupCommit != null )
+        {
+            // The log will be flushed along with other transactions
+            ticket = groupCommit.commit();
+            
+            return;
+        }
         
         // And flush the journal
         BaseRecordManager baseRecordManager = null;
@@ -81,16 +116,58 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sync() throws IOException
+    {
+        if ( ticket > 0L )
+        {
+            long committed = ticket;
+            ticket = 0L;
+            groupCommit.sync( committed );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void abort() throws IOException
     {
+        commitActions.clear();
         recordManager.rollback();
     }
 
 
+    /**
+     * Defers the action until the transaction is committed, as the changes are rolled back
+     * on abort.
+     */
+    @Override
+    public void addCommitAction( Runnable action )
+    {
+        commitActions.add( action );
+    }
+
+
+    /**
+     * Runs the actions registered since the last commit.
+     */
+    private void runCommitActions()
+    {
+        List<Runnable> actions = commitActions;
+        commitActions = new ArrayList<>();
+
+        for ( Runnable action : actions )
+        {
+            action.run();
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -108,5 +185,6 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     public void close() throws IOException
     {
         commit();
+        sync();
     }
 }
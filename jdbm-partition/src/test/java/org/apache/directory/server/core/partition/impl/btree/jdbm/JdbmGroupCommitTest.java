@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jdbm.RecordManager;
+import jdbm.recman.BaseRecordManager;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the JdbmGroupCommit : transactions committed concurrently must all be durable
+ * once their sync() has returned.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmGroupCommitTest
+{
+    private static final int NB_THREADS = 8;
+    private static final int NB_TXNS = 50;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void testConcurrentCommits() throws Exception
+    {
+        String path = new File( tempFolder.getRoot(), "groupCommit" ).getAbsolutePath();
+        RecordManager recman = new BaseRecordManager( path );
+        JdbmGroupCommit groupCommit = new JdbmGroupCommit( recman, 1L );
+
+        // Stands for the operation manager write lock
+        Lock writeLock = new ReentrantLock();
+        ExecutorService executor = Executors.newFixedThreadPool( NB_THREADS );
+        List<Future<List<Long>>> futures = new ArrayList<>();
+
+        for ( int i = 0; i < NB_THREADS; i++ )
+        {
+            final int thread = i;
+
+            futures.add( executor.submit( new Callable<List<Long>>()
+            {
+                @Override
+                public List<Long> call() throws Exception
+                {
+                    List<Long> recids = new ArrayList<>();
+
+                    for ( int j = 0; j < NB_TXNS; j++ )
+                    {
+                        JdbmPartitionWriteTxn txn = new JdbmPartitionWriteTxn( recman, groupCommit );
+                        writeLock.lock();
+
+                        try
+                        {
+                            recids.add( recman.insert( "value-" + thread + "-" + j ) );
+                            txn.commit();
+                        }
+                        finally
+                        {
+                            writeLock.unlock();
+                        }
+
+                        txn.sync();
+                    }
+
+                    return recids;
+                }
+            } ) );
+        }
+
+        List<List<Long>> allRecids = new ArrayList<>();
+
+        for ( Future<List<Long>> future : futures )
+        {
+            allRecids.add( future.get() );
+        }
+
+        executor.shutdown();
+        recman.close();
+
+        // Everything must be there once the record manager is reopened
+        RecordManager reopened = new BaseRecordManager( path );
+
+        for ( int i = 0; i < NB_THREADS; i++ )
+        {
+            List<Long> recids = allRecids.get( i );
+
+            for ( int j = 0; j < NB_TXNS; j++ )
+            {
+                assertEquals( "value-" + i + "-" + j, reopened.fetch( recids.get( j ) ) );
+            }
+        }
+
+        reopened.close();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdbm.RecordManager;
+import jdbm.recman.BaseRecordManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the actions run when a JdbmPartitionWriteTxn is committed : they must not
+ * be run if the transaction is aborted.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmPartitionWriteTxnTest
+{
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private RecordManager recman;
+
+
+    @Before
+    public void openRecordManager() throws Exception
+    {
+        recman = new BaseRecordManager( new File( tempFolder.getRoot(), "writeTxn" ).getAbsolutePath() );
+    }
+
+
+    @After
+    public void closeRecordManager() throws Exception
+    {
+        recman.close();
+    }
+
+
+    @Test
+    public void testCommitActionsRunOnCommit() throws Exception
+    {
+        List<String> done = new ArrayList<>();
+        JdbmPartitionWriteTxn txn = new JdbmPartitionWriteTxn( recman, false );
+
+        recman.insert( "value" );
+        txn.addCommitAction( () -> done.add( "first" ) );
+        txn.addCommitAction( () -> done.add( "second" ) );
+
+        // Nothing is run before the commit
+        assertEquals( 0, done.size() );
+
+        txn.commit();
+
+        assertEquals( 2, done.size() );
+        assertEquals( "first", done.get( 0 ) );
+        assertEquals( "second", done.get( 1 ) );
+
+        // The actions are run only once
+        txn.close();
+
+        assertEquals( 2, done.size() );
+    }
+
+
+    @Test
+    public void testCommitActionsDroppedOnAbort() throws Exception
+    {
+        List<String> done = new ArrayList<>();
+        JdbmPartitionWriteTxn txn = new JdbmPartitionWriteTxn( recman, false );
+
+        recman.insert( "value" );
+        txn.addCommitAction( () -> done.add( "aborted" ) );
+        txn.abort();
+
+        assertEquals( 0, done.size() );
+
+        // The next commit does not run the actions of the aborted changes
+        txn.commit();
+
+        assertEquals( 0, done.size() );
+    }
+}
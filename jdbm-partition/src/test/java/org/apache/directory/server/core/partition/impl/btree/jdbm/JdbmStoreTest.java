@@ -914,4 +914,40 @@ public class JdbmStoreTest
         lookedup = partition.modify( partitionTxn, dn, add );
         assertEquals( attribVal, lookedup.get( "ou" ).get().getString() );
     }
+
+
+    @Test
+    public void testBuildNewIndex() throws Exception
+    {
+        // Restart the partition with a new index on sn
+        partition.sync();
+        partition.destroy( partitionTxn );
+
+        partition = new JdbmPartition( schemaManager, dnFactory );
+        partition.setId( "example" );
+        partition.setCacheSize( 10 );
+        partition.setPartitionPath( tempDir.toUri() );
+        partition.setSyncOnWrite( false );
+
+        for ( String oid : new String[]
+            { SchemaConstants.OU_AT_OID, SchemaConstants.UID_AT_OID, SchemaConstants.SN_AT_OID } )
+        {
+            JdbmIndex index = new JdbmIndex( oid, false );
+            index.setWkDirPath( tempDir.toUri() );
+            partition.addIndex( index );
+        }
+
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        partition.initialize();
+        partitionTxn = partition.beginReadTransaction();
+
+        // The entries already stored must have been indexed
+        Index<String, String> snIndex = ( Index<String, String> ) partition.getUserIndex( SN_AT );
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        String id = partition.getEntryId( partitionTxn, dn );
+
+        assertEquals( id, snIndex.forwardLookup( partitionTxn, "walker" ) );
+        assertTrue( partition.getPresenceIndex().forward( partitionTxn, SchemaConstants.SN_AT_OID, id ) );
+        assertTrue( snIndex.count( partitionTxn ) > 1 );
+    }
 }
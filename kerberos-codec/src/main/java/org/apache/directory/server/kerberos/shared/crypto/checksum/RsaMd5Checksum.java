@@ -24,6 +24,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
+import org.apache.directory.server.kerberos.shared.crypto.encryption.CryptoInstances;
 import org.apache.directory.server.kerberos.shared.crypto.encryption.KeyUsage;
 import org.apache.directory.shared.kerberos.crypto.checksum.ChecksumType;
 
@@ -43,7 +44,7 @@ class RsaMd5Checksum implements ChecksumEngine
     {
         try
         {
-            MessageDigest digester = MessageDigest.getInstance( LdapSecurityConstants.HASH_METHOD_MD5.getAlgorithm() );
+            MessageDigest digester = CryptoInstances.getMessageDigest( LdapSecurityConstants.HASH_METHOD_MD5.getAlgorithm() );
             return digester.digest( data );
         }
         catch ( NoSuchAlgorithmException nsae )
@@ -155,7 +155,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
         {
             SecretKey sk = new SecretKeySpec( key, "AES" );
 
-            Mac mac = Mac.getInstance( "HmacSHA1" );
+            Mac mac = CryptoInstances.getMac( "HmacSHA1" );
             mac.init( sk );
 
             return mac.doFinal( data );
@@ -172,7 +172,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "AES/CTS/NoPadding" );
+            Cipher cipher = CryptoInstances.getCipher( "AES/CTS/NoPadding" );
             SecretKey key = new SecretKeySpec( keyBytes, "AES" );
 
             AlgorithmParameterSpec paramSpec = new IvParameterSpec( iv );
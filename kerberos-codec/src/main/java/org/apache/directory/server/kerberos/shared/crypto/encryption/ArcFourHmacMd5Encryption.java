@@ -99,7 +99,7 @@ class ArcFourHmacMd5Encryption extends EncryptionEngine
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "ARCFOUR" );
+            Cipher cipher = CryptoInstances.getCipher( "ARCFOUR" );
             SecretKey key = new SecretKeySpec( keyBytes, "ARCFOUR" );
 
             if ( isEncrypt )
@@ -0,0 +1,129 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.shared.crypto.encryption;
+
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+
+
+/**
+ * Per thread instances of the JCE objects used by the encryption and checksum engines,
+ * so that the providers are not looked up on each operation.
+ * <p>
+ * A Cipher or a Mac must be initialized each time it is got, and must not be used
+ * anymore once another instance of the same algorithm has been got by the same thread.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class CryptoInstances
+{
+    /** The ciphers of the current thread, by transformation */
+    private static final ThreadLocal<Map<String, Cipher>> CIPHERS = ThreadLocal.withInitial( HashMap::new );
+
+    /** The MACs of the current thread, by algorithm */
+    private static final ThreadLocal<Map<String, Mac>> MACS = ThreadLocal.withInitial( HashMap::new );
+
+    /** The message digests of the current thread, by algorithm */
+    private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS = ThreadLocal.withInitial( HashMap::new );
+
+
+    private CryptoInstances()
+    {
+    }
+
+
+    /**
+     * Gets the Cipher of the current thread for a transformation. It must be initialized.
+     *
+     * @param transformation The transformation, e.g. "AES/CTS/NoPadding"
+     * @return The Cipher
+     * @throws NoSuchAlgorithmException If the transformation is not supported
+     * @throws NoSuchPaddingException If the padding is not supported
+     */
+    public static Cipher getCipher( String transformation ) throws NoSuchAlgorithmException, NoSuchPaddingException
+    {
+        Map<String, Cipher> ciphers = CIPHERS.get();
+        Cipher cipher = ciphers.get( transformation );
+
+        if ( cipher == null )
+        {
+            cipher = Cipher.getInstance( transformation );
+            ciphers.put( transformation, cipher );
+        }
+
+        return cipher;
+    }
+
+
+    /**
+     * Gets the Mac of the current thread for an algorithm. It must be initialized.
+     *
+     * @param algorithm The algorithm, e.g. "HmacSHA1"
+     * @return The Mac
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     */
+    public static Mac getMac( String algorithm ) throws NoSuchAlgorithmException
+    {
+        Map<String, Mac> macs = MACS.get();
+        Mac mac = macs.get( algorithm );
+
+        if ( mac == null )
+        {
+            mac = Mac.getInstance( algorithm );
+            macs.put( algorithm, mac );
+        }
+
+        return mac;
+    }
+
+
+    /**
+     * Gets the MessageDigest of the current thread for an algorithm, reset.
+     *
+     * @param algorithm The algorithm, e.g. "MD5"
+     * @return The MessageDigest
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     */
+    public static MessageDigest getMessageDigest( String algorithm ) throws NoSuchAlgorithmException
+    {
+        Map<String, MessageDigest> digests = DIGESTS.get();
+        MessageDigest digest = digests.get( algorithm );
+
+        if ( digest == null )
+        {
+            digest = MessageDigest.getInstance( algorithm );
+            digests.put( algorithm, digest );
+        }
+        else
+        {
+            // A previous digest may have been interrupted
+            digest.reset();
+        }
+
+        return digest;
+    }
+}
@@ -267,7 +267,7 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "DESede/CBC/NoPadding" );
+            Cipher cipher = CryptoInstances.getCipher( "DESede/CBC/NoPadding" );
             SecretKey key = new SecretKeySpec( keyBytes, "DESede" );
 
             AlgorithmParameterSpec paramSpec = new IvParameterSpec( iv );
@@ -297,7 +297,7 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
         {
             SecretKey sk = new SecretKeySpec( key, "DESede" );
 
-            Mac mac = Mac.getInstance( "HmacSHA1" );
+            Mac mac = CryptoInstances.getMac( "HmacSHA1" );
             mac.init( sk );
 
             return mac.doFinal( data );
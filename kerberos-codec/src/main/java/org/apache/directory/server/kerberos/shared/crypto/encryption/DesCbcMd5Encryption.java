@@ -76,7 +76,7 @@ class DesCbcMd5Encryption extends EncryptionEngine
     {
         try
         {
-            MessageDigest digester = MessageDigest.getInstance( LdapSecurityConstants.HASH_METHOD_MD5.getAlgorithm() );
+            MessageDigest digester = CryptoInstances.getMessageDigest( LdapSecurityConstants.HASH_METHOD_MD5.getAlgorithm() );
             return digester.digest( data );
         }
         catch ( NoSuchAlgorithmException nsae )
@@ -154,7 +154,7 @@ class DesCbcMd5Encryption extends EncryptionEngine
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "DES/CBC/NoPadding" );
+            Cipher cipher = CryptoInstances.getCipher( "DES/CBC/NoPadding" );
             SecretKey key = new SecretKeySpec( keyBytes, "DES" );
 
             AlgorithmParameterSpec paramSpec = new IvParameterSpec( iv );
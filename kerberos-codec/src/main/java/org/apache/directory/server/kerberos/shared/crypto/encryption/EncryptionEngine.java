@@ -20,6 +20,7 @@
 package org.apache.directory.server.kerberos.shared.crypto.encryption;
 
 
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 
 import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
@@ -27,6 +28,9 @@ import org.apache.directory.shared.kerberos.components.EncryptedData;
 import org.apache.directory.shared.kerberos.components.EncryptionKey;
 import org.apache.directory.shared.kerberos.exceptions.KerberosException;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 
 /**
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
@@ -35,6 +39,16 @@ public abstract class EncryptionEngine
 {
     private static final SecureRandom random = new SecureRandom();
 
+    /** The maximum number of derived keys kept in the cache */
+    private static final int DERIVED_KEYS_CACHE_SIZE = 4096;
+
+    /**
+     * The keys derived from a base key and a usage. A base key is used for many messages,
+     * each one deriving the same keys, so they are computed once.
+     */
+    private static final Cache<ByteBuffer, byte[]> DERIVED_KEYS = Caffeine.newBuilder()
+        .maximumSize( DERIVED_KEYS_CACHE_SIZE ).build();
+
 
     protected abstract byte[] getDecryptedData( EncryptionKey key, EncryptedData data, KeyUsage usage )
         throws KerberosException;
@@ -62,6 +76,25 @@ public abstract class EncryptionEngine
 
 
     protected byte[] deriveRandom( byte[] key, byte[] usage, int n, int k )
+    {
+        ByteBuffer derivation = ByteBuffer.allocate( 16 + usage.length + key.length );
+        derivation.putInt( getEncryptionType().getValue() ).putInt( n ).putInt( k ).putInt( usage.length );
+        derivation.put( usage ).put( key ).flip();
+
+        byte[] result = DERIVED_KEYS.getIfPresent( derivation );
+
+        if ( result == null )
+        {
+            result = computeRandom( key, usage, n, k );
+            DERIVED_KEYS.put( derivation, result );
+        }
+
+        // The cached key must not be modified by the caller
+        return result.clone();
+    }
+
+
+    private byte[] computeRandom( byte[] key, byte[] usage, int n, int k )
     {
         byte[] nFoldedUsage = NFold.nFold( n, usage );
 
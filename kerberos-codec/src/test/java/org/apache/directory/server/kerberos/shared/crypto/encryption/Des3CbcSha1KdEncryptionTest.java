@@ -31,6 +31,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 
@@ -135,6 +136,34 @@ public class Des3CbcSha1KdEncryptionTest
     }
 
 
+    /**
+     * Tests that a cached derived key is not altered by the callers.
+     */
+    @Test
+    public void testDerivedKeyCached()
+    {
+        byte[] key =
+            { ( byte ) 0x98, ( byte ) 0xe6, ( byte ) 0xfd, ( byte ) 0x8a, ( byte ) 0x04, ( byte ) 0xa4, ( byte ) 0xb6,
+                ( byte ) 0x85, ( byte ) 0x9b, ( byte ) 0x75, ( byte ) 0xa1, ( byte ) 0x76, ( byte ) 0x54,
+                ( byte ) 0x0b, ( byte ) 0x97, ( byte ) 0x52, ( byte ) 0xba, ( byte ) 0xd3, ( byte ) 0xec,
+                ( byte ) 0xd6, ( byte ) 0x10, ( byte ) 0xa2, ( byte ) 0x52, ( byte ) 0xbc };
+
+        byte[] usage =
+            { ( byte ) 0x00, ( byte ) 0x00, ( byte ) 0x00, ( byte ) 0x02, ( byte ) 0x99 };
+
+        byte[] first = keyDerivationFunction.deriveRandom( key, usage, 64, 168 );
+        byte[] expected = first.clone();
+        Arrays.fill( first, ( byte ) 0 );
+
+        byte[] second = keyDerivationFunction.deriveRandom( key, usage, 64, 168 );
+        assertTrue( Arrays.equals( expected, second ) );
+
+        // Another usage of the same key derives another key
+        usage[4] = ( byte ) 0xaa;
+        assertFalse( Arrays.equals( expected, keyDerivationFunction.deriveRandom( key, usage, 64, 168 ) ) );
+    }
+
+
     /**
      * Tests that key derivation can be performed for a Triple-DES key.
      */
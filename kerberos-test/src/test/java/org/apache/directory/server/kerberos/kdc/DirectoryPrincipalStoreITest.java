@@ -0,0 +1,211 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.kdc;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.ApplyLdifFiles;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.LdapCoreSessionConnection;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.kerberos.KeyDerivationInterceptor;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the principal cache of the DirectoryPrincipalStore : the principals, known or
+ * not, are read from the directory once, and the changes done in the directory are
+ * seen by the next lookup.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "DirectoryPrincipalStoreIT-class",
+    partitions =
+        {
+            @CreatePartition(
+                name = "example",
+                suffix = "dc=example,dc=com")
+    },
+    additionalInterceptors =
+        {
+            KeyDerivationInterceptor.class
+    })
+@ApplyLdifFiles("org/apache/directory/server/kerberos/kdc/KerberosIT.ldif")
+public class DirectoryPrincipalStoreITest extends AbstractLdapTestUnit
+{
+    private static final String REALM = "EXAMPLE.COM";
+
+    private LdapCoreSessionConnection conn;
+
+    private DirectoryPrincipalStore store;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        conn = new LdapCoreSessionConnection( getService() );
+
+        Modification mod = new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            "m-disabled", "FALSE" );
+        conn.modify( "cn=Krb5kdc,ou=schema", mod );
+
+        store = new DirectoryPrincipalStore( getService(), new Dn( AbstractKerberosITest.USERS_DN ) );
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        store.destroy();
+        conn.close();
+    }
+
+
+    @Test
+    public void testCacheHit() throws Exception
+    {
+        createPrincipal( "hit" );
+        KerberosPrincipal principal = new KerberosPrincipal( "hit@" + REALM );
+
+        PrincipalStoreEntry first = store.getPrincipal( principal );
+
+        assertNotNull( first );
+        assertEquals( 0L, store.getCacheHitCount() );
+        assertEquals( 1L, store.getCacheMissCount() );
+
+        // The same entry is returned, without searching the directory
+        assertSame( first, store.getPrincipal( principal ) );
+        assertEquals( 1L, store.getCacheHitCount() );
+        assertEquals( 1L, store.getCacheMissCount() );
+    }
+
+
+    @Test
+    public void testUnknownPrincipalCached() throws Exception
+    {
+        KerberosPrincipal principal = new KerberosPrincipal( "unknown@" + REALM );
+
+        assertNull( store.getPrincipal( principal ) );
+        assertEquals( 1L, store.getCacheMissCount() );
+
+        assertNull( store.getPrincipal( principal ) );
+        assertEquals( 1L, store.getCacheHitCount() );
+        assertEquals( 1L, store.getCacheMissCount() );
+    }
+
+
+    @Test
+    public void testAddedPrincipalSeen() throws Exception
+    {
+        KerberosPrincipal principal = new KerberosPrincipal( "added@" + REALM );
+
+        // Cached as unknown
+        assertNull( store.getPrincipal( principal ) );
+
+        createPrincipal( "added" );
+
+        PrincipalStoreEntry entry = store.getPrincipal( principal );
+
+        assertNotNull( entry );
+        assertEquals( principal, entry.getPrincipal() );
+        assertEquals( 2L, store.getCacheMissCount() );
+    }
+
+
+    @Test
+    public void testKeyChangeInvalidates() throws Exception
+    {
+        createPrincipal( "rekeyed" );
+        KerberosPrincipal principal = new KerberosPrincipal( "rekeyed@" + REALM );
+
+        PrincipalStoreEntry before = store.getPrincipal( principal );
+
+        assertEquals( 0, before.getKeyVersionNumber() );
+
+        // The KeyDerivationInterceptor derives new keys and increments the key version number
+        Modification mod = new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            "userPassword", "newSecret" );
+        conn.modify( "uid=rekeyed," + AbstractKerberosITest.USERS_DN, mod );
+
+        PrincipalStoreEntry after = store.getPrincipal( principal );
+
+        assertNotSame( before, after );
+        assertEquals( 1, after.getKeyVersionNumber() );
+        assertEquals( 2L, store.getCacheMissCount() );
+    }
+
+
+    @Test
+    public void testDestroyRemovesListener() throws Exception
+    {
+        int nbListeners = getService().getEventService().getRegistrationEntries().size();
+
+        store.destroy();
+
+        assertEquals( nbListeners - 1, getService().getEventService().getRegistrationEntries().size() );
+
+        // The principals are not cached anymore
+        createPrincipal( "destroyed" );
+        KerberosPrincipal principal = new KerberosPrincipal( "destroyed@" + REALM );
+
+        PrincipalStoreEntry first = store.getPrincipal( principal );
+
+        assertNotNull( first );
+        assertNotSame( first, store.getPrincipal( principal ) );
+        assertEquals( 0L, store.getCacheHitCount() );
+        assertEquals( 0L, store.getCacheMissCount() );
+    }
+
+
+    private void createPrincipal( String uid ) throws LdapException
+    {
+        Entry entry = new DefaultEntry();
+        entry.setDn( "uid=" + uid + "," + AbstractKerberosITest.USERS_DN );
+        entry.add( "objectClass", "top", "person", "inetOrgPerson", "krb5principal", "krb5kdcentry" );
+        entry.add( "cn", uid );
+        entry.add( "sn", uid );
+        entry.add( "uid", uid );
+        entry.add( "userPassword", "secret" );
+        entry.add( "krb5PrincipalName", uid + "@" + REALM );
+        entry.add( "krb5KeyVersionNumber", "0" );
+        conn.add( entry );
+    }
+}
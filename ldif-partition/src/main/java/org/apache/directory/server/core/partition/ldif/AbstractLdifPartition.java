@@ -79,6 +79,9 @@ public abstract class AbstractLdifPartition extends AvlPartition
         // Create the CsnFactory with a invalid ReplicaId
         // @TODO : inject a correct ReplicaId
         defaultCSNFactory = new CsnFactory( 0 );
+
+        // The partition directory only contains the LDIF files
+        getStatistics().setPersistent( false );
     }
 
 
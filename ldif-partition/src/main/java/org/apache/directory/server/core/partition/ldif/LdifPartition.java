@@ -26,9 +26,14 @@ import java.io.IOException;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
@@ -100,6 +105,12 @@ public class LdifPartition extends AbstractLdifPartition
     /** The directory into which the entries are stored */
     private File suffixDirectory;
 
+    /** The number of entries added in a single transaction when the partition is loaded */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    /** The number of threads parsing the LDIF files when the partition is loaded */
+    private int loaderThreads = Runtime.getRuntime().availableProcessors();
+
     /** Flags used for the getFile() method */
     private static final boolean CREATE = Boolean.TRUE;
     private static final boolean DELETE = Boolean.FALSE;
@@ -558,36 +569,119 @@ public class LdifPartition extends AbstractLdifPartition
      */
     private void loadEntries( File entryDir ) throws LdapException
     {
-        LOG.debug( "Processing dir {}", entryDir.getName() );
+        ForkJoinPool pool = new ForkJoinPool( loaderThreads );
+
+        try
+        {
+            // The entries are loaded level by level : all the parents have been added
+            // when the entries of a level are added. The next level's files are parsed
+            // while the current level's entries are added.
+            List<File> nextDirs = new ArrayList<>();
+            List<Future<Entry>> level = parseLevel( pool, Collections.singletonList( entryDir ), nextDirs );
 
-        // First, load the entries
-        File[] entries = entryDir.listFiles( entryFilter );
+            while ( level != null )
+            {
+                List<Future<Entry>> currentLevel = level;
+                List<File> dirs = nextDirs;
+                nextDirs = new ArrayList<>();
+                level = dirs.isEmpty() ? null : parseLevel( pool, dirs, nextDirs );
+
+                addEntries( currentLevel );
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Submits the parsing of the LDIF files stored in some directories. The sub-directories
+     * of the directories containing LDIF files are stored in the nextDirs list.
+     */
+    private List<Future<Entry>> parseLevel( ForkJoinPool pool, List<File> dirs, List<File> nextDirs )
+    {
+        List<Future<Entry>> level = new ArrayList<>();
 
-        if ( ( entries != null ) && ( entries.length != 0 ) )
+        for ( File dir : dirs )
         {
-            LdifReader ldifReader = new LdifReader( schemaManager );
+            LOG.debug( "Processing dir {}", dir.getName() );
+
+            File[] entries = dir.listFiles( entryFilter );
+
+            if ( ( entries == null ) || ( entries.length == 0 ) )
+            {
+                // If we don't have ldif files, we won't have sub-directories
+                continue;
+            }
 
             for ( File entry : entries )
             {
-                LOG.debug( "parsing ldif file {}", entry.getName() );
-                List<LdifEntry> ldifEntries = ldifReader.parseLdifFile( entry.getAbsolutePath() );
-                
-                try
-                {
-                    ldifReader.close();
-                }
-                catch ( IOException ioe )
-                {
-                    throw new LdapOtherException( ioe.getMessage(), ioe );
-                }
+                level.add( pool.submit( () -> parseEntry( entry ) ) );
+            }
+
+            File[] subDirs = dir.listFiles( dirFilter );
+
+            if ( subDirs != null )
+            {
+                Collections.addAll( nextDirs, subDirs );
+            }
+        }
+
+        return level;
+    }
+
 
-                if ( ( ldifEntries != null ) && !ldifEntries.isEmpty() )
+    /**
+     * Parses a LDIF file containing one entry
+     *
+     * @return The parsed entry, or null if the file is empty
+     */
+    private Entry parseEntry( File entry ) throws LdapException, IOException
+    {
+        LOG.debug( "parsing ldif file {}", entry.getName() );
+
+        try ( LdifReader ldifReader = new LdifReader( schemaManager ) )
+        {
+            List<LdifEntry> ldifEntries = ldifReader.parseLdifFile( entry.getAbsolutePath() );
+
+            if ( ( ldifEntries == null ) || ldifEntries.isEmpty() )
+            {
+                return null;
+            }
+
+            // this ldif will have only one entry
+            return new DefaultEntry( schemaManager, ldifEntries.get( 0 ).getEntry() );
+        }
+    }
+
+
+    /**
+     * Adds the parsed entries of a level, by batches of {@link #LOAD_BATCH_SIZE} entries
+     * sharing a transaction.
+     */
+    private void addEntries( List<Future<Entry>> level ) throws LdapException
+    {
+        int pos = 0;
+
+        while ( pos < level.size() )
+        {
+            int end = Math.min( pos + LOAD_BATCH_SIZE, level.size() );
+            PartitionTxn partitionTxn = beginWriteTransaction();
+
+            try
+            {
+                for ( Future<Entry> parsed : level.subList( pos, end ) )
                 {
-                    // this ldif will have only one entry
-                    LdifEntry ldifEntry = ldifEntries.get( 0 );
-                    LOG.debug( "Adding entry {}", ldifEntry );
+                    Entry serverEntry = getParsedEntry( parsed );
+
+                    if ( serverEntry == null )
+                    {
+                        continue;
+                    }
 
-                    Entry serverEntry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
+                    LOG.debug( "Adding entry {}", serverEntry.getDn() );
 
                     if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) )
                     {
@@ -601,62 +695,70 @@ public class LdifPartition extends AbstractLdifPartition
 
                     // call add on the wrapped partition not on the self
                     AddOperationContext addContext = new AddOperationContext( null, serverEntry );
-                    PartitionTxn partitionTxn = beginWriteTransaction();
-                    
-                    try
-                    {
-                        addContext.setTransaction( partitionTxn );
-                        addContext.setPartition( this );
-                    
-                        super.add( addContext );
-                        
-                        partitionTxn.commit();
-                    }
-                    catch ( LdapException le )
-                    {
-                        try
-                        {
-                            partitionTxn.abort();
-                        }
-                        catch ( IOException ioe )
-                        {
-                            throw new LdapOtherException( ioe.getMessage(), ioe );
-                        }
-                        
-                        throw le;
-                    }
-                    catch ( IOException ioe )
-                    {
-                        try
-                        {
-                            partitionTxn.abort();
-                        }
-                        catch ( IOException ioe2 )
-                        {
-                            throw new LdapOtherException( ioe2.getMessage(), ioe2 );
-                        }
-                        
-                        throw new LdapOtherException( ioe.getMessage(), ioe );
-                    }
+                    addContext.setTransaction( partitionTxn );
+                    addContext.setPartition( this );
+
+                    super.add( addContext );
                 }
+
+                partitionTxn.commit();
+            }
+            catch ( LdapException le )
+            {
+                try
+                {
+                    partitionTxn.abort();
+                }
+                catch ( IOException ioe )
+                {
+                    throw new LdapOtherException( ioe.getMessage(), ioe );
+                }
+                
+                throw le;
+            }
+            catch ( IOException ioe )
+            {
+                try
+                {
+                    partitionTxn.abort();
+                }
+                catch ( IOException ioe2 )
+                {
+                    throw new LdapOtherException( ioe2.getMessage(), ioe2 );
+                }
+                
+                throw new LdapOtherException( ioe.getMessage(), ioe );
             }
 
+            pos = end;
         }
-        else
-        {
-            // If we don't have ldif files, we won't have sub-directories
-            return;
-        }
+    }
 
-        // Second, recurse on the sub directories
-        File[] dirs = entryDir.listFiles( dirFilter );
 
-        if ( ( dirs != null ) && ( dirs.length != 0 ) )
+    /**
+     * Waits for a parsed entry
+     */
+    private Entry getParsedEntry( Future<Entry> parsed ) throws LdapException
+    {
+        try
+        {
+            return parsed.get();
+        }
+        catch ( InterruptedException ie )
         {
-            for ( File f : dirs )
+            Thread.currentThread().interrupt();
+            throw new LdapOtherException( ie.getMessage(), ie );
+        }
+        catch ( ExecutionException ee )
+        {
+            Throwable cause = ee.getCause();
+
+            if ( cause instanceof LdapException )
             {
-                loadEntries( f );
+                throw ( LdapException ) cause;
             }
+
+            throw new LdapOtherException( cause.getMessage(), cause );
         }
     }
 
@@ -923,4 +1025,29 @@ public class LdifPartition extends AbstractLdifPartition
             return file.delete();
         }
     }
-}
\ No newline at end of file
+
+
+    /**
+     * @return The number of threads parsing the LDIF files when the partition is loaded
+     */
+    public int getLoaderThreads()
+    {
+        return loaderThreads;
+    }
+
+
+    /**
+     * Sets the number of threads parsing the LDIF files when the partition is loaded
+     *
+     * @param loaderThreads The number of threads, the number of processors if 0 or negative
+     */
+    public void setLoaderThreads( int loaderThreads )
+    {
+        if ( loaderThreads <= 0 )
+        {
+            loaderThreads = Runtime.getRuntime().availableProcessors();
+        }
+
+        this.loaderThreads = loaderThreads;
+    }
+}
@@ -25,11 +25,26 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
@@ -37,6 +52,7 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
 import org.apache.directory.api.ldap.model.ldif.LdifReader;
 import org.apache.directory.api.ldap.model.ldif.LdifUtils;
@@ -60,6 +76,18 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A Partition implementation backed by a single LDIF file.
+ * <br>
+ * By default, the whole file is rewritten after each modification. When the journal is
+ * enabled, the modifications are instead appended to a journal file stored next to the
+ * LDIF file (with the {@link #JOURNAL_FILE_EXTN} extension), as LDIF change records :
+ * <ul>
+ *   <li>an <b>add</b> record contains the full state of an added or modified entry</li>
+ *   <li>a <b>delete</b> record removes an entry and its descendants</li>
+ * </ul>
+ * A renamed or moved entry is logged as the deletion of its old Dn, followed by the new
+ * state of all the entries of its subtree. Replaying the journal is idempotent. When the
+ * journal grows above the compaction threshold, the LDIF file is rewritten in the background,
+ * and the journal is truncated. The journal is replayed when the partition is loaded.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -77,6 +105,33 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     /** lock for serializing the operations on the backing LDIF file */
     private Object lock = new Object();
 
+    /** The journal file extension */
+    public static final String JOURNAL_FILE_EXTN = ".journal";
+
+    /** The default journal size above which the LDIF file is rewritten : 1Mb */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 1024L * 1024L;
+
+    /** flag to enable/disable the journal, default is set to false */
+    private boolean journalEnabled = false;
+
+    /** the journal size above which the LDIF file is rewritten */
+    private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    /** the LDIF file */
+    private File partitionFile;
+
+    /** the journal file */
+    private File journalFile;
+
+    /** the channel used to append to the journal, when the journal is enabled */
+    private FileChannel journal;
+
+    /** the thread compacting the journal */
+    private ExecutorService compactionExecutor;
+
+    /** flag used to avoid scheduling the compaction more than once */
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean( false );
+
     private static final Logger LOG = LoggerFactory.getLogger( SingleFileLdifPartition.class );
 
 
@@ -102,7 +157,8 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new IllegalArgumentException( "Partition path cannot be null" );
             }
 
-            File partitionFile = new File( getPartitionPath() );
+            partitionFile = new File( getPartitionPath() );
+            journalFile = new File( partitionFile.getPath() + JOURNAL_FILE_EXTN );
 
             if ( partitionFile.exists() && !partitionFile.isFile() )
             {
@@ -137,63 +193,183 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             super.doInit();
 
             loadEntries();
+
+            try
+            {
+                openJournal();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+    }
+
+
+    /**
+     * Opens the journal if it's enabled. If the journal is disabled, and a journal file
+     * remains from a previous run, it has already been replayed : the LDIF file is
+     * rewritten and the journal deleted.
+     */
+    private void openJournal() throws IOException, LdapException
+    {
+        if ( journalEnabled )
+        {
+            journal = FileChannel.open( journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+            journal.position( journal.size() );
+
+            compactionExecutor = Executors.newSingleThreadExecutor( runnable ->
+            {
+                Thread thread = new Thread( runnable, "ldif-compaction-" + getId() );
+                thread.setDaemon( true );
+
+                return thread;
+            } );
+        }
+        else if ( journalFile.exists() )
+        {
+            try ( PartitionTxn partitionTxn = beginReadTransaction() )
+            {
+                dirty = true;
+                rewritePartitionData( partitionTxn );
+            }
+
+            Files.delete( journalFile.toPath() );
         }
     }
 
 
     /**
-     * load the entries from the LDIF file if present
+     * load the entries from the LDIF file if present, and replay the journal
      * @throws Exception
      */
     private void loadEntries() throws LdapException
     {
-        try ( RandomAccessLdifReader parser = new RandomAccessLdifReader( schemaManager ) )
+        if ( journalFile.length() > 0L )
         {
-            Iterator<LdifEntry> itr = parser.iterator();
-    
-            if ( !itr.hasNext() )
+            boolean first = true;
+
+            for ( Entry entry : replayJournal().values() )
             {
-                return;
+                loadEntry( entry, first );
+                first = false;
             }
+
+            return;
+        }
+
+        try ( RandomAccessLdifReader parser = new RandomAccessLdifReader( schemaManager ) )
+        {
+            Iterator<LdifEntry> itr = parser.iterator();
+            boolean first = true;
     
-            LdifEntry ldifEntry = itr.next();
-    
-            contextEntry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
-    
-            if ( suffixDn.equals( contextEntry.getDn() ) )
+            while ( itr.hasNext() )
             {
-                addMandatoryOpAt( contextEntry );
+                LdifEntry ldifEntry = itr.next();
     
-                AddOperationContext addContext = new AddOperationContext( null, contextEntry );
-                addContext.setPartition( this );
-                addContext.setTransaction( this.beginWriteTransaction() );
-
-                super.add( addContext );
+                loadEntry( new DefaultEntry( schemaManager, ldifEntry.getEntry() ), first );
+                first = false;
             }
-            else
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Adds a loaded entry in the partition. The first entry must be the context entry.
+     */
+    private void loadEntry( Entry entry, boolean first ) throws LdapException
+    {
+        if ( first )
+        {
+            contextEntry = entry;
+
+            if ( !suffixDn.equals( contextEntry.getDn() ) )
             {
                 throw new LdapException( "The given LDIF file doesn't contain the context entry" );
             }
-    
-            while ( itr.hasNext() )
+        }
+
+        addMandatoryOpAt( entry );
+
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( this );
+        addContext.setTransaction( this.beginWriteTransaction() );
+
+        super.add( addContext );
+    }
+
+
+    /**
+     * Reads the LDIF file, and applies the journal's changes on the read entries.
+     *
+     * @return The entries, parents first
+     */
+    private Map<Dn, Entry> replayJournal() throws LdapException
+    {
+        Map<Dn, Entry> entries = new LinkedHashMap<>();
+
+        try ( RandomAccessLdifReader parser = new RandomAccessLdifReader( schemaManager ) )
+        {
+            for ( LdifEntry ldifEntry : parser )
             {
-                ldifEntry = itr.next();
-    
                 Entry entry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
-    
-                addMandatoryOpAt( entry );
-    
-                AddOperationContext addContext = new AddOperationContext( null, entry );
-                addContext.setPartition( this );
-                addContext.setTransaction( this.beginWriteTransaction() );
+                entries.put( entry.getDn(), entry );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
 
-                super.add( addContext );
+        int nbChanges = 0;
+
+        try ( LdifReader reader = new LdifReader( journalFile, schemaManager ) )
+        {
+            for ( LdifEntry change : reader )
+            {
+                Dn dn = change.getDn();
+
+                if ( !dn.isSchemaAware() )
+                {
+                    dn = new Dn( schemaManager, dn );
+                }
+
+                if ( change.getChangeType() == ChangeType.Delete )
+                {
+                    // Remove the entry and its descendants
+                    Iterator<Dn> dns = entries.keySet().iterator();
+
+                    while ( dns.hasNext() )
+                    {
+                        Dn entryDn = dns.next();
+
+                        if ( entryDn.equals( dn ) || entryDn.isDescendantOf( dn ) )
+                        {
+                            dns.remove();
+                        }
+                    }
+                }
+                else
+                {
+                    Entry entry = new DefaultEntry( schemaManager, change.getEntry() );
+                    entries.put( dn, entry );
+                }
+
+                nbChanges++;
             }
         }
         catch ( IOException ioe )
         {
             throw new LdapOtherException( ioe.getMessage(), ioe );
         }
+
+        LOG.debug( "Replayed {} changes from the journal {}", nbChanges, journalFile );
+
+        return entries;
     }
 
 
@@ -220,8 +396,17 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 }
             }
 
-            dirty = true;
-            rewritePartitionData( addContext.getTransaction() );
+            if ( isJournaling() )
+            {
+                Entry entry = addContext.getEntry().clone();
+                entry.removeAttributes( entryDnAT );
+                writeJournal( addRecord( addContext.getDn(), entry ) );
+            }
+            else
+            {
+                dirty = true;
+                rewritePartitionData( addContext.getTransaction() );
+            }
         }
     }
 
@@ -236,9 +421,11 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         
         synchronized ( lock )
         {
+            Entry modifiedEntry;
+
             try
             {
-                Entry modifiedEntry = super.modify( partitionTxn, modifyContext.getDn(),
+                modifiedEntry = super.modify( partitionTxn, modifyContext.getDn(),
                     modifyContext.getModItems().toArray( new Modification[]
                         {} ) );
 
@@ -252,8 +439,15 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new LdapOperationException( e.getMessage(), e );
             }
 
-            dirty = true;
-            rewritePartitionData( partitionTxn );
+            if ( isJournaling() )
+            {
+                writeJournal( addRecord( modifyContext.getDn(), modifiedEntry ) );
+            }
+            else
+            {
+                dirty = true;
+                rewritePartitionData( partitionTxn );
+            }
         }
     }
 
@@ -267,8 +461,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         synchronized ( lock )
         {
             super.rename( renameContext );
-            dirty = true;
-            rewritePartitionData( renameContext.getTransaction() );
+            writeMovedSubtree( renameContext.getTransaction(), renameContext.getDn(), renameContext.getNewDn() );
         }
     }
 
@@ -282,8 +475,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         synchronized ( lock )
         {
             super.move( moveContext );
-            dirty = true;
-            rewritePartitionData( moveContext.getTransaction() );
+            writeMovedSubtree( moveContext.getTransaction(), moveContext.getDn(), moveContext.getNewDn() );
         }
     }
 
@@ -297,8 +489,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         synchronized ( lock )
         {
             super.moveAndRename( opContext );
-            dirty = true;
-            rewritePartitionData( opContext.getTransaction() );
+            writeMovedSubtree( opContext.getTransaction(), opContext.getDn(), opContext.getNewDn() );
         }
     }
 
@@ -308,18 +499,165 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            Dn dn = isJournaling() ? buildEntryDn( partitionTxn, id ) : null;
             Entry deletedEntry = super.delete( partitionTxn, id );
+
+            if ( isJournaling() )
+            {
+                LdifEntry ldif = new LdifEntry();
+                ldif.setChangeType( ChangeType.Delete );
+                ldif.setDn( dn );
+
+                writeJournal( ldif );
+            }
+            else
+            {
+                dirty = true;
+                rewritePartitionData( partitionTxn );
+            }
+
+            return deletedEntry;
+        }
+    }
+
+
+    /**
+     * @return true if the modifications are written in the journal
+     */
+    private boolean isJournaling()
+    {
+        return enableRewriting && ( journal != null );
+    }
+
+
+    /**
+     * Writes the modifications done by a rename or a move : the old Dn is deleted, and all the
+     * entries of the subtree are added with their new Dn.
+     */
+    private void writeMovedSubtree( PartitionTxn partitionTxn, Dn oldDn, Dn newDn ) throws LdapException
+    {
+        if ( !isJournaling() )
+        {
             dirty = true;
             rewritePartitionData( partitionTxn );
 
-            return deletedEntry;
+            return;
+        }
+
+        List<LdifEntry> changes = new ArrayList<>();
+
+        LdifEntry deletion = new LdifEntry();
+        deletion.setChangeType( ChangeType.Delete );
+        deletion.setDn( oldDn );
+        changes.add( deletion );
+
+        try
+        {
+            String id = getEntryId( partitionTxn, newDn );
+            Entry entry = fetch( partitionTxn, id );
+            entry.removeAttributes( entryDnAT );
+            changes.add( addRecord( entry.getDn(), entry ) );
+
+            ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, id );
+
+            if ( parentIdAndRdn.getNbDescendants() > 0 )
+            {
+                walkRecursive( partitionTxn, id, parentIdAndRdn.getNbChildren(),
+                    child -> changes.add( addRecord( child.getDn(), child ) ) );
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapException( e );
+        }
+
+        writeJournal( changes.toArray( new LdifEntry[changes.size()] ) );
+    }
+
+
+    /**
+     * Creates the journal record storing the full state of an entry
+     */
+    private LdifEntry addRecord( Dn dn, Entry entry ) throws LdapException
+    {
+        LdifEntry ldif = new LdifEntry();
+        ldif.setChangeType( ChangeType.Add );
+        ldif.setDn( dn );
+
+        for ( Attribute attribute : entry.getAttributes() )
+        {
+            ldif.addAttribute( attribute.clone() );
+        }
+
+        return ldif;
+    }
+
+
+    /**
+     * Appends some records to the journal, and schedule a compaction if the journal
+     * is too big.
+     */
+    private void writeJournal( LdifEntry... changes ) throws LdapException
+    {
+        try
+        {
+            StringBuilder sb = new StringBuilder();
+
+            for ( LdifEntry change : changes )
+            {
+                sb.append( LdifUtils.convertToLdif( change, 80 ) ).append( '\n' );
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap( Strings.getBytesUtf8( sb.toString() ) );
+
+            while ( buffer.hasRemaining() )
+            {
+                journal.write( buffer );
+            }
+
+            journal.force( false );
+
+            if ( ( journal.size() > compactionThreshold ) && compactionScheduled.compareAndSet( false, true ) )
+            {
+                compactionExecutor.execute( this::compact );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Rewrites the LDIF file, and truncates the journal
+     */
+    private void compact()
+    {
+        try ( PartitionTxn partitionTxn = beginReadTransaction() )
+        {
+            synchronized ( lock )
+            {
+                dirty = true;
+                rewritePartitionData( partitionTxn );
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to compact the journal {}", journalFile, e );
+        }
+        finally
+        {
+            compactionScheduled.set( false );
         }
     }
 
 
     /**
      * writes the partition's data to the file if {@link #enableRewriting} is set to true
-     * and partition was modified since the last write or {@link #dirty} data. 
+     * and partition was modified since the last write or {@link #dirty} data. When the
+     * journal is enabled, the data are written in a temporary file which replaces the LDIF
+     * file, and the journal is then truncated.
      * 
      * @throws LdapException
      */
@@ -334,30 +672,30 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
             try
             {
-                ldifFile.setLength( 0 ); // wipe the file clean
-
-                String suffixId = getEntryId( partitionTxn, suffixDn );
-
-                if ( suffixId == null )
+                if ( journal == null )
                 {
-                    contextEntry = null;
-                    return;
+                    ldifFile.setLength( 0 ); // wipe the file clean
+                    writePartitionData( partitionTxn, ldifFile );
                 }
-
-                ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( partitionTxn, suffixId );
-
-                if ( suffixEntry != null )
+                else
                 {
-                    Entry entry = master.get( partitionTxn, suffixId );
-
-                    // Don't write the EntryDN attribute
-                    entry.removeAttributes( entryDnAT );
-
-                    entry.setDn( suffixDn );
-
-                    appendLdif( entry );
-
-                    appendRecursive( partitionTxn, suffixId, suffixEntry.getNbChildren() );
+                    File tmpFile = new File( partitionFile.getPath() + ".tmp" );
+
+                    try ( RandomAccessFile out = new RandomAccessFile( tmpFile, "rw" ) )
+                    {
+                        out.setLength( 0 );
+                        writePartitionData( partitionTxn, out );
+                        out.getFD().sync();
+                    }
+
+                    ldifFile.close();
+                    Files.move( tmpFile.toPath(), partitionFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE );
+                    ldifFile = new RandomAccessFile( partitionFile, "rws" );
+
+                    // The LDIF file now contains all the changes
+                    journal.truncate( 0L );
+                    journal.force( false );
                 }
 
                 dirty = false;
@@ -374,7 +712,48 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     }
 
 
-    private void appendRecursive( PartitionTxn partitionTxn, String id, int nbSibbling ) throws Exception
+    /**
+     * Writes all the entries in a file
+     */
+    private void writePartitionData( PartitionTxn partitionTxn, RandomAccessFile out ) throws Exception
+    {
+        String suffixId = getEntryId( partitionTxn, suffixDn );
+
+        if ( suffixId == null )
+        {
+            contextEntry = null;
+            return;
+        }
+
+        ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( partitionTxn, suffixId );
+
+        if ( suffixEntry != null )
+        {
+            Entry entry = master.get( partitionTxn, suffixId );
+
+            // Don't write the EntryDN attribute
+            entry.removeAttributes( entryDnAT );
+
+            entry.setDn( suffixDn );
+
+            appendLdif( out, entry );
+
+            walkRecursive( partitionTxn, suffixId, suffixEntry.getNbChildren(), child -> appendLdif( out, child ) );
+        }
+    }
+
+
+    /**
+     * A visitor of the entries of a subtree
+     */
+    private interface EntryVisitor
+    {
+        void visit( Entry entry ) throws LdapException, IOException;
+    }
+
+
+    private void walkRecursive( PartitionTxn partitionTxn, String id, int nbSibbling, EntryVisitor visitor )
+        throws LdapException, CursorException, IOException
     {
         // Start with the root
         Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor( partitionTxn );
@@ -393,7 +772,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             // Remove the EntryDn
             entry.removeAttributes( SchemaConstants.ENTRY_DN_AT );
 
-            appendLdif( entry );
+            visitor.visit( entry );
 
             countChildren++;
 
@@ -402,7 +781,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
             if ( nbChildren > 0 )
             {
-                appendRecursive( partitionTxn, childId, nbChildren );
+                walkRecursive( partitionTxn, childId, nbChildren, visitor );
             }
         }
 
@@ -413,15 +792,16 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     /**
      * append data to the LDIF file
      *
+     * @param out the file to write to
      * @param entry the entry to be written
      * @throws LdapException
      */
-    private void appendLdif( Entry entry ) throws IOException
+    private void appendLdif( RandomAccessFile out, Entry entry ) throws IOException
     {
         synchronized ( lock )
         {
             String ldif = LdifUtils.convertToLdif( entry );
-            ldifFile.write( Strings.getBytesUtf8( ldif + "\n" ) );
+            out.write( Strings.getBytesUtf8( ldif + "\n" ) );
         }
     }
 
@@ -509,8 +889,26 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         
         try
         {
+            if ( compactionExecutor != null )
+            {
+                compactionExecutor.shutdown();
+                compactionExecutor.awaitTermination( 1, TimeUnit.MINUTES );
+                compactionExecutor = null;
+            }
+
+            if ( journal != null )
+            {
+                journal.close();
+                journal = null;
+            }
+
             ldifFile.close();
         }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new LdapOtherException( ie.getMessage(), ie );
+        }
         catch ( IOException ioe )
         {
             throw new LdapOtherException( ioe.getMessage(), ioe );
@@ -533,4 +931,50 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         // save data if found dirty 
         rewritePartitionData( partitionTxn );
     }
+
+
+    /**
+     * @return true if the modifications are appended to a journal
+     */
+    public boolean isJournalEnabled()
+    {
+        return journalEnabled;
+    }
+
+
+    /**
+     * Enables or disables the journal. It must be set before the partition is initialized.
+     *
+     * @param journalEnabled if true, the modifications are appended to a journal instead of
+     * rewriting the whole LDIF file
+     */
+    public void setJournalEnabled( boolean journalEnabled )
+    {
+        this.journalEnabled = journalEnabled;
+    }
+
+
+    /**
+     * @return the journal size above which the LDIF file is rewritten
+     */
+    public long getCompactionThreshold()
+    {
+        return compactionThreshold;
+    }
+
+
+    /**
+     * Sets the journal size above which the LDIF file is rewritten, and the journal truncated.
+     *
+     * @param compactionThreshold the threshold, in bytes
+     */
+    public void setCompactionThreshold( long compactionThreshold )
+    {
+        if ( compactionThreshold <= 0L )
+        {
+            compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+        }
+
+        this.compactionThreshold = compactionThreshold;
+    }
 }
@@ -75,6 +75,7 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.api.normalization.FilterNormalizingVisitor;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.PartitionStatistics;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Rule;
@@ -231,6 +232,52 @@ public class LdifPartitionTest
     }
 
 
+    /**
+     * Test that a partition is correctly reloaded, the parents being added before
+     * their children
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testLdifLoadEntries() throws Exception
+    {
+        AddOperationContext addCtx = new AddOperationContext( null );
+        addCtx.setPartition( partition );
+        addCtx.setTransaction( partition.beginWriteTransaction() );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            Entry child = createEntry( "dc=child" + i + ",ou=test,ou=system" );
+            child.put( "ObjectClass", "top", "domain" );
+            addCtx.setEntry( child );
+            partition.add( addCtx );
+
+            for ( int j = 0; j < 10; j++ )
+            {
+                Entry grandChild = createEntry( "dc=grandChild" + j + ",dc=child" + i + ",ou=test,ou=system" );
+                grandChild.put( "ObjectClass", "top", "domain" );
+                addCtx.setEntry( grandChild );
+                partition.add( addCtx );
+            }
+        }
+
+        LdifPartition reloaded = new LdifPartition( schemaManager, dnFactory );
+        reloaded.setId( "test-ldif" );
+        reloaded.setSuffixDn( new Dn( schemaManager, "ou=test,ou=system" ) );
+        reloaded.setSchemaManager( schemaManager );
+        reloaded.setPartitionPath( wkdir.toURI() );
+        reloaded.setLoaderThreads( 4 );
+        reloaded.initialize();
+
+        try ( PartitionTxn partitionTxn = reloaded.beginReadTransaction() )
+        {
+            assertEquals( 221L, reloaded.count( partitionTxn ) );
+            assertNotNull( reloaded.getEntryId( partitionTxn, new Dn( schemaManager,
+                "dc=grandChild9,dc=child19,ou=test,ou=system" ) ) );
+        }
+    }
+
+
     /**
      * Test that we can't add an existing entry
      *
@@ -772,6 +819,22 @@ public class LdifPartitionTest
     }
 
 
+    /**
+     * The index statistics must not be stored among the LDIF files.
+     */
+    @Test
+    public void testStatisticsNotStored() throws Exception
+    {
+        injectEntries();
+
+        partition.getStatistics().refresh();
+
+        assertFalse( partition.getStatistics().isPersistent() );
+        assertFalse( new File( wkdir, PartitionStatistics.STATISTICS_FILE ).exists() );
+        assertFalse( new File( wkdir, PartitionStatistics.STATISTICS_FILE + ".tmp" ).exists() );
+    }
+
+
     private CoreSession injectEntries() throws Exception
     {
         Dn adminDn = new Dn( schemaManager, "uid=admin,ou=system" );
@@ -119,6 +119,12 @@ public class SingleFileLdifPartitionTest
     /** the file in use during the current test method's execution */
     private File ldifFileInUse;
 
+    /** flag used to create the partitions with a journal */
+    private boolean journalEnabled;
+
+    /** the journal compaction threshold of the created partitions */
+    private long compactionThreshold = SingleFileLdifPartition.DEFAULT_COMPACTION_THRESHOLD;
+
     @Rule
     public TemporaryFolder folder = new TemporaryFolder();
 
@@ -241,6 +247,8 @@ public class SingleFileLdifPartitionTest
         partition.setPartitionPath( new File( fileName ).toURI() );
         partition.setSuffixDn( new Dn( schemaManager, "ou=test,ou=system" ) );
         partition.setSchemaManager( schemaManager );
+        partition.setJournalEnabled( journalEnabled );
+        partition.setCompactionThreshold( compactionThreshold );
         partition.initialize();
 
         return partition;
@@ -1397,6 +1405,122 @@ public class SingleFileLdifPartitionTest
     }
 
 
+    /**
+     * Test that the modifications are appended to the journal, and that the journal
+     * is replayed when the partition is loaded
+     */
+    @Test
+    public void testJournalReplay() throws Exception
+    {
+        journalEnabled = true;
+        SingleFileLdifPartition partition = injectEntries();
+        File journalFile = new File( ldifFileInUse.getAbsolutePath() + SingleFileLdifPartition.JOURNAL_FILE_EXTN );
+
+        // Nothing has been written in the LDIF file
+        assertEquals( 0L, ldifFileInUse.length() );
+        assertTrue( journalFile.length() > 0L );
+
+        // Move a subtree
+        Dn child1Dn = new Dn( schemaManager, "cn=child1,ou=test,ou=system" );
+        Dn child2Dn = new Dn( schemaManager, "cn=child2,ou=test,ou=system" );
+        MoveOperationContext moveOpCtx = new MoveOperationContext( mockSession, child1Dn, child2Dn );
+        moveOpCtx.setPartition( partition );
+        moveOpCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.move( moveOpCtx );
+
+        // Modify an entry
+        Dn grandChild12Dn = new Dn( schemaManager, "cn=grandChild12,cn=child1,cn=child2,ou=test,ou=system" );
+        Attribute sn = new DefaultAttribute( schemaManager.lookupAttributeTypeRegistry( "sn" ), "modified" );
+        Modification mod = new DefaultModification();
+        mod.setOperation( ModificationOperation.REPLACE_ATTRIBUTE );
+        mod.setAttribute( sn );
+
+        List<Modification> modItems = new ArrayList<Modification>();
+        modItems.add( mod );
+
+        ModifyOperationContext modOpCtx = new ModifyOperationContext( mockSession );
+        modOpCtx.setModItems( modItems );
+        modOpCtx.setDn( grandChild12Dn );
+        modOpCtx.setPartition( partition );
+        modOpCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.modify( modOpCtx );
+
+        // Delete an entry
+        Dn greatGrandChild111Dn = new Dn( schemaManager,
+            "cn=greatGrandChild111,cn=grandChild11,cn=child1,cn=child2,ou=test,ou=system" );
+        DeleteOperationContext delOpCtx = new DeleteOperationContext( mockSession );
+        delOpCtx.setDn( greatGrandChild111Dn );
+        delOpCtx.setPartition( partition );
+        delOpCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.delete( delOpCtx );
+
+        assertEquals( 0L, ldifFileInUse.length() );
+
+        partition = reloadPartition();
+        checkJournalReplay( partition );
+
+        // Reload without the journal : the LDIF file is rewritten, and the journal deleted
+        journalEnabled = false;
+        partition = reloadPartition();
+
+        assertFalse( journalFile.exists() );
+        assertTrue( ldifFileInUse.length() > 0L );
+        checkJournalReplay( partition );
+
+        partition = reloadPartition();
+        checkJournalReplay( partition );
+    }
+
+
+    private void checkJournalReplay( SingleFileLdifPartition partition ) throws Exception
+    {
+        assertExists( partition, "cn=child1,cn=child2,ou=test,ou=system" );
+        assertExists( partition, "cn=grandChild11,cn=child1,cn=child2,ou=test,ou=system" );
+        assertNotExists( partition, createEntry( "cn=child1,ou=test,ou=system" ) );
+        assertNotExists( partition, createEntry(
+            "cn=greatGrandChild111,cn=grandChild11,cn=child1,cn=child2,ou=test,ou=system" ) );
+
+        Entry grandChild12 = partition.fetch( partition.beginReadTransaction(), partition.getEntryId(
+            partition.beginReadTransaction(), new Dn( schemaManager,
+                "cn=grandChild12,cn=child1,cn=child2,ou=test,ou=system" ) ) );
+
+        assertEquals( "modified", grandChild12.get( "sn" ).getString() );
+    }
+
+
+    /**
+     * Test that the LDIF file is rewritten when the journal is too big
+     */
+    @Test
+    public void testJournalCompaction() throws Exception
+    {
+        journalEnabled = true;
+        compactionThreshold = 1L;
+        SingleFileLdifPartition partition = injectEntries();
+        File journalFile = new File( ldifFileInUse.getAbsolutePath() + SingleFileLdifPartition.JOURNAL_FILE_EXTN );
+
+        // The compaction is done in the background
+        long timeout = System.currentTimeMillis() + 10000L;
+
+        while ( ( journalFile.length() > 0L ) && ( System.currentTimeMillis() < timeout ) )
+        {
+            Thread.sleep( 50L );
+        }
+
+        assertEquals( 0L, journalFile.length() );
+        assertTrue( ldifFileInUse.length() > 0L );
+
+        journalEnabled = false;
+        partition = reloadPartition();
+
+        assertExists( partition, contextEntry );
+        assertExists( partition, "cn=greatGrandChild111,cn=grandChild11,cn=child1,ou=test,ou=system" );
+    }
+
+
     private SingleFileLdifPartition injectEntries() throws Exception
     {
         SingleFileLdifPartition partition = createPartition( null, true );
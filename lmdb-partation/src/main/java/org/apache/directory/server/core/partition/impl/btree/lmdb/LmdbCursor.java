@@ -0,0 +1,516 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.SeekOp;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over the tuples of a LMDB table, or over the tuples of a single key when
+ * the table allows duplicates. The cursor reads from its own LMDB read transaction,
+ * started when the cursor is first positioned and released when it is closed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class LmdbCursor<K, V> extends AbstractCursor<Tuple<K, V>>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( "CURSOR" );
+
+    /** The position of the cursor relatively to the LMDB cursor */
+    private enum Position
+    {
+        /** Before the first tuple */
+        BEFORE_FIRST,
+
+        /** After the last tuple */
+        AFTER_LAST,
+
+        /** Before the tuple the LMDB cursor is on */
+        BEFORE,
+
+        /** On the tuple the LMDB cursor is on, which has been returned */
+        ON
+    }
+
+    /** The table we are building a cursor over */
+    private final LmdbTable<K, V> table;
+
+    /** The key the cursor is restricted to, if any */
+    private final K key;
+
+    /** The stored prefix of the key the cursor is restricted to, if any */
+    private byte[] keyBytes;
+
+    /** The read transaction */
+    private Txn<ByteBuffer> txn;
+
+    /** The LMDB cursor */
+    private org.lmdbjava.Cursor<ByteBuffer> cursor;
+
+    /** The current position */
+    private Position position = Position.BEFORE_FIRST;
+
+    /** The tuple which will be returned */
+    private Tuple<K, V> returnedTuple;
+
+
+    /**
+     * Creates a Cursor over the tuples of a LMDB table.
+     *
+     * @param table the LMDB Table to build a Cursor over
+     * @param key The key to restrict the cursor to, or null to browse the whole table
+     */
+    LmdbCursor( LmdbTable<K, V> table, K key )
+    {
+        LOG_CURSOR.debug( "Creating LmdbCursor {}", this );
+        this.table = table;
+        this.key = key;
+    }
+
+
+    /**
+     * Opens the read transaction and the LMDB cursor if not already done
+     */
+    private void open() throws LdapException
+    {
+        checkNotClosed();
+
+        if ( cursor == null )
+        {
+            if ( key != null )
+            {
+                keyBytes = table.lookupKey( key );
+            }
+
+            txn = table.environment.getEnv().txnRead();
+            cursor = table.getDbi().openCursor( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return position == Position.ON;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        open();
+        returnedTuple = null;
+
+        try
+        {
+            if ( key != null )
+            {
+                position = beforeValue( element, false );
+            }
+            else if ( table.isDupsEnabled() && ( element.getValue() != null ) )
+            {
+                position = beforeTuple( element, false );
+            }
+            else
+            {
+                position = table.seekRange( cursor, table.lookupKey( element.getKey() ) ) ? Position.BEFORE
+                    : Position.AFTER_LAST;
+            }
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        open();
+        returnedTuple = null;
+
+        try
+        {
+            if ( key != null )
+            {
+                position = beforeValue( element, true );
+            }
+            else if ( table.isDupsEnabled() && ( element.getValue() != null ) )
+            {
+                position = beforeTuple( element, true );
+            }
+            else
+            {
+                position = afterKey( element.getKey() );
+            }
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le );
+        }
+    }
+
+
+    /**
+     * Positions the cursor before the first value of the restricted key which is greater
+     * than (or equal to, if not strict) the value of the given tuple.
+     */
+    private Position beforeValue( Tuple<K, V> element, boolean strict ) throws LdapException
+    {
+        int keyComparison = LmdbTable.compare( table.lookupKey( element.getKey() ), keyBytes );
+
+        if ( keyComparison < 0 )
+        {
+            return Position.BEFORE_FIRST;
+        }
+        else if ( keyComparison > 0 )
+        {
+            return Position.AFTER_LAST;
+        }
+
+        if ( element.getValue() == null )
+        {
+            // Before or after all the values
+            return strict ? Position.AFTER_LAST : Position.BEFORE_FIRST;
+        }
+
+        return seekValue( keyBytes, table.storeValue( element.getValue() ), strict ) ? Position.BEFORE
+            : Position.AFTER_LAST;
+    }
+
+
+    /**
+     * Positions the cursor before the first tuple of the table which is greater than (or
+     * equal to, if not strict) the given tuple.
+     */
+    private Position beforeTuple( Tuple<K, V> element, boolean strict ) throws LdapException
+    {
+        byte[] lookupKey = table.lookupKey( element.getKey() );
+
+        if ( seekValue( lookupKey, table.storeValue( element.getValue() ), strict ) )
+        {
+            return Position.BEFORE;
+        }
+
+        // No value of this key is big enough : move to the next key
+        return afterKey( element.getKey() );
+    }
+
+
+    /**
+     * Moves the LMDB cursor to the first value of the given key which is greater than (or
+     * equal to, if not strict) the given value.
+     */
+    private boolean seekValue( byte[] lookupKey, byte[] valueBytes, boolean strict )
+    {
+        if ( !cursor.get( LmdbTable.directKey( lookupKey ), LmdbTable.directValue( valueBytes ),
+            SeekOp.MDB_GET_BOTH_RANGE ) )
+        {
+            return false;
+        }
+
+        if ( strict && ( LmdbTable.compare( cursor.val(), valueBytes ) == 0 ) )
+        {
+            return cursor.seek( SeekOp.MDB_NEXT_DUP );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Positions the cursor before the first key greater than the given key
+     */
+    private Position afterKey( K element ) throws LdapException
+    {
+        byte[] lookupKey = table.lookupKey( element );
+
+        if ( !table.seekRange( cursor, lookupKey ) )
+        {
+            return Position.AFTER_LAST;
+        }
+
+        if ( table.isKey( txn, cursor.key(), lookupKey, element ) )
+        {
+            boolean found = cursor.seek( table.isDupsEnabled() ? SeekOp.MDB_NEXT_NODUP : SeekOp.MDB_NEXT );
+
+            return found ? Position.BEFORE : Position.AFTER_LAST;
+        }
+
+        return Position.BEFORE;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        returnedTuple = null;
+        position = Position.BEFORE_FIRST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        returnedTuple = null;
+        position = Position.AFTER_LAST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        open();
+
+        try
+        {
+            boolean found;
+
+            switch ( position )
+            {
+                case BEFORE_FIRST:
+                    found = false;
+                    break;
+
+                case AFTER_LAST:
+                    found = moveLast();
+                    break;
+
+                default:
+                    found = cursor.seek( key != null ? SeekOp.MDB_PREV_DUP : SeekOp.MDB_PREV );
+                    break;
+            }
+
+            return read( found, Position.BEFORE_FIRST );
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        open();
+
+        try
+        {
+            boolean found;
+
+            switch ( position )
+            {
+                case BEFORE_FIRST:
+                    found = moveFirst();
+                    break;
+
+                case AFTER_LAST:
+                    found = false;
+                    break;
+
+                case BEFORE:
+                    found = true;
+                    break;
+
+                default:
+                    found = cursor.seek( key != null ? SeekOp.MDB_NEXT_DUP : SeekOp.MDB_NEXT );
+                    break;
+            }
+
+            return read( found, Position.AFTER_LAST );
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le );
+        }
+    }
+
+
+    private boolean moveFirst()
+    {
+        if ( key == null )
+        {
+            return cursor.first();
+        }
+
+        // The cursor is moved to the first value of the key
+        return cursor.get( LmdbTable.directKey( keyBytes ), GetOp.MDB_SET_KEY );
+    }
+
+
+    private boolean moveLast()
+    {
+        if ( key == null )
+        {
+            return cursor.last();
+        }
+
+        return cursor.get( LmdbTable.directKey( keyBytes ), GetOp.MDB_SET_KEY ) && cursor.seek( SeekOp.MDB_LAST_DUP );
+    }
+
+
+    /**
+     * Reads the tuple the LMDB cursor is on, if the move succeeded
+     */
+    private boolean read( boolean found, Position notFound ) throws LdapException
+    {
+        if ( !found )
+        {
+            returnedTuple = null;
+            position = notFound;
+
+            return false;
+        }
+
+        // Reading a long key or value may reuse the buffers of the LMDB cursor
+        ByteBuffer keyBuffer = cursor.key().duplicate();
+        ByteBuffer valueBuffer = cursor.val().duplicate();
+
+        K tupleKey = ( key != null ) ? key : table.deserializeKey( txn, keyBuffer );
+        returnedTuple = new Tuple<>( tupleKey, table.deserializeValue( txn, valueBuffer ) );
+        position = Position.ON;
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tuple<K, V> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( position == Position.ON )
+        {
+            return returnedTuple;
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        LOG_CURSOR.debug( "Closing LmdbCursor {}", this );
+        super.close();
+        release();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        LOG_CURSOR.debug( "Closing LmdbCursor {}", this );
+        super.close( cause );
+        release();
+    }
+
+
+    /**
+     * Closes the LMDB cursor and its read transaction
+     */
+    private void release()
+    {
+        if ( cursor != null )
+        {
+            cursor.close();
+            cursor = null;
+        }
+
+        if ( txn != null )
+        {
+            txn.close();
+            txn = null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * Serializes a Dn as the UTF-8 bytes of its normalized name, which is all what
+ * the alias index needs to compare and dereference DNs.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbDnSerializer implements LmdbSerializer<Dn>
+{
+    private static final Comparator<Dn> COMPARATOR = new Comparator<Dn>()
+    {
+        @Override
+        public int compare( Dn dn1, Dn dn2 )
+        {
+            return LmdbTable.compare( Strings.getBytesUtf8( dn1.getNormName() ),
+                Strings.getBytesUtf8( dn2.getNormName() ) );
+        }
+    };
+
+    /** The schemaManager reference */
+    private final SchemaManager schemaManager;
+
+
+    /**
+     * Creates a new instance of LmdbDnSerializer.
+     *
+     * @param schemaManager The SchemaManager used to parse the stored DNs
+     */
+    public LmdbDnSerializer( SchemaManager schemaManager )
+    {
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( Dn dn )
+    {
+        return Strings.getBytesUtf8( dn.getNormName() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Dn deserialize( ByteBuffer buffer ) throws IOException
+    {
+        String normName = StandardCharsets.UTF_8.decode( buffer ).toString();
+
+        try
+        {
+            return new Dn( schemaManager, normName );
+        }
+        catch ( LdapInvalidDnException lide )
+        {
+            throw new IOException( I18n.err( I18n.ERR_134, lide.getLocalizedMessage() ), lide );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comparator<Dn> getComparator()
+    {
+        return COMPARATOR;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Serialize and deserialize a ServerEntry stored in the master table. We only store
+ * the RDN of the entry, the full DN is rebuilt from the Rdn index. The format is the
+ * same as the one used by the JDBM partition.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbEntrySerializer implements LmdbSerializer<Entry>
+{
+    /** the logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbEntrySerializer.class );
+
+    /** The schemaManager reference */
+    private final SchemaManager schemaManager;
+
+    /** Orders the entries the way their serialized form is ordered */
+    private final Comparator<Entry> comparator = new Comparator<Entry>()
+    {
+        @Override
+        public int compare( Entry entry1, Entry entry2 )
+        {
+            try
+            {
+                return LmdbTable.compare( serialize( entry1 ), serialize( entry2 ) );
+            }
+            catch ( IOException ioe )
+            {
+                throw new IllegalArgumentException( ioe.getMessage(), ioe );
+            }
+        }
+    };
+
+
+    /**
+     * Creates a new instance of LmdbEntrySerializer.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     */
+    public LmdbEntrySerializer( SchemaManager schemaManager )
+    {
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( Entry entry ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput out = new ObjectOutputStream( baos );
+
+        // First, the Dn
+        Dn dn = entry.getDn();
+
+        // Write the Rdn of the Dn
+        if ( dn.isEmpty() )
+        {
+            out.writeByte( 0 );
+        }
+        else
+        {
+            out.writeByte( 1 );
+            Rdn rdn = dn.getRdn();
+            rdn.writeExternal( out );
+        }
+
+        // Then the attributes.
+        out.writeInt( entry.getAttributes().size() );
+
+        for ( Attribute attribute : entry.getAttributes() )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+
+            // Write the oid to be able to restore the AttributeType when deserializing
+            // the attribute
+            out.writeUTF( attributeType.getOid() );
+
+            // Write the attribute
+            attribute.writeExternal( out );
+        }
+
+        out.flush();
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( ">------------------------------------------------" );
+            LOG.debug( "Serialize {}", entry );
+        }
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry deserialize( ByteBuffer buffer ) throws IOException
+    {
+        // Read directly from the mapped memory, there is no need to copy the bytes
+        ObjectInputStream in = new ObjectInputStream( new ByteBufferInputStream( buffer ) );
+
+        try
+        {
+            Entry entry = new DefaultEntry( schemaManager );
+
+            // Read the Dn, if any
+            byte hasDn = in.readByte();
+
+            if ( hasDn == 1 )
+            {
+                Rdn rdn = new Rdn( schemaManager );
+                rdn.readExternal( in );
+
+                try
+                {
+                    entry.setDn( new Dn( schemaManager, rdn ) );
+                }
+                catch ( LdapInvalidDnException lide )
+                {
+                    throw new IOException( lide.getMessage(), lide );
+                }
+            }
+            else
+            {
+                entry.setDn( Dn.EMPTY_DN );
+            }
+
+            // Read the number of attributes
+            int nbAttributes = in.readInt();
+
+            // Read the attributes
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                // Read the attribute's OID
+                String oid = in.readUTF();
+
+                try
+                {
+                    AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
+
+                    // Create the attribute we will read
+                    Attribute attribute = new DefaultAttribute( attributeType );
+
+                    // Read the attribute
+                    attribute.readExternal( in );
+
+                    entry.add( attribute );
+                }
+                catch ( LdapException ne )
+                {
+                    // We weren't able to find the OID. The attribute will not be added
+                    throw new ClassNotFoundException( ne.getMessage(), ne );
+                }
+            }
+
+            return entry;
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            LOG.error( I18n.err( I18n.ERR_134, cnfe.getLocalizedMessage() ) );
+            throw new IOException( cnfe.getLocalizedMessage(), cnfe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comparator<Entry> getComparator()
+    {
+        return comparator;
+    }
+
+
+    /**
+     * An InputStream reading the remaining bytes of a ByteBuffer
+     */
+    private static final class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+
+        private ByteBufferInputStream( ByteBuffer buffer )
+        {
+            this.buffer = buffer;
+        }
+
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+
+        @Override
+        public int read( byte[] bytes, int offset, int length )
+        {
+            if ( length == 0 )
+            {
+                return 0;
+            }
+
+            if ( !buffer.hasRemaining() )
+            {
+                return -1;
+            }
+
+            int nbRead = Math.min( length, buffer.remaining() );
+            buffer.get( bytes, offset, nbRead );
+
+            return nbRead;
+        }
+
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.lmdbjava.ByteBufferProxy;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.DbiFlags;
+import org.lmdbjava.Env;
+import org.lmdbjava.EnvFlags;
+import org.lmdbjava.Txn;
+
+
+/**
+ * Wraps the LMDB environment of a partition : all the tables of a partition are
+ * named databases in a single environment, so that one LMDB transaction covers the
+ * master table and all the indexes.
+ * <p>
+ * The environment is opened with MDB_NOTLS : read transactions are not bound to the
+ * thread which created them, which is needed as search cursors are consumed after
+ * the operation which created them has returned. Write transactions are tracked per
+ * thread, so that a table modified with a transaction which isn't a LMDB one (or
+ * without transaction) joins the write transaction already active in the current
+ * thread instead of waiting forever for the LMDB writer lock.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbEnvironment
+{
+    /** The default maximum size of the database : 10 GB, only reserved as address space */
+    public static final long DEFAULT_MAP_SIZE = 10L * 1024L * 1024L * 1024L;
+
+    /** The default maximum number of tables (each index uses two of them, plus their overflow tables) */
+    public static final int DEFAULT_MAX_DBS = 512;
+
+    /** The default maximum number of concurrent read transactions, each open cursor using one */
+    public static final int DEFAULT_MAX_READERS = 1024;
+
+    /** The LMDB environment */
+    private final Env<ByteBuffer> env;
+
+    /** The write transaction active in each thread */
+    private final ThreadLocal<LmdbPartitionWriteTxn> currentWriteTxn = new ThreadLocal<>();
+
+
+    /**
+     * Opens a LMDB environment, creating it if needed.
+     *
+     * @param directory The directory where the data and lock files are stored
+     * @param mapSize The maximum size of the database
+     * @param maxDbs The maximum number of tables
+     * @param maxReaders The maximum number of concurrent read transactions
+     * @param syncOnWrite If <code>false</code>, the commits are not flushed to disk
+     */
+    public LmdbEnvironment( File directory, long mapSize, int maxDbs, int maxReaders, boolean syncOnWrite )
+    {
+        List<EnvFlags> flags = new ArrayList<>();
+        flags.add( EnvFlags.MDB_NOTLS );
+
+        if ( !syncOnWrite )
+        {
+            flags.add( EnvFlags.MDB_NOSYNC );
+        }
+
+        env = Env.create( ByteBufferProxy.PROXY_SAFE )
+            .setMapSize( mapSize )
+            .setMaxDbs( maxDbs )
+            .setMaxReaders( maxReaders )
+            .open( directory, flags.toArray( new EnvFlags[0] ) );
+    }
+
+
+    /**
+     * @return The LMDB environment
+     */
+    Env<ByteBuffer> getEnv()
+    {
+        return env;
+    }
+
+
+    /**
+     * @return The maximum size of a key, and of a value in a table allowing duplicates
+     */
+    int getMaxKeySize()
+    {
+        return env.getMaxKeySize();
+    }
+
+
+    /**
+     * Opens a table, creating it if needed.
+     *
+     * @param name The table name
+     * @param allowsDuplicates If the table stores several values per key
+     * @return The LMDB database
+     */
+    Dbi<ByteBuffer> openDbi( String name, boolean allowsDuplicates )
+    {
+        if ( allowsDuplicates )
+        {
+            return env.openDbi( name, DbiFlags.MDB_CREATE, DbiFlags.MDB_DUPSORT );
+        }
+        else
+        {
+            return env.openDbi( name, DbiFlags.MDB_CREATE );
+        }
+    }
+
+
+    /**
+     * @return The names of all the tables stored in the environment
+     */
+    public List<String> getTableNames()
+    {
+        List<String> names = new ArrayList<>();
+
+        for ( byte[] name : env.getDbiNames() )
+        {
+            names.add( Strings.utf8ToString( name ) );
+        }
+
+        return names;
+    }
+
+
+    /**
+     * Deletes a table and its content.
+     *
+     * @param name The table name
+     */
+    public void dropTable( String name )
+    {
+        Dbi<ByteBuffer> dbi = env.openDbi( name );
+
+        try ( Txn<ByteBuffer> txn = env.txnWrite() )
+        {
+            dbi.drop( txn, true );
+            txn.commit();
+        }
+    }
+
+
+    /**
+     * Starts a read transaction.
+     *
+     * @return The new transaction
+     */
+    public LmdbPartitionReadTxn beginReadTransaction()
+    {
+        return new LmdbPartitionReadTxn( this );
+    }
+
+
+    /**
+     * Starts a write transaction, nested in the write transaction already active in the
+     * current thread if any.
+     *
+     * @return The new transaction
+     */
+    public LmdbPartitionWriteTxn beginWriteTransaction()
+    {
+        LmdbPartitionWriteTxn parent = currentWriteTxn.get();
+        Txn<ByteBuffer> txn;
+
+        if ( parent == null )
+        {
+            txn = env.txnWrite();
+        }
+        else
+        {
+            txn = env.txn( parent.getTxn() );
+        }
+
+        LmdbPartitionWriteTxn writeTxn = new LmdbPartitionWriteTxn( this, txn, parent );
+        currentWriteTxn.set( writeTxn );
+
+        return writeTxn;
+    }
+
+
+    /**
+     * Called when a write transaction has been committed or aborted : its parent, if any,
+     * becomes the active transaction again.
+     *
+     * @param writeTxn The completed transaction
+     */
+    void transactionDone( LmdbPartitionWriteTxn writeTxn )
+    {
+        if ( currentWriteTxn.get() == writeTxn )
+        {
+            LmdbPartitionWriteTxn parent = writeTxn.getParent();
+
+            if ( parent == null )
+            {
+                currentWriteTxn.remove();
+            }
+            else
+            {
+                currentWriteTxn.set( parent );
+            }
+        }
+    }
+
+
+    /**
+     * Gets the LMDB transaction to read with. The write transaction active in the current
+     * thread is used first, so that a thread always reads its own modifications. Otherwise,
+     * the given transaction is used if it's a LMDB transaction on this environment, and if
+     * it's not, a new read transaction is started : it has to be released with
+     * {@link #releaseReadTxn(PartitionTxn, Txn)}.
+     *
+     * @param partitionTxn The transaction given to the table
+     * @return The LMDB transaction to use
+     */
+    Txn<ByteBuffer> acquireReadTxn( PartitionTxn partitionTxn )
+    {
+        LmdbPartitionWriteTxn writeTxn = currentWriteTxn.get();
+
+        if ( writeTxn != null )
+        {
+            return writeTxn.getTxn();
+        }
+
+        Txn<ByteBuffer> txn = getTxn( partitionTxn );
+
+        if ( txn != null )
+        {
+            return txn;
+        }
+
+        return env.txnRead();
+    }
+
+
+    /**
+     * Releases a transaction obtained with {@link #acquireReadTxn(PartitionTxn)}, closing
+     * it if it was started for this read only.
+     *
+     * @param partitionTxn The transaction given to the table
+     * @param txn The LMDB transaction which was used
+     */
+    void releaseReadTxn( PartitionTxn partitionTxn, Txn<ByteBuffer> txn )
+    {
+        if ( txn.isReadOnly() && ( txn != getTxn( partitionTxn ) ) )
+        {
+            txn.close();
+        }
+    }
+
+
+    /**
+     * Gets the LMDB transaction to write with. If the given transaction isn't a LMDB
+     * write transaction on this environment, the write transaction active in the current
+     * thread is used, and if there is none, a new write transaction is started : it has
+     * to be released with {@link #releaseWriteTxn(PartitionTxn, Txn, boolean)}.
+     *
+     * @param partitionTxn The transaction given to the table
+     * @return The LMDB transaction to use
+     */
+    Txn<ByteBuffer> acquireWriteTxn( PartitionTxn partitionTxn )
+    {
+        if ( ( partitionTxn instanceof LmdbPartitionWriteTxn ) && !partitionTxn.isClosed()
+            && ( ( ( LmdbPartitionWriteTxn ) partitionTxn ).getEnvironment() == this ) )
+        {
+            return ( ( LmdbPartitionWriteTxn ) partitionTxn ).getTxn();
+        }
+
+        LmdbPartitionWriteTxn writeTxn = currentWriteTxn.get();
+
+        if ( writeTxn != null )
+        {
+            return writeTxn.getTxn();
+        }
+
+        return env.txnWrite();
+    }
+
+
+    /**
+     * Releases a transaction obtained with {@link #acquireWriteTxn(PartitionTxn)}. If it
+     * was started for this write only, it is committed when the write succeeded, and
+     * aborted otherwise.
+     *
+     * @param partitionTxn The transaction given to the table
+     * @param txn The LMDB transaction which was used
+     * @param success Tells if the write succeeded
+     */
+    void releaseWriteTxn( PartitionTxn partitionTxn, Txn<ByteBuffer> txn, boolean success )
+    {
+        LmdbPartitionWriteTxn writeTxn = currentWriteTxn.get();
+
+        if ( ( txn == getTxn( partitionTxn ) ) || ( ( writeTxn != null ) && ( txn == writeTxn.getTxn() ) ) )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( success )
+            {
+                txn.commit();
+            }
+        }
+        finally
+        {
+            txn.close();
+        }
+    }
+
+
+    /**
+     * @return The LMDB transaction wrapped by the given transaction, or null
+     */
+    private Txn<ByteBuffer> getTxn( PartitionTxn partitionTxn )
+    {
+        if ( ( partitionTxn == null ) || partitionTxn.isClosed() )
+        {
+            return null;
+        }
+
+        if ( partitionTxn instanceof LmdbPartitionWriteTxn )
+        {
+            LmdbPartitionWriteTxn writeTxn = ( LmdbPartitionWriteTxn ) partitionTxn;
+
+            return writeTxn.getEnvironment() == this ? writeTxn.getTxn() : null;
+        }
+
+        if ( partitionTxn instanceof LmdbPartitionReadTxn )
+        {
+            LmdbPartitionReadTxn readTxn = ( LmdbPartitionReadTxn ) partitionTxn;
+
+            return readTxn.getEnvironment() == this ? readTxn.getTxn() : null;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Flushes the data to disk.
+     */
+    public void sync()
+    {
+        env.sync( true );
+    }
+
+
+    /**
+     * Closes the environment.
+     */
+    public void close()
+    {
+        env.close();
+    }
+}
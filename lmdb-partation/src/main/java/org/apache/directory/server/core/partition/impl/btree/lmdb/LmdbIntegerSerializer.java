@@ -0,0 +1,165 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * A serializer for the normalized values of attributes using the integerMatch
+ * equality matching rule. The byte form preserves the numeric order, so that
+ * range filters can walk the index :
+ * <ul>
+ * <li>a sign byte (0x00 for negative numbers, 0x01 for the others)</li>
+ * <li>the number of digits on 4 bytes, bitwise inverted for negative numbers</li>
+ * <li>the ASCII digits, bitwise inverted for negative numbers</li>
+ * </ul>
+ * Values which are not plain decimal integers are stored after all the numbers,
+ * with a 0x02 sign byte followed by their UTF-8 bytes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class LmdbIntegerSerializer implements LmdbSerializer<String>
+{
+    /** The shared instance */
+    public static final LmdbIntegerSerializer INSTANCE = new LmdbIntegerSerializer();
+
+    private static final byte NEGATIVE = 0x00;
+    private static final byte POSITIVE = 0x01;
+    private static final byte NOT_A_NUMBER = 0x02;
+
+    /** A comparator consistent with the byte order */
+    private static final Comparator<String> COMPARATOR = new Comparator<String>()
+    {
+        @Override
+        public int compare( String s1, String s2 )
+        {
+            return LmdbTable.compare( INSTANCE.serialize( s1 ), INSTANCE.serialize( s2 ) );
+        }
+    };
+
+
+    private LmdbIntegerSerializer()
+    {
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( String element )
+    {
+        boolean negative = element.startsWith( "-" );
+        int start = negative ? 1 : 0;
+        int nbDigits = element.length() - start;
+
+        if ( nbDigits == 0 )
+        {
+            return notANumber( element );
+        }
+
+        for ( int i = start; i < element.length(); i++ )
+        {
+            char c = element.charAt( i );
+
+            if ( ( c < '0' ) || ( c > '9' ) )
+            {
+                return notANumber( element );
+            }
+        }
+
+        byte[] bytes = new byte[1 + 4 + nbDigits];
+        bytes[0] = negative ? NEGATIVE : POSITIVE;
+        int length = negative ? ~nbDigits : nbDigits;
+        bytes[1] = ( byte ) ( length >>> 24 );
+        bytes[2] = ( byte ) ( length >>> 16 );
+        bytes[3] = ( byte ) ( length >>> 8 );
+        bytes[4] = ( byte ) length;
+
+        for ( int i = 0; i < nbDigits; i++ )
+        {
+            byte digit = ( byte ) element.charAt( start + i );
+            bytes[5 + i] = negative ? ( byte ) ~digit : digit;
+        }
+
+        return bytes;
+    }
+
+
+    private byte[] notANumber( String element )
+    {
+        byte[] utf8 = Strings.getBytesUtf8( element );
+        byte[] bytes = new byte[utf8.length + 1];
+        bytes[0] = NOT_A_NUMBER;
+        System.arraycopy( utf8, 0, bytes, 1, utf8.length );
+
+        return bytes;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String deserialize( ByteBuffer buffer )
+    {
+        byte sign = buffer.get();
+
+        if ( sign == NOT_A_NUMBER )
+        {
+            return StandardCharsets.UTF_8.decode( buffer ).toString();
+        }
+
+        boolean negative = sign == NEGATIVE;
+        int length = LmdbTable.readInt( buffer );
+        int nbDigits = negative ? ~length : length;
+
+        StringBuilder sb = new StringBuilder( nbDigits + 1 );
+
+        if ( negative )
+        {
+            sb.append( '-' );
+        }
+
+        for ( int i = 0; i < nbDigits; i++ )
+        {
+            byte digit = buffer.get();
+            sb.append( ( char ) ( negative ? ( byte ) ~digit : digit ) );
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comparator<String> getComparator()
+    {
+        return COMPARATOR;
+    }
+}
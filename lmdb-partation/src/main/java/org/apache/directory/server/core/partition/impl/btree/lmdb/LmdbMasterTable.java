@@ -0,0 +1,59 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.xdbm.MasterTable;
+
+
+/**
+ * The master table used to store the Entries in a LMDB partition.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbMasterTable extends LmdbTable<String, Entry> implements MasterTable
+{
+    /**
+     * Creates the master table, if it does not already exist.
+     *
+     * @param environment The environment the table is stored in
+     * @param schemaManager The SchemaManager instance
+     * @param name The table name
+     */
+    public LmdbMasterTable( LmdbEnvironment environment, SchemaManager schemaManager, String name )
+    {
+        super( environment, schemaManager, name, LmdbStringSerializer.INSTANCE,
+            new LmdbEntrySerializer( schemaManager ), false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getNextId( Entry entry )
+    {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Serialize;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+
+
+/**
+ * Serializes the {@link ParentIdAndRdn} stored in the Rdn index. Two forms are used :
+ * <ul>
+ * <li>The key form, used in the forward table. It is ordered the same way as
+ * {@link ParentIdAndRdn#compareTo(ParentIdAndRdn)} : the parent ID, a 0x00 separator,
+ * the number of RDNs on one byte, and each RDN normalized name followed by a 0x00
+ * separator. The number of children and descendants are appended on 4 bytes each, but are
+ * not part of the prefix used to look keys up. A ParentIdAndRdn without RDN (used to
+ * browse the children of an entry) is serialized as the parent ID and the separator only,
+ * which sorts before all the children of this parent. The RDNs are rebuilt from their
+ * normalized name.</li>
+ * <li>The value form, used in the reverse table, which keeps the RDNs as they were
+ * provided.</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbParentIdAndRdnSerializer implements LmdbSerializer<ParentIdAndRdn>
+{
+    /** The separator between the parent ID and the RDNs, and after each RDN */
+    private static final int SEPARATOR = 0x00;
+
+    private static final Comparator<ParentIdAndRdn> COMPARATOR = new Comparator<ParentIdAndRdn>()
+    {
+        @Override
+        public int compare( ParentIdAndRdn rdn1, ParentIdAndRdn rdn2 )
+        {
+            return rdn1.compareTo( rdn2 );
+        }
+    };
+
+    /** The schemaManager reference */
+    private final SchemaManager schemaManager;
+
+    /** Tells if this serializer produces keys */
+    private final boolean keyForm;
+
+
+    private LmdbParentIdAndRdnSerializer( SchemaManager schemaManager, boolean keyForm )
+    {
+        this.schemaManager = schemaManager;
+        this.keyForm = keyForm;
+    }
+
+
+    /**
+     * Creates a serializer for the forward table keys
+     *
+     * @param schemaManager The SchemaManager used to rebuild the RDNs
+     * @return The serializer
+     */
+    public static LmdbParentIdAndRdnSerializer forKeys( SchemaManager schemaManager )
+    {
+        return new LmdbParentIdAndRdnSerializer( schemaManager, true );
+    }
+
+
+    /**
+     * Creates a serializer for the reverse table values
+     *
+     * @param schemaManager The SchemaManager used to rebuild the RDNs
+     * @return The serializer
+     */
+    public static LmdbParentIdAndRdnSerializer forValues( SchemaManager schemaManager )
+    {
+        return new LmdbParentIdAndRdnSerializer( schemaManager, false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( ParentIdAndRdn parentIdAndRdn ) throws IOException
+    {
+        if ( !keyForm )
+        {
+            return serializeValue( parentIdAndRdn );
+        }
+
+        ByteArrayOutputStream out = serializeKeyPrefix( parentIdAndRdn );
+
+        if ( parentIdAndRdn.getRdns() != null )
+        {
+            writeInt( out, parentIdAndRdn.getNbChildren() );
+            writeInt( out, parentIdAndRdn.getNbDescendants() );
+        }
+
+        return out.toByteArray();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serializePrefix( ParentIdAndRdn parentIdAndRdn ) throws IOException
+    {
+        if ( !keyForm )
+        {
+            return serializeValue( parentIdAndRdn );
+        }
+
+        return serializeKeyPrefix( parentIdAndRdn ).toByteArray();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasPrefix()
+    {
+        return keyForm;
+    }
+
+
+    private ByteArrayOutputStream serializeKeyPrefix( ParentIdAndRdn parentIdAndRdn )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( 128 );
+        byte[] parentIdBytes = Strings.getBytesUtf8( parentIdAndRdn.getParentId() );
+        out.write( parentIdBytes, 0, parentIdBytes.length );
+        out.write( SEPARATOR );
+
+        Rdn[] rdns = parentIdAndRdn.getRdns();
+
+        if ( rdns != null )
+        {
+            out.write( rdns.length );
+
+            for ( Rdn rdn : rdns )
+            {
+                byte[] normName = Strings.getBytesUtf8( rdn.getNormName() );
+                out.write( normName, 0, normName.length );
+                out.write( SEPARATOR );
+            }
+        }
+
+        return out;
+    }
+
+
+    private byte[] serializeValue( ParentIdAndRdn parentIdAndRdn )
+    {
+        int bufferSize = 1024;
+
+        while ( true )
+        {
+            // allocate a big enough buffer for most of the cases
+            byte[] buffer = new byte[bufferSize];
+
+            try
+            {
+                int pos = 0;
+                Rdn[] rdns = parentIdAndRdn.getRdns();
+
+                if ( ( rdns == null ) || ( rdns.length == 0 ) )
+                {
+                    pos = Serialize.serialize( 0, buffer, pos );
+                }
+                else
+                {
+                    pos = Serialize.serialize( rdns.length, buffer, pos );
+
+                    for ( Rdn rdn : rdns )
+                    {
+                        pos = rdn.serialize( buffer, pos );
+                    }
+                }
+
+                pos = Serialize.serialize( Strings.getBytesUtf8( parentIdAndRdn.getParentId() ), buffer, pos );
+                pos = Serialize.serialize( parentIdAndRdn.getNbChildren(), buffer, pos );
+                pos = Serialize.serialize( parentIdAndRdn.getNbDescendants(), buffer, pos );
+
+                byte[] result = new byte[pos];
+                System.arraycopy( buffer, 0, result, 0, pos );
+
+                return result;
+            }
+            catch ( ArrayIndexOutOfBoundsException aioobe )
+            {
+                // Bad luck, try with a bigger buffer
+                bufferSize += bufferSize;
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ParentIdAndRdn deserialize( ByteBuffer buffer ) throws IOException
+    {
+        try
+        {
+            if ( keyForm )
+            {
+                return deserializeKey( buffer );
+            }
+            else
+            {
+                return deserializeValue( buffer );
+            }
+        }
+        catch ( LdapException le )
+        {
+            throw new IOException( I18n.err( I18n.ERR_134, le.getLocalizedMessage() ), le );
+        }
+    }
+
+
+    private ParentIdAndRdn deserializeKey( ByteBuffer buffer ) throws LdapException
+    {
+        ParentIdAndRdn parentIdAndRdn = new ParentIdAndRdn();
+        parentIdAndRdn.setParentId( readString( buffer ) );
+
+        if ( !buffer.hasRemaining() )
+        {
+            return parentIdAndRdn;
+        }
+
+        int nbRdns = buffer.get() & 0xFF;
+        Rdn[] rdns = new Rdn[nbRdns];
+
+        for ( int i = 0; i < nbRdns; i++ )
+        {
+            rdns[i] = new Rdn( schemaManager, readString( buffer ) );
+        }
+
+        parentIdAndRdn.setRdns( rdns );
+        parentIdAndRdn.setNbChildren( LmdbTable.readInt( buffer ) );
+        parentIdAndRdn.setNbDescendants( LmdbTable.readInt( buffer ) );
+
+        return parentIdAndRdn;
+    }
+
+
+    private ParentIdAndRdn deserializeValue( ByteBuffer buffer ) throws LdapException
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get( bytes );
+
+        ParentIdAndRdn parentIdAndRdn = new ParentIdAndRdn();
+        int pos = 0;
+
+        int nbRdns = Serialize.deserializeInt( bytes, pos );
+        pos += 4;
+
+        Rdn[] rdns = new Rdn[nbRdns];
+
+        for ( int i = 0; i < nbRdns; i++ )
+        {
+            Rdn rdn = new Rdn( schemaManager );
+            pos = rdn.deserialize( bytes, pos );
+            rdns[i] = rdn;
+        }
+
+        parentIdAndRdn.setRdns( rdns );
+
+        byte[] parentIdBytes = Serialize.deserializeBytes( bytes, pos );
+        pos += 4 + parentIdBytes.length;
+        parentIdAndRdn.setParentId( Strings.utf8ToString( parentIdBytes ) );
+
+        parentIdAndRdn.setNbChildren( Serialize.deserializeInt( bytes, pos ) );
+        pos += 4;
+        parentIdAndRdn.setNbDescendants( Serialize.deserializeInt( bytes, pos ) );
+
+        return parentIdAndRdn;
+    }
+
+
+    /**
+     * Reads the UTF-8 bytes up to the next separator, and skips the separator
+     */
+    private static String readString( ByteBuffer buffer )
+    {
+        int start = buffer.position();
+        int end = start;
+
+        while ( ( end < buffer.limit() ) && ( buffer.get( end ) != SEPARATOR ) )
+        {
+            end++;
+        }
+
+        byte[] bytes = new byte[end - start];
+        buffer.get( bytes );
+
+        if ( buffer.hasRemaining() )
+        {
+            // Skip the separator
+            buffer.get();
+        }
+
+        return Strings.utf8ToString( bytes );
+    }
+
+
+    private static void writeInt( ByteArrayOutputStream out, int value )
+    {
+        out.write( value >>> 24 );
+        out.write( value >>> 16 );
+        out.write( value >>> 8 );
+        out.write( value );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comparator<ParentIdAndRdn> getComparator()
+    {
+        return COMPARATOR;
+    }
+}
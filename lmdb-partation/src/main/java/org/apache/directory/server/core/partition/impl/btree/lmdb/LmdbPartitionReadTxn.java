@@ -0,0 +1,131 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.lmdbjava.Txn;
+
+
+/**
+ * A read transaction on a LMDB partition. The underlying LMDB read transaction is
+ * only started when the first lookup is done, so that operations served from the
+ * entry cache don't pin a snapshot of the database.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartitionReadTxn extends PartitionReadTxn
+{
+    /** The environment this transaction reads from */
+    private final LmdbEnvironment environment;
+
+    /** The LMDB transaction, created on demand */
+    private Txn<ByteBuffer> txn;
+
+    /** Tells if the transaction has been closed */
+    private boolean closed;
+
+
+    /**
+     * Creates a new instance of LmdbPartitionReadTxn.
+     *
+     * @param environment The environment this transaction reads from
+     */
+    public LmdbPartitionReadTxn( LmdbEnvironment environment )
+    {
+        this.environment = environment;
+    }
+
+
+    /**
+     * @return The environment this transaction reads from
+     */
+    LmdbEnvironment getEnvironment()
+    {
+        return environment;
+    }
+
+
+    /**
+     * @return The LMDB read transaction, started if needed
+     */
+    Txn<ByteBuffer> getTxn()
+    {
+        if ( txn == null )
+        {
+            txn = environment.getEnv().txnRead();
+        }
+
+        return txn;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit()
+    {
+        close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort()
+    {
+        close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        closed = true;
+
+        if ( txn != null )
+        {
+            txn.close();
+            txn = null;
+        }
+    }
+}
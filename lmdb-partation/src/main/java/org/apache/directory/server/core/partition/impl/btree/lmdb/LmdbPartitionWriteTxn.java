@@ -0,0 +1,205 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.Txn;
+
+
+/**
+ * A write transaction on a LMDB partition. LMDB allows only one write transaction
+ * at a time, which must be completed by the thread which started it : a write
+ * transaction started while another one is already active in the same thread is
+ * created as a nested LMDB transaction, and is only made durable when the outermost
+ * transaction commits.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartitionWriteTxn extends PartitionWriteTxn
+{
+    /** The environment this transaction writes into */
+    private final LmdbEnvironment environment;
+
+    /** The LMDB transaction */
+    private final Txn<ByteBuffer> txn;
+
+    /** The enclosing transaction, if this one is nested */
+    private final LmdbPartitionWriteTxn parent;
+
+    /** Tells if the transaction has been committed or aborted */
+    private boolean closed;
+
+    /** The actions to run once the transaction has been committed */
+    private final List<Runnable> commitActions = new ArrayList<>();
+
+
+    /**
+     * Creates a new instance of LmdbPartitionWriteTxn.
+     *
+     * @param environment The environment this transaction writes into
+     * @param txn The LMDB write transaction
+     * @param parent The enclosing transaction, or null
+     */
+    LmdbPartitionWriteTxn( LmdbEnvironment environment, Txn<ByteBuffer> txn, LmdbPartitionWriteTxn parent )
+    {
+        this.environment = environment;
+        this.txn = txn;
+        this.parent = parent;
+    }
+
+
+    /**
+     * @return The environment this transaction writes into
+     */
+    LmdbEnvironment getEnvironment()
+    {
+        return environment;
+    }
+
+
+    /**
+     * @return The LMDB write transaction
+     */
+    Txn<ByteBuffer> getTxn()
+    {
+        return txn;
+    }
+
+
+    /**
+     * @return The enclosing transaction, or null
+     */
+    LmdbPartitionWriteTxn getParent()
+    {
+        return parent;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() throws IOException
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        closed = true;
+
+        try
+        {
+            txn.commit();
+        }
+        catch ( LmdbException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+        finally
+        {
+            txn.close();
+            environment.transactionDone( this );
+        }
+
+        // The changes of a nested transaction are only durable when the outermost one commits
+        for ( Runnable action : commitActions )
+        {
+            if ( parent != null )
+            {
+                parent.addCommitAction( action );
+            }
+            else
+            {
+                action.run();
+            }
+        }
+
+        commitActions.clear();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort() throws IOException
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        closed = true;
+        commitActions.clear();
+
+        try
+        {
+            txn.abort();
+        }
+        catch ( LmdbException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+        finally
+        {
+            txn.close();
+            environment.transactionDone( this );
+        }
+    }
+
+
+    /**
+     * Defers the action until the transaction is committed, as the changes are dropped
+     * on abort.
+     */
+    @Override
+    public void addCommitAction( Runnable action )
+    {
+        commitActions.add( action );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+
+    /**
+     * Commits the transaction if it's still active.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        commit();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+
+/**
+ * Serializes keys and values stored in a {@link LmdbTable}. LMDB orders keys (and duplicate
+ * values) by comparing their bytes, so a serializer used for keys must produce a byte form
+ * whose unsigned lexicographic order matches the order of the elements.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ *
+ * @param <T> The type of element being serialized
+ */
+public interface LmdbSerializer<T>
+{
+    /**
+     * Serializes an element.
+     *
+     * @param element The element to serialize
+     * @return The serialized form
+     * @throws IOException If the element can't be serialized
+     */
+    byte[] serialize( T element ) throws IOException;
+
+
+    /**
+     * Serializes the part of an element which determines its position in the table. Elements
+     * carrying some extra information which does not participate in the ordering (like the
+     * number of children of a {@link org.apache.directory.server.xdbm.ParentIdAndRdn}) return
+     * a prefix of their serialized form here.
+     *
+     * @param element The element to serialize
+     * @return The serialized prefix, which is the full serialized form by default
+     * @throws IOException If the element can't be serialized
+     */
+    default byte[] serializePrefix( T element ) throws IOException
+    {
+        return serialize( element );
+    }
+
+
+    /**
+     * Tells if {@link #serializePrefix(Object)} may return something shorter than
+     * {@link #serialize(Object)}.
+     *
+     * @return <code>true</code> if exact lookups have to be done on the prefix
+     */
+    default boolean hasPrefix()
+    {
+        return false;
+    }
+
+
+    /**
+     * Deserializes an element. The buffer may point to memory mapped data which is only
+     * valid until the next operation on the transaction, so it must be fully consumed.
+     *
+     * @param buffer The buffer containing the serialized element
+     * @return The deserialized element
+     * @throws IOException If the element can't be deserialized
+     */
+    T deserialize( ByteBuffer buffer ) throws IOException;
+
+
+    /**
+     * @return The comparator ordering the elements the way their serialized form is ordered
+     */
+    Comparator<T> getComparator();
+}
@@ -0,0 +1,85 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * A serializer storing Strings as their UTF-8 bytes, so that they are ordered
+ * by code point.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class LmdbStringSerializer implements LmdbSerializer<String>
+{
+    /** The shared instance */
+    public static final LmdbStringSerializer INSTANCE = new LmdbStringSerializer();
+
+    /** A comparator consistent with the UTF-8 byte order */
+    private static final Comparator<String> COMPARATOR = new Comparator<String>()
+    {
+        @Override
+        public int compare( String s1, String s2 )
+        {
+            return LmdbTable.compare( Strings.getBytesUtf8( s1 ), Strings.getBytesUtf8( s2 ) );
+        }
+    };
+
+
+    private LmdbStringSerializer()
+    {
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( String element )
+    {
+        return Strings.getBytesUtf8( element );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String deserialize( ByteBuffer buffer )
+    {
+        return StandardCharsets.UTF_8.decode( buffer ).toString();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comparator<String> getComparator()
+    {
+        return COMPARATOR;
+    }
+}
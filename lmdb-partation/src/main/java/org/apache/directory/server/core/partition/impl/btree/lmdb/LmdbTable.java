@@ -0,0 +1,1273 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.SingletonCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractTable;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.PutFlags;
+import org.lmdbjava.SeekOp;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A LMDB database backed Table. Keys are ordered by LMDB comparing their serialized
+ * bytes, and when duplicates are allowed, the values of a key are stored sorted the
+ * same way using MDB_DUPSORT.
+ * <p>
+ * LMDB limits the size of the keys, and of such values, to the maximum key size of the
+ * environment (511 bytes by default). A longer key or value is stored as its first bytes
+ * followed by its SHA-256 digest, and its full bytes are kept in a companion table named
+ * after this one with the {@link #OVERFLOW_SUFFIX} suffix, with a count of the references
+ * to them. The lookups read the full bytes back to check they found the expected key or
+ * value. Long keys or values sharing the same first {@link #getHeadSize()} bytes are
+ * ordered by their digest instead of their content.
+ * <p>
+ * Point reads and writes use the LMDB transaction wrapped by the given PartitionTxn.
+ * Cursors always read from their own read transaction, which is released when they are
+ * closed : search cursors are consumed after the operation transaction is gone.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbTable<K, V> extends AbstractTable<K, V>
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbTable.class );
+
+    /** A reusable direct buffer for the keys */
+    private static final ThreadLocal<ByteBuffer> KEY_BUFFER = new ThreadLocal<>();
+
+    /** A reusable direct buffer for the values */
+    private static final ThreadLocal<ByteBuffer> VALUE_BUFFER = new ThreadLocal<>();
+
+    /** Values bigger than that are not kept in the reusable buffer */
+    private static final int MAX_REUSED_VALUE_SIZE = 64 * 1024;
+
+    /** The suffix of the table storing the full bytes of the long keys and values */
+    public static final String OVERFLOW_SUFFIX = "_overflow";
+
+    /** The length of the digest ending a long key or value */
+    private static final int DIGEST_LENGTH = 32;
+
+    /** The room kept in a stored key for the data following its prefix */
+    private static final int TRAILER_RESERVE = 16;
+
+    /** The length of the reference count preceding the full bytes in the overflow table */
+    private static final int REF_COUNT_LENGTH = 4;
+
+    /** A digest per thread, as MessageDigest isn't thread safe */
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial( LmdbTable::newDigest );
+
+    /** The environment this table is stored in */
+    protected final LmdbEnvironment environment;
+
+    /** The underlying LMDB database */
+    private final Dbi<ByteBuffer> dbi;
+
+    /** The key serializer */
+    private final LmdbSerializer<K> keySerializer;
+
+    /** The value serializer */
+    private final LmdbSerializer<V> valueSerializer;
+
+    /** The database storing the full bytes of the long keys and values */
+    private final Dbi<ByteBuffer> overflowDbi;
+
+    /** The number of bytes of a long key or value stored before its digest */
+    private final int headSize;
+
+
+    /**
+     * Creates a new instance of LmdbTable, creating the underlying database if needed.
+     *
+     * @param environment The environment the table is stored in
+     * @param schemaManager The SchemaManager instance
+     * @param name The table name
+     * @param keySerializer The key serializer
+     * @param valueSerializer The value serializer
+     * @param allowDuplicates If the table stores several values per key
+     */
+    public LmdbTable( LmdbEnvironment environment, SchemaManager schemaManager, String name,
+        LmdbSerializer<K> keySerializer, LmdbSerializer<V> valueSerializer, boolean allowDuplicates )
+    {
+        super( schemaManager, name, keySerializer.getComparator(), valueSerializer.getComparator() );
+
+        this.environment = environment;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.allowsDuplicates = allowDuplicates;
+        headSize = environment.getMaxKeySize() - DIGEST_LENGTH - TRAILER_RESERVE;
+        dbi = environment.openDbi( name, allowDuplicates );
+        overflowDbi = environment.openDbi( name + OVERFLOW_SUFFIX, false );
+    }
+
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            // Every Java platform has to support SHA-256
+            throw new IllegalStateException( nsae );
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Simple Table Key/Value Assertions
+    // ------------------------------------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquireReadTxn( partitionTxn );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            return seek( txn, cursor, lookupKey( key ), key );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( partitionTxn, txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return false;
+        }
+
+        byte[] valueBytes = serializeValue( value );
+        Txn<ByteBuffer> txn = environment.acquireReadTxn( partitionTxn );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            if ( allowsDuplicates )
+            {
+                byte[] storedValue = encode( valueBytes );
+
+                if ( !cursor.get( directKey( lookupKey( key ) ), directValue( storedValue ), SeekOp.MDB_GET_BOTH ) )
+                {
+                    return false;
+                }
+
+                return !isOverflowed( storedValue.length ) || matches( txn, storedValue, valueBytes );
+            }
+
+            return seek( txn, cursor, lookupKey( key ), key ) && ( compare( cursor.val(), valueBytes ) == 0 );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( partitionTxn, txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquireReadTxn( partitionTxn );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            return seekRange( cursor, lookupKey( key ) );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( partitionTxn, txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        byte[] lookupKey = lookupKey( key );
+        Txn<ByteBuffer> txn = environment.acquireReadTxn( partitionTxn );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            if ( !seekRange( cursor, lookupKey ) )
+            {
+                // All the keys are lower than the given key
+                return cursor.last();
+            }
+
+            // Test for equality first since it satisfies both greater/less than
+            if ( isKey( txn, cursor.key(), lookupKey, key ) )
+            {
+                return true;
+            }
+
+            return cursor.prev();
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( partitionTxn, txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_593 ) );
+        }
+
+        byte[] valueBytes = storeValue( value );
+        Txn<ByteBuffer> txn = environment.acquireReadTxn( partitionTxn );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            return cursor.get( directKey( lookupKey( key ) ), directValue( valueBytes ), SeekOp.MDB_GET_BOTH_RANGE );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( partitionTxn, txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_593 ) );
+        }
+
+        byte[] valueBytes = storeValue( value );
+        Txn<ByteBuffer> txn = environment.acquireReadTxn( partitionTxn );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            // The cursor is positioned on the lowest value of the key
+            return seek( txn, cursor, lookupKey( key ), key ) && ( compare( cursor.val(), valueBytes ) <= 0 );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( partitionTxn, txn );
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Table Operations
+    // ------------------------------------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return null;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquireReadTxn( partitionTxn );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            if ( seek( txn, cursor, lookupKey( key ), key ) )
+            {
+                return deserializeValue( txn, cursor.val() );
+            }
+
+            return null;
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( partitionTxn, txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    {
+        if ( ( value == null ) || ( key == null ) )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_594 ) );
+        }
+
+        byte[] prefix = keyPrefix( key );
+        byte[] lookupKey = encode( prefix );
+        byte[] keyBytes = storeKey( key, prefix, lookupKey );
+        byte[] valueBytes = serializeValue( value );
+        byte[] storedValue = allowsDuplicates ? encode( valueBytes ) : valueBytes;
+
+        Txn<ByteBuffer> txn = environment.acquireWriteTxn( partitionTxn );
+        boolean success = false;
+
+        try
+        {
+            if ( keySerializer.hasPrefix() )
+            {
+                // The key may be stored with different trailing data
+                deleteKey( txn, key );
+            }
+
+            boolean newKey = !isOverflowed( lookupKey.length ) || ( dbi.get( txn, directKey( keyBytes ) ) == null );
+
+            if ( allowsDuplicates )
+            {
+                boolean added = dbi.put( txn, directKey( keyBytes ), directValue( storedValue ),
+                    PutFlags.MDB_NODUPDATA );
+
+                if ( added && isOverflowed( storedValue.length ) )
+                {
+                    acquireOverflow( txn, storedValue, valueBytes );
+                }
+            }
+            else
+            {
+                dbi.put( txn, directKey( keyBytes ), directValue( storedValue ) );
+            }
+
+            if ( newKey && isOverflowed( lookupKey.length ) )
+            {
+                acquireOverflow( txn, lookupKey, prefix );
+            }
+
+            success = true;
+        }
+        catch ( LmdbException le )
+        {
+            LOG.error( I18n.err( I18n.ERR_131, key, name ), le );
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseWriteTxn( partitionTxn, txn, success );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquireWriteTxn( partitionTxn );
+        boolean success = false;
+
+        try
+        {
+            deleteKey( txn, key );
+            success = true;
+        }
+        catch ( LmdbException le )
+        {
+            LOG.error( I18n.err( I18n.ERR_133, key, name ), le );
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseWriteTxn( partitionTxn, txn, success );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return;
+        }
+
+        byte[] valueBytes = storeValue( value );
+        Txn<ByteBuffer> txn = environment.acquireWriteTxn( partitionTxn );
+        boolean success = false;
+
+        try
+        {
+            byte[] keyBytes = lookupKey( key );
+
+            if ( allowsDuplicates )
+            {
+                if ( dbi.delete( txn, directKey( keyBytes ), directValue( valueBytes ) ) )
+                {
+                    if ( isOverflowed( valueBytes.length ) )
+                    {
+                        releaseOverflow( txn, valueBytes );
+                    }
+
+                    if ( isOverflowed( keyBytes.length ) && ( dbi.get( txn, directKey( keyBytes ) ) == null ) )
+                    {
+                        // This was the last value of the key
+                        releaseOverflow( txn, keyBytes );
+                    }
+                }
+            }
+            else
+            {
+                try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+                {
+                    if ( seek( txn, cursor, keyBytes, key ) && ( compare( cursor.val(), valueBytes ) == 0 ) )
+                    {
+                        cursor.delete();
+
+                        if ( isOverflowed( keyBytes.length ) )
+                        {
+                            releaseOverflow( txn, keyBytes );
+                        }
+                    }
+                }
+            }
+
+            success = true;
+        }
+        catch ( LmdbException le )
+        {
+            LOG.error( I18n.err( I18n.ERR_132, key, value, name ), le );
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseWriteTxn( partitionTxn, txn, success );
+        }
+    }
+
+
+    /**
+     * Removes a key and all its values, if it exists.
+     */
+    private void deleteKey( Txn<ByteBuffer> txn, K key ) throws LdapException
+    {
+        byte[] keyBytes = lookupKey( key );
+
+        if ( !keySerializer.hasPrefix() && !isOverflowed( keyBytes.length ) && !allowsDuplicates )
+        {
+            dbi.delete( txn, directKey( keyBytes ) );
+
+            return;
+        }
+
+        byte[] storedKey;
+        List<byte[]> overflowedValues = new ArrayList<>();
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            if ( !seek( txn, cursor, keyBytes, key ) )
+            {
+                return;
+            }
+
+            storedKey = toBytes( cursor.key() );
+
+            // The long values are referenced in the overflow table
+            boolean found = allowsDuplicates;
+
+            while ( found )
+            {
+                if ( isOverflowed( cursor.val().remaining() ) )
+                {
+                    overflowedValues.add( toBytes( cursor.val() ) );
+                }
+
+                found = cursor.seek( SeekOp.MDB_NEXT_DUP );
+            }
+        }
+
+        // Removes all the values of the key
+        dbi.delete( txn, directKey( storedKey ) );
+
+        for ( byte[] overflowedValue : overflowedValues )
+        {
+            releaseOverflow( txn, overflowedValue );
+        }
+
+        if ( isOverflowed( keyBytes.length ) )
+        {
+            releaseOverflow( txn, keyBytes );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor()
+    {
+        return new LmdbCursor<>( this, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        if ( allowsDuplicates )
+        {
+            return new LmdbCursor<>( this, key );
+        }
+
+        V value = get( partitionTxn, key );
+
+        if ( value == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new SingletonCursor<>( new Tuple<K, V>( key, value ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<V> valueCursor( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        if ( allowsDuplicates )
+        {
+            return new LmdbValueCursor<>( new LmdbCursor<>( this, key ), key );
+        }
+
+        V value = get( partitionTxn, key );
+
+        if ( value == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new SingletonCursor<>( value );
+    }
+
+
+    /**
+     * Reads all the values of a key within the given transaction. As opposed to the
+     * cursors, the values written in this transaction are seen.
+     *
+     * @param partitionTxn The transaction to use
+     * @param key The key
+     * @return The values, in their stored order
+     * @throws LdapException If the values can't be read
+     */
+    public List<V> getValues( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        List<V> values = new ArrayList<>();
+
+        if ( key == null )
+        {
+            return values;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquireReadTxn( partitionTxn );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            boolean found = seek( txn, cursor, lookupKey( key ), key );
+
+            while ( found )
+            {
+                values.add( deserializeValue( txn, cursor.val() ) );
+                found = allowsDuplicates && cursor.seek( SeekOp.MDB_NEXT_DUP );
+            }
+
+            return values;
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( partitionTxn, txn );
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Maintenance Operations
+    // ------------------------------------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( PartitionTxn partitionTxn ) throws LdapException
+    {
+        // Nothing to do : the database handle is released with the environment
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn partitionTxn ) throws LdapException
+    {
+        Txn<ByteBuffer> txn = environment.acquireReadTxn( partitionTxn );
+
+        try
+        {
+            // The number of entries is stored in the database header
+            count = dbi.stat( txn ).entries;
+
+            return count;
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( partitionTxn, txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return 0;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquireReadTxn( partitionTxn );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            if ( !seek( txn, cursor, lookupKey( key ), key ) )
+            {
+                return 0;
+            }
+
+            return allowsDuplicates ? cursor.count() : 1;
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( partitionTxn, txn );
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Helpers used by the table and its cursors
+    // ------------------------------------------------------------------------
+
+    /**
+     * @return The underlying LMDB database
+     */
+    Dbi<ByteBuffer> getDbi()
+    {
+        return dbi;
+    }
+
+
+    /**
+     * @return The number of bytes of a long key or value stored before its digest
+     */
+    int getHeadSize()
+    {
+        return headSize;
+    }
+
+
+    /**
+     * Positions a cursor on the given key. When duplicates are allowed, the cursor is
+     * positioned on its lowest value.
+     *
+     * @param txn The transaction the cursor belongs to
+     * @param cursor The cursor to move
+     * @param lookupKey The key prefix, as returned by {@link #lookupKey(Object)}
+     * @param key The key
+     * @return <code>true</code> if the key exists
+     */
+    boolean seek( Txn<ByteBuffer> txn, org.lmdbjava.Cursor<ByteBuffer> cursor, byte[] lookupKey, K key )
+        throws LdapException
+    {
+        if ( !keySerializer.hasPrefix() && !isOverflowed( lookupKey.length ) )
+        {
+            return cursor.get( directKey( lookupKey ), GetOp.MDB_SET_KEY );
+        }
+
+        return cursor.get( directKey( lookupKey ), GetOp.MDB_SET_RANGE ) && isKey( txn, cursor.key(), lookupKey, key );
+    }
+
+
+    /**
+     * Positions a cursor on the first key greater than or equal to the given key.
+     *
+     * @param cursor The cursor to move
+     * @param lookupKey The key prefix, as returned by {@link #lookupKey(Object)}
+     * @return <code>true</code> if there is such a key
+     */
+    boolean seekRange( org.lmdbjava.Cursor<ByteBuffer> cursor, byte[] lookupKey )
+    {
+        return cursor.get( directKey( lookupKey ), GetOp.MDB_SET_RANGE );
+    }
+
+
+    /**
+     * Tells if a stored key is the given key. A long key is checked against its full bytes.
+     *
+     * @param txn The transaction to read the full bytes of a long key with
+     * @param found The stored key
+     * @param lookupKey The key prefix, as returned by {@link #lookupKey(Object)}
+     * @param key The key
+     * @return <code>true</code> if the stored key is the given key
+     */
+    boolean isKey( Txn<ByteBuffer> txn, ByteBuffer found, byte[] lookupKey, K key ) throws LdapException
+    {
+        if ( !keySerializer.hasPrefix() )
+        {
+            return ( compare( found, lookupKey ) == 0 )
+                && ( !isOverflowed( lookupKey.length ) || matches( txn, lookupKey, keyPrefix( key ) ) );
+        }
+
+        // The trailing data may make the comparator tell the keys apart (a lookup
+        // prefix can't be equal to a stored key)
+        return startsWith( found, lookupKey ) && ( keyComparator.compare( deserializeKey( txn, found ), key ) == 0 );
+    }
+
+
+    /**
+     * Builds a key as it is stored : its encoded prefix followed by the data which does not
+     * take part in the lookups.
+     */
+    private byte[] storeKey( K key, byte[] prefix, byte[] lookupKey ) throws LdapException
+    {
+        if ( !keySerializer.hasPrefix() )
+        {
+            return lookupKey;
+        }
+
+        byte[] keyBytes = serializeKey( key );
+        int trailerLength = keyBytes.length - prefix.length;
+
+        if ( trailerLength > TRAILER_RESERVE )
+        {
+            throw new LdapOtherException( I18n.err( I18n.ERR_753_LMDB_KEY_TOO_LONG, name, trailerLength,
+                TRAILER_RESERVE ) );
+        }
+
+        byte[] stored = Arrays.copyOf( lookupKey, lookupKey.length + trailerLength );
+        System.arraycopy( keyBytes, prefix.length, stored, lookupKey.length, trailerLength );
+
+        return stored;
+    }
+
+
+    /**
+     * Serializes the part of a key used to look it up, the way it is stored.
+     */
+    byte[] lookupKey( K key ) throws LdapException
+    {
+        return encode( keyPrefix( key ) );
+    }
+
+
+    private byte[] keyPrefix( K key ) throws LdapException
+    {
+        try
+        {
+            return keySerializer.serializePrefix( key );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    private byte[] serializeKey( K key ) throws LdapException
+    {
+        try
+        {
+            return keySerializer.serialize( key );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Serializes a value the way it is stored.
+     */
+    byte[] storeValue( V value ) throws LdapException
+    {
+        byte[] valueBytes = serializeValue( value );
+
+        return allowsDuplicates ? encode( valueBytes ) : valueBytes;
+    }
+
+
+    private byte[] serializeValue( V value ) throws LdapException
+    {
+        try
+        {
+            return valueSerializer.serialize( value );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    K deserializeKey( Txn<ByteBuffer> txn, ByteBuffer buffer ) throws LdapException
+    {
+        try
+        {
+            return keySerializer.deserialize( resolve( txn, buffer ) );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    V deserializeValue( Txn<ByteBuffer> txn, ByteBuffer buffer ) throws LdapException
+    {
+        try
+        {
+            return valueSerializer.deserialize( allowsDuplicates ? resolve( txn, buffer ) : buffer.duplicate() );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Long keys and values
+    // ------------------------------------------------------------------------
+
+    /**
+     * Replaces the end of a key or a value too long for LMDB by its digest.
+     */
+    private byte[] encode( byte[] bytes )
+    {
+        if ( bytes.length <= headSize )
+        {
+            return bytes;
+        }
+
+        byte[] encoded = Arrays.copyOf( bytes, headSize + DIGEST_LENGTH );
+        byte[] digest = DIGEST.get().digest( bytes );
+        System.arraycopy( digest, 0, encoded, headSize, DIGEST_LENGTH );
+
+        return encoded;
+    }
+
+
+    /**
+     * Tells if a stored key or value of the given length is encoded. A short key followed
+     * by its trailing data is always shorter than that.
+     */
+    private boolean isOverflowed( int length )
+    {
+        return length >= headSize + DIGEST_LENGTH;
+    }
+
+
+    /**
+     * Replaces a stored key or value by its full bytes if it is encoded. The data following
+     * the encoded part of a key is kept.
+     */
+    private ByteBuffer resolve( Txn<ByteBuffer> txn, ByteBuffer buffer ) throws LdapException
+    {
+        ByteBuffer source = buffer.duplicate();
+
+        if ( !isOverflowed( source.remaining() ) )
+        {
+            return source;
+        }
+
+        byte[] encoded = new byte[headSize + DIGEST_LENGTH];
+        source.get( encoded );
+        ByteBuffer found = overflowDbi.get( txn, directKey( encoded ) );
+
+        if ( found == null )
+        {
+            throw new LdapOtherException( I18n.err( I18n.ERR_755_LMDB_OVERFLOW_MISSING, name ) );
+        }
+
+        found = found.duplicate();
+        found.position( found.position() + REF_COUNT_LENGTH );
+        ByteBuffer full = ByteBuffer.allocate( found.remaining() + source.remaining() );
+        full.put( found ).put( source ).flip();
+
+        return full;
+    }
+
+
+    /**
+     * Tells if the full bytes of an encoded key or value are the given bytes.
+     */
+    private boolean matches( Txn<ByteBuffer> txn, byte[] encoded, byte[] bytes )
+    {
+        ByteBuffer found = overflowDbi.get( txn, directKey( encoded ) );
+
+        if ( found == null )
+        {
+            return false;
+        }
+
+        found = found.duplicate();
+        found.position( found.position() + REF_COUNT_LENGTH );
+
+        return compare( found, bytes ) == 0;
+    }
+
+
+    /**
+     * Stores the full bytes of an encoded key or value, or adds a reference to them.
+     */
+    private void acquireOverflow( Txn<ByteBuffer> txn, byte[] encoded, byte[] bytes ) throws LdapException
+    {
+        ByteBuffer found = overflowDbi.get( txn, directKey( encoded ) );
+        int refCount = 0;
+
+        if ( found != null )
+        {
+            found = found.duplicate();
+            refCount = readInt( found );
+
+            if ( compare( found, bytes ) != 0 )
+            {
+                throw new LdapOtherException( I18n.err( I18n.ERR_754_LMDB_DIGEST_COLLISION, name ) );
+            }
+        }
+
+        byte[] stored = new byte[REF_COUNT_LENGTH + bytes.length];
+        writeInt( stored, refCount + 1 );
+        System.arraycopy( bytes, 0, stored, REF_COUNT_LENGTH, bytes.length );
+        overflowDbi.put( txn, directKey( encoded ), directValue( stored ) );
+    }
+
+
+    /**
+     * Removes a reference to the full bytes of an encoded key or value, and deletes them
+     * when they aren't referenced anymore.
+     */
+    private void releaseOverflow( Txn<ByteBuffer> txn, byte[] encoded )
+    {
+        ByteBuffer found = overflowDbi.get( txn, directKey( encoded ) );
+
+        if ( found == null )
+        {
+            return;
+        }
+
+        found = found.duplicate();
+        int refCount = readInt( found );
+
+        if ( refCount <= 1 )
+        {
+            overflowDbi.delete( txn, directKey( encoded ) );
+
+            return;
+        }
+
+        byte[] stored = new byte[REF_COUNT_LENGTH + found.remaining()];
+        writeInt( stored, refCount - 1 );
+        found.get( stored, REF_COUNT_LENGTH, found.remaining() );
+        overflowDbi.put( txn, directKey( encoded ), directValue( stored ) );
+    }
+
+
+    /**
+     * Copies the remaining bytes of a buffer
+     */
+    private static byte[] toBytes( ByteBuffer buffer )
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get( bytes );
+
+        return bytes;
+    }
+
+
+    /**
+     * Copies a key in the direct buffer of the current thread. The buffer is overwritten by
+     * the next call, so it must be passed to LMDB right away.
+     */
+    static ByteBuffer directKey( byte[] bytes )
+    {
+        return direct( KEY_BUFFER, bytes );
+    }
+
+
+    /**
+     * Copies a value in the direct buffer of the current thread. The buffer is overwritten by
+     * the next call, so it must be passed to LMDB right away.
+     */
+    static ByteBuffer directValue( byte[] bytes )
+    {
+        return direct( VALUE_BUFFER, bytes );
+    }
+
+
+    private static ByteBuffer direct( ThreadLocal<ByteBuffer> holder, byte[] bytes )
+    {
+        ByteBuffer buffer = holder.get();
+
+        if ( ( buffer == null ) || ( buffer.capacity() < bytes.length ) )
+        {
+            buffer = ByteBuffer.allocateDirect( Math.max( bytes.length, 512 ) );
+
+            if ( bytes.length <= MAX_REUSED_VALUE_SIZE )
+            {
+                holder.set( buffer );
+            }
+        }
+
+        buffer.clear();
+        buffer.put( bytes ).flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * Compares the remaining bytes of a buffer with a byte array, the way LMDB does.
+     */
+    static int compare( ByteBuffer buffer, byte[] bytes )
+    {
+        int pos = buffer.position();
+        int length = Math.min( buffer.remaining(), bytes.length );
+
+        for ( int i = 0; i < length; i++ )
+        {
+            int b1 = buffer.get( pos + i ) & 0xFF;
+            int b2 = bytes[i] & 0xFF;
+
+            if ( b1 != b2 )
+            {
+                return b1 - b2;
+            }
+        }
+
+        return buffer.remaining() - bytes.length;
+    }
+
+
+    /**
+     * Compares two byte arrays, the way LMDB does.
+     */
+    static int compare( byte[] bytes1, byte[] bytes2 )
+    {
+        return compare( ByteBuffer.wrap( bytes1 ), bytes2 );
+    }
+
+
+    /**
+     * Tells if the remaining bytes of a buffer start with the given prefix
+     */
+    static boolean startsWith( ByteBuffer buffer, byte[] prefix )
+    {
+        if ( buffer.remaining() < prefix.length )
+        {
+            return false;
+        }
+
+        int pos = buffer.position();
+
+        for ( int i = 0; i < prefix.length; i++ )
+        {
+            if ( buffer.get( pos + i ) != prefix[i] )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Reads a big endian int, whatever the byte order of the buffer
+     */
+    static int readInt( ByteBuffer buffer )
+    {
+        return ( ( buffer.get() & 0xFF ) << 24 ) | ( ( buffer.get() & 0xFF ) << 16 )
+            | ( ( buffer.get() & 0xFF ) << 8 ) | ( buffer.get() & 0xFF );
+    }
+
+
+    /**
+     * Writes a big endian int at the beginning of an array
+     */
+    private static void writeInt( byte[] bytes, int value )
+    {
+        bytes[0] = ( byte ) ( value >>> 24 );
+        bytes[1] = ( byte ) ( value >>> 16 );
+        bytes[2] = ( byte ) ( value >>> 8 );
+        bytes[3] = ( byte ) value;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "LMDB table :\n" ).append( super.toString() );
+
+        return sb.toString();
+    }
+}
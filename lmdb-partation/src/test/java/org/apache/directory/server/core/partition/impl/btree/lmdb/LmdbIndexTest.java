@@ -0,0 +1,214 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.MockPartitionReadTxn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the LmdbIndex.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbIndexTest
+{
+    private static SchemaManager schemaManager;
+
+    private static final String UUID_0 = Strings.getUUID( 0L );
+    private static final String UUID_1 = Strings.getUUID( 1L );
+    private static final String UUID_2 = Strings.getUUID( 2L );
+
+    private LmdbEnvironment environment;
+
+    private LmdbIndex<String> idx;
+
+    private PartitionTxn partitionTxn;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = LmdbIndexTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        File dbFileDir = tempFolder.newFolder( LmdbIndexTest.class.getSimpleName() );
+
+        environment = new LmdbEnvironment( dbFileDir, 16L * 1024L * 1024L, LmdbEnvironment.DEFAULT_MAX_DBS,
+            LmdbEnvironment.DEFAULT_MAX_READERS, false );
+
+        partitionTxn = new MockPartitionReadTxn();
+
+        AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OU_AT );
+        idx = new LmdbIndex<>( attributeType.getName(), true );
+        idx.setWkDirPath( dbFileDir.toURI() );
+        idx.setEnvironment( environment );
+        idx.init( schemaManager, attributeType );
+    }
+
+
+    @After
+    public void teardown() throws Exception
+    {
+        idx.close( partitionTxn );
+        environment.close();
+    }
+
+
+    @Test
+    public void testAddLookupDrop() throws Exception
+    {
+        assertEquals( 0, idx.count( partitionTxn ) );
+
+        idx.add( partitionTxn, "foo", UUID_0 );
+        idx.add( partitionTxn, "foo", UUID_1 );
+        idx.add( partitionTxn, "bar", UUID_2 );
+
+        assertEquals( 3, idx.count( partitionTxn ) );
+        assertEquals( 2, idx.count( partitionTxn, "foo" ) );
+        assertEquals( UUID_0, idx.forwardLookup( partitionTxn, "foo" ) );
+        assertEquals( "bar", idx.reverseLookup( partitionTxn, UUID_2 ) );
+        assertTrue( idx.forward( partitionTxn, "foo", UUID_1 ) );
+        assertTrue( idx.reverse( partitionTxn, UUID_1, "foo" ) );
+
+        idx.drop( partitionTxn, "foo", UUID_0 );
+        assertFalse( idx.forward( partitionTxn, "foo", UUID_0 ) );
+        assertFalse( idx.reverse( partitionTxn, UUID_0 ) );
+        assertEquals( UUID_1, idx.forwardLookup( partitionTxn, "foo" ) );
+
+        idx.drop( partitionTxn, UUID_2 );
+        assertNull( idx.forwardLookup( partitionTxn, "bar" ) );
+        assertNull( idx.reverseLookup( partitionTxn, UUID_2 ) );
+        assertEquals( 1, idx.count( partitionTxn ) );
+    }
+
+
+    @Test
+    public void testForwardCursor() throws Exception
+    {
+        idx.add( partitionTxn, "foo", UUID_1 );
+        idx.add( partitionTxn, "bar", UUID_2 );
+        idx.add( partitionTxn, "foo", UUID_0 );
+
+        Cursor<IndexEntry<String, String>> cursor = idx.forwardCursor( partitionTxn );
+
+        assertTrue( cursor.next() );
+        assertEquals( "bar", cursor.get().getKey() );
+        assertEquals( UUID_2, cursor.get().getId() );
+
+        assertTrue( cursor.next() );
+        assertEquals( "foo", cursor.get().getKey() );
+        assertEquals( UUID_0, cursor.get().getId() );
+
+        assertTrue( cursor.next() );
+        assertEquals( "foo", cursor.get().getKey() );
+        assertEquals( UUID_1, cursor.get().getId() );
+
+        assertFalse( cursor.next() );
+        assertTrue( cursor.previous() );
+        assertEquals( UUID_1, cursor.get().getId() );
+
+        cursor.close();
+
+        Cursor<String> values = idx.forwardValueCursor( partitionTxn, "foo" );
+        values.afterLast();
+
+        assertTrue( values.previous() );
+        assertEquals( UUID_1, values.get() );
+        assertTrue( values.previous() );
+        assertEquals( UUID_0, values.get() );
+        assertFalse( values.previous() );
+
+        values.close();
+    }
+
+
+    @Test
+    public void testWriteTransaction() throws Exception
+    {
+        LmdbPartitionWriteTxn writeTxn = environment.beginWriteTransaction();
+        idx.add( writeTxn, "foo", UUID_0 );
+
+        // Visible in the transaction before it is committed
+        assertTrue( idx.forward( writeTxn, "foo", UUID_0 ) );
+
+        writeTxn.abort();
+        assertFalse( idx.forward( partitionTxn, "foo" ) );
+
+        writeTxn = environment.beginWriteTransaction();
+        idx.add( writeTxn, "foo", UUID_0 );
+        writeTxn.commit();
+
+        assertTrue( idx.forward( partitionTxn, "foo", UUID_0 ) );
+    }
+}
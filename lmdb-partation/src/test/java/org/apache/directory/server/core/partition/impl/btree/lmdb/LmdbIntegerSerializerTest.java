@@ -0,0 +1,71 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+
+/**
+ * Tests that the LmdbIntegerSerializer keeps the numeric order of the keys.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbIntegerSerializerTest
+{
+    private static final String[] ORDERED =
+        { "-123456789012345678901234567890", "-1000", "-999", "-2", "-1", "0", "1", "2", "9", "10", "999", "1000",
+            "123456789012345678901234567890" };
+
+
+    @Test
+    public void testOrder() throws Exception
+    {
+        LmdbIntegerSerializer serializer = LmdbIntegerSerializer.INSTANCE;
+
+        for ( int i = 0; i < ORDERED.length - 1; i++ )
+        {
+            byte[] lower = serializer.serialize( ORDERED[i] );
+            byte[] upper = serializer.serialize( ORDERED[i + 1] );
+
+            assertTrue( ORDERED[i] + " < " + ORDERED[i + 1], LmdbTable.compare( lower, upper ) < 0 );
+            assertTrue( serializer.getComparator().compare( ORDERED[i], ORDERED[i + 1] ) < 0 );
+        }
+    }
+
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        LmdbIntegerSerializer serializer = LmdbIntegerSerializer.INSTANCE;
+
+        for ( String value : ORDERED )
+        {
+            assertEquals( value, serializer.deserialize( ByteBuffer.wrap( serializer.serialize( value ) ) ) );
+        }
+
+        assertEquals( "abc", serializer.deserialize( ByteBuffer.wrap( serializer.serialize( "abc" ) ) ) );
+    }
+}
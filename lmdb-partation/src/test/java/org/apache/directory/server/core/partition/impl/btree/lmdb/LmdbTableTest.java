@@ -0,0 +1,264 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.MockPartitionReadTxn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.Txn;
+
+
+/**
+ * Tests the LmdbTable with keys and values longer than the LMDB maximum key size.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbTableTest
+{
+    private LmdbEnvironment environment;
+
+    private LmdbTable<String, String> dupsTable;
+
+    private LmdbTable<String, String> table;
+
+    private PartitionTxn partitionTxn;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        File dbFileDir = tempFolder.newFolder( LmdbTableTest.class.getSimpleName() );
+
+        environment = new LmdbEnvironment( dbFileDir, 16L * 1024L * 1024L, LmdbEnvironment.DEFAULT_MAX_DBS,
+            LmdbEnvironment.DEFAULT_MAX_READERS, false );
+
+        partitionTxn = new MockPartitionReadTxn();
+
+        dupsTable = new LmdbTable<>( environment, null, "dups", LmdbStringSerializer.INSTANCE,
+            LmdbStringSerializer.INSTANCE, true );
+        table = new LmdbTable<>( environment, null, "noDups", LmdbStringSerializer.INSTANCE,
+            LmdbStringSerializer.INSTANCE, false );
+    }
+
+
+    @After
+    public void teardown() throws Exception
+    {
+        dupsTable.close( partitionTxn );
+        table.close( partitionTxn );
+        environment.close();
+    }
+
+
+    private static String repeat( char c, int count )
+    {
+        char[] chars = new char[count];
+        Arrays.fill( chars, c );
+
+        return new String( chars );
+    }
+
+
+    /**
+     * @return The number of full keys and values stored in the overflow table of a table
+     */
+    private long overflowCount( String tableName )
+    {
+        Dbi<ByteBuffer> overflow = environment.getEnv().openDbi( tableName + LmdbTable.OVERFLOW_SUFFIX );
+
+        try ( Txn<ByteBuffer> txn = environment.getEnv().txnRead() )
+        {
+            return overflow.stat( txn ).entries;
+        }
+    }
+
+
+    @Test
+    public void testLongValuesWithDuplicates() throws Exception
+    {
+        // Both values are longer than 511 bytes, and share their first 500 bytes
+        String longA = repeat( 'a', 500 ) + repeat( 'x', 100 );
+        String longB = repeat( 'a', 500 ) + repeat( 'y', 100 );
+
+        dupsTable.put( partitionTxn, "foo", longA );
+        dupsTable.put( partitionTxn, "foo", longB );
+        dupsTable.put( partitionTxn, "foo", "bar" );
+        dupsTable.put( partitionTxn, "baz", longA );
+
+        // Putting an existing tuple again does not add a reference
+        dupsTable.put( partitionTxn, "foo", longA );
+
+        assertEquals( 4, dupsTable.count( partitionTxn ) );
+        assertEquals( 3, dupsTable.count( partitionTxn, "foo" ) );
+        assertTrue( dupsTable.has( partitionTxn, "foo", longA ) );
+        assertTrue( dupsTable.has( partitionTxn, "foo", longB ) );
+        assertFalse( dupsTable.has( partitionTxn, "foo", repeat( 'a', 500 ) + repeat( 'z', 100 ) ) );
+        assertEquals( longA, dupsTable.get( partitionTxn, "baz" ) );
+
+        List<String> values = dupsTable.getValues( partitionTxn, "foo" );
+        assertEquals( 3, values.size() );
+        assertEquals( new HashSet<>( Arrays.asList( longA, longB ) ), new HashSet<>( values.subList( 0, 2 ) ) );
+        assertEquals( "bar", values.get( 2 ) );
+
+        // longA is shared by the two keys
+        assertEquals( 2, overflowCount( "dups" ) );
+
+        dupsTable.remove( partitionTxn, "foo", longA );
+        assertFalse( dupsTable.has( partitionTxn, "foo", longA ) );
+        assertTrue( dupsTable.has( partitionTxn, "baz", longA ) );
+        assertEquals( 2, overflowCount( "dups" ) );
+
+        dupsTable.remove( partitionTxn, "baz" );
+        assertFalse( dupsTable.has( partitionTxn, "baz" ) );
+        assertEquals( 1, overflowCount( "dups" ) );
+
+        dupsTable.remove( partitionTxn, "foo" );
+        assertEquals( 0, dupsTable.count( partitionTxn ) );
+        assertEquals( 0, overflowCount( "dups" ) );
+    }
+
+
+    @Test
+    public void testLongValueCursor() throws Exception
+    {
+        for ( char c = 'e'; c >= 'a'; c-- )
+        {
+            dupsTable.put( partitionTxn, "foo", repeat( c, 600 ) );
+        }
+
+        Cursor<String> values = dupsTable.valueCursor( partitionTxn, "foo" );
+
+        for ( char c = 'a'; c <= 'e'; c++ )
+        {
+            assertTrue( values.next() );
+            assertEquals( repeat( c, 600 ), values.get() );
+        }
+
+        assertFalse( values.next() );
+        values.close();
+
+        Cursor<Tuple<String, String>> cursor = dupsTable.cursor( partitionTxn, "foo" );
+
+        cursor.before( new Tuple<String, String>( "foo", repeat( 'c', 600 ) ) );
+        assertTrue( cursor.next() );
+        assertEquals( repeat( 'c', 600 ), cursor.get().getValue() );
+
+        cursor.after( new Tuple<String, String>( "foo", repeat( 'c', 600 ) ) );
+        assertTrue( cursor.next() );
+        assertEquals( repeat( 'd', 600 ), cursor.get().getValue() );
+
+        // A value which is not stored, between the 'c' and the 'd' values
+        cursor.before( new Tuple<String, String>( "foo", repeat( 'c', 300 ) + repeat( 'z', 300 ) ) );
+        assertTrue( cursor.next() );
+        assertEquals( repeat( 'd', 600 ), cursor.get().getValue() );
+
+        cursor.close();
+    }
+
+
+    @Test
+    public void testLongKeys() throws Exception
+    {
+        String longKey = repeat( 'k', 1000 );
+        String longValue = repeat( 'v', 2000 );
+
+        table.put( partitionTxn, longKey, "v1" );
+        table.put( partitionTxn, longKey, longValue );
+        table.put( partitionTxn, "short", "v3" );
+
+        assertEquals( 2, table.count( partitionTxn ) );
+        assertTrue( table.has( partitionTxn, longKey ) );
+        assertTrue( table.has( partitionTxn, longKey, longValue ) );
+        assertFalse( table.has( partitionTxn, repeat( 'k', 999 ) ) );
+        assertEquals( longValue, table.get( partitionTxn, longKey ) );
+        assertTrue( table.hasGreaterOrEqual( partitionTxn, "j" ) );
+        assertTrue( table.hasLessOrEqual( partitionTxn, "l" ) );
+
+        // Only the key is stored in the overflow table, values are not limited without duplicates
+        assertEquals( 1, overflowCount( "noDups" ) );
+
+        Cursor<Tuple<String, String>> cursor = table.cursor();
+
+        assertTrue( cursor.next() );
+        assertEquals( longKey, cursor.get().getKey() );
+        assertEquals( longValue, cursor.get().getValue() );
+        assertTrue( cursor.next() );
+        assertEquals( "short", cursor.get().getKey() );
+        assertFalse( cursor.next() );
+
+        cursor.close();
+
+        table.remove( partitionTxn, longKey );
+        assertNull( table.get( partitionTxn, longKey ) );
+        assertEquals( 1, table.count( partitionTxn ) );
+        assertEquals( 0, overflowCount( "noDups" ) );
+    }
+
+
+    @Test
+    public void testLongKeysWithDuplicates() throws Exception
+    {
+        String longKey = repeat( 'k', 1000 );
+
+        dupsTable.put( partitionTxn, longKey, "v1" );
+        dupsTable.put( partitionTxn, longKey, "v2" );
+
+        assertEquals( 2, dupsTable.count( partitionTxn, longKey ) );
+        assertEquals( 1, overflowCount( "dups" ) );
+
+        Cursor<Tuple<String, String>> cursor = dupsTable.cursor();
+
+        assertTrue( cursor.next() );
+        assertEquals( longKey, cursor.get().getKey() );
+        assertEquals( "v1", cursor.get().getValue() );
+
+        cursor.close();
+
+        dupsTable.remove( partitionTxn, longKey, "v1" );
+        assertEquals( 1, overflowCount( "dups" ) );
+
+        // The last value is removed along with the key
+        dupsTable.remove( partitionTxn, longKey, "v2" );
+        assertFalse( dupsTable.has( partitionTxn, longKey ) );
+        assertEquals( 0, overflowCount( "dups" ) );
+    }
+}
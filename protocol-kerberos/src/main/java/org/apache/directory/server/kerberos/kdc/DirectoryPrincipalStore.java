@@ -20,6 +20,10 @@
 package org.apache.directory.server.kerberos.kdc;
 
 
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.security.auth.kerberos.KerberosPrincipal;
 
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
@@ -30,7 +34,10 @@ import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
@@ -38,6 +45,16 @@ import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.kerberos.changepwd.exceptions.ChangePasswdErrorType;
 import org.apache.directory.server.kerberos.changepwd.exceptions.ChangePasswordException;
@@ -46,22 +63,50 @@ import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
 import org.apache.directory.server.protocol.shared.kerberos.GetPrincipal;
 import org.apache.directory.server.protocol.shared.kerberos.StoreUtils;
 import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 
 /**
  * A PrincipalStore backing entries in a DirectoryService.
- * 
+ * <p>
+ * The principals are cached, including the unknown ones, so that a burst of requests
+ * for the same principals does not search the directory and decode the keys each time.
+ * The cached principals are invalidated when the entries below the search base are
+ * added, deleted, modified or moved, using the DirectoryService event service. The
+ * cache is disabled when there is no event service.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class DirectoryPrincipalStore implements PrincipalStore
 {
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( DirectoryPrincipalStore.class );
+
+    /** The default maximum number of cached principals */
+    public static final long DEFAULT_CACHE_SIZE = 10000L;
+
+    /** The default time a principal is kept in the cache, in milliseconds */
+    public static final long DEFAULT_CACHE_EXPIRATION = 5L * 60L * 1000L;
+
     /** The directory service backing store for this PrincipalStore. */
     private final DirectoryService directoryService;
     private final Dn searchBaseDn;
 
     private CoreSession adminSession;
 
+    /** The principals, by name. An empty value is an unknown principal */
+    private final Cache<String, Optional<PrincipalStoreEntry>> principalCache;
+
+    /** Incremented each time the cache is invalidated */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /** The listener invalidating the cache */
+    private volatile PrincipalCacheListener listener;
+
 
     /**
      * Creates a new instance of DirectoryPrincipalStore.
@@ -70,10 +115,55 @@ public class DirectoryPrincipalStore implements PrincipalStore
      * @param searchBaseDn The Search Base DN
      */
     public DirectoryPrincipalStore( DirectoryService directoryService, Dn searchBaseDn )
+    {
+        this( directoryService, searchBaseDn, DEFAULT_CACHE_SIZE, DEFAULT_CACHE_EXPIRATION );
+    }
+
+
+    /**
+     * Creates a new instance of DirectoryPrincipalStore.
+     *
+     * @param directoryService backing store for this PrincipalStore
+     * @param searchBaseDn The Search Base DN
+     * @param cacheSize The maximum number of cached principals, 0 to disable the cache
+     * @param cacheExpiration The time a principal is kept in the cache, in milliseconds
+     */
+    public DirectoryPrincipalStore( DirectoryService directoryService, Dn searchBaseDn, long cacheSize,
+        long cacheExpiration )
     {
         this.directoryService = directoryService;
         this.adminSession = directoryService.getAdminSession();
         this.searchBaseDn = searchBaseDn;
+
+        EventService eventService = directoryService.getEventService();
+
+        if ( ( cacheSize > 0L ) && ( eventService != null ) )
+        {
+            principalCache = Caffeine.newBuilder().maximumSize( cacheSize )
+                .expireAfterWrite( Duration.ofMillis( cacheExpiration ) ).recordStats().build();
+
+            listener = new PrincipalCacheListener();
+
+            try
+            {
+                NotificationCriteria criteria = new NotificationCriteria( directoryService.getSchemaManager() );
+                criteria.setBase( new Dn( directoryService.getSchemaManager(), searchBaseDn ) );
+                criteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+                criteria.setFilter( new PresenceNode( directoryService.getAtProvider().getObjectClass() ) );
+                criteria.setScope( SearchScope.SUBTREE );
+
+                eventService.addListener( listener, criteria );
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Cannot listen to the changes below {}, the principals won't be cached", searchBaseDn, e );
+                listener = null;
+            }
+        }
+        else
+        {
+            principalCache = null;
+        }
     }
 
 
@@ -136,6 +226,7 @@ public class DirectoryPrincipalStore implements PrincipalStore
             Entry forPrincipalEntry = StoreUtils.findPrincipalEntry( bySession, searchBaseDn, forPrincipal.getName() );
 
             adminSession.modify( forPrincipalEntry.getDn(), passwordMod, principalMod );
+            invalidate( forPrincipal.getName() );
         }
         catch ( LdapException e )
         {
@@ -153,6 +244,191 @@ public class DirectoryPrincipalStore implements PrincipalStore
      */
     public PrincipalStoreEntry getPrincipal( KerberosPrincipal principal ) throws Exception
     {
-        return ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+        if ( ( listener == null ) || ( principal == null ) )
+        {
+            return ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+        }
+
+        String name = principal.getName();
+        Optional<PrincipalStoreEntry> cached = principalCache.getIfPresent( name );
+
+        if ( cached != null )
+        {
+            return cached.orElse( null );
+        }
+
+        // Read the counter before the lookup, so that an entry changed meanwhile is not cached
+        long invalidationCount = invalidations.get();
+        PrincipalStoreEntry entry = ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession,
+            searchBaseDn );
+
+        synchronized ( invalidations )
+        {
+            if ( invalidations.get() == invalidationCount )
+            {
+                principalCache.put( name, Optional.ofNullable( entry ) );
+            }
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * Stops listening to the directory changes, and clears the cache.
+     */
+    public void destroy()
+    {
+        if ( listener != null )
+        {
+            directoryService.getEventService().removeListener( listener );
+            listener = null;
+            invalidateAll();
+        }
+    }
+
+
+    /**
+     * @return The number of lookups which have found the principal in the cache
+     */
+    public long getCacheHitCount()
+    {
+        if ( principalCache == null )
+        {
+            return 0L;
+        }
+
+        return principalCache.stats().hitCount();
+    }
+
+
+    /**
+     * @return The number of lookups which had to search the principal in the directory
+     */
+    public long getCacheMissCount()
+    {
+        if ( principalCache == null )
+        {
+            return 0L;
+        }
+
+        return principalCache.stats().missCount();
+    }
+
+
+    /**
+     * Removes a principal from the cache.
+     */
+    private void invalidate( String name )
+    {
+        if ( principalCache != null )
+        {
+            synchronized ( invalidations )
+            {
+                invalidations.incrementAndGet();
+                principalCache.invalidate( name );
+            }
+        }
+    }
+
+
+    /**
+     * Removes the principals of an entry from the cache, or all the principals if the
+     * entry is unknown.
+     */
+    private void invalidate( Entry entry )
+    {
+        if ( entry == null )
+        {
+            invalidateAll();
+
+            return;
+        }
+
+        Attribute principalNames = entry.get( KerberosAttribute.KRB5_PRINCIPAL_NAME_AT );
+
+        if ( principalNames != null )
+        {
+            for ( Value value : principalNames )
+            {
+                invalidate( value.getString() );
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the principals from the cache.
+     */
+    private void invalidateAll()
+    {
+        if ( principalCache != null )
+        {
+            synchronized ( invalidations )
+            {
+                invalidations.incrementAndGet();
+                principalCache.invalidateAll();
+            }
+        }
+    }
+
+
+    /**
+     * Invalidates the cached principals when the entries below the search base change.
+     * The listener is synchronous, so the cache is up to date once the operation is done.
+     */
+    private class PrincipalCacheListener extends DirectoryListenerAdapter
+    {
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            // The principal may have been cached as unknown
+            invalidate( addContext.getEntry() );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            invalidate( deleteContext.getEntry() );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            // The principal name may have been modified too
+            invalidate( modifyContext.getEntry() );
+            invalidate( modifyContext.getAlteredEntry() );
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            // The Dn of all the entries below has changed
+            invalidateAll();
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            invalidateAll();
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            invalidateAll();
+        }
+
+
+        @Override
+        public boolean isSynchronous()
+        {
+            return true;
+        }
     }
 }
@@ -30,7 +30,6 @@ import org.apache.directory.server.kerberos.protocol.KerberosProtocolHandler;
 import org.apache.directory.server.kerberos.protocol.codec.KerberosProtocolCodecFactory;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCache;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCacheImpl;
-import org.apache.directory.server.kerberos.shared.store.PrincipalStore;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
@@ -64,6 +63,9 @@ public class KdcServer extends DirectoryBackedService
     /** the cache used for storing AS and TGS requests */
     private ReplayCache replayCache;
 
+    /** the store the principals are looked up in */
+    private DirectoryPrincipalStore store;
+
     private KerberosConfig config;
 
     private ChangePasswordServer changePwdServer;
@@ -106,8 +108,6 @@ public class KdcServer extends DirectoryBackedService
      */
     public void start() throws IOException, LdapInvalidDnException
     {
-        PrincipalStore store;
-
         store = new DirectoryPrincipalStore( getDirectoryService(), new Dn( this.getSearchBaseDn() ) );
 
         LOG.debug( "initializing the kerberos replay cache" );
@@ -188,6 +188,12 @@ public class KdcServer extends DirectoryBackedService
             replayCache.clear();
         }
 
+        if ( store != null )
+        {
+            store.destroy();
+            store = null;
+        }
+
         LOG.info( "Kerberos service stopped." );
 
         if ( changePwdServer != null )
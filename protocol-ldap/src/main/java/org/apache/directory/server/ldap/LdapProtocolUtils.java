@@ -20,6 +20,8 @@
 package org.apache.directory.server.ldap;
 
 
+import java.util.Base64;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.directory.api.ldap.model.csn.Csn;
 import org.apache.directory.api.ldap.model.message.Request;
@@ -50,6 +52,11 @@ public final class LdapProtocolUtils
 
     private static final int CSN_PREFIX_LEN = CSN_PREFIX.length();
 
+    /** the prefix for the initial refresh checkpoint value */
+    public static final String CHECKPOINT_PREFIX = "chk=";
+
+    private static final int CHECKPOINT_PREFIX_LEN = CHECKPOINT_PREFIX.length();
+
     private static final Logger LOG = LoggerFactory.getLogger( LdapProtocolUtils.class );
 
 
@@ -97,9 +104,32 @@ public final class LdapProtocolUtils
     }
 
 
+    /**
+     * Creates a cookie for an initial refresh which has not been completed. The cookie
+     * contains the CSN the initial content is bounded by, and the Dn of the last entry
+     * sent to the consumer, so that the refresh can be resumed after this entry. The
+     * Dn is Base64 encoded, as it contains the cookie delimiter.
+     *
+     * @param replicaId The replica ID
+     * @param csn The CSN bounding the initial content
+     * @param checkpoint The Dn of the last entry sent
+     * @return The cookie
+     */
+    public static byte[] createCookie( int replicaId, String csn, String checkpoint )
+    {
+        // rid=nn,csn=xxxz,chk=yyy
+        String replicaIdStr = StringUtils.leftPad( Integer.toString( replicaId ), 3, '0' );
+        String checkpointStr = Base64.getUrlEncoder().withoutPadding().encodeToString(
+            Strings.getBytesUtf8( checkpoint ) );
+
+        return Strings.getBytesUtf8( REPLICA_ID_PREFIX + replicaIdStr + COOKIE_DELIM + CSN_PREFIX + csn
+            + COOKIE_DELIM + CHECKPOINT_PREFIX + checkpointStr );
+    }
+
+
     /**
      * Check the cookie syntax. A cookie must have the following syntax :
-     * { rid={replicaId},csn={CSN} }
+     * { rid={replicaId},csn={CSN}[,chk={checkpoint}] }
      *
      * @param cookieString The cookie
      * @return <tt>true</tt> if the cookie is valid
@@ -137,9 +167,32 @@ public final class LdapProtocolUtils
             return false;
         }
 
-        String csnString = cookieString.substring( pos + 1 + CSN_PREFIX_LEN );
+        if ( !cookieString.startsWith( CSN_PREFIX, pos + 1 ) )
+        {
+            return false;
+        }
+
+        int checkpointPos = cookieString.indexOf( COOKIE_DELIM, pos + 1 );
+
+        if ( checkpointPos != -1 )
+        {
+            if ( !cookieString.startsWith( CHECKPOINT_PREFIX, checkpointPos + 1 ) )
+            {
+                return false;
+            }
+
+            try
+            {
+                Base64.getUrlDecoder().decode( cookieString.substring( checkpointPos + 1 + CHECKPOINT_PREFIX_LEN ) );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                LOG.debug( "Failed to decode the checkpoint in cookie {}", cookieString );
+                return false;
+            }
+        }
 
-        return Csn.isValid( csnString );
+        return Csn.isValid( getCsn( cookieString ) );
     }
 
 
@@ -152,7 +205,37 @@ public final class LdapProtocolUtils
     public static String getCsn( String cookieString )
     {
         int pos = cookieString.indexOf( COOKIE_DELIM );
-        return cookieString.substring( pos + 1 + CSN_PREFIX_LEN );
+        int end = cookieString.indexOf( COOKIE_DELIM, pos + 1 );
+
+        if ( end == -1 )
+        {
+            return cookieString.substring( pos + 1 + CSN_PREFIX_LEN );
+        }
+
+        return cookieString.substring( pos + 1 + CSN_PREFIX_LEN, end );
+    }
+
+
+    /**
+     * returns the initial refresh checkpoint present in cookie
+     *
+     * @param cookieString the cookie
+     * @return The Dn of the last entry sent during the initial refresh, or null if
+     * the cookie does not contain a checkpoint
+     */
+    public static String getCheckpoint( String cookieString )
+    {
+        int pos = cookieString.indexOf( COOKIE_DELIM );
+        pos = cookieString.indexOf( COOKIE_DELIM, pos + 1 );
+
+        if ( pos == -1 )
+        {
+            return null;
+        }
+
+        String checkpointStr = cookieString.substring( pos + 1 + CHECKPOINT_PREFIX_LEN );
+
+        return Strings.utf8ToString( Base64.getUrlDecoder().decode( checkpointStr ) );
     }
 
 
@@ -24,7 +24,10 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.AbandonListener;
 import org.apache.directory.api.ldap.model.message.AbandonableRequest;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
 import org.apache.directory.api.ldap.model.message.SearchResultEntry;
 import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
@@ -71,6 +74,9 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
     private LookupOperationContext filterCtx;
     private SchemaManager schemaManager;
 
+    /** Set when the search is abandoned, or ended because a change has been missed */
+    private boolean terminated;
+
     public PersistentSearchListener( LdapSession session, SearchRequest req )
     {
         this.session = session;
@@ -92,6 +98,11 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
 
     public void abandon()
     {
+        synchronized ( this )
+        {
+            terminated = true;
+        }
+
         // must abandon the operation 
         session.getCoreSession().getDirectoryService().getEventService().removeListener( this );
 
@@ -116,6 +127,51 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
     }
 
 
+    /**
+     * Ends the persistent search with an error when an event has not been delivered :
+     * the client has missed a change, and must search again to resynchronize.
+     */
+    @Override
+    public void eventDropped()
+    {
+        synchronized ( this )
+        {
+            if ( terminated )
+            {
+                return;
+            }
+
+            terminated = true;
+        }
+
+        LOG.warn( "The persistent search {} has missed a change, it is ended", req.getMessageId() );
+
+        session.getCoreSession().getDirectoryService().getEventService().removeListener( this );
+        session.unregisterOutstandingRequest( req );
+
+        SearchResultDone done = ( SearchResultDone ) req.getResultResponse();
+        LdapResult ldapResult = done.getLdapResult();
+        ldapResult.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+        ldapResult.setDiagnosticMessage( "The server could not deliver all the changes in time, "
+            + "the persistent search must be restarted" );
+
+        // No change is sent anymore, so the response is the last message of the search
+        session.getIoSession().write( done );
+    }
+
+
+    /**
+     * Sends a change to the client, unless the search has been abandoned or ended.
+     */
+    private synchronized void send( SearchResultEntry respEntry )
+    {
+        if ( !terminated )
+        {
+            session.getIoSession().write( respEntry );
+        }
+    }
+
+
     private void setECResponseControl( SearchResultEntry response, ChangeOperationContext opContext, ChangeType type )
     {
         if ( psearchControl.isReturnECs() )
@@ -159,7 +215,7 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
         respEntry.setEntry( entry );
         
         setECResponseControl( respEntry, addContext, ChangeType.ADD );
-        session.getIoSession().write( respEntry );
+        send( respEntry );
     }
 
 
@@ -175,7 +231,7 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
         filterEntry( deleteContext.getEntry() );
         respEntry.setEntry( deleteContext.getEntry() );
         setECResponseControl( respEntry, deleteContext, ChangeType.DELETE );
-        session.getIoSession().write( respEntry );
+        send( respEntry );
     }
 
 
@@ -194,7 +250,7 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
         respEntry.setEntry( entry );
 
         setECResponseControl( respEntry, modifyContext, ChangeType.MODIFY );
-        session.getIoSession().write( respEntry );
+        send( respEntry );
     }
 
 
@@ -213,7 +269,7 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
         respEntry.setEntry( entry );
         
         setECResponseControl( respEntry, moveContext, ChangeType.MODDN );
-        session.getIoSession().write( respEntry );
+        send( respEntry );
     }
 
 
@@ -238,7 +294,7 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
         respEntry.setEntry( entry );
         
         setECResponseControl( respEntry, renameContext, ChangeType.MODDN );
-        session.getIoSession().write( respEntry );
+        send( respEntry );
     }
     
     
@@ -133,6 +133,12 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     /** flag to indicate if this node is part of a MMR setup, default value is true */
     private boolean mmrMode = true;
 
+    /** The default number of threads applying the received entries */
+    public static final int DEFAULT_APPLY_THREADS = 4;
+
+    /** the number of threads applying the received entries, default value is 4 */
+    private int applyThreads = DEFAULT_APPLY_THREADS;
+
 
     /**
      * Creates a new instance of SyncreplConfiguration
@@ -580,6 +586,27 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     }
 
 
+    /**
+     * @return the number of threads applying the received entries
+     */
+    public int getApplyThreads()
+    {
+        return applyThreads;
+    }
+
+
+    /**
+     * Sets the number of threads applying the received entries. Entries with different
+     * entryUUIDs which are not parent of each other are applied concurrently.
+     *
+     * @param applyThreads the number of threads, at least 1
+     */
+    public void setApplyThreads( int applyThreads )
+    {
+        this.applyThreads = Math.max( 1, applyThreads );
+    }
+
+
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,306 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Applies the entries received by a consumer concurrently. The thread reading the
+ * responses submits each entry with its entryUUID and its Dn, and the entry is applied
+ * by one of the pipeline threads as soon as it does not depend on an entry still being
+ * applied :
+ * <ul>
+ *   <li>an entry with the same entryUUID (the updates of an entry are applied in order)</li>
+ *   <li>an entry with the same Dn, or the Dn of one of its ancestors (a parent is added
+ *   before its children)</li>
+ * </ul>
+ * The submitting thread waits while the entry depends on another one, so the entries are
+ * started in the order they have been received. The operations which affect a whole
+ * subtree (moddn, delete, syncInfo) are applied by the submitting thread once the pipeline
+ * has been drained.
+ * <br>
+ * The cookie sent with an entry is only considered applied once all the entries received
+ * before it have been applied, so that a consumer restarting from a stored cookie never
+ * misses an entry. For the same reason, once an entry has failed to be applied, no cookie
+ * received after it is considered applied : the next session will start before this entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class ReplicaApplyPipeline
+{
+    /** A dedicated logger for the consumer */
+    private static final Logger CONSUMER_LOG = LoggerFactory.getLogger( Loggers.CONSUMER_LOG.getName() );
+
+    /** The maximum number of entries waiting or being applied, per thread */
+    private static final int QUEUE_PER_THREAD = 16;
+
+    /**
+     * The task applying an entry
+     */
+    interface ApplyTask
+    {
+        /**
+         * Applies an entry
+         *
+         * @throws Exception If the entry can't be applied
+         */
+        void apply() throws Exception;
+    }
+
+    /** The threads applying the entries */
+    private final ExecutorService executor;
+
+    /** The maximum number of entries being applied */
+    private final int maxInFlight;
+
+    /** The entryUUIDs being applied, with the number of pending operations */
+    private final Map<String, Integer> busyUuids = new HashMap<>();
+
+    /** The Dns being applied, with the number of pending operations */
+    private final Map<Dn, Integer> busyDns = new HashMap<>();
+
+    /** The sequence numbers of the entries being applied */
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+
+    /** The cookies of the applied entries, which can't be stored until the previous ones are applied */
+    private final TreeMap<Long, byte[]> appliedCookies = new TreeMap<>();
+
+    /** The sequence number of the next entry */
+    private long nextSeq;
+
+    /** The sequence number of the first entry which has failed to be applied */
+    private long failedSeq = Long.MAX_VALUE;
+
+    /** The cookie of the last entry applied after all the previous ones, not yet taken */
+    private byte[] appliedCookie;
+
+
+    /**
+     * Creates a new ReplicaApplyPipeline instance
+     *
+     * @param threads The number of threads applying the entries
+     * @param replicaId The consumer replica ID, used to name the threads
+     */
+    ReplicaApplyPipeline( int threads, int replicaId )
+    {
+        maxInFlight = threads * QUEUE_PER_THREAD;
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        executor = Executors.newFixedThreadPool( threads, runnable ->
+        {
+            Thread thread = new Thread( runnable, "ReplicaConsumer-" + replicaId + "-apply-"
+                + threadNumber.incrementAndGet() );
+            thread.setDaemon( true );
+
+            return thread;
+        } );
+    }
+
+
+    /**
+     * Submits an entry to apply. This method blocks until the entry does not depend
+     * on any entry being applied.
+     *
+     * @param uuid The entryUUID
+     * @param dn The entry Dn
+     * @param cookie The cookie sent with the entry, if any
+     * @param task The task applying the entry
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    void submit( String uuid, Dn dn, byte[] cookie, ApplyTask task ) throws InterruptedException
+    {
+        long seq;
+
+        synchronized ( this )
+        {
+            while ( ( inFlight.size() >= maxInFlight ) || dependsOnPending( uuid, dn ) )
+            {
+                wait();
+            }
+
+            seq = nextSeq++;
+            inFlight.add( seq );
+            increment( busyUuids, uuid );
+            increment( busyDns, dn );
+        }
+
+        executor.execute( () -> run( seq, uuid, dn, cookie, task ) );
+    }
+
+
+    /**
+     * Waits until all the submitted entries have been applied.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    synchronized void drain() throws InterruptedException
+    {
+        while ( !inFlight.isEmpty() )
+        {
+            wait();
+        }
+    }
+
+
+    /**
+     * Gets the cookie of the last entry applied after all the entries received before it.
+     * A cookie is returned only once.
+     *
+     * @return The cookie, or null if no new cookie has been applied
+     */
+    synchronized byte[] takeAppliedCookie()
+    {
+        byte[] cookie = appliedCookie;
+        appliedCookie = null;
+
+        return cookie;
+    }
+
+
+    /**
+     * Tells if an entry has failed to be applied. The cookies received after it are not
+     * considered applied.
+     *
+     * @return <code>true</code> if an entry has failed to be applied
+     */
+    synchronized boolean hasFailed()
+    {
+        return failedSeq != Long.MAX_VALUE;
+    }
+
+
+    /**
+     * Stops the threads, once the submitted entries have been applied.
+     */
+    void shutdown()
+    {
+        executor.shutdown();
+
+        try
+        {
+            executor.awaitTermination( 1, TimeUnit.MINUTES );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private void run( long seq, String uuid, Dn dn, byte[] cookie, ApplyTask task )
+    {
+        boolean applied = false;
+
+        try
+        {
+            task.apply();
+            applied = true;
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( e.getMessage(), e );
+        }
+        finally
+        {
+            completed( seq, uuid, dn, cookie, applied );
+        }
+    }
+
+
+    private synchronized void completed( long seq, String uuid, Dn dn, byte[] cookie, boolean applied )
+    {
+        inFlight.remove( seq );
+        decrement( busyUuids, uuid );
+        decrement( busyDns, dn );
+
+        if ( !applied && ( seq < failedSeq ) )
+        {
+            CONSUMER_LOG.warn( "The entry {} has not been applied, the next cookies won't be stored", dn );
+            failedSeq = seq;
+            appliedCookies.tailMap( failedSeq ).clear();
+        }
+
+        if ( applied && ( cookie != null ) && ( seq < failedSeq ) )
+        {
+            appliedCookies.put( seq, cookie );
+        }
+
+        // The cookies of the entries received before the oldest pending one can be stored
+        long limit = inFlight.isEmpty() ? failedSeq : Math.min( inFlight.first(), failedSeq );
+        SortedMap<Long, byte[]> done = appliedCookies.headMap( limit );
+
+        if ( !done.isEmpty() )
+        {
+            appliedCookie = done.get( done.lastKey() );
+            done.clear();
+        }
+
+        notifyAll();
+    }
+
+
+    /**
+     * Tells if an entry depends on an entry being applied
+     */
+    private boolean dependsOnPending( String uuid, Dn dn )
+    {
+        if ( busyUuids.containsKey( uuid ) )
+        {
+            return true;
+        }
+
+        for ( Dn ancestor = dn; ( ancestor != null ) && !ancestor.isEmpty(); ancestor = ancestor.getParent() )
+        {
+            if ( busyDns.containsKey( ancestor ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    private static <K> void increment( Map<K, Integer> counters, K key )
+    {
+        counters.merge( key, 1, Integer::sum );
+    }
+
+
+    private static <K> void decrement( Map<K, Integer> counters, K key )
+    {
+        counters.computeIfPresent( key, ( k, count ) -> ( count == 1 ) ? null : count - 1 );
+    }
+}
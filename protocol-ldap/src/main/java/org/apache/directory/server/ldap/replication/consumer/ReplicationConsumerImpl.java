@@ -24,9 +24,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
-import org.apache.commons.collections4.map.LRUMap;
 import org.apache.directory.api.ldap.extras.controls.SynchronizationModeEnum;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncDone.SyncDoneValue;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
@@ -129,6 +127,12 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     /** flag to indicate whether the consumer was disconnected */
     private volatile boolean disconnected;
 
+    /**
+     * Set when an entry has failed to be applied during the current search : the cookie is
+     * not updated anymore, so that the next search starts before this entry
+     */
+    private volatile boolean applyFailed;
+
     /** the core session */
     private CoreSession session;
 
@@ -164,7 +168,16 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     private AttributeType adsReplCookieAT;
     private AttributeType adsDsReplicaIdAT;
 
-    private static final Map<String, Object> UUID_LOCK_MAP = new LRUMap( 1000 );
+    /** The locks serializing the updates of an entry by the consumers, shared by all the consumers */
+    private static final Object[] UUID_LOCKS = new Object[1024];
+
+    static
+    {
+        for ( int i = 0; i < UUID_LOCKS.length; i++ )
+        {
+            UUID_LOCKS[i] = new Object();
+        }
+    }
 
 
     /**
@@ -312,7 +325,7 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         SyncDoneValue ctrl = ( SyncDoneValue ) searchDone.getControls().get( SyncDoneValue.OID );
 
-        if ( ( ctrl != null ) && ( ctrl.getCookie() != null ) )
+        if ( ( ctrl != null ) && ( ctrl.getCookie() != null ) && !applyFailed )
         {
             syncCookie = ctrl.getCookie();
             CONSUMER_LOG.debug( "assigning cookie from sync done value control: {}", Strings.utf8ToString( syncCookie ) );
@@ -342,131 +355,195 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
      * - Moddn
      * - Delete
      * - Present
+     * The Add, Modify and Present are applied by the pipeline, concurrently with the other
+     * entries they don't depend on. The Moddn and Delete affect a whole subtree, they are
+     * applied once the pipeline has been drained.
      * @param syncResult
+     * @param pipeline The pipeline applying the entries
+     * @throws InterruptedException If the thread is interrupted while waiting for the pipeline
      */
-    private void handleSearchResultEntry( SearchResultEntry syncResult )
+    private void handleSearchResultEntry( SearchResultEntry syncResult, ReplicaApplyPipeline pipeline )
+        throws InterruptedException
     {
         CONSUMER_LOG.debug( "------------- starting handleSearchResult ------------" );
 
         SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
+        Entry remoteEntry;
+        String uuid;
 
         try
         {
-            Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
-            String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
-            // lock on UUID to serialize the updates when there are multiple consumers
-            // connected to several producers and to the *same* base/partition
-            Object lock = getLockFor( uuid );
+            remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
+            uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( e.getMessage(), e );
 
-            synchronized ( lock )
+            return;
+        }
+
+        byte[] cookie = syncStateCtrl.getCookie();
+        SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
+
+        if ( ( state == SyncStateTypeEnum.MODDN ) || ( state == SyncStateTypeEnum.DELETE ) )
+        {
+            pipeline.drain();
+            storeAppliedCookie( pipeline );
+
+            try
             {
-                int rid = -1;
+                applySyncState( syncStateCtrl, remoteEntry, uuid );
 
-                if ( syncStateCtrl.getCookie() != null )
+                // store the cookie only if the above operation was successful, and if
+                // all the previous entries have been applied
+                if ( ( cookie != null ) && !applyFailed )
                 {
-                    syncCookie = syncStateCtrl.getCookie();
-                    rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncCookie ) );
-                    CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
-                        Strings.utf8ToString( syncCookie ) );
+                    syncCookie = cookie;
+                    storeCookie();
                 }
+            }
+            catch ( Exception e )
+            {
+                CONSUMER_LOG.error( e.getMessage(), e );
+                applyFailed = true;
+            }
+        }
+        else
+        {
+            pipeline.submit( uuid, remoteEntry.getDn(), cookie,
+                () -> applySyncState( syncStateCtrl, remoteEntry, uuid ) );
+            storeAppliedCookie( pipeline );
+        }
 
-                SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
+        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+    }
 
-                // check to avoid conversion of UUID from byte[] to String
-                if ( CONSUMER_LOG.isDebugEnabled() )
-                {
-                    CONSUMER_LOG.debug( "state name {}", state.name() );
-                    CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
-                }
 
-                Dn remoteDn = remoteEntry.getDn();
+    /**
+     * Stores the cookie of the last entry applied after all the previously received entries
+     */
+    private void storeAppliedCookie( ReplicaApplyPipeline pipeline )
+    {
+        byte[] appliedCookie = pipeline.takeAppliedCookie();
 
-                switch ( state )
-                {
-                    case ADD:
-                        boolean remoteDnExist = false;
-
-                        try
-                        {
-                            remoteDnExist = session.exists( remoteDn );
-                        }
-                        catch ( LdapNoSuchObjectException lnsoe )
-                        {
-                            CONSUMER_LOG.error( lnsoe.getMessage() );
-                        }
-
-                        if ( !remoteDnExist )
-                        {
-                            CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
-                            CONSUMER_LOG.debug( remoteEntry.toString() );
-                            AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
-                            addContext.setReplEvent( true );
-                            addContext.setRid( rid );
-
-                            OperationManager operationManager = directoryService.getOperationManager();
-                            operationManager.add( addContext );
-                        }
-                        else
-                        {
-                            CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
-                            modify( remoteEntry, rid );
-                        }
-
-                        break;
-
-                    case MODIFY:
-                        CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
+        if ( pipeline.hasFailed() )
+        {
+            applyFailed = true;
+        }
+
+        if ( appliedCookie != null )
+        {
+            syncCookie = appliedCookie;
+            storeCookie();
+        }
+    }
+
+
+    /**
+     * Applies the received entry on the local server
+     */
+    private void applySyncState( SyncStateValue syncStateCtrl, Entry remoteEntry, String uuid ) throws Exception
+    {
+        // lock on UUID to serialize the updates when there are multiple consumers
+        // connected to several producers and to the *same* base/partition
+        Object lock = getLockFor( uuid );
+
+        synchronized ( lock )
+        {
+            int rid = -1;
+
+            if ( syncStateCtrl.getCookie() != null )
+            {
+                rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncStateCtrl.getCookie() ) );
+                CONSUMER_LOG.debug( "applying the entry with the cookie from sync state value control: {}",
+                    Strings.utf8ToString( syncStateCtrl.getCookie() ) );
+            }
+
+            SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
+
+            // check to avoid conversion of UUID from byte[] to String
+            if ( CONSUMER_LOG.isDebugEnabled() )
+            {
+                CONSUMER_LOG.debug( "state name {}", state.name() );
+                CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
+            }
+
+            Dn remoteDn = remoteEntry.getDn();
+
+            switch ( state )
+            {
+                case ADD:
+                    boolean remoteDnExist = false;
+
+                    try
+                    {
+                        remoteDnExist = session.exists( remoteDn );
+                    }
+                    catch ( LdapNoSuchObjectException lnsoe )
+                    {
+                        CONSUMER_LOG.error( lnsoe.getMessage() );
+                    }
+
+                    if ( !remoteDnExist )
+                    {
+                        CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
+                        CONSUMER_LOG.debug( remoteEntry.toString() );
+                        AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
+                        addContext.setReplEvent( true );
+                        addContext.setRid( rid );
+
+                        OperationManager operationManager = directoryService.getOperationManager();
+                        operationManager.add( addContext );
+                    }
+                    else
+                    {
+                        CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
                         modify( remoteEntry, rid );
+                    }
 
-                        break;
+                    break;
 
-                    case MODDN:
-                        String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() );
-                        applyModDnOperation( remoteEntry, entryUuid, rid );
+                case MODIFY:
+                    CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
+                    modify( remoteEntry, rid );
 
-                        break;
+                    break;
 
-                    case DELETE:
-                        CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
+                case MODDN:
+                    String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() );
+                    applyModDnOperation( remoteEntry, entryUuid, rid );
 
-                        if ( !session.exists( remoteDn ) )
-                        {
-                            CONSUMER_LOG
-                                .debug(
-                                    "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
-                                    remoteDn );
-                        }
-                        else
-                        {
-                            // incase of a MODDN operation resulting in a branch to be moved out of scope
-                            // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
-                            // so the branch needs to be recursively deleted here
-                            deleteRecursive( remoteEntry.getDn(), rid );
-                        }
+                    break;
 
-                        break;
+                case DELETE:
+                    CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
 
-                    case PRESENT:
-                        CONSUMER_LOG.debug( "entry present {}", remoteEntry );
-                        break;
+                    if ( !session.exists( remoteDn ) )
+                    {
+                        CONSUMER_LOG
+                            .debug(
+                                "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
+                                remoteDn );
+                    }
+                    else
+                    {
+                        // incase of a MODDN operation resulting in a branch to be moved out of scope
+                        // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
+                        // so the branch needs to be recursively deleted here
+                        deleteRecursive( remoteEntry.getDn(), rid );
+                    }
 
-                    default:
-                        throw new IllegalArgumentException( "Unexpected sync state " + state );
-                }
+                    break;
 
-                // store the cookie only if the above operation was successful
-                if ( syncStateCtrl.getCookie() != null )
-                {
-                    storeCookie();
-                }
+                case PRESENT:
+                    CONSUMER_LOG.debug( "entry present {}", remoteEntry );
+                    break;
+
+                default:
+                    throw new IllegalArgumentException( "Unexpected sync state " + state );
             }
         }
-        catch ( Exception e )
-        {
-            CONSUMER_LOG.error( e.getMessage(), e );
-        }
-
-        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
     }
 
 
@@ -506,10 +583,14 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
                     CONSUMER_LOG.debug( "setting the cookie from the sync info: {}", Strings.utf8ToString( cookie ) );
                 }
 
-                syncCookie = cookie;
-
-                String cookieString = Strings.utf8ToString( syncCookie );
+                String cookieString = Strings.utf8ToString( cookie );
                 replicaId = LdapProtocolUtils.getReplicaId( cookieString );
+
+                // The cookie can't be stored if a previous entry has not been applied
+                if ( !applyFailed )
+                {
+                    syncCookie = cookie;
+                }
             }
 
             CONSUMER_LOG.info( "refreshDeletes: {}", syncInfoValue.isRefreshDeletes() );
@@ -775,27 +856,45 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
 
         // Now, process the responses. We loop until we have a connection termination or
-        // a SearchResultDone (RefreshOnly mode)
-        while ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected )
+        // a SearchResultDone (RefreshOnly mode). The entries are applied by the pipeline
+        // while the next responses are read.
+        ReplicaApplyPipeline pipeline = new ReplicaApplyPipeline( config.getApplyThreads(), config.getReplicaId() );
+        applyFailed = false;
+
+        try
         {
-            if ( resp instanceof SearchResultEntry )
+            while ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected )
             {
-                SearchResultEntry result = ( SearchResultEntry ) resp;
+                if ( resp instanceof SearchResultEntry )
+                {
+                    SearchResultEntry result = ( SearchResultEntry ) resp;
 
-                handleSearchResultEntry( result );
-            }
-            else if ( resp instanceof SearchResultReference )
-            {
-                handleSearchReference( ( SearchResultReference ) resp );
-            }
-            else if ( resp instanceof IntermediateResponse )
-            {
-                handleSyncInfo( ( IntermediateResponse ) resp );
+                    handleSearchResultEntry( result, pipeline );
+                }
+                else if ( resp instanceof SearchResultReference )
+                {
+                    handleSearchReference( ( SearchResultReference ) resp );
+                }
+                else if ( resp instanceof IntermediateResponse )
+                {
+                    // The syncInfo deletes entries, and carries a cookie : all the
+                    // previous entries must have been applied
+                    pipeline.drain();
+                    storeAppliedCookie( pipeline );
+                    handleSyncInfo( ( IntermediateResponse ) resp );
+                }
+
+                // Next entry
+                resp = sf.get();
+                CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
             }
 
-            // Next entry
-            resp = sf.get();
-            CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
+            pipeline.drain();
+            storeAppliedCookie( pipeline );
+        }
+        finally
+        {
+            pipeline.shutdown();
         }
 
         if ( sf.isCancelled() )
@@ -914,7 +1013,7 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     /**
      * stores the cookie.
      */
-    private void storeCookie()
+    private synchronized void storeCookie()
     {
         CONSUMER_LOG.debug( "Storing the cookie '{}'", Strings.utf8ToString( syncCookie ) );
 
@@ -1391,17 +1490,9 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
-    private synchronized Object getLockFor( String uuid )
+    private static Object getLockFor( String uuid )
     {
-        Object lock = UUID_LOCK_MAP.get( uuid );
-
-        if ( lock == null )
-        {
-            lock = new Object();
-            UUID_LOCK_MAP.put( uuid, lock );
-        }
-
-        return lock;
+        return UUID_LOCKS[( uuid.hashCode() & 0x7FFFFFFF ) % UUID_LOCKS.length];
     }
 
 
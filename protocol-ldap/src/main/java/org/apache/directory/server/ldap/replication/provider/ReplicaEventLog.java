@@ -26,10 +26,12 @@ import java.io.IOException;
 
 import jdbm.RecordManager;
 import jdbm.recman.BaseRecordManager;
-import jdbm.recman.TransactionManager;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
@@ -99,13 +101,13 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
 
     // fields that won't be serialized
     /** The Journal of modifications */
-    private JdbmTable<String, ReplicaEventMessage> journal;
+    private ReplicaJournal journal;
 
-    /** the underlying file  */
+    /** the directory containing the journal segments */
     private File journalFile;
 
-    /** The record manager*/
-    private RecordManager recman;
+    /** the name of this replica log */
+    private String name;
 
     /** A flag used to indicate that the consumer is not up to date */
     private volatile boolean dirty;
@@ -119,9 +121,6 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
 
     /** The max delay for an idle replication log with no activity, by default the logs have no idle time period */
     public static final int DEFAULT_MAX_IDLE_PERIOD = -1;
-    
-    /** The partition transaction */
-    private PartitionTxn partitionTxn;
 
 
     /**
@@ -140,21 +139,70 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
         this.searchCriteria = new NotificationCriteria( schemaManager );
         this.searchCriteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
 
-        // Create the journal file, or open if already exists
+        // Create the journal directory, or open if already exists
         File replDir = directoryService.getInstanceLayout().getReplDirectory();
-        journalFile = new File( replDir, REPLICA_EVENT_LOG_NAME_PREFIX + replicaId );
-        recman = new BaseRecordManager( journalFile.getAbsolutePath() );
-        TransactionManager transactionManager = ( ( BaseRecordManager ) recman ).getTransactionManager();
-        transactionManager.setMaximumTransactionsInLog( 200 );
+        name = REPLICA_EVENT_LOG_NAME_PREFIX + replicaId;
+        journalFile = new File( replDir, name );
+        ReplicaEventMessageSerializer serializer = new ReplicaEventMessageSerializer( schemaManager );
+
+        if ( new File( replDir, name + ".db" ).exists() )
+        {
+            migrateJdbmJournal( partitionTxn, schemaManager, replDir, serializer );
+        }
+        else
+        {
+            journal = new ReplicaJournal( journalFile, serializer, ReplicaJournal.DEFAULT_SEGMENT_SIZE );
+        }
+    }
 
-        SerializableComparator<String> comparator = new SerializableComparator<>(
-            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
-        comparator.setSchemaManager( schemaManager );
 
-        journal = new JdbmTable<>( schemaManager, journalFile.getName(), recman, comparator,
-            StringSerializer.INSTANCE, new ReplicaEventMessageSerializer( schemaManager ) );
-        
-        this.partitionTxn = partitionTxn;
+    /**
+     * Copies the messages of a journal stored by a previous version in a JDBM file to the
+     * segmented journal, and deletes the JDBM files.
+     */
+    private void migrateJdbmJournal( PartitionTxn partitionTxn, SchemaManager schemaManager, File replDir,
+        ReplicaEventMessageSerializer serializer ) throws IOException
+    {
+        PROVIDER_LOG.info( "Migrating the replication event log {} to a segmented journal", name );
+
+        // Start from an empty journal, in case a previous migration has been interrupted
+        ReplicaJournal.delete( journalFile );
+        journal = new ReplicaJournal( journalFile, serializer, ReplicaJournal.DEFAULT_SEGMENT_SIZE );
+
+        RecordManager recman = new BaseRecordManager( new File( replDir, name ).getAbsolutePath() );
+
+        try
+        {
+            SerializableComparator<String> comparator = new SerializableComparator<>(
+                SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
+            comparator.setSchemaManager( schemaManager );
+
+            JdbmTable<String, ReplicaEventMessage> jdbmJournal = new JdbmTable<>( schemaManager, name, recman,
+                comparator, StringSerializer.INSTANCE, serializer );
+
+            try ( Cursor<Tuple<String, ReplicaEventMessage>> cursor = jdbmJournal.cursor() )
+            {
+                while ( cursor.next() )
+                {
+                    Tuple<String, ReplicaEventMessage> tuple = cursor.get();
+                    journal.append( tuple.getKey(), tuple.getValue() );
+                }
+            }
+
+            jdbmJournal.close( partitionTxn );
+            journal.sync();
+        }
+        catch ( LdapException | CursorException e )
+        {
+            throw new IOException( e.getMessage(), e );
+        }
+        finally
+        {
+            recman.close();
+        }
+
+        new File( replDir, name + ".db" ).delete();
+        new File( replDir, name + ".lg" ).delete();
     }
 
 
@@ -173,7 +221,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
                 message.getChangeType() );
 
             String entryCsn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-            journal.put( partitionTxn, entryCsn, message );
+            journal.append( entryCsn, message );
         }
         catch ( Exception e )
         {
@@ -183,6 +231,29 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     }
 
 
+    /**
+     * Flushes the journal on disk. It must be called before a cookie is sent to the consumer,
+     * so that the messages it covers are not lost if the server crashes.
+     */
+    public synchronized void sync()
+    {
+        if ( journal == null )
+        {
+            return;
+        }
+
+        try
+        {
+            journal.sync();
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Failed to flush the syncrepl log", ioe );
+            PROVIDER_LOG.error( "Failed to flush the syncrepl log {}", name, ioe );
+        }
+    }
+
+
     /**
      * Deletes the queue (to remove the log) and recreates a new queue instance
      * with the same queue name. Also creates the corresponding message producer
@@ -216,17 +287,45 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
         // Close the producer and session, DO NOT close connection 
         if ( journal != null )
         {
-            journal.close( partitionTxn );
+            journal.close();
         }
 
         journal = null;
+    }
+
 
-        if ( recman != null )
+    /**
+     * Stop the EventLog, and delete its journal
+     * 
+     * @throws Exception If the stop failed
+     */
+    public void delete() throws Exception
+    {
+        stop();
+
+        if ( !ReplicaJournal.delete( journalFile ) && journalFile.exists() )
         {
-            recman.close();
+            PROVIDER_LOG.warn( "Failed to delete the journal {} of the replica {}", journalFile, replicaId );
+        }
+    }
+
+
+    /**
+     * Deletes the messages which have been sent to the consumer, and which are older than
+     * the given time. The messages are deleted by whole segments, so some of them may be kept
+     * until all the messages of their segment can be deleted.
+     *
+     * @param olderThan The time before which the messages can be deleted
+     * @return The number of deleted messages
+     */
+    public synchronized long purge( long olderThan )
+    {
+        if ( ( lastSentCsn == null ) || ( journal == null ) )
+        {
+            return 0L;
         }
 
-        recman = null;
+        return journal.purge( lastSentCsn, olderThan );
     }
 
 
@@ -441,7 +540,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public ReplicaJournalCursor getCursor( String consumerCsn ) throws Exception
     {
-        return new ReplicaJournalCursor( partitionTxn, journal, consumerCsn );
+        return new ReplicaJournalCursor( journal, consumerCsn );
     }
 
 
@@ -450,7 +549,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public String getName()
     {
-        return journal.getName();
+        return name;
     }
 
 
@@ -459,14 +558,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public synchronized long count()
     {
-        try
-        {
-            return journal.count( partitionTxn );
-        }
-        catch ( LdapException e )
-        {
-            throw new RuntimeException( e );
-        }
+        return journal.count();
     }
 
 
@@ -20,14 +20,11 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
-import java.io.File;
 import java.util.Map;
 
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.Csn;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.server.core.api.DirectoryService;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -83,7 +80,7 @@ public class ReplicaEventLogJanitor extends Thread
                         if ( lastSentCsn == null )
                         {
                             LOG.debug( "last sent CSN is null for the replica {}, skipping cleanup", log.getName() );
-                            return;
+                            continue;
                         }
 
                         long now = directoryService.getTimeProvider().currentIimeMillis();
@@ -129,32 +126,8 @@ public class ReplicaEventLogJanitor extends Thread
                         LOG.debug( "starting to purge the log entries that are older than {} milliseconds",
                             thresholdTime );
 
-                        long deleteCount = 0;
-
-                        ReplicaJournalCursor cursor = log.getCursor( null ); // pass no CSN
-                        cursor.skipQualifyingWhileFetching();
-
-                        while ( cursor.next() )
-                        {
-                            ReplicaEventMessage message = cursor.get();
-                            String csnVal = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-
-                            // skip if we reach the lastSentCsn or got past it
-                            if ( csnVal.compareTo( lastSentCsn ) >= 0 )
-                            {
-                                break;
-                            }
-
-                            Csn csn = new Csn( csnVal );
-
-                            if ( ( now - csn.getTimestamp() ) >= thresholdTime )
-                            {
-                                cursor.delete();
-                                deleteCount++;
-                            }
-                        }
-
-                        cursor.close();
+                        // Whole journal segments are dropped, when all their messages are old enough
+                        long deleteCount = log.purge( now - thresholdTime );
 
                         LOG.debug( "purged {} messages from the log {}", deleteCount, log.getName() );
                     }
@@ -190,10 +163,7 @@ public class ReplicaEventLogJanitor extends Thread
 
         try
         {
-            replicaEventLog.stop();
-
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".db" ).delete();
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".lg" ).delete();
+            replicaEventLog.delete();
             LOG.info( "successfully removed replication event log {}", name );
         }
         catch ( Exception e )
@@ -0,0 +1,573 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An append only journal storing the ReplicaEventMessages sent to a consumer. The journal
+ * is a directory containing segment files, the messages being appended to the last segment
+ * until it reaches the configured size, when a new segment is started.
+ * <br>
+ * Each record has the following structure :
+ * <ul>
+ *   <li><b>[length]</b> : the length of the record's payload (int)</li>
+ *   <li><b>[crc]</b> : the CRC32 of the payload (int), used to detect a torn write on recovery</li>
+ *   <li><b>[payload]</b> : the CSN length (short), the CSN and the serialized message</li>
+ * </ul>
+ * A sparse index is kept in memory : for each block of {@link #INDEX_INTERVAL} records, the
+ * block's position and its highest CSN. It allows a cursor to skip the blocks containing
+ * only messages the consumer already has. The messages are not deleted one by one : a whole
+ * segment is dropped when all its messages have been sent and are old enough.
+ * <br>
+ * The journal is not thread safe, it is protected by the owning {@link ReplicaEventLog}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaJournal implements Closeable
+{
+    /** A logger for the replication provider */
+    private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
+
+    /** The default maximum size of a segment */
+    public static final long DEFAULT_SEGMENT_SIZE = 16L * 1024L * 1024L;
+
+    /** The segment files extension */
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    /** The number of records in an index block */
+    static final int INDEX_INTERVAL = 64;
+
+    /** The size of a record header : the payload length and its CRC */
+    private static final int HEADER_SIZE = 8;
+
+    /** The directory containing the segments */
+    private final File directory;
+
+    /** The message serializer */
+    private final ReplicaEventMessageSerializer serializer;
+
+    /** The maximum size of a segment */
+    private final long segmentSize;
+
+    /** The segments, the last one being the one we append to */
+    private final List<Segment> segments = new ArrayList<>();
+
+    /** The channel used to append to the last segment */
+    private FileChannel writeChannel;
+
+    /** The number of messages in the journal */
+    private long count;
+
+    /** Tells if some messages have been appended since the last flush */
+    private boolean unsynced;
+
+
+    /**
+     * A block of records in a segment
+     */
+    private static class Block
+    {
+        /** The position of the first record of the block */
+        private final long position;
+
+        /** The highest CSN of the block */
+        private String maxCsn;
+
+        /** The number of records in the block */
+        private int count;
+
+
+        Block( long position )
+        {
+            this.position = position;
+        }
+    }
+
+
+    /**
+     * A segment file
+     */
+    private static class Segment
+    {
+        /** The segment's file */
+        private final File file;
+
+        /** The segment's number, which gives the file name */
+        private final long number;
+
+        /** The size of the valid records */
+        private long size;
+
+        /** The number of messages */
+        private int count;
+
+        /** The highest CSN stored in the segment */
+        private String maxCsn;
+
+        /** The sparse index */
+        private final List<Block> blocks = new ArrayList<>();
+
+
+        Segment( File directory, long number )
+        {
+            this.number = number;
+            file = new File( directory, String.format( "%020d", number ) + SEGMENT_SUFFIX );
+        }
+
+
+        /**
+         * Update the segment and its index after a record has been added
+         */
+        void added( long position, int recordSize, String csn )
+        {
+            Block block;
+
+            if ( blocks.isEmpty() || ( blocks.get( blocks.size() - 1 ).count >= INDEX_INTERVAL ) )
+            {
+                block = new Block( position );
+                blocks.add( block );
+            }
+            else
+            {
+                block = blocks.get( blocks.size() - 1 );
+            }
+
+            block.count++;
+
+            if ( ( block.maxCsn == null ) || ( csn.compareTo( block.maxCsn ) > 0 ) )
+            {
+                block.maxCsn = csn;
+            }
+
+            if ( ( maxCsn == null ) || ( csn.compareTo( maxCsn ) > 0 ) )
+            {
+                maxCsn = csn;
+            }
+
+            size = position + recordSize;
+            count++;
+        }
+    }
+
+
+    /**
+     * A part of a segment to read
+     */
+    static class Range
+    {
+        private final Segment segment;
+        private final long start;
+        private final long end;
+
+
+        Range( Segment segment, long start, long end )
+        {
+            this.segment = segment;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+
+    /**
+     * Opens a journal, creating it if it does not exist. The existing segments are read to
+     * rebuild the index, and a torn record at the end of a segment is truncated.
+     *
+     * @param directory The directory containing the segments
+     * @param serializer The message serializer
+     * @param segmentSize The maximum size of a segment
+     * @throws IOException If the journal can't be read
+     */
+    public ReplicaJournal( File directory, ReplicaEventMessageSerializer serializer, long segmentSize )
+        throws IOException
+    {
+        this.directory = directory;
+        this.serializer = serializer;
+        this.segmentSize = segmentSize > 0 ? segmentSize : DEFAULT_SEGMENT_SIZE;
+
+        if ( !directory.exists() && !directory.mkdirs() )
+        {
+            throw new IOException( "Cannot create the replication journal directory " + directory );
+        }
+
+        File[] files = directory.listFiles( ( dir, name ) -> name.endsWith( SEGMENT_SUFFIX ) );
+        Arrays.sort( files );
+
+        for ( File file : files )
+        {
+            String name = file.getName();
+            Segment segment = new Segment( directory, Long.parseLong( name.substring( 0,
+                name.length() - SEGMENT_SUFFIX.length() ) ) );
+            recover( segment );
+            segments.add( segment );
+            count += segment.count;
+        }
+
+        if ( segments.isEmpty() )
+        {
+            segments.add( new Segment( directory, 0L ) );
+        }
+
+        openWriteChannel();
+    }
+
+
+    /**
+     * Reads all the records of a segment, and truncates the file after the last valid one
+     */
+    private void recover( Segment segment ) throws IOException
+    {
+        long position = 0L;
+        long fileSize = segment.file.length();
+        CRC32 crc = new CRC32();
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream(
+            new FileInputStream( segment.file ) ) ) )
+        {
+            while ( position + HEADER_SIZE <= fileSize )
+            {
+                int length = in.readInt();
+                int expectedCrc = in.readInt();
+
+                if ( ( length < 2 ) || ( position + HEADER_SIZE + length > fileSize ) )
+                {
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                in.readFully( payload );
+                crc.reset();
+                crc.update( payload, 0, length );
+
+                if ( ( int ) crc.getValue() != expectedCrc )
+                {
+                    break;
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap( payload );
+                segment.added( position, HEADER_SIZE + length, readCsn( buffer ) );
+                position += HEADER_SIZE + length;
+            }
+        }
+        catch ( EOFException eofe )
+        {
+            // A torn record, we stop here
+        }
+
+        if ( position < fileSize )
+        {
+            PROVIDER_LOG.warn( "Truncating the replication journal segment {} from {} to {} bytes",
+                segment.file, fileSize, position );
+
+            try ( FileChannel channel = FileChannel.open( segment.file.toPath(), StandardOpenOption.WRITE ) )
+            {
+                channel.truncate( position );
+            }
+        }
+    }
+
+
+    /**
+     * Opens the last segment for writing
+     */
+    private void openWriteChannel() throws IOException
+    {
+        Segment last = segments.get( segments.size() - 1 );
+        writeChannel = FileChannel.open( last.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+        writeChannel.position( last.size );
+    }
+
+
+    /**
+     * Appends a message to the journal
+     *
+     * @param csn The message's CSN
+     * @param message The message
+     * @throws IOException If the message can't be written
+     */
+    public void append( String csn, ReplicaEventMessage message ) throws IOException
+    {
+        byte[] csnBytes = Strings.getBytesUtf8( csn );
+        byte[] messageBytes = serializer.serialize( message );
+        int length = 2 + csnBytes.length + messageBytes.length;
+
+        ByteBuffer record = ByteBuffer.allocate( HEADER_SIZE + length );
+        record.putInt( length );
+        record.putInt( 0 );
+        record.putShort( ( short ) csnBytes.length );
+        record.put( csnBytes );
+        record.put( messageBytes );
+
+        CRC32 crc = new CRC32();
+        crc.update( record.array(), HEADER_SIZE, length );
+        record.putInt( 4, ( int ) crc.getValue() );
+        record.flip();
+
+        Segment last = segments.get( segments.size() - 1 );
+
+        if ( ( last.count > 0 ) && ( last.size + record.remaining() > segmentSize ) )
+        {
+            // Start a new segment
+            writeChannel.force( false );
+            unsynced = false;
+            writeChannel.close();
+            last = new Segment( directory, last.number + 1 );
+            segments.add( last );
+            openWriteChannel();
+        }
+
+        long position = last.size;
+
+        while ( record.hasRemaining() )
+        {
+            writeChannel.write( record );
+        }
+
+        last.added( position, HEADER_SIZE + length, csn );
+        count++;
+        unsynced = true;
+    }
+
+
+    /**
+     * Gets the parts of the journal which may contain messages newer than the given CSN
+     *
+     * @param fromCsn The CSN of the last message the consumer has, or null to read everything
+     * @return The ranges to read, in order
+     */
+    List<Range> getRanges( String fromCsn )
+    {
+        List<Range> ranges = new ArrayList<>();
+
+        for ( Segment segment : segments )
+        {
+            if ( segment.count == 0 )
+            {
+                continue;
+            }
+
+            if ( fromCsn == null )
+            {
+                ranges.add( new Range( segment, 0L, segment.size ) );
+
+                continue;
+            }
+
+            if ( segment.maxCsn.compareTo( fromCsn ) <= 0 )
+            {
+                // The consumer has all the messages of this segment
+                continue;
+            }
+
+            for ( Block block : segment.blocks )
+            {
+                if ( block.maxCsn.compareTo( fromCsn ) > 0 )
+                {
+                    ranges.add( new Range( segment, block.position, segment.size ) );
+                    break;
+                }
+            }
+        }
+
+        return ranges;
+    }
+
+
+    /**
+     * Maps a range of a segment in memory
+     *
+     * @param range The range to map
+     * @return The mapped range
+     * @throws IOException If the segment can't be mapped
+     */
+    MappedByteBuffer map( Range range ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( range.segment.file.toPath(), StandardOpenOption.READ ) )
+        {
+            return channel.map( FileChannel.MapMode.READ_ONLY, range.start, range.end - range.start );
+        }
+    }
+
+
+    /**
+     * Reads the CSN of the record the buffer is on, positioned after the header.
+     * The buffer is positioned after the CSN.
+     */
+    static String readCsn( ByteBuffer buffer )
+    {
+        byte[] csnBytes = new byte[buffer.getShort()];
+        buffer.get( csnBytes );
+
+        return Strings.utf8ToString( csnBytes );
+    }
+
+
+    /**
+     * Reads the next record of a mapped range, if its CSN is newer than the given one.
+     *
+     * @param buffer The mapped range, positioned on a record
+     * @param fromCsn The CSN of the last message the consumer has, or null
+     * @return The message, or null if the consumer already has it
+     * @throws IOException If the message can't be read
+     */
+    ReplicaEventMessage readRecord( ByteBuffer buffer, String fromCsn ) throws IOException
+    {
+        int length = buffer.getInt();
+        buffer.getInt();
+        int end = buffer.position() + length;
+        String csn = readCsn( buffer );
+
+        if ( ( fromCsn != null ) && ( csn.compareTo( fromCsn ) <= 0 ) )
+        {
+            buffer.position( end );
+
+            return null;
+        }
+
+        byte[] messageBytes = new byte[end - buffer.position()];
+        buffer.get( messageBytes );
+
+        return ( ReplicaEventMessage ) serializer.deserialize( messageBytes );
+    }
+
+
+    /**
+     * Deletes the segments which only contain messages older than the last CSN sent to the
+     * consumer, and older than the given time. The segment being written is never deleted.
+     *
+     * @param lastSentCsn The last CSN sent to the consumer
+     * @param olderThan The time before which the messages can be deleted
+     * @return The number of deleted messages
+     */
+    public long purge( String lastSentCsn, long olderThan )
+    {
+        long deleted = 0L;
+
+        while ( segments.size() > 1 )
+        {
+            Segment first = segments.get( 0 );
+
+            if ( ( first.maxCsn != null ) && ( ( first.maxCsn.compareTo( lastSentCsn ) >= 0 )
+                || ( new Csn( first.maxCsn ).getTimestamp() > olderThan ) ) )
+            {
+                break;
+            }
+
+            if ( !first.file.delete() )
+            {
+                PROVIDER_LOG.warn( "Failed to delete the replication journal segment {}", first.file );
+
+                break;
+            }
+
+            segments.remove( 0 );
+            count -= first.count;
+            deleted += first.count;
+        }
+
+        return deleted;
+    }
+
+
+    /**
+     * @return The number of messages in the journal
+     */
+    public long count()
+    {
+        return count;
+    }
+
+
+    /**
+     * Flushes the journal on disk, if some messages have been appended since the last flush
+     *
+     * @throws IOException If the journal can't be flushed
+     */
+    public void sync() throws IOException
+    {
+        if ( ( writeChannel != null ) && unsynced )
+        {
+            writeChannel.force( false );
+            unsynced = false;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( writeChannel != null )
+        {
+            writeChannel.force( false );
+            writeChannel.close();
+            writeChannel = null;
+        }
+    }
+
+
+    /**
+     * Deletes a journal directory and its segments, or a file.
+     *
+     * @param file The journal directory
+     * @return true if the journal has been deleted
+     */
+    public static boolean delete( File file )
+    {
+        File[] children = file.listFiles();
+
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                child.delete();
+            }
+        }
+
+        return file.delete();
+    }
+}
@@ -22,25 +22,23 @@ package org.apache.directory.server.ldap.replication.provider;
 
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
-import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
-import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.ldap.model.message.controls.ChangeType;
-import org.apache.directory.server.core.api.partition.PartitionTxn;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Define a cursor on top of a replication journal.
+ * Define a cursor on top of a replication journal. The journal segments are mapped in memory,
+ * and only the messages newer than the consumer's CSN are deserialized : the blocks of the
+ * journal containing only older messages are skipped using the journal index.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -55,35 +53,32 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
     /** Speedup for logs */
     private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
 
-    /** the underlying journal's cursor */
-    private Cursor<Tuple<String, ReplicaEventMessage>> tupleCursor;
-
     /** the event log journal */
-    private JdbmTable<String, ReplicaEventMessage> journal;
+    private ReplicaJournal journal;
+
+    /** the parts of the journal to read */
+    private List<ReplicaJournal.Range> ranges;
+
+    /** the index of the next range to read */
+    private int rangeIndex;
+
+    /** the range being read */
+    private ByteBuffer buffer;
 
     /** the consumer's CSN based on which messages will be qualified for sending */
     private String consumerCsn;
 
     private ReplicaEventMessage qualifiedEvtMsg;
 
-    /** used while cleaning up the log */
-    private boolean skipQualifying;
-    
-    /** The partition transaction */
-    private PartitionTxn partitionTxn;
-    
-
 
     /**
      * Creates a cursor on top of the given journal
      * 
-     * @param partitionTxn The Transaction to use
      * @param journal the log journal
      * @param consumerCsn the consumer's CSN taken from cookie
      * @throws Exception If the cursor creation failed
      */
-    public ReplicaJournalCursor( PartitionTxn partitionTxn, JdbmTable<String, ReplicaEventMessage> journal, 
-            String consumerCsn ) throws Exception
+    public ReplicaJournalCursor( ReplicaJournal journal, String consumerCsn ) throws Exception
     {
         if ( IS_DEBUG )
         {
@@ -91,9 +86,8 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
         }
 
         this.journal = journal;
-        this.tupleCursor = journal.cursor();
         this.consumerCsn = consumerCsn;
-        this.partitionTxn = partitionTxn;
+        this.ranges = journal.getRanges( consumerCsn );
     }
 
 
@@ -159,38 +153,6 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
     }
 
 
-    /**
-     * selects the current queue entry if qualified for sending to the consumer
-     * 
-     * @throws Exception
-     */
-    private boolean isQualified( String csn, ReplicaEventMessage evtMsg ) throws LdapException
-    {
-        LOG.debug( "ReplicaEventMessage: {}", evtMsg );
-
-        if ( evtMsg.isEventOlderThan( consumerCsn ) )
-        {
-            if ( LOG.isDebugEnabled() )
-            {
-                String evt = "MODDN"; // take this as default cause the event type for MODDN is null
-
-                ChangeType changeType = evtMsg.getChangeType();
-
-                if ( changeType != null )
-                {
-                    evt = changeType.name();
-                }
-
-                LOG.debug( "event {} for dn {} is not qualified for sending", evt, evtMsg.getEntry().getDn() );
-            }
-
-            return false;
-        }
-
-        return true;
-    }
-
-
     /**
      * {@inheritDoc}
      */
@@ -205,32 +167,37 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
      */
     public boolean next() throws LdapException, CursorException
     {
-        while ( tupleCursor.next() )
+        try
         {
-            Tuple<String, ReplicaEventMessage> tuple = tupleCursor.get();
+            while ( true )
+            {
+                if ( ( buffer == null ) || !buffer.hasRemaining() )
+                {
+                    if ( rangeIndex >= ranges.size() )
+                    {
+                        break;
+                    }
 
-            String csn = tuple.getKey();
-            ReplicaEventMessage message = tuple.getValue();
+                    buffer = journal.map( ranges.get( rangeIndex++ ) );
+                }
 
-            if ( skipQualifying )
-            {
-                qualifiedEvtMsg = message;
-                return true;
-            }
+                ReplicaEventMessage message = journal.readRecord( buffer, consumerCsn );
 
-            boolean qualified = isQualified( csn, message );
+                if ( message != null )
+                {
+                    LOG.debug( "ReplicaEventMessage: {}", message );
+                    qualifiedEvtMsg = message;
 
-            if ( qualified )
-            {
-                qualifiedEvtMsg = message;
-                return true;
-            }
-            else
-            {
-                journal.remove( partitionTxn, csn );
+                    return true;
+                }
             }
         }
+        catch ( IOException e )
+        {
+            throw new CursorException( e.getMessage(), e );
+        }
 
+        buffer = null;
         qualifiedEvtMsg = null;
 
         return false;
@@ -257,7 +224,7 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
+        buffer = null;
         super.close();
     }
 
@@ -273,40 +240,11 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
+        buffer = null;
         super.close( cause );
     }
 
 
-    /**
-     * sets the flag to skip CSN based checking while traversing
-     * used for internal log cleanup ONLY 
-     */
-    protected void skipQualifyingWhileFetching()
-    {
-        skipQualifying = true;
-    }
-
-
-    /**
-     * delete the current message
-     * used for internal log cleanup ONLY
-     */
-    protected void delete()
-    {
-        try
-        {
-            if ( qualifiedEvtMsg != null )
-            {
-                journal.remove( partitionTxn, qualifiedEvtMsg.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString() );
-            }
-        }
-        catch ( Exception e )
-        {
-        }
-    }
-
-
     /**
      * {@inheritDoc}
      */
@@ -83,6 +83,8 @@ import org.apache.directory.api.ldap.model.message.controls.SortRequest;
 import org.apache.directory.api.ldap.model.message.controls.SortRequestImpl;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.LdapComparator;
+import org.apache.directory.api.ldap.model.schema.comparators.ParsedDnComparator;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.constants.ServerDNConstants;
@@ -117,6 +119,9 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     /** A logger for the replication provider */
     private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
 
+    /** The default number of entries sent during an initial refresh between two checkpoints */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
     /** Tells if the replication handler is already started */
     private boolean initialized = false;
 
@@ -132,6 +137,9 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     /** The CSN AttributeType instance */
     private AttributeType csnAT;
 
+    /** The comparator used to sort the initial content by entryDn */
+    private LdapComparator<Object> entryDnComparator;
+
     private Map<Integer, ReplicaEventLog> replicaLogMap = new ConcurrentHashMap<>();
 
     private File syncReplData;
@@ -151,6 +159,9 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     /** thread used for updating consumer infor */
     private Thread consumerInfoUpdateThread;
 
+    /** The number of entries sent during an initial refresh between two checkpoints */
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
     /**
      * Create a SyncReplRequestHandler empty instance
      */
@@ -159,6 +170,18 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     }
 
 
+    /**
+     * Sets the number of entries sent during an initial refresh between two checkpoints,
+     * from which a disconnected consumer can resume the refresh.
+     *
+     * @param checkpointInterval The number of entries between two checkpoints
+     */
+    public void setCheckpointInterval( int checkpointInterval )
+    {
+        this.checkpointInterval = ( checkpointInterval > 0 ) ? checkpointInterval : DEFAULT_CHECKPOINT_INTERVAL;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -185,6 +208,9 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             objectClassAT = dirService.getSchemaManager()
                 .lookupAttributeTypeRegistry( SchemaConstants.OBJECT_CLASS_AT );
 
+            entryDnComparator = new ParsedDnComparator( SchemaConstants.ENTRY_DN_AT_OID );
+            entryDnComparator.setSchemaManager( dirService.getSchemaManager() );
+
             replLogMaxIdleAT = dirService.getSchemaManager()
                 .lookupAttributeTypeRegistry( SchemaConstants.ADS_REPL_LOG_MAX_IDLE );
 
@@ -339,7 +365,17 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                     else
                     {
                         String consumerCsn = LdapProtocolUtils.getCsn( cookieString );
-                        doContentUpdate( session, request, clientMsgLog, consumerCsn );
+                        String checkpoint = LdapProtocolUtils.getCheckpoint( cookieString );
+
+                        if ( checkpoint != null )
+                        {
+                            // The consumer has been disconnected during the initial refresh
+                            doResumedRefresh( session, request, clientMsgLog, consumerCsn, checkpoint );
+                        }
+                        else
+                        {
+                            doContentUpdate( session, request, clientMsgLog, consumerCsn );
+                        }
                     }
                 }
             }
@@ -445,6 +481,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
             String lastSentCsn = replicaLog.getLastSentCsn();
 
+            replicaLog.sync();
             byte[] cookie = LdapProtocolUtils.createCookie( replicaLog.getId(), lastSentCsn );
 
             if ( refreshNPersist )
@@ -484,27 +521,6 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     {
         PROVIDER_LOG.debug( "Starting an initial refresh" );
 
-        SortRequest ctrl = ( SortRequest ) request.getControl( SortRequest.OID );
-
-        if ( ctrl != null )
-        {
-            PROVIDER_LOG
-                .warn( "Removing the received sort control from the syncrepl search request during initial refresh" );
-            request.removeControl( ctrl );
-        }
-
-        PROVIDER_LOG
-            .debug( "Adding sort control to sort the entries by entryDn attribute to preserve order of insertion" );
-        SortKey sk = new SortKey( SchemaConstants.ENTRY_DN_AT );
-        // matchingrule for "entryDn"
-        sk.setMatchingRuleId( SchemaConstants.DISTINGUISHED_NAME_MATCH_MR_OID );
-        sk.setReverseOrder( true );
-
-        ctrl = new SortRequestImpl();
-        ctrl.addSortKey( sk );
-
-        request.addControl( ctrl );
-
         String originalFilter = request.getFilter().toString();
         InetSocketAddress address = ( InetSocketAddress ) session.getIoSession().getRemoteAddress();
         String hostName = address.getAddress().getHostName();
@@ -531,6 +547,10 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         }
 
         replicaLog.setRefreshNPersist( refreshNPersist );
+
+        // The initial content is bounded by the context CSN : the modifications done
+        // after this CSN will be sent from the log
+        replicaLog.setLastSentCsn( contextCsn );
         Value contexCsnValue = new Value( dirService.getAtProvider().getEntryCSN(), contextCsn );
 
         // modify the filter to include the context Csn
@@ -545,7 +565,6 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         // we push this queue's content and switch to realtime mode
         SyncReplSearchListener replicationListener = new SyncReplSearchListener( session, request, replicaLog, false );
-        replicaLog.setPersistentListener( replicationListener );
 
         // compose notification criteria and add the listener to the event
         // service using that notification criteria to determine which events
@@ -557,11 +576,91 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         criteria.setScope( request.getScope() );
         criteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
 
-        replicaLog.setSearchCriteria( criteria );
+        synchronized ( replicaLog )
+        {
+            replicaLog.setPersistentListener( replicationListener );
+            replicaLog.setSearchCriteria( criteria );
+
+            dirService.getEventService().addListener( replicationListener, criteria );
+
+            // store the consumer information before sending the initial content, so that
+            // a consumer disconnected during the refresh can resume it with its last checkpoint
+            replicaUtil.addConsumerEntry( replicaLog );
+
+            // add to the map only after storing in the DIT, else the Replica update thread barfs
+            replicaLogMap.put( replicaLog.getId(), replicaLog );
+        }
+
+        // The log is not locked while the initial content is sent : the listener keeps
+        // on storing the modifications done meanwhile, without blocking them
+        sendInitialContent( session, request, replicaLog, modifiedFilter, contextCsn, null );
+    }
+
+
+    /**
+     * Resume an initial refresh which has been interrupted. The entries which were sent
+     * before the checkpoint stored in the consumer's cookie are skipped.
+     */
+    private void doResumedRefresh( LdapSession session, SearchRequest request, ReplicaEventLog replicaLog,
+        String contextCsn, String checkpoint ) throws Exception
+    {
+        PROVIDER_LOG.debug( "Resuming the initial refresh of replica {} after the entry {}", replicaLog.getId(),
+            checkpoint );
+
+        ExprNode modifiedFilter = modifyFilter( session, request );
+
+        synchronized ( replicaLog )
+        {
+            boolean refreshNPersist = isRefreshNPersist( request );
+            replicaLog.setRefreshNPersist( refreshNPersist );
+
+            // the listener is still storing the modifications in the log, it will
+            // push them to the new session once the initial content has been sent
+            SyncReplSearchListener handler = replicaLog.getPersistentListener();
+            handler.setSearchRequest( request );
+            handler.setSession( session );
+        }
+
+        sendInitialContent( session, request, replicaLog, modifiedFilter, contextCsn, checkpoint );
+    }
+
+
+    /**
+     * Send the entries which have not been modified since the given context CSN, sorted
+     * by entryDn, so that the parents are sent before their children. A cookie is attached
+     * to an entry every checkpointInterval entries : it contains the context CSN and the entry's
+     * Dn, to resume the refresh after this entry if the consumer gets disconnected.
+     * Then the modifications done since the context CSN are sent from the log.
+     * <p>
+     * The replica log is only locked while it's read : the modifications done during the
+     * scan of the initial content must not wait for it.
+     */
+    private void sendInitialContent( LdapSession session, SearchRequest request, ReplicaEventLog replicaLog,
+        ExprNode modifiedFilter, String contextCsn, String checkpoint ) throws Exception
+    {
+        SortRequest ctrl = ( SortRequest ) request.getControl( SortRequest.OID );
+
+        if ( ctrl != null )
+        {
+            PROVIDER_LOG
+                .warn( "Removing the received sort control from the syncrepl search request during initial refresh" );
+            request.removeControl( ctrl );
+        }
+
+        PROVIDER_LOG
+            .debug( "Adding sort control to sort the entries by entryDn attribute to preserve order of insertion" );
+        SortKey sk = new SortKey( SchemaConstants.ENTRY_DN_AT );
+        // matchingrule for "entryDn"
+        sk.setMatchingRuleId( SchemaConstants.DISTINGUISHED_NAME_MATCH_MR_OID );
+        sk.setReverseOrder( true );
+
+        ctrl = new SortRequestImpl();
+        ctrl.addSortKey( sk );
 
-        dirService.getEventService().addListener( replicationListener, criteria );
+        request.addControl( ctrl );
 
         // then start pushing initial content
+        Value contexCsnValue = new Value( dirService.getAtProvider().getEntryCSN(), contextCsn );
         LessEqNode csnNode = new LessEqNode( csnAT, contexCsnValue );
 
         // modify the filter to include the context Csn
@@ -569,41 +668,53 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         request.setFilter( initialContentFilter );
 
         // Now, do a search to get all the entries
-        SearchResultDone searchDoneResp = doSimpleSearch( session, request, replicaLog );
+        SearchResultDone searchDoneResp = doSimpleSearch( session, request, replicaLog, contextCsn, checkpoint );
 
-        if ( searchDoneResp.getLdapResult().getResultCode() == ResultCodeEnum.SUCCESS )
+        if ( session.getIoSession().isClosing() || request.isAbandoned() )
         {
-            if ( replicaLog.getLastSentCsn() == null )
-            {
-                replicaLog.setLastSentCsn( contextCsn );
-            }
+            // Keep the log : the consumer will resume the refresh from its last checkpoint
+            PROVIDER_LOG.info( "The initial refresh of replica {} has been interrupted", replicaLog.getId() );
+
+            return;
+        }
 
-            if ( refreshNPersist ) // refreshAndPersist mode
+        if ( searchDoneResp.getLdapResult().getResultCode() == ResultCodeEnum.SUCCESS )
+        {
+            if ( replicaLog.isRefreshNPersist() ) // refreshAndPersist mode
             {
                 PROVIDER_LOG
                     .debug( "Refresh&Persist requested : send the data being modified since the initial refresh" );
-                // Now, send the modified entries since the search has started
-                sendContentFromLog( session, request, replicaLog, contextCsn );
 
-                byte[] cookie = LdapProtocolUtils.createCookie( replicaLog.getId(), replicaLog.getLastSentCsn() );
+                // The log is locked until the listener pushes the modifications in real time,
+                // so that none is logged after the log has been read without being sent
+                synchronized ( replicaLog )
+                {
+                    // Now, send the modified entries since the search has started
+                    sendContentFromLog( session, request, replicaLog, contextCsn );
 
-                SyncInfoValue syncInfoValue = new SyncInfoValueImpl();
-                syncInfoValue.setSyncInfoValueType( SynchronizationInfoEnum.NEW_COOKIE );
-                syncInfoValue.setMessageId( request.getMessageId() );
-                syncInfoValue.setCookie( cookie );
+                    replicaLog.sync();
+                    byte[] cookie = LdapProtocolUtils.createCookie( replicaLog.getId(), replicaLog.getLastSentCsn() );
 
-                PROVIDER_LOG.info( "Sending the intermediate response to consumer {}, {}", 
-                    replicaLog, syncInfoValue );
+                    SyncInfoValue syncInfoValue = new SyncInfoValueImpl();
+                    syncInfoValue.setSyncInfoValueType( SynchronizationInfoEnum.NEW_COOKIE );
+                    syncInfoValue.setMessageId( request.getMessageId() );
+                    syncInfoValue.setCookie( cookie );
 
-                session.getIoSession().write( syncInfoValue );
+                    PROVIDER_LOG.info( "Sending the intermediate response to consumer {}, {}", 
+                        replicaLog, syncInfoValue );
+
+                    session.getIoSession().write( syncInfoValue );
+
+                    // switch the handler mode to realtime push
+                    replicaLog.getPersistentListener().setPushInRealTime( true );
+                }
 
-                // switch the handler mode to realtime push
-                replicationListener.setPushInRealTime( refreshNPersist );
                 PROVIDER_LOG.debug( "e waiting for any modification for {}", replicaLog );
             }
             else
             {
                 PROVIDER_LOG.debug( "RefreshOnly requested" );
+                replicaLog.sync();
                 byte[] cookie = LdapProtocolUtils.createCookie( replicaLog.getId(), contextCsn );
 
                 // no need to send from the log, that will be done in the next refreshOnly session
@@ -621,20 +732,11 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         {
             PROVIDER_LOG.warn( "initial content refresh didn't succeed due to {}", searchDoneResp.getLdapResult()
                 .getResultCode() );
-            replicaLog.stop();
-            replicaLog = null;
 
-            // remove the listener
-            dirService.getEventService().removeListener( replicationListener );
-
-            return;
+            // remove the listener and the log
+            logJanitor.removeEventLog( replicaLog );
+            replicaUtil.deleteConsumerEntry( replicaLog );
         }
-
-        // if all is well then store the consumer information
-        replicaUtil.addConsumerEntry( replicaLog );
-
-        // add to the map only after storing in the DIT, else the Replica update thread barfs
-        replicaLogMap.put( replicaLog.getId(), replicaLog );
     }
 
 
@@ -642,8 +744,8 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
      * Process a search on the provider to get all the modified entries. We then send all
      * of them to the consumer
      */
-    private SearchResultDone doSimpleSearch( LdapSession session, SearchRequest req, ReplicaEventLog replicaLog )
-        throws Exception
+    private SearchResultDone doSimpleSearch( LdapSession session, SearchRequest req, ReplicaEventLog replicaLog,
+        String contextCsn, String checkpoint ) throws Exception
     {
         PROVIDER_LOG.debug( "Simple Search {} for {}", req, session );
         SearchResultDone searchDoneResp = ( SearchResultDone ) req.getResultResponse();
@@ -675,7 +777,12 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 serverLimit );
             long sizeLimit = min( requestLimit, serverLimit );
 
-            readResults( session, req, ldapResult, cursor, sizeLimit, replicaLog );
+            if ( checkpoint != null )
+            {
+                skipResults( cursor, checkpoint );
+            }
+
+            readResults( session, req, ldapResult, cursor, sizeLimit, replicaLog, contextCsn );
         }
         finally
         {
@@ -698,11 +805,41 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     }
 
 
+    /**
+     * Move the cursor past the entries which are not after the checkpoint in the
+     * entryDn reverse order used to sort the initial content. The checkpoint entry
+     * itself may have been deleted or renamed since it was sent.
+     */
+    private void skipResults( Cursor<Entry> cursor, String checkpoint ) throws Exception
+    {
+        Object checkpointKey = entryDnComparator.getNormalizer().normalize( checkpoint );
+        long skipped = 0;
+
+        while ( cursor.next() )
+        {
+            Object key = entryDnComparator.getNormalizer().normalize(
+                cursor.get().get( SchemaConstants.ENTRY_DN_AT ).getString() );
+
+            // The entries are sorted in the reverse order
+            if ( entryDnComparator.compare( key, checkpointKey ) < 0 )
+            {
+                // Restore the position, so that this entry is the next one to be sent
+                cursor.previous();
+                break;
+            }
+
+            skipped++;
+        }
+
+        PROVIDER_LOG.debug( "Skipped {} entries already sent before the checkpoint {}", skipped, checkpoint );
+    }
+
+
     /**
      * Process the results get from a search request. We will send them to the client.
      */
     private void readResults( LdapSession session, SearchRequest req, LdapResult ldapResult,
-        Cursor<Entry> cursor, long sizeLimit, ReplicaEventLog replicaLog ) throws Exception
+        Cursor<Entry> cursor, long sizeLimit, ReplicaEventLog replicaLog, String contextCsn ) throws Exception
     {
         long count = 0;
 
@@ -726,12 +863,17 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
             Entry entry = cursor.get();
 
-            sendSearchResultEntry( session, req, entry, SyncStateTypeEnum.ADD );
+            count++;
 
-            String lastSentCsn = entry.get( csnAT ).getString();
-            replicaLog.setLastSentCsn( lastSentCsn );
+            byte[] cookie = null;
 
-            count++;
+            if ( count % checkpointInterval == 0 )
+            {
+                replicaLog.sync();
+                cookie = LdapProtocolUtils.createCookie( replicaLog.getId(), contextCsn, entry.getDn().getName() );
+            }
+
+            sendSearchResultEntry( session, req, entry, SyncStateTypeEnum.ADD, cookie );
         }
 
         PROVIDER_LOG.debug( "Sent {} entries for {}", count, replicaLog );
@@ -757,6 +899,17 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
      */
     private void sendSearchResultEntry( LdapSession session, SearchRequest req, Entry entry,
         SyncStateTypeEnum syncStateType ) throws Exception
+    {
+        sendSearchResultEntry( session, req, entry, syncStateType, null );
+    }
+
+
+    /**
+     * Prepare and send a search result entry response, with the associated
+     * SyncState control carrying the given cookie, if any.
+     */
+    private void sendSearchResultEntry( LdapSession session, SearchRequest req, Entry entry,
+        SyncStateTypeEnum syncStateType, byte[] cookie ) throws Exception
     {
         Attribute uuid = entry.get( SchemaConstants.ENTRY_UUID_AT );
 
@@ -764,6 +917,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         SyncStateValue syncStateControl = new SyncStateValueImpl();
         syncStateControl.setSyncStateType( syncStateType );
         syncStateControl.setEntryUUID( Strings.uuidToBytes( uuid.getString() ) );
+        syncStateControl.setCookie( cookie );
 
         if ( syncStateType == SyncStateTypeEnum.DELETE )
         {
@@ -1045,7 +1199,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             {
                 if ( !eventLogNames.contains( f.getName() ) )
                 {
-                    f.delete();
+                    ReplicaJournal.delete( f );
                     PROVIDER_LOG.info( "removed unused replication event log {}", f );
                 }
             }
@@ -467,6 +467,17 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This listener is synchronous, no event is ever dropped.
+     */
+    @Override
+    public void eventDropped()
+    {
+    }
+
+
     /**
      * @return true if the entries are sent to the consumer in real time
      */
@@ -493,6 +504,9 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     {
         String csn = entry.get( SchemaConstants.ENTRY_CSN_AT ).getString();
 
+        // The logged messages must be on disk before the consumer is told it has them
+        consumerMsgLog.sync();
+
         return LdapProtocolUtils.createCookie( consumerMsgLog.getId(), csn );
     }
 
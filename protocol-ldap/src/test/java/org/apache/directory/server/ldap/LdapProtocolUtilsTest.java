@@ -0,0 +1,77 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.util.Strings;
+import org.junit.Test;
+
+
+/**
+ * Tests the creation and the parsing of the syncrepl cookies.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LdapProtocolUtilsTest
+{
+    private static final String CSN = new CsnFactory( 0 ).newInstance().toString();
+
+
+    @Test
+    public void testCookie()
+    {
+        String cookie = Strings.utf8ToString( LdapProtocolUtils.createCookie( 12, CSN ) );
+
+        assertTrue( LdapProtocolUtils.isValidCookie( cookie ) );
+        assertEquals( 12, LdapProtocolUtils.getReplicaId( cookie ) );
+        assertEquals( CSN, LdapProtocolUtils.getCsn( cookie ) );
+        assertNull( LdapProtocolUtils.getCheckpoint( cookie ) );
+    }
+
+
+    @Test
+    public void testCookieWithCheckpoint()
+    {
+        String dn = "cn=Doe\\, John,ou=people,dc=example,dc=com";
+        String cookie = Strings.utf8ToString( LdapProtocolUtils.createCookie( 3, CSN, dn ) );
+
+        assertTrue( LdapProtocolUtils.isValidCookie( cookie ) );
+        assertEquals( 3, LdapProtocolUtils.getReplicaId( cookie ) );
+        assertEquals( CSN, LdapProtocolUtils.getCsn( cookie ) );
+        assertEquals( dn, LdapProtocolUtils.getCheckpoint( cookie ) );
+    }
+
+
+    @Test
+    public void testInvalidCookies()
+    {
+        assertFalse( LdapProtocolUtils.isValidCookie( null ) );
+        assertFalse( LdapProtocolUtils.isValidCookie( "rid=001" ) );
+        assertFalse( LdapProtocolUtils.isValidCookie( "rid=001,csn=xyz" ) );
+        assertFalse( LdapProtocolUtils.isValidCookie( "rid=001,csn=" + CSN + ",abc" ) );
+        assertFalse( LdapProtocolUtils.isValidCookie( "rid=001,csn=" + CSN + ",chk=#$" ) );
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
+import org.apache.directory.server.ldap.replication.provider.ReplicaJournal;
+import org.apache.directory.server.ldap.replication.provider.ReplicaJournalCursor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the segmented journal storing the ReplicaEventMessages.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaJournalTest
+{
+    private static final String TEST_OUTPUT_PATH = "test.output.path";
+
+    /** A small segment size, to get many segments */
+    private static final long SEGMENT_SIZE = 16L * 1024L;
+
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The CsnFactory */
+    private static CsnFactory csnFactory;
+
+    /** The journal directory */
+    private File journalDir;
+
+    /** The Journal */
+    private ReplicaJournal journal;
+
+    /** The CSNs of the stored messages */
+    private List<String> csns;
+
+
+    /**
+     * Load the SchemaManager
+     * @throws Exception
+     */
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = ReplicaJournalTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        csnFactory = new CsnFactory( 0 );
+    }
+
+
+    /**
+     * Create the journal
+     */
+    @Before
+    public void createJournal() throws Exception
+    {
+        File tmpDir = null;
+
+        if ( System.getProperty( TEST_OUTPUT_PATH, null ) != null )
+        {
+            tmpDir = new File( System.getProperty( TEST_OUTPUT_PATH ) );
+        }
+
+        journalDir = File.createTempFile( getClass().getSimpleName(), "journal", tmpDir );
+        journalDir.delete();
+        journal = openJournal();
+        csns = new ArrayList<>();
+    }
+
+
+    /**
+     * Delete the files on disk
+     */
+    @After
+    public void destroyJournal() throws Exception
+    {
+        if ( journal != null )
+        {
+            journal.close();
+        }
+
+        journal = null;
+
+        if ( journalDir != null )
+        {
+            ReplicaJournal.delete( journalDir );
+        }
+
+        journalDir = null;
+    }
+
+
+    private ReplicaJournal openJournal() throws Exception
+    {
+        return new ReplicaJournal( journalDir, new ReplicaEventMessageSerializer( schemaManager ), SEGMENT_SIZE );
+    }
+
+
+    private void append( int nbMessages ) throws Exception
+    {
+        for ( int i = csns.size(), end = csns.size() + nbMessages; i < end; i++ )
+        {
+            String entryCsn = csnFactory.newInstance().toString();
+
+            Entry entry = new DefaultEntry( schemaManager, "ou=test" + i + ",ou=system",
+                "ObjectClass: top",
+                "ObjectClass: organizationalUnit",
+                "ou", "test" + i,
+                "entryCsn", entryCsn
+                );
+
+            journal.append( entryCsn, new ReplicaEventMessage( ChangeType.ADD, entry ) );
+            csns.add( entryCsn );
+        }
+    }
+
+
+    /**
+     * Reads the journal from the given CSN, and check that we get the messages in order
+     */
+    private void checkRead( String fromCsn, int firstPos ) throws Exception
+    {
+        ReplicaJournalCursor cursor = new ReplicaJournalCursor( journal, fromCsn );
+        int pos = firstPos;
+
+        while ( cursor.next() )
+        {
+            ReplicaEventMessage replicaEventMessage = cursor.get();
+
+            assertEquals( ChangeType.ADD, replicaEventMessage.getChangeType() );
+            assertEquals( "test" + pos, replicaEventMessage.getEntry().get( "ou" ).getString() );
+
+            pos++;
+        }
+
+        cursor.close();
+
+        assertEquals( csns.size(), pos );
+    }
+
+
+    /**
+     * test that we can write 1000 ReplicaEventMessages, and read them back in the right order
+     * starting in the middle.
+     */
+    @Test
+    public void testJournalWriting() throws Exception
+    {
+        append( 1000 );
+
+        assertEquals( 1000L, journal.count() );
+        assertTrue( journalDir.list().length > 1 );
+
+        checkRead( null, 0 );
+        checkRead( csns.get( 99 ), 100 );
+        checkRead( csns.get( 777 ), 778 );
+        checkRead( csns.get( 999 ), 1000 );
+    }
+
+
+    /**
+     * test that a reopened journal contains the same messages, and that a torn record at
+     * the end of the journal is dropped
+     */
+    @Test
+    public void testJournalRecovery() throws Exception
+    {
+        append( 500 );
+        journal.close();
+
+        File[] segments = journalDir.listFiles();
+        Arrays.sort( segments );
+
+        try ( FileOutputStream out = new FileOutputStream( segments[segments.length - 1], true ) )
+        {
+            // A partial record
+            out.write( new byte[]
+                { 0, 0, 1, 0, 1, 2, 3 } );
+        }
+
+        journal = openJournal();
+
+        assertEquals( 500L, journal.count() );
+        checkRead( csns.get( 249 ), 250 );
+
+        // We can append after the recovery
+        append( 10 );
+        assertEquals( 510L, journal.count() );
+        checkRead( csns.get( 499 ), 500 );
+    }
+
+
+    /**
+     * test that the old segments are deleted, and that the last one is kept
+     */
+    @Test
+    public void testJournalPurge() throws Exception
+    {
+        append( 1000 );
+        int nbSegments = journalDir.list().length;
+
+        // Nothing is old enough
+        assertEquals( 0L, journal.purge( csns.get( 999 ), 0L ) );
+
+        // Everything up to the 500th message has been sent
+        long deleted = journal.purge( csns.get( 500 ), Long.MAX_VALUE );
+
+        assertTrue( deleted > 0L );
+        assertTrue( deleted <= 500L );
+        assertEquals( 1000L - deleted, journal.count() );
+        assertTrue( journalDir.list().length < nbSegments );
+        checkRead( csns.get( 500 ), 501 );
+
+        // Everything has been sent, the last segment is kept
+        journal.purge( csns.get( 999 ) + "z", Long.MAX_VALUE );
+        assertEquals( 1, journalDir.list().length );
+        checkRead( csns.get( 999 ), 1000 );
+    }
+}
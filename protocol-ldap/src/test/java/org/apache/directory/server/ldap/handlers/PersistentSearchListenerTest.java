@@ -0,0 +1,173 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.mina.core.session.IoSession;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests that a persistent search which has missed a change is ended.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PersistentSearchListenerTest
+{
+    /** The messages written to the client */
+    private List<Object> written = new ArrayList<>();
+
+    /** The listeners removed from the event service */
+    private List<Object> removed = new ArrayList<>();
+
+    private LdapSession session;
+
+    private SearchRequest req;
+
+    private PersistentSearchListener listener;
+
+
+    @Before
+    public void init()
+    {
+        IoSession ioSession = ( IoSession ) Proxy.newProxyInstance( IoSession.class.getClassLoader(),
+            new Class<?>[]
+                { IoSession.class }, ( proxy, method, args ) ->
+                {
+                    if ( "write".equals( method.getName() ) )
+                    {
+                        written.add( args[0] );
+
+                        return null;
+                    }
+
+                    throw new UnsupportedOperationException( method.getName() );
+                } );
+
+        EventService eventService = ( EventService ) Proxy.newProxyInstance( EventService.class.getClassLoader(),
+            new Class<?>[]
+                { EventService.class }, ( proxy, method, args ) ->
+                {
+                    if ( "removeListener".equals( method.getName() ) )
+                    {
+                        removed.add( args[0] );
+
+                        return null;
+                    }
+
+                    throw new UnsupportedOperationException( method.getName() );
+                } );
+
+        DirectoryService directoryService = ( DirectoryService ) Proxy.newProxyInstance(
+            DirectoryService.class.getClassLoader(),
+            new Class<?>[]
+                { DirectoryService.class }, ( proxy, method, args ) ->
+                {
+                    switch ( method.getName() )
+                    {
+                        case "getEventService":
+                            return eventService;
+
+                        case "getInterceptors":
+                        case "getSchemaManager":
+                            return null;
+
+                        default:
+                            throw new UnsupportedOperationException( method.getName() );
+                    }
+                } );
+
+        CoreSession coreSession = ( CoreSession ) Proxy.newProxyInstance( CoreSession.class.getClassLoader(),
+            new Class<?>[]
+                { CoreSession.class }, ( proxy, method, args ) ->
+                {
+                    if ( "getDirectoryService".equals( method.getName() ) )
+                    {
+                        return directoryService;
+                    }
+
+                    throw new UnsupportedOperationException( method.getName() );
+                } );
+
+        session = new LdapSession( ioSession );
+        session.setCoreSession( coreSession );
+
+        req = new SearchRequestImpl();
+        req.setMessageId( 12 );
+        session.registerOutstandingRequest( req );
+
+        listener = new PersistentSearchListener( session, req );
+    }
+
+
+    @Test
+    public void testDroppedEventEndsTheSearch()
+    {
+        listener.eventDropped();
+
+        // The search is ended with an error, and the listener is not notified anymore
+        assertEquals( 1, written.size() );
+        assertTrue( written.get( 0 ) instanceof SearchResultDone );
+
+        SearchResultDone done = ( SearchResultDone ) written.get( 0 );
+        assertEquals( 12, done.getMessageId() );
+        assertEquals( ResultCodeEnum.UNWILLING_TO_PERFORM, done.getLdapResult().getResultCode() );
+        assertNotNull( done.getLdapResult().getDiagnosticMessage() );
+
+        assertEquals( 1, removed.size() );
+        assertSame( listener, removed.get( 0 ) );
+        assertFalse( session.getOutstandingRequests().containsKey( 12 ) );
+
+        // The search is ended only once
+        listener.eventDropped();
+        assertEquals( 1, written.size() );
+    }
+
+
+    @Test
+    public void testDroppedEventAfterAbandon()
+    {
+        listener.abandon();
+        listener.eventDropped();
+
+        // An abandoned search never gets a response
+        assertTrue( written.isEmpty() );
+        assertEquals( 1, removed.size() );
+    }
+}
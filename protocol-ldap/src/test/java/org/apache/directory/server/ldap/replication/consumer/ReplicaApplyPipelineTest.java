@@ -0,0 +1,306 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the concurrent application of the entries received by a consumer. The entries
+ * are applied on a map of Dns to entryUUIDs.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaApplyPipelineTest
+{
+    private ReplicaApplyPipeline pipeline;
+
+    /** The applied entries */
+    private Map<Dn, String> dit;
+
+    /** The order in which the entries have been applied */
+    private List<String> appliedOrder;
+
+
+    @Before
+    public void init()
+    {
+        pipeline = new ReplicaApplyPipeline( 4, 1 );
+        dit = new ConcurrentHashMap<>();
+        appliedOrder = Collections.synchronizedList( new ArrayList<String>() );
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        pipeline.shutdown();
+    }
+
+
+    private static byte[] cookie( int csn )
+    {
+        return Strings.getBytesUtf8( "rid=001,csn=" + csn );
+    }
+
+
+    /**
+     * Submits the addition of an entry, which waits for the given latch before being applied
+     */
+    private void add( String uuid, String dn, byte[] cookie, CountDownLatch latch ) throws Exception
+    {
+        Dn entryDn = new Dn( dn );
+
+        pipeline.submit( uuid, entryDn, cookie, () ->
+        {
+            if ( latch != null )
+            {
+                assertTrue( latch.await( 10, TimeUnit.SECONDS ) );
+            }
+
+            dit.put( entryDn, uuid );
+            appliedOrder.add( uuid );
+        } );
+    }
+
+
+    @Test
+    public void testOutOfOrderCompletion() throws Exception
+    {
+        CountDownLatch slowEntry = new CountDownLatch( 1 );
+
+        add( "1", "cn=first,ou=system", cookie( 1 ), slowEntry );
+        add( "2", "cn=second,ou=system", cookie( 2 ), null );
+        add( "3", "cn=third,ou=system", cookie( 3 ), null );
+
+        // Wait for the two last entries, applied before the first one
+        long deadline = System.currentTimeMillis() + 10000L;
+
+        while ( ( appliedOrder.size() < 2 ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        assertEquals( 2, appliedOrder.size() );
+        assertFalse( appliedOrder.contains( "1" ) );
+
+        // The cookies can't be stored while the first entry is not applied
+        assertNull( pipeline.takeAppliedCookie() );
+
+        slowEntry.countDown();
+        pipeline.drain();
+
+        assertEquals( "1", appliedOrder.get( 2 ) );
+        assertArrayEquals( cookie( 3 ), pipeline.takeAppliedCookie() );
+
+        // A cookie is taken only once
+        assertNull( pipeline.takeAppliedCookie() );
+    }
+
+
+    @Test
+    public void testParentAddedBeforeChild() throws Exception
+    {
+        CountDownLatch slowParent = new CountDownLatch( 1 );
+        AtomicReference<String> parentSeen = new AtomicReference<>();
+        Dn parentDn = new Dn( "ou=parent,ou=system" );
+
+        add( "parent", "ou=parent,ou=system", cookie( 1 ), slowParent );
+
+        // The child submission waits for the parent, so it's done in another thread
+        Thread submitter = new Thread( () ->
+        {
+            try
+            {
+                pipeline.submit( "child", new Dn( "cn=child,ou=parent,ou=system" ), cookie( 2 ), () ->
+                {
+                    parentSeen.set( dit.get( parentDn ) );
+                    appliedOrder.add( "child" );
+                } );
+            }
+            catch ( Exception e )
+            {
+                parentSeen.set( e.getMessage() );
+            }
+        } );
+
+        submitter.start();
+        Thread.sleep( 100L );
+
+        // The child has not been started while its parent is being applied
+        assertTrue( appliedOrder.isEmpty() );
+        assertTrue( submitter.isAlive() );
+
+        slowParent.countDown();
+        submitter.join( 10000L );
+        pipeline.drain();
+
+        assertEquals( "parent", parentSeen.get() );
+        assertEquals( "parent", appliedOrder.get( 0 ) );
+        assertEquals( "child", appliedOrder.get( 1 ) );
+        assertArrayEquals( cookie( 2 ), pipeline.takeAppliedCookie() );
+    }
+
+
+    @Test
+    public void testRenameThenModifyNewDn() throws Exception
+    {
+        Dn oldDn = new Dn( "cn=old,ou=system" );
+        Dn newDn = new Dn( "cn=new,ou=system" );
+
+        add( "1", "cn=old,ou=system", cookie( 1 ), null );
+
+        // The rename is applied by the reading thread, once the pipeline is drained
+        pipeline.drain();
+        assertArrayEquals( cookie( 1 ), pipeline.takeAppliedCookie() );
+        dit.put( newDn, dit.remove( oldDn ) );
+
+        AtomicReference<String> modified = new AtomicReference<>();
+
+        pipeline.submit( "1", newDn, cookie( 3 ), () -> modified.set( dit.get( newDn ) ) );
+        pipeline.drain();
+
+        assertEquals( "1", modified.get() );
+        assertFalse( dit.containsKey( oldDn ) );
+        assertArrayEquals( cookie( 3 ), pipeline.takeAppliedCookie() );
+    }
+
+
+    @Test
+    public void testSameEntryAppliedInOrder() throws Exception
+    {
+        CountDownLatch slowAdd = new CountDownLatch( 1 );
+        Dn dn = new Dn( "cn=entry,ou=system" );
+        List<String> states = Collections.synchronizedList( new ArrayList<String>() );
+
+        pipeline.submit( "1", dn, cookie( 1 ), () ->
+        {
+            assertTrue( slowAdd.await( 10, TimeUnit.SECONDS ) );
+            states.add( "added" );
+        } );
+
+        Thread modifier = new Thread( () ->
+        {
+            try
+            {
+                pipeline.submit( "1", dn, cookie( 2 ), () -> states.add( "modified" ) );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+        } );
+
+        modifier.start();
+        Thread.sleep( 100L );
+        slowAdd.countDown();
+        modifier.join( 10000L );
+        pipeline.drain();
+
+        assertEquals( 2, states.size() );
+        assertEquals( "added", states.get( 0 ) );
+        assertEquals( "modified", states.get( 1 ) );
+    }
+
+
+    @Test
+    public void testDisconnectDuringDrain() throws Exception
+    {
+        CountDownLatch slowEntry = new CountDownLatch( 1 );
+        AtomicReference<Boolean> interrupted = new AtomicReference<>( Boolean.FALSE );
+
+        add( "1", "cn=first,ou=system", cookie( 1 ), slowEntry );
+
+        Thread reader = new Thread( () ->
+        {
+            try
+            {
+                pipeline.drain();
+            }
+            catch ( InterruptedException ie )
+            {
+                interrupted.set( Boolean.TRUE );
+            }
+        } );
+
+        reader.start();
+        Thread.sleep( 100L );
+
+        // The connection is closed while the reading thread waits for the pipeline
+        reader.interrupt();
+        reader.join( 10000L );
+        assertTrue( interrupted.get() );
+        assertTrue( appliedOrder.isEmpty() );
+
+        // The pipeline is shut down, the submitted entry is still applied
+        slowEntry.countDown();
+        pipeline.shutdown();
+
+        assertEquals( 1, appliedOrder.size() );
+        assertArrayEquals( cookie( 1 ), pipeline.takeAppliedCookie() );
+    }
+
+
+    @Test
+    public void testFailureStopsTheCookie() throws Exception
+    {
+        add( "1", "cn=first,ou=system", cookie( 1 ), null );
+        pipeline.drain();
+
+        pipeline.submit( "2", new Dn( "cn=second,ou=system" ), cookie( 2 ), () ->
+        {
+            throw new LdapOtherException( "Cannot apply the entry" );
+        } );
+
+        add( "3", "cn=third,ou=system", cookie( 3 ), null );
+        pipeline.drain();
+
+        // The last cookie stored is the one before the failed entry
+        assertTrue( pipeline.hasFailed() );
+        assertArrayEquals( cookie( 1 ), pipeline.takeAppliedCookie() );
+        assertTrue( dit.containsKey( new Dn( "cn=third,ou=system" ) ) );
+
+        add( "4", "cn=fourth,ou=system", cookie( 4 ), null );
+        pipeline.drain();
+
+        assertNull( pipeline.takeAppliedCookie() );
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.replication;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.extras.controls.SynchronizationModeEnum;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValueImpl;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateValue;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.Network;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.ldap.client.api.future.SearchFuture;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.factory.DSAnnotationProcessor;
+import org.apache.directory.server.factory.ServerAnnotationProcessor;
+import org.apache.directory.server.ldap.LdapProtocolUtils;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.replication.provider.SyncReplRequestHandler;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests that an initial refresh interrupted after a checkpoint is resumed from this
+ * checkpoint : the consumer gets all the entries, and none of them twice.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ResumedInitialRefreshIT
+{
+    private static LdapServer providerServer;
+
+    private static SchemaManager schemaManager;
+
+    private static CoreSession providerSession;
+
+    private static final int INSERT_COUNT = 55;
+
+    private static final int CHECKPOINT_INTERVAL = 10;
+
+
+    @BeforeClass
+    public static void setUp() throws Exception
+    {
+        startProvider();
+
+        for ( int i = 0; i < INSERT_COUNT; i++ )
+        {
+            String user = "user" + i;
+
+            providerSession.add( new DefaultEntry( schemaManager, "cn=" + user + ",dc=example,dc=com",
+                "objectClass", "person",
+                "cn", user,
+                "sn", user ) );
+        }
+    }
+
+
+    @AfterClass
+    public static void tearDown() throws Exception
+    {
+        providerServer.stop();
+        providerServer.getDirectoryService().shutdown();
+
+        FileUtils.deleteDirectory( providerServer.getDirectoryService().getInstanceLayout().getInstanceDirectory() );
+    }
+
+
+    @CreateDS(allowAnonAccess = true, name = "ResumedInitialRefreshIT-provider-replication", partitions =
+        {
+            @CreatePartition(
+                name = "example",
+                suffix = "dc=example,dc=com",
+                indexes =
+                    {
+                        @CreateIndex(attribute = "objectClass"),
+                        @CreateIndex(attribute = "dc"),
+                        @CreateIndex(attribute = "ou")
+                },
+                contextEntry = @ContextEntry(entryLdif =
+                    "dn: dc=example,dc=com\n" +
+                        "objectClass: domain\n" +
+                        "dc: example"))
+    })
+    @CreateLdapServer(transports =
+        { @CreateTransport(port = -1, protocol = "LDAP") })
+    public static void startProvider() throws Exception
+    {
+        DirectoryService provDirService = DSAnnotationProcessor.getDirectoryService();
+
+        providerServer = ServerAnnotationProcessor.getLdapServer( provDirService );
+
+        SyncReplRequestHandler handler = new SyncReplRequestHandler();
+        handler.setCheckpointInterval( CHECKPOINT_INTERVAL );
+        providerServer.setReplicationReqHandler( handler );
+        providerServer.startReplicationProducer();
+
+        schemaManager = provDirService.getSchemaManager();
+        providerSession = provDirService.getAdminSession();
+    }
+
+
+    /**
+     * @return The entryUUIDs of all the replicated entries
+     */
+    private Set<String> getProviderUuids() throws Exception
+    {
+        SearchRequest searchRequest = new SearchRequestImpl();
+        searchRequest.setBase( new Dn( schemaManager, "dc=example,dc=com" ) );
+        searchRequest.setFilter( "(objectClass=*)" );
+        searchRequest.setScope( SearchScope.SUBTREE );
+        searchRequest.addAttributes( "entryUUID" );
+
+        Set<String> uuids = new HashSet<>();
+
+        try ( Cursor<Entry> cursor = providerSession.search( searchRequest ) )
+        {
+            while ( cursor.next() )
+            {
+                uuids.add( cursor.get().get( "entryUUID" ).getString() );
+            }
+        }
+
+        return uuids;
+    }
+
+
+    private LdapNetworkConnection connect() throws Exception
+    {
+        LdapNetworkConnection connection = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME,
+            providerServer.getPort() );
+        connection.setTimeOut( 10000L );
+        connection.bind( "uid=admin,ou=system", "secret" );
+
+        return connection;
+    }
+
+
+    /**
+     * Starts a refreshOnly search, from the given cookie
+     */
+    private SearchFuture startRefresh( LdapNetworkConnection connection, byte[] cookie ) throws Exception
+    {
+        SearchRequest searchRequest = new SearchRequestImpl();
+        searchRequest.setBase( new Dn( "dc=example,dc=com" ) );
+        searchRequest.setFilter( "(objectClass=*)" );
+        searchRequest.setScope( SearchScope.SUBTREE );
+        searchRequest.addAttributes( "*", "+" );
+
+        SyncRequestValue syncReq = new SyncRequestValueImpl();
+        syncReq.setMode( SynchronizationModeEnum.REFRESH_ONLY );
+        syncReq.setReloadHint( false );
+
+        if ( cookie != null )
+        {
+            syncReq.setCookie( cookie );
+        }
+
+        searchRequest.addControl( syncReq );
+
+        return connection.searchAsync( searchRequest );
+    }
+
+
+    @Test
+    public void testResumeAfterCheckpoint() throws Exception
+    {
+        Set<String> expected = getProviderUuids();
+        assertEquals( INSERT_COUNT + 1, expected.size() );
+
+        // First session : read the entries until the first checkpoint, and disconnect
+        List<String> received = new ArrayList<>();
+        byte[] checkpointCookie = null;
+
+        LdapNetworkConnection connection = connect();
+        SearchFuture searchFuture = startRefresh( connection, null );
+
+        while ( checkpointCookie == null )
+        {
+            Response response = searchFuture.get();
+            assertTrue( response instanceof SearchResultEntry );
+
+            SyncStateValue syncState = ( SyncStateValue ) response.getControl( SyncStateValue.OID );
+            received.add( Strings.uuidToString( syncState.getEntryUUID() ) );
+
+            byte[] cookie = syncState.getCookie();
+
+            if ( cookie != null )
+            {
+                assertNotNull( LdapProtocolUtils.getCheckpoint( Strings.utf8ToString( cookie ) ) );
+                checkpointCookie = cookie;
+            }
+        }
+
+        connection.close();
+
+        assertEquals( CHECKPOINT_INTERVAL, received.size() );
+
+        // Second session : resume from the checkpoint, until the end of the refresh
+        connection = connect();
+        searchFuture = startRefresh( connection, checkpointCookie );
+        Response response = searchFuture.get();
+
+        while ( !( response instanceof SearchResultDone ) )
+        {
+            assertTrue( response instanceof SearchResultEntry );
+
+            SyncStateValue syncState = ( SyncStateValue ) response.getControl( SyncStateValue.OID );
+            String uuid = Strings.uuidToString( syncState.getEntryUUID() );
+
+            // No entry is sent twice
+            assertFalse( uuid, received.contains( uuid ) );
+            received.add( uuid );
+
+            response = searchFuture.get();
+        }
+
+        connection.close();
+
+        // No entry is missing
+        assertEquals( expected.size(), received.size() );
+        assertEquals( expected, new HashSet<>( received ) );
+    }
+}
@@ -319,15 +319,15 @@ public class StaleEventLogDetectionIT
         syncreplHandler.getLogJanitor().interrupt();
 
         File replDir = providerServer.getDirectoryService().getInstanceLayout().getReplDirectory();
-        File logFile = new File( replDir, log.getName() + ".db" );
+        File logFile = new File( replDir, log.getName() );
 
-        // there should be only one log file
+        // there should be only one log directory
         assertTrue( logFile.exists() );
 
         // let it sleep for 10 seconds + 5 seconds (above)
         Thread.sleep( 10 * 1000 );
 
-        // there should be only one log file
+        // the log directory should have been removed
         assertFalse( logFile.exists() );
 
         //System.out.println( "\n<-- Done" );
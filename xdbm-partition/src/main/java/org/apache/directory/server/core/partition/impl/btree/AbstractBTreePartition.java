@@ -40,6 +40,7 @@ import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.Value;
@@ -60,12 +61,14 @@ import org.apache.directory.api.ldap.model.name.Ava;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.AttributeTypeOptions;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.Normalizer;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -93,7 +96,9 @@ import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.MasterTable;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.PartitionStatistics;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.SubstringIndex;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
@@ -195,6 +200,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** Cached value for TOP */
     private Value topOCValue;
 
+    /** The normalized objectClasses of the entries which can't be built from the indexes */
+    private String[] notCoveredOcs;
+
     private static final boolean NO_REVERSE = Boolean.FALSE;
     private static final boolean WITH_REVERSE = Boolean.TRUE;
     
@@ -212,6 +220,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     
     /** a semaphore to serialize the writes on context entry while updating contextCSN attribute */
     private Semaphore ctxCsnSemaphore = new Semaphore( 1 );
+
+    /** The index statistics used by the optimizer */
+    private PartitionStatistics statistics;
     
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -251,6 +262,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     private void initInstance()
     {
         indexedAttributes = new HashSet<>();
+        statistics = new PartitionStatistics( this );
 
         // Initialize Attribute types used all over this method
         objectClassAT = schemaManager.getAttributeType( SchemaConstants.OBJECT_CLASS_AT );
@@ -273,6 +285,20 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             // There is nothing we can do...
         }
+
+        try
+        {
+            notCoveredOcs = new String[]
+                {
+                    objectClassNormalizer.normalize( SchemaConstants.REFERRAL_OC ),
+                    objectClassNormalizer.normalize( SchemaConstants.SUBENTRY_OC )
+                };
+        }
+        catch ( LdapException e )
+        {
+            // The entries will always be fetched from the master table
+            notCoveredOcs = null;
+        }
         
         // Relax the entryDnAT so that we don't check the EntryDN twice
         entryDnAT.setRelaxed( true );
@@ -474,7 +500,17 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             if ( mr != null )
             {
                 Index<?, String> index = elem.getValue();
+                boolean substringIndexed = index.isSubstringIndexed();
                 index = convertAndInit( index );
+
+                // The substring filters on attributes which are not human readable can't be
+                // matched against the keys
+                if ( substringIndexed && ( attributeType.getSubstring() != null )
+                    && attributeType.getSyntax().isHumanReadable() )
+                {
+                    index.setSubstringIndex( new SubstringIndex( attributeType ) );
+                }
+
                 tmp.put( oid, index );
             }
             else
@@ -629,6 +665,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         setupSystemIndices();
         setupUserIndices();
 
+        // Load the index statistics computed before the partition was stopped
+        statistics.load( schemaManager );
+
+        // Compute the substring indexes, which are not stored
+        buildSubstringIndices();
+
         aliasCache = Caffeine.newBuilder().maximumSize( cacheSize ).expireAfterAccess( Duration.ofMinutes( 20 ) )
             .build();
 
@@ -895,6 +937,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     {
                         String normalized = value.getNormalized();
                         userIndex.add( partitionTxn, normalized, id );
+                        addSubstringKey( partitionTxn, userIndex, normalized );
                     }
 
                     // Adds only those attributes that are indexed
@@ -934,6 +977,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 unlockWrite();
             }
+
+            statistics.modified();
         }
         catch ( LdapException le )
         {
@@ -1137,6 +1182,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     {
                         String normalized =  value.getNormalized();
                         ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
+                        dropSubstringKey( partitionTxn, userIndex, normalized );
                     }
 
                     presenceIdx.drop( partitionTxn, attributeOid, id );
@@ -1167,6 +1213,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 unlockWrite();
             }
 
+            statistics.modified();
+
             if ( isSyncOnWrite.get() )
             {
                 sync();
@@ -1218,7 +1266,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
             PartitionSearchResult searchResult = searchEngine.computeResult( partitionTxn, schemaManager, searchContext );
 
-            Cursor<Entry> result = new EntryCursorAdaptor( partitionTxn, this, searchResult );
+            Cursor<Entry> result = new EntryCursorAdaptor( partitionTxn, this, searchResult,
+                isCoveredByIndexes( searchContext ) );
 
             return new EntryFilteringCursorImpl( result, searchContext, schemaManager );
         }
@@ -1234,6 +1283,85 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Tells if the entries returned by a search can be built from the indexes, without
+     * reading the master table. This is the case when no attribute is requested, except
+     * the entryUUID which is the entry's key. The access control needs the whole entries,
+     * so they are always fetched when it is enabled.
+     *
+     * @param searchContext The search operation context
+     * @return true if the returned entries can be built from the indexes
+     */
+    protected boolean isCoveredByIndexes( SearchOperationContext searchContext )
+    {
+        if ( ( notCoveredOcs == null ) || searchContext.isAllUserAttributes()
+            || searchContext.isAllOperationalAttributes() )
+        {
+            return false;
+        }
+
+        Set<AttributeTypeOptions> returningAttributes = searchContext.getReturningAttributes();
+
+        if ( returningAttributes != null )
+        {
+            for ( AttributeTypeOptions attributeTypeOptions : returningAttributes )
+            {
+                if ( !entryUuidAT.equals( attributeTypeOptions.getAttributeType() ) )
+                {
+                    return false;
+                }
+            }
+        }
+
+        CoreSession session = searchContext.getSession();
+
+        return ( session != null ) && ( session.getDirectoryService() != null )
+            && !session.getDirectoryService().isAccessControlEnabled();
+    }
+
+
+    /**
+     * Gets back an entry built from the indexes only : it contains its Dn, read from the
+     * Rdn index, its entryDN and its entryUUID. The aliases, the referrals and the subentries
+     * are handled by the interceptors using their attributes, so they are fetched from the
+     * master table, as are the entries already present in the cache.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The Entry UUID we want to get back
+     * @return The found Entry, or null if not found
+     * @throws LdapException If the lookup failed for any reason (except a not found entry)
+     */
+    public Entry fetchFromIndexes( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        if ( ( lookupCache( id ) != null ) || ( aliasIdx.reverseLookup( partitionTxn, id ) != null ) )
+        {
+            return fetch( partitionTxn, id );
+        }
+
+        for ( String objectClass : notCoveredOcs )
+        {
+            if ( objectClassIdx.forward( partitionTxn, objectClass, id ) )
+            {
+                return fetch( partitionTxn, id );
+            }
+        }
+
+        Dn dn = buildEntryDn( partitionTxn, id );
+
+        if ( dn == null )
+        {
+            // The entry is not anymore present
+            return null;
+        }
+
+        Entry entry = new DefaultEntry( schemaManager, dn );
+        entry.add( entryUuidAT, id );
+        entry.add( entryDnAT, dn.getName() );
+
+        return new ClonedServerEntry( entry );
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // The Lookup operation
     //---------------------------------------------------------------------------------------------
@@ -1418,6 +1546,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             modifyContext.setAlteredEntry( modifiedEntry );
 
             updateCache( modifyContext );
+
+            statistics.modified();
         }
         catch ( Exception e )
         {
@@ -1532,6 +1662,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 {
                     String normalized = value.getNormalized();
                     ( ( Index ) userIndex ).add( partitionTxn, normalized, id );
+                    addSubstringKey( partitionTxn, userIndex, normalized );
                 }
             }
             else
@@ -1658,6 +1789,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 {
                     String normalized = value.getNormalized();
                     ( ( Index<Object, String> ) userIndex ).drop( partitionTxn, normalized, id );
+                    dropSubstringKey( partitionTxn, userIndex, normalized );
                 }
             }
 
@@ -1666,6 +1798,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 String normalized = value.getNormalized();
                 ( ( Index ) userIndex ).add( partitionTxn, normalized, id );
+                addSubstringKey( partitionTxn, userIndex, normalized );
             }
 
             /*
@@ -1800,6 +1933,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 {
                     String normalized = value.getNormalized();
                     ( ( Index<Object, String> ) userIndex ).drop( partitionTxn, normalized, id );
+                    dropSubstringKey( partitionTxn, userIndex, normalized );
                 }
             }
 
@@ -1808,6 +1942,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 String normalized = value.getNormalized();
                 ( ( Index ) userIndex ).add( partitionTxn, normalized, id );
+                addSubstringKey( partitionTxn, userIndex, normalized );
             }
 
             /*
@@ -1975,6 +2110,14 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 ( ( Index ) userIndex ).drop( partitionTxn, id );
                 nbValues = 0;
+
+                if ( attribute != null )
+                {
+                    for ( Value value : attribute )
+                    {
+                        dropSubstringKey( partitionTxn, userIndex, value.getNormalized() );
+                    }
+                }
             }
             else if ( nbValues > 0 )
             {
@@ -1988,6 +2131,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
                     String normalized = value.getNormalized();
                     ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
+                    dropSubstringKey( partitionTxn, userIndex, normalized );
                 }
             }
 
@@ -2410,6 +2554,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     case UPDATE_ADD :
                         // Add Value in the index
                         ( ( Index ) index ).add( partitionTxn, modDnAva.getAva().getValue().getNormalized(), entryId );
+                        addSubstringKey( partitionTxn, index, modDnAva.getAva().getValue().getNormalized() );
 
                         /*
                          * If there is no value for id in this index due to our
@@ -2425,6 +2570,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     case DELETE :
                     case UPDATE_DELETE :
                         ( ( Index ) index ).drop( partitionTxn, modDnAva.getAva().getValue().getNormalized(), entryId );
+                        dropSubstringKey( partitionTxn, index, modDnAva.getAva().getValue().getNormalized() );
 
                         /*
                          * If there is no value for id in this index due to our
@@ -2538,6 +2684,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
                     String normalized = oldAttributeType.getEquality().getNormalizer().normalize( oldAttribute.get().getString() );
                     ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
+                    dropSubstringKey( partitionTxn, userIndex, normalized );
 
                     /*
                      * If there is no value for id in this index due to our
@@ -2565,6 +2712,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 
                 String normalized = newRdnAttrType.getEquality().getNormalizer().normalize( ( String ) newNormValue );
                 ( ( Index ) userIndex ).add( partitionTxn, normalized, oldId );
+                addSubstringKey( partitionTxn, userIndex, normalized );
 
                 // Make sure the altered entry shows the existence of the new attrib
                 String normTypeOid = presenceNormalizer.normalize( newNormType );
@@ -2625,6 +2773,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                         
                         String normalized = oldRdnAttrType.getEquality().getNormalizer().normalize( oldNormValue );
                         ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
+                        dropSubstringKey( partitionTxn, userIndex, normalized );
 
                         /*
                          * If there is no value for id in this index due to our
@@ -2747,6 +2896,95 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     //---------------------------------------------------------------------------------------------
     // Helper methods
     //---------------------------------------------------------------------------------------------
+    /**
+     * Computes the substring indexes of the user indexes configured for it.
+     *
+     * @throws LdapException If the user indexes can't be read
+     */
+    protected void buildSubstringIndices() throws LdapException
+    {
+        for ( Index<?, String> index : userIndices.values() )
+        {
+            SubstringIndex substringIndex = index.getSubstringIndex();
+
+            if ( substringIndex != null )
+            {
+                try ( PartitionTxn partitionTxn = beginReadTransaction() )
+                {
+                    substringIndex.build( partitionTxn, ( Index<String, String> ) index );
+                }
+                catch ( IOException ioe )
+                {
+                    throw new LdapOtherException( ioe.getMessage(), ioe );
+                }
+
+                LOG.debug( "Built the {} for partition {}", substringIndex, id );
+            }
+        }
+    }
+
+
+    /**
+     * Adds a key to the substring index of a user index, if it has one. The key is added
+     * once the transaction is committed, so that an aborted change is not visible.
+     *
+     * @param partitionTxn The transaction to use
+     * @param userIndex The user index the key has been added to
+     * @param normalized The normalized key
+     */
+    private void addSubstringKey( PartitionTxn partitionTxn, Index<?, String> userIndex, String normalized )
+    {
+        SubstringIndex substringIndex = userIndex.getSubstringIndex();
+
+        if ( ( substringIndex != null ) && ( normalized != null ) )
+        {
+            onCommit( partitionTxn, () -> substringIndex.add( normalized ) );
+        }
+    }
+
+
+    /**
+     * Removes a key from the substring index of a user index, if it has one and if no
+     * other entry has the same key. The key is removed once the transaction is committed.
+     *
+     * @param partitionTxn The transaction to use
+     * @param userIndex The user index the key has been dropped from
+     * @param normalized The normalized key
+     * @throws LdapException If the user index can't be read
+     */
+    private void dropSubstringKey( PartitionTxn partitionTxn, Index<?, String> userIndex, String normalized )
+        throws LdapException
+    {
+        SubstringIndex substringIndex = userIndex.getSubstringIndex();
+
+        if ( ( substringIndex != null ) && ( normalized != null )
+            && !( ( Index<String, String> ) userIndex ).forward( partitionTxn, normalized ) )
+        {
+            onCommit( partitionTxn, () -> substringIndex.drop( normalized ) );
+        }
+    }
+
+
+    /**
+     * Runs an action when the given transaction is committed, or immediately if it's
+     * not a write transaction.
+     *
+     * @param partitionTxn The transaction to use
+     * @param action The action to run
+     */
+    private void onCommit( PartitionTxn partitionTxn, Runnable action )
+    {
+        if ( partitionTxn instanceof PartitionWriteTxn )
+        {
+            ( ( PartitionWriteTxn ) partitionTxn ).addCommitAction( action );
+        }
+        else
+        {
+            action.run();
+        }
+    }
+
+
     /**
      * updates the CSN index
      *
@@ -2905,6 +3143,29 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getChildCount( PartitionTxn partitionTxn, Dn dn ) throws LdapException
+    {
+        if ( Dn.isNullOrEmpty( dn ) || !dn.isDescendantOf( suffixDn ) )
+        {
+            return -1L;
+        }
+
+        // The number of children is maintained in the Rdn index
+        String id = getEntryId( partitionTxn, dn );
+
+        if ( id == null )
+        {
+            return -1L;
+        }
+
+        return getChildCount( partitionTxn, id );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -3244,6 +3505,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PartitionStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -3734,7 +4005,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         if ( operationContext.getSession() != null )
         {
-            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock();
+            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock( this );
         }
         else
         {
@@ -57,8 +57,30 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     private final Cursor<IndexEntry<String, String>> indexCursor;
     private final Evaluator<? extends ExprNode> evaluator;
 
+    /** The partition the entries are read from */
+    private final AbstractBTreePartition db;
+
+    /** Tells if the returned entries can be built from the indexes only */
+    private final boolean coveredByIndexes;
+
 
     public EntryCursorAdaptor( PartitionTxn partitionTxn, AbstractBTreePartition db, PartitionSearchResult searchResult )
+    {
+        this( partitionTxn, db, searchResult, false );
+    }
+
+
+    /**
+     * Creates a new instance of EntryCursorAdaptor.
+     *
+     * @param partitionTxn The transaction to use
+     * @param db The partition
+     * @param searchResult The search result to adapt
+     * @param coveredByIndexes If true, the evaluator uses the indexes when it can, and the
+     * entries are fetched from the master table only when it has needed them
+     */
+    public EntryCursorAdaptor( PartitionTxn partitionTxn, AbstractBTreePartition db, PartitionSearchResult searchResult,
+        boolean coveredByIndexes )
     {
         if ( IS_DEBUG )
         {
@@ -68,6 +90,8 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         indexCursor = searchResult.getResultSet();
         evaluator = searchResult.getEvaluator();
         this.partitionTxn = partitionTxn;
+        this.db = db;
+        this.coveredByIndexes = coveredByIndexes;
     }
 
 
@@ -174,11 +198,31 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
 
         try
         {
+            if ( !coveredByIndexes && ( indexEntry.getEntry() == null ) )
+            {
+                // The entry will be returned anyway, fetch it once for all the evaluators
+                Entry entry = db.fetch( partitionTxn, indexEntry.getId() );
+
+                if ( entry == null )
+                {
+                    // The entry is not anymore present
+                    return null;
+                }
+
+                indexEntry.setEntry( entry );
+            }
+
             if ( evaluator.evaluate( partitionTxn, indexEntry ) )
             {
                 Entry entry = indexEntry.getEntry();
                 indexEntry.setEntry( null );
 
+                if ( entry == null )
+                {
+                    // The evaluator has only read the indexes
+                    entry = db.fetchFromIndexes( partitionTxn, indexEntry.getId() );
+                }
+
                 return entry;
             }
             else
@@ -52,6 +52,12 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     /** A counter used to differ the commit on disk after N operations */
     protected AtomicInteger commitNumber;
 
+    /** Tells if the keys are also indexed by trigrams */
+    protected boolean substringIndexed;
+
+    /** The trigram index over the keys, if any */
+    protected volatile SubstringIndex substringIndex;
+
 
     /**
      * Creates a new instance of AbstractIndex.
@@ -141,6 +147,43 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isSubstringIndexed()
+    {
+        return substringIndexed;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSubstringIndexed( boolean substringIndexed )
+    {
+        protect( "substringIndexed" );
+        this.substringIndexed = substringIndexed;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public SubstringIndex getSubstringIndex()
+    {
+        return substringIndex;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSubstringIndex( SubstringIndex substringIndex )
+    {
+        this.substringIndex = substringIndex;
+    }
+
+
     /**
      * Protects configuration properties from being set after initialization.
      *
@@ -101,6 +101,24 @@ public interface Index<K, E>
     URI getWkDirPath();
 
 
+    /**
+     * Tells if the keys of this index are also indexed by trigrams, to speed up the
+     * substring filters having no initial component.
+     *
+     * @return true if a substring index is maintained for this index
+     */
+    boolean isSubstringIndexed();
+
+
+    /**
+     * Sets whether the keys of this index are also indexed by trigrams. The substring index
+     * is kept in memory, and computed when the partition is started.
+     *
+     * @param substringIndexed true if a substring index must be maintained for this index
+     */
+    void setSubstringIndexed( boolean substringIndexed );
+
+
     // -----------------------------------------------------------------------
     // E N D   C O N F I G U R A T I O N   M E T H O D S
     // -----------------------------------------------------------------------
@@ -113,6 +131,23 @@ public interface Index<K, E>
     AttributeType getAttribute();
 
 
+    /**
+     * Gets the trigram index over the keys of this index.
+     *
+     * @return The substring index, or null if there is none
+     */
+    SubstringIndex getSubstringIndex();
+
+
+    /**
+     * Sets the trigram index over the keys of this index. It's done by the partition
+     * when the index is initialized, if the index is substring indexed.
+     *
+     * @param substringIndex The substring index
+     */
+    void setSubstringIndex( SubstringIndex substringIndex );
+
+
     /**
      * Gets the total scan count for this index.
      *
@@ -0,0 +1,487 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * A snapshot of the distribution of the keys of an index, used by the optimizer
+ * to estimate the number of candidates of a filter without reading the index. It
+ * contains :
+ * <ul>
+ * <li>the number of tuples and of distinct keys</li>
+ * <li>an equi-depth histogram : each bucket contains about the same number of tuples,
+ * and is described by its greatest key and the number of tuples up to this key</li>
+ * <li>the most common keys with their exact number of tuples, so that the estimations
+ * are correct for skewed attributes</li>
+ * </ul>
+ * Only the indexes with String keys have statistics.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatistics
+{
+    /** The number of buckets in the histogram */
+    public static final int DEFAULT_NB_BUCKETS = 64;
+
+    /** The number of most common keys kept for a user index */
+    public static final int DEFAULT_NB_COMMON_KEYS = 32;
+
+    /** The indexed attribute OID */
+    private final String attributeOid;
+
+    /** The number of tuples in the index */
+    private long count;
+
+    /** The number of distinct keys in the index */
+    private long distinctCount;
+
+    /** The greatest key of each bucket */
+    private String[] bounds;
+
+    /** The number of tuples up to the greatest key of each bucket */
+    private long[] cumulativeCounts;
+
+    /** The most common keys and their number of tuples */
+    private Map<String, Long> commonKeys;
+
+    /** The number of tuples having one of the most common keys */
+    private long commonCount;
+
+    /** The comparator used to order the keys, as in the index */
+    private Comparator<String> comparator;
+
+
+    private IndexStatistics( String attributeOid )
+    {
+        this.attributeOid = attributeOid;
+    }
+
+
+    /**
+     * Computes the statistics of an index by browsing all its tuples.
+     *
+     * @param partitionTxn The transaction to use
+     * @param index The index
+     * @param nbBuckets The number of buckets in the histogram
+     * @param nbCommonKeys The maximum number of most common keys to keep
+     * @return The statistics, or null if the index keys are not Strings
+     * @throws LdapException If the index can't be read
+     */
+    @SuppressWarnings("unchecked")
+    public static IndexStatistics build( PartitionTxn partitionTxn, Index<?, String> index, int nbBuckets,
+        int nbCommonKeys ) throws LdapException
+    {
+        IndexStatistics statistics = new IndexStatistics( index.getAttribute().getOid() );
+        statistics.comparator = getComparator( index.getAttribute() );
+
+        long total = index.count( partitionTxn );
+        long depth = Math.max( 1L, total / nbBuckets );
+
+        List<String> bounds = new ArrayList<>();
+        List<Long> cumulativeCounts = new ArrayList<>();
+        PriorityQueue<Map.Entry<String, Long>> mostCommon = new PriorityQueue<>(
+            ( e1, e2 ) -> Long.compare( e1.getValue(), e2.getValue() ) );
+
+        Cursor<IndexEntry<Object, String>> cursor = ( ( Index<Object, String> ) index ).forwardCursor( partitionTxn );
+
+        String currentKey = null;
+        long keyCount = 0L;
+        long count = 0L;
+        long bucketStart = 0L;
+        long distinctCount = 0L;
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                Object key = cursor.get().getKey();
+
+                if ( !( key instanceof String ) )
+                {
+                    return null;
+                }
+
+                if ( !key.equals( currentKey ) )
+                {
+                    if ( currentKey != null )
+                    {
+                        // The previous key is complete
+                        addCommonKey( mostCommon, currentKey, keyCount, nbCommonKeys );
+
+                        if ( count - bucketStart >= depth )
+                        {
+                            bounds.add( currentKey );
+                            cumulativeCounts.add( count );
+                            bucketStart = count;
+                        }
+                    }
+
+                    currentKey = ( String ) key;
+                    keyCount = 0L;
+                    distinctCount++;
+                }
+
+                keyCount++;
+                count++;
+            }
+        }
+        catch ( CursorException e )
+        {
+            throw new LdapException( e.getMessage(), e );
+        }
+        finally
+        {
+            try
+            {
+                cursor.close();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapException( ioe.getMessage(), ioe );
+            }
+        }
+
+        if ( currentKey != null )
+        {
+            addCommonKey( mostCommon, currentKey, keyCount, nbCommonKeys );
+            bounds.add( currentKey );
+            cumulativeCounts.add( count );
+        }
+
+        statistics.count = count;
+        statistics.distinctCount = distinctCount;
+        statistics.bounds = bounds.toArray( new String[0] );
+        statistics.cumulativeCounts = new long[cumulativeCounts.size()];
+
+        for ( int i = 0; i < statistics.cumulativeCounts.length; i++ )
+        {
+            statistics.cumulativeCounts[i] = cumulativeCounts.get( i );
+        }
+
+        statistics.commonKeys = new HashMap<>();
+
+        for ( Map.Entry<String, Long> commonKey : mostCommon )
+        {
+            statistics.commonKeys.put( commonKey.getKey(), commonKey.getValue() );
+            statistics.commonCount += commonKey.getValue();
+        }
+
+        return statistics;
+    }
+
+
+    /**
+     * Keeps the key if it is one of the nbCommonKeys most common keys seen so far
+     */
+    private static void addCommonKey( PriorityQueue<Map.Entry<String, Long>> mostCommon, String key, long keyCount,
+        int nbCommonKeys )
+    {
+        if ( mostCommon.size() < nbCommonKeys )
+        {
+            mostCommon.add( new AbstractMap.SimpleEntry<>( key, keyCount ) );
+        }
+        else if ( ( nbCommonKeys > 0 ) && ( mostCommon.peek().getValue() < keyCount ) )
+        {
+            mostCommon.poll();
+            mostCommon.add( new AbstractMap.SimpleEntry<>( key, keyCount ) );
+        }
+    }
+
+
+    /**
+     * Gets the comparator used by the index on the given attribute
+     */
+    @SuppressWarnings("unchecked")
+    private static Comparator<String> getComparator( AttributeType attributeType )
+    {
+        MatchingRule mr = attributeType.getEquality();
+
+        if ( mr == null )
+        {
+            mr = attributeType.getOrdering();
+        }
+
+        if ( mr == null )
+        {
+            mr = attributeType.getSubstring();
+        }
+
+        if ( ( mr == null ) || ( mr.getLdapComparator() == null ) )
+        {
+            return Comparator.naturalOrder();
+        }
+
+        return ( Comparator<String> ) ( Comparator<?> ) mr.getLdapComparator();
+    }
+
+
+    /**
+     * Reads the statistics written by {@link #write(DataOutputStream)}.
+     *
+     * @param in The stream to read from
+     * @param attributeType The indexed attribute
+     * @return The statistics
+     * @throws IOException If the statistics can't be read
+     */
+    public static IndexStatistics read( DataInputStream in, AttributeType attributeType ) throws IOException
+    {
+        IndexStatistics statistics = new IndexStatistics( attributeType.getOid() );
+        statistics.comparator = getComparator( attributeType );
+        statistics.count = in.readLong();
+        statistics.distinctCount = in.readLong();
+
+        int nbBuckets = in.readInt();
+        statistics.bounds = new String[nbBuckets];
+        statistics.cumulativeCounts = new long[nbBuckets];
+
+        for ( int i = 0; i < nbBuckets; i++ )
+        {
+            statistics.bounds[i] = readString( in );
+            statistics.cumulativeCounts[i] = in.readLong();
+        }
+
+        int nbCommonKeys = in.readInt();
+        statistics.commonKeys = new HashMap<>();
+
+        for ( int i = 0; i < nbCommonKeys; i++ )
+        {
+            String key = readString( in );
+            long keyCount = in.readLong();
+            statistics.commonKeys.put( key, keyCount );
+            statistics.commonCount += keyCount;
+        }
+
+        return statistics;
+    }
+
+
+    /**
+     * Writes the statistics. The attribute OID is not written.
+     *
+     * @param out The stream to write to
+     * @throws IOException If the statistics can't be written
+     */
+    public void write( DataOutputStream out ) throws IOException
+    {
+        out.writeLong( count );
+        out.writeLong( distinctCount );
+        out.writeInt( bounds.length );
+
+        for ( int i = 0; i < bounds.length; i++ )
+        {
+            writeString( out, bounds[i] );
+            out.writeLong( cumulativeCounts[i] );
+        }
+
+        out.writeInt( commonKeys.size() );
+
+        for ( Map.Entry<String, Long> commonKey : commonKeys.entrySet() )
+        {
+            writeString( out, commonKey.getKey() );
+            out.writeLong( commonKey.getValue() );
+        }
+    }
+
+
+    private static String readString( DataInputStream in ) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+
+        return Strings.utf8ToString( bytes );
+    }
+
+
+    private static void writeString( DataOutputStream out, String value ) throws IOException
+    {
+        byte[] bytes = Strings.getBytesUtf8( value );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    /**
+     * @return The indexed attribute OID
+     */
+    public String getAttributeOid()
+    {
+        return attributeOid;
+    }
+
+
+    /**
+     * @return The number of tuples in the index
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return The number of distinct keys in the index
+     */
+    public long getDistinctCount()
+    {
+        return distinctCount;
+    }
+
+
+    /**
+     * Estimates the number of tuples having the given key.
+     *
+     * @param key The normalized key
+     * @return The estimated number of tuples, at least 1
+     */
+    public long estimateEquality( String key )
+    {
+        Long keyCount = commonKeys.get( key );
+
+        if ( keyCount != null )
+        {
+            return keyCount;
+        }
+
+        long otherKeys = distinctCount - commonKeys.size();
+
+        if ( otherKeys <= 0 )
+        {
+            // The key was not in the index when the statistics were computed
+            return 1L;
+        }
+
+        return bound( ( count - commonCount ) / otherKeys );
+    }
+
+
+    /**
+     * Estimates the number of tuples having a key greater or equal to the given key.
+     *
+     * @param key The normalized key
+     * @return The estimated number of tuples, at least 1
+     */
+    public long estimateGreaterOrEqual( String key )
+    {
+        return bound( count - countBelow( key ) );
+    }
+
+
+    /**
+     * Estimates the number of tuples having a key lower or equal to the given key.
+     *
+     * @param key The normalized key
+     * @return The estimated number of tuples, at least 1
+     */
+    public long estimateLessOrEqual( String key )
+    {
+        return bound( countBelow( key ) + estimateEquality( key ) );
+    }
+
+
+    /**
+     * Estimates the number of tuples having a key starting with the given prefix.
+     *
+     * @param prefix The normalized prefix
+     * @return The estimated number of tuples, at least 1
+     */
+    public long estimatePrefix( String prefix )
+    {
+        return bound( countBelow( prefix + Character.MAX_VALUE ) - countBelow( prefix ) );
+    }
+
+
+    /**
+     * Estimates the number of tuples having a key strictly lower than the given key.
+     * The tuples of the bucket containing the key are supposed to be evenly spread
+     * on both sides of the key.
+     */
+    private long countBelow( String key )
+    {
+        int low = 0;
+        int high = bounds.length - 1;
+        int bucket = bounds.length;
+
+        // Search for the first bucket whose greatest key is greater or equal to the key
+        while ( low <= high )
+        {
+            int middle = ( low + high ) >>> 1;
+
+            if ( comparator.compare( key, bounds[middle] ) <= 0 )
+            {
+                bucket = middle;
+                high = middle - 1;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+
+        if ( bucket == bounds.length )
+        {
+            return count;
+        }
+
+        long before = ( bucket == 0 ) ? 0L : cumulativeCounts[bucket - 1];
+
+        return before + ( cumulativeCounts[bucket] - before ) / 2;
+    }
+
+
+    /**
+     * An estimation is never 0, as the index may have been modified since the
+     * statistics have been computed, and a 0 count means there is no candidate.
+     */
+    private long bound( long estimation )
+    {
+        return Math.max( 1L, Math.min( estimation, Math.max( count, 1L ) ) );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "IndexStatistics[" + attributeOid + ", count=" + count + ", distinct=" + distinctCount
+            + ", buckets=" + bounds.length + ", commonKeys=" + commonKeys.size() + "]";
+    }
+}
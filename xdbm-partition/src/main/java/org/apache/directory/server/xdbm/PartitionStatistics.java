@@ -0,0 +1,380 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The statistics of the user indexes and of the presence index of a partition,
+ * used by the optimizer. They are computed in the background the first time they
+ * are needed, and computed again once the number of added, deleted or modified entries
+ * reaches 10% of the number of entries. They are stored in the partition directory,
+ * so that they are available as soon as the partition is started.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PartitionStatistics
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PartitionStatistics.class );
+
+    /** The name of the file containing the statistics in the partition directory */
+    public static final String STATISTICS_FILE = "index.stats";
+
+    /** The version of the file format */
+    private static final int VERSION = 1;
+
+    /** The minimal number of modifications before the statistics are computed again */
+    private static final long MIN_MODIFICATIONS = 1000L;
+
+    /** The number of presence index keys kept, enough for all the indexed attributes */
+    private static final int NB_PRESENCE_KEYS = 1024;
+
+    /** The thread computing the statistics of all the partitions */
+    private static final ExecutorService REFRESH_EXECUTOR = Executors.newSingleThreadExecutor( runnable ->
+    {
+        Thread thread = new Thread( runnable, "PartitionStatistics" );
+        thread.setDaemon( true );
+
+        return thread;
+    } );
+
+    /** The store */
+    private final Store store;
+
+    /** The statistics, per attribute OID */
+    private volatile Map<String, IndexStatistics> statistics = Collections.emptyMap();
+
+    /** Tells if the statistics have been computed or loaded */
+    private volatile boolean available;
+
+    /** The number of modifications since the statistics have been computed */
+    private final AtomicLong modifications = new AtomicLong();
+
+    /** The number of modifications triggering a new computation */
+    private volatile long refreshThreshold = MIN_MODIFICATIONS;
+
+    /** Tells if a computation is pending */
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /** Tells if the statistics are stored in the partition directory */
+    private volatile boolean persistent = true;
+
+
+    /**
+     * Creates a new instance of PartitionStatistics.
+     *
+     * @param store The store the statistics are computed for
+     */
+    public PartitionStatistics( Store store )
+    {
+        this.store = store;
+    }
+
+
+    /**
+     * Tells if the statistics are stored in the partition directory. Partitions
+     * which own the content of their directory, like the LDIF partitions, must not
+     * have them stored there : they are computed again when the partition is started.
+     *
+     * @param persistent <tt>false</tt> if the statistics must not be stored
+     */
+    public void setPersistent( boolean persistent )
+    {
+        this.persistent = persistent;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the statistics are stored in the partition directory
+     */
+    public boolean isPersistent()
+    {
+        return persistent;
+    }
+
+
+    /**
+     * Gets the statistics of the index on an attribute. If the statistics have
+     * not been computed yet, their computation is started in the background.
+     *
+     * @param attributeType The indexed attribute
+     * @return The statistics, or null if they are not available
+     */
+    public IndexStatistics get( AttributeType attributeType )
+    {
+        if ( !available )
+        {
+            requestRefresh();
+
+            return null;
+        }
+
+        return statistics.get( attributeType.getOid() );
+    }
+
+
+    /**
+     * Records that an entry has been added, deleted or modified. The statistics are
+     * computed again in the background when there have been too many modifications.
+     */
+    public void modified()
+    {
+        if ( modifications.incrementAndGet() >= refreshThreshold )
+        {
+            requestRefresh();
+        }
+    }
+
+
+    /**
+     * Starts the computation of the statistics in the background, if it's not
+     * already pending.
+     */
+    public void requestRefresh()
+    {
+        if ( refreshing.compareAndSet( false, true ) )
+        {
+            REFRESH_EXECUTOR.execute( () ->
+            {
+                try
+                {
+                    refresh();
+                }
+                catch ( Exception e )
+                {
+                    LOG.warn( "Failed to compute the index statistics of {}", store.getPartitionPath(), e );
+                }
+                finally
+                {
+                    refreshing.set( false );
+                }
+            } );
+        }
+    }
+
+
+    /**
+     * Computes the statistics by browsing the user indexes and the presence index,
+     * then stores them in the partition directory.
+     *
+     * @throws LdapException If the indexes can't be read or the statistics can't be stored
+     */
+    public void refresh() throws LdapException
+    {
+        Partition partition = ( Partition ) store;
+
+        if ( !partition.isInitialized() )
+        {
+            return;
+        }
+
+        SchemaManager schemaManager = partition.getSchemaManager();
+        Map<String, IndexStatistics> newStatistics = new HashMap<>();
+        long entryCount;
+
+        // The modifications done from now will be counted for the next computation
+        modifications.set( 0L );
+
+        try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
+        {
+            Iterator<String> userIndices = store.getUserIndices();
+
+            while ( userIndices.hasNext() )
+            {
+                AttributeType attributeType = schemaManager.getAttributeType( userIndices.next() );
+
+                if ( attributeType != null )
+                {
+                    addStatistics( newStatistics, IndexStatistics.build( partitionTxn, store.getIndex( attributeType ),
+                        IndexStatistics.DEFAULT_NB_BUCKETS, IndexStatistics.DEFAULT_NB_COMMON_KEYS ) );
+                }
+            }
+
+            addStatistics( newStatistics, IndexStatistics.build( partitionTxn, store.getPresenceIndex(),
+                IndexStatistics.DEFAULT_NB_BUCKETS, NB_PRESENCE_KEYS ) );
+
+            entryCount = store.count( partitionTxn );
+        }
+        catch ( IndexNotFoundException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        statistics = newStatistics;
+        refreshThreshold = Math.max( MIN_MODIFICATIONS, entryCount / 10 );
+        available = true;
+
+        LOG.debug( "Computed the index statistics of {} : {}", store.getPartitionPath(), newStatistics.values() );
+
+        save();
+    }
+
+
+    private void addStatistics( Map<String, IndexStatistics> newStatistics, IndexStatistics indexStatistics )
+    {
+        if ( indexStatistics != null )
+        {
+            newStatistics.put( indexStatistics.getAttributeOid(), indexStatistics );
+        }
+    }
+
+
+    /**
+     * @return The file storing the statistics, or null if the statistics are not persistent
+     * or if the partition is not stored in a directory
+     */
+    private File getStatisticsFile()
+    {
+        URI partitionPath = store.getPartitionPath();
+
+        if ( !persistent || ( partitionPath == null ) )
+        {
+            return null;
+        }
+
+        File partitionDir = new File( partitionPath );
+
+        if ( !partitionDir.isDirectory() )
+        {
+            return null;
+        }
+
+        return new File( partitionDir, STATISTICS_FILE );
+    }
+
+
+    /**
+     * Loads the statistics stored in the partition directory, if any. The statistics
+     * are ignored if an indexed attribute is unknown.
+     *
+     * @param schemaManager The SchemaManager
+     */
+    public void load( SchemaManager schemaManager )
+    {
+        File file = getStatisticsFile();
+
+        if ( ( file == null ) || !file.exists() )
+        {
+            return;
+        }
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+        {
+            if ( in.readInt() != VERSION )
+            {
+                return;
+            }
+
+            Map<String, IndexStatistics> loaded = new HashMap<>();
+            int nbIndexes = in.readInt();
+
+            for ( int i = 0; i < nbIndexes; i++ )
+            {
+                AttributeType attributeType = schemaManager.getAttributeType( in.readUTF() );
+
+                if ( attributeType == null )
+                {
+                    return;
+                }
+
+                loaded.put( attributeType.getOid(), IndexStatistics.read( in, attributeType ) );
+            }
+
+            statistics = loaded;
+            available = true;
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Failed to load the index statistics from {}", file, ioe );
+        }
+    }
+
+
+    /**
+     * Stores the statistics in the partition directory. The file is written aside, then
+     * moved, so that a crash does not leave a truncated file.
+     *
+     * @throws LdapException If the statistics can't be written
+     */
+    private void save() throws LdapException
+    {
+        File file = getStatisticsFile();
+
+        if ( file == null )
+        {
+            return;
+        }
+
+        File tmpFile = new File( file.getParentFile(), STATISTICS_FILE + ".tmp" );
+        Map<String, IndexStatistics> current = statistics;
+
+        try
+        {
+            try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+                new FileOutputStream( tmpFile ) ) ) )
+            {
+                out.writeInt( VERSION );
+                out.writeInt( current.size() );
+
+                for ( IndexStatistics indexStatistics : current.values() )
+                {
+                    out.writeUTF( indexStatistics.getAttributeOid() );
+                    indexStatistics.write( out );
+                }
+            }
+
+            Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+}
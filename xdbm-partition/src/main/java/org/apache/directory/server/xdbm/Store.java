@@ -168,6 +168,13 @@ public interface Store
     void addIndex( Index<?, String> index ) throws Exception;
 
 
+    /**
+     * @return The statistics of the indexes, used by the optimizer to estimate the
+     * number of candidates of a filter without reading the indexes
+     */
+    PartitionStatistics getStatistics();
+
+
     //------------------------------------------------------------------------
     // System index
     //------------------------------------------------------------------------
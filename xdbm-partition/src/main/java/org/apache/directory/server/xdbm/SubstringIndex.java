@@ -0,0 +1,384 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.PrepareString;
+import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * A trigram index over the keys of an attribute index, used to find the keys matching
+ * a substring filter without browsing the whole attribute index. Each key is split in
+ * trigrams, the first one starting with a begin marker and the last one ending with an
+ * end marker, so that the initial and final components are selective too. The index
+ * returns a superset of the matching keys, which must still be checked against the
+ * substring filter.
+ * <p>
+ * The trigrams are kept in memory : they are computed from the attribute index when the
+ * partition is started, then updated when the attribute index is.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubstringIndex
+{
+    /** The size of the grams */
+    private static final int GRAM_SIZE = 3;
+
+    /** The marker added before the keys */
+    private static final char BEGIN_MARKER = '\u0002';
+
+    /** The marker added after the keys */
+    private static final char END_MARKER = '\u0003';
+
+    /** The indexed attribute */
+    private final AttributeType attributeType;
+
+    /** The normalizer used for the substring components */
+    private final Normalizer normalizer;
+
+    /** The keys containing each trigram */
+    private final Map<String, Set<String>> grams = new ConcurrentHashMap<>();
+
+    /** The number of indexed keys */
+    private final AtomicLong keyCount = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of SubstringIndex.
+     *
+     * @param attributeType The indexed attribute
+     */
+    public SubstringIndex( AttributeType attributeType )
+    {
+        this.attributeType = attributeType;
+
+        MatchingRule rule = attributeType.getSubstring();
+
+        if ( rule == null )
+        {
+            rule = attributeType.getEquality();
+        }
+
+        if ( rule != null )
+        {
+            normalizer = rule.getNormalizer();
+        }
+        else
+        {
+            normalizer = new NoOpNormalizer( attributeType.getSyntaxOid() );
+        }
+    }
+
+
+    /**
+     * Computes the trigrams of all the keys of an attribute index.
+     *
+     * @param partitionTxn The transaction to use
+     * @param index The attribute index
+     * @throws LdapException If the index can't be read
+     */
+    public void build( PartitionTxn partitionTxn, Index<String, String> index ) throws LdapException
+    {
+        grams.clear();
+        keyCount.set( 0L );
+
+        try ( Cursor<IndexEntry<String, String>> cursor = index.forwardCursor( partitionTxn ) )
+        {
+            String previousKey = null;
+
+            while ( cursor.next() )
+            {
+                String key = cursor.get().getKey();
+
+                // The keys are sorted, so the duplicates are contiguous
+                if ( !key.equals( previousKey ) )
+                {
+                    add( key );
+                    previousKey = key;
+                }
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Adds a key to the index. Adding a key already present does nothing.
+     *
+     * @param key The normalized key
+     */
+    public void add( String key )
+    {
+        boolean added = false;
+
+        for ( String gram : getGrams( BEGIN_MARKER + key + END_MARKER ) )
+        {
+            added |= grams.computeIfAbsent( gram, g -> ConcurrentHashMap.newKeySet() ).add( key );
+        }
+
+        if ( added )
+        {
+            keyCount.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Removes a key from the index. It must only be called when the attribute index does
+     * not contain the key anymore.
+     *
+     * @param key The normalized key
+     */
+    public void drop( String key )
+    {
+        boolean removed = false;
+
+        for ( String gram : getGrams( BEGIN_MARKER + key + END_MARKER ) )
+        {
+            Set<String> keys = grams.get( gram );
+
+            if ( keys != null )
+            {
+                removed |= keys.remove( key );
+            }
+        }
+
+        if ( removed )
+        {
+            keyCount.decrementAndGet();
+        }
+    }
+
+
+    /**
+     * @return The number of indexed keys
+     */
+    public long getKeyCount()
+    {
+        return keyCount.get();
+    }
+
+
+    /**
+     * Gets the keys which may match a substring filter. The returned keys must be
+     * checked against the filter.
+     *
+     * @param node The substring filter
+     * @return The candidate keys, or null if the filter components are too short to use the index
+     * @throws LdapException If the filter components can't be normalized
+     */
+    public Set<String> getCandidates( SubstringNode node ) throws LdapException
+    {
+        List<Set<String>> postings = getPostings( node );
+
+        if ( postings == null )
+        {
+            return null;
+        }
+
+        if ( postings.isEmpty() )
+        {
+            return Collections.emptySet();
+        }
+
+        // Intersect the smallest posting with the others
+        Set<String> candidates = new HashSet<>( postings.get( 0 ) );
+
+        for ( int i = 1; i < postings.size() && !candidates.isEmpty(); i++ )
+        {
+            candidates.retainAll( postings.get( i ) );
+        }
+
+        return candidates;
+    }
+
+
+    /**
+     * Estimates the number of keys matching a substring filter, which is at most the number
+     * of keys containing the rarest trigram of the filter.
+     *
+     * @param node The substring filter
+     * @return The estimated number of keys, or -1 if the filter components are too short to use the index
+     * @throws LdapException If the filter components can't be normalized
+     */
+    public long estimate( SubstringNode node ) throws LdapException
+    {
+        List<Set<String>> postings = getPostings( node );
+
+        if ( postings == null )
+        {
+            return -1L;
+        }
+
+        if ( postings.isEmpty() )
+        {
+            return 0L;
+        }
+
+        return postings.get( 0 ).size();
+    }
+
+
+    /**
+     * Gets the keys containing each trigram of the filter components, the smallest set first.
+     * An empty list is returned if a trigram is not indexed at all, and null if there is no
+     * trigram in the components.
+     */
+    private List<Set<String>> getPostings( SubstringNode node ) throws LdapException
+    {
+        Set<String> filterGrams = new HashSet<>();
+
+        if ( node.getInitial() != null )
+        {
+            addComponentGrams( filterGrams,
+                normalizer.normalize( node.getInitial(), PrepareString.AssertionType.SUBSTRING_INITIAL ), true, false );
+        }
+
+        if ( node.getAny() != null )
+        {
+            for ( String any : node.getAny() )
+            {
+                addComponentGrams( filterGrams,
+                    normalizer.normalize( any, PrepareString.AssertionType.SUBSTRING_ANY ), false, false );
+            }
+        }
+
+        if ( node.getFinal() != null )
+        {
+            addComponentGrams( filterGrams,
+                normalizer.normalize( node.getFinal(), PrepareString.AssertionType.SUBSTRING_FINAL ), false, true );
+        }
+
+        if ( filterGrams.isEmpty() )
+        {
+            return null;
+        }
+
+        List<Set<String>> postings = new ArrayList<>( filterGrams.size() );
+
+        for ( String gram : filterGrams )
+        {
+            Set<String> keys = grams.get( gram );
+
+            if ( ( keys == null ) || keys.isEmpty() )
+            {
+                return Collections.emptyList();
+            }
+
+            postings.add( keys );
+        }
+
+        postings.sort( ( p1, p2 ) -> Integer.compare( p1.size(), p2.size() ) );
+
+        return postings;
+    }
+
+
+    /**
+     * Adds the trigrams of a normalized component. The spaces surrounding the component
+     * are not significant, so they are ignored, and so are the markers next to them.
+     */
+    private void addComponentGrams( Set<String> filterGrams, String component, boolean initial, boolean last )
+    {
+        if ( component == null )
+        {
+            return;
+        }
+
+        int start = 0;
+        int end = component.length();
+
+        while ( ( start < end ) && ( component.charAt( start ) == ' ' ) )
+        {
+            start++;
+        }
+
+        while ( ( end > start ) && ( component.charAt( end - 1 ) == ' ' ) )
+        {
+            end--;
+        }
+
+        StringBuilder sb = new StringBuilder( end - start + 2 );
+
+        if ( initial && ( start == 0 ) )
+        {
+            sb.append( BEGIN_MARKER );
+        }
+
+        sb.append( component, start, end );
+
+        if ( last && ( end == component.length() ) )
+        {
+            sb.append( END_MARKER );
+        }
+
+        filterGrams.addAll( getGrams( sb.toString() ) );
+    }
+
+
+    /**
+     * Splits a string in trigrams.
+     */
+    private static Set<String> getGrams( String value )
+    {
+        Set<String> result = new HashSet<>();
+
+        for ( int i = 0; i + GRAM_SIZE <= value.length(); i++ )
+        {
+            result.add( value.substring( i, i + GRAM_SIZE ) );
+        }
+
+        return result;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "SubstringIndex<" + attributeType.getName() + ">[" + keyCount.get() + " keys, " + grams.size()
+            + " trigrams]";
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.evaluator;
+
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.server.xdbm.search.Evaluator;
+
+
+/**
+ * The order in which the children of an AND or an OR evaluator are evaluated. The
+ * initial order comes from the scan counts computed by the optimizer, then the
+ * children which decide the result the most often (a rejection for an AND, an
+ * acceptance for an OR) are periodically moved first, so that the evaluation is
+ * shorted as early as possible.
+ * <p>
+ * The order is replaced as a whole, so a thread evaluating an entry while the
+ * children are reordered still evaluates each of them once.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class AdaptiveEvaluatorOrder
+{
+    /** The number of evaluations between two reorderings */
+    private static final int REORDER_INTERVAL = 1024;
+
+    /** The current order */
+    private volatile Ordering ordering;
+
+    /** The number of evaluations since the last reordering */
+    private int nbEvaluations;
+
+
+    /**
+     * The children in a given order, with the number of times each of them has been
+     * evaluated and has decided the result.
+     */
+    private static final class Ordering
+    {
+        private final Evaluator<? extends ExprNode>[] evaluators;
+        private final long[] evaluated;
+        private final long[] decided;
+
+
+        @SuppressWarnings("unchecked")
+        private Ordering( int size )
+        {
+            evaluators = new Evaluator[size];
+            evaluated = new long[size];
+            decided = new long[size];
+        }
+
+
+        private double getRate( int position )
+        {
+            if ( evaluated[position] == 0L )
+            {
+                return 0d;
+            }
+
+            return ( double ) decided[position] / evaluated[position];
+        }
+    }
+
+
+    /**
+     * Creates a new instance of AdaptiveEvaluatorOrder.
+     *
+     * @param evaluators The children, in their initial order
+     */
+    AdaptiveEvaluatorOrder( List<Evaluator<? extends ExprNode>> evaluators )
+    {
+        Ordering initial = new Ordering( evaluators.size() );
+
+        for ( int i = 0; i < evaluators.size(); i++ )
+        {
+            initial.evaluators[i] = evaluators.get( i );
+        }
+
+        ordering = initial;
+    }
+
+
+    /**
+     * @return The children, in the order they should be evaluated. The array must not be modified.
+     */
+    Evaluator<? extends ExprNode>[] getEvaluators()
+    {
+        return ordering.evaluators;
+    }
+
+
+    /**
+     * Records an evaluation. The children up to the given position in the array returned
+     * by {@link #getEvaluators()} have been evaluated.
+     *
+     * @param evaluators The array the children have been evaluated from
+     * @param lastPosition The position of the last evaluated child
+     * @param decided true if the last evaluated child has decided the result
+     */
+    void record( Evaluator<? extends ExprNode>[] evaluators, int lastPosition, boolean decided )
+    {
+        Ordering current = ordering;
+
+        if ( current.evaluators != evaluators )
+        {
+            // The children have been reordered meanwhile
+            return;
+        }
+
+        for ( int i = 0; i <= lastPosition; i++ )
+        {
+            current.evaluated[i]++;
+        }
+
+        if ( decided )
+        {
+            current.decided[lastPosition]++;
+        }
+
+        nbEvaluations++;
+
+        if ( nbEvaluations >= REORDER_INTERVAL )
+        {
+            nbEvaluations = 0;
+            reorder( current );
+        }
+    }
+
+
+    /**
+     * Sorts the children by decreasing rate of decision. The counters are halved, so
+     * that the order follows the recently evaluated entries.
+     */
+    private void reorder( Ordering current )
+    {
+        int size = current.evaluators.length;
+        Integer[] positions = new Integer[size];
+
+        for ( int i = 0; i < size; i++ )
+        {
+            positions[i] = i;
+        }
+
+        // The sort is stable, so the children having the same rate keep their order
+        Arrays.sort( positions, Comparator.comparingDouble( ( Integer position ) -> current.getRate( position ) )
+            .reversed() );
+
+        Ordering reordered = new Ordering( size );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            int position = positions[i];
+            reordered.evaluators[i] = current.evaluators[position];
+            reordered.evaluated[i] = current.evaluated[position] / 2;
+            reordered.decided[i] = current.decided[position] / 2;
+        }
+
+        ordering = reordered;
+    }
+}
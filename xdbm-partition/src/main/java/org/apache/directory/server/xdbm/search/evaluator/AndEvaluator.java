@@ -47,6 +47,9 @@ public class AndEvaluator implements Evaluator<AndNode>
     /** The AndNode */
     private final AndNode node;
 
+    /** The order in which the evaluators are called */
+    private final AdaptiveEvaluatorOrder order;
+
 
     /**
      * Creates an instance of AndEvaluator
@@ -57,6 +60,7 @@ public class AndEvaluator implements Evaluator<AndNode>
     {
         this.node = node;
         this.evaluators = optimize( evaluators );
+        this.order = new AdaptiveEvaluatorOrder( this.evaluators );
     }
 
 
@@ -151,14 +155,20 @@ public class AndEvaluator implements Evaluator<AndNode>
      */
     public boolean evaluate( Entry entry ) throws LdapException
     {
-        for ( Evaluator<?> evaluator : evaluators )
+        Evaluator<? extends ExprNode>[] ordered = order.getEvaluators();
+
+        for ( int i = 0; i < ordered.length; i++ )
         {
-            if ( !evaluator.evaluate( entry ) )
+            if ( !ordered[i].evaluate( entry ) )
             {
+                order.record( ordered, i, true );
+
                 return false;
             }
         }
 
+        order.record( ordered, ordered.length - 1, false );
+
         return true;
     }
 
@@ -168,14 +178,20 @@ public class AndEvaluator implements Evaluator<AndNode>
      */
     public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
     {
-        for ( Evaluator<?> evaluator : evaluators )
+        Evaluator<? extends ExprNode>[] ordered = order.getEvaluators();
+
+        for ( int i = 0; i < ordered.length; i++ )
         {
-            if ( !evaluator.evaluate( partitionTxn, indexEntry ) )
+            if ( !ordered[i].evaluate( partitionTxn, indexEntry ) )
             {
+                order.record( ordered, i, true );
+
                 return false;
             }
         }
 
+        order.record( ordered, ordered.length - 1, false );
+
         return true;
     }
 
@@ -87,23 +87,8 @@ public class BaseLevelScopeEvaluator<E> implements Evaluator<ScopeNode>
     @Override
     public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
     {
-        Entry entry = indexEntry.getEntry();
-
-        // Fetch the entry
-        if ( null == entry )
-        {
-            entry = db.fetch( partitionTxn, indexEntry.getId() );
-
-            if ( null == entry )
-            {
-                // The entry is not anymore present : get out
-                return false;
-            }
-
-            indexEntry.setEntry( entry );
-        }
-
-        return true;
+        // No need to fetch the entry, we just check that it is still present
+        return ( indexEntry.getEntry() != null ) || ( db.getEntryDn( partitionTxn, indexEntry.getId() ) != null );
     }
 
 
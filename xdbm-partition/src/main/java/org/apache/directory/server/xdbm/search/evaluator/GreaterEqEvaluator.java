@@ -20,8 +20,6 @@
 package org.apache.directory.server.xdbm.search.evaluator;
 
 
-import java.util.Iterator;
-
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
@@ -153,24 +151,14 @@ public class GreaterEqEvaluator<T> extends LeafEvaluator<T>
         // If we do not have the attribute, loop through the sub classes of
         // the attributeType.  Perhaps the entry has an attribute value of a
         // subtype (descendant) that will produce a match
-        if ( schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType ) )
+        for ( AttributeType descendant : descendants )
         {
-            // TODO check to see if descendant handling is necessary for the
-            // index so we can match properly even when for example a name
-            // attribute is used instead of more specific commonName
-            Iterator<AttributeType> descendants = schemaManager.getAttributeTypeRegistry().descendants( attributeType );
+            attr = entry.get( descendant );
 
-            while ( descendants.hasNext() )
+            //noinspection unchecked
+            if ( attr != null && evaluate( ( IndexEntry<Object, String> ) indexEntry, attr ) )
             {
-                AttributeType descendant = descendants.next();
-
-                attr = entry.get( descendant );
-
-                //noinspection unchecked
-                if ( attr != null && evaluate( ( IndexEntry<Object, String> ) indexEntry, attr ) )
-                {
-                    return true;
-                }
+                return true;
             }
         }
 
@@ -197,23 +185,13 @@ public class GreaterEqEvaluator<T> extends LeafEvaluator<T>
         // If we do not have the attribute, loop through the sub classes of
         // the attributeType.  Perhaps the entry has an attribute value of a
         // subtype (descendant) that will produce a match
-        if ( schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType ) )
+        for ( AttributeType descendant : descendants )
         {
-            // TODO check to see if descendant handling is necessary for the
-            // index so we can match properly even when for example a name
-            // attribute is used instead of more specific commonName
-            Iterator<AttributeType> descendants = schemaManager.getAttributeTypeRegistry().descendants( attributeType );
+            attr = entry.get( descendant );
 
-            while ( descendants.hasNext() )
+            if ( ( attr != null ) && evaluate( null, attr ) )
             {
-                AttributeType descendant = descendants.next();
-
-                attr = entry.get( descendant );
-
-                if ( ( attr != null ) && evaluate( null, attr ) )
-                {
-                    return true;
-                }
+                return true;
             }
         }
 
@@ -20,6 +20,11 @@
 package org.apache.directory.server.xdbm.search.evaluator;
 
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.SimpleNode;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.LdapComparator;
@@ -39,6 +44,9 @@ import org.apache.directory.server.xdbm.search.Evaluator;
  */
 public abstract class LeafEvaluator<T> implements Evaluator<SimpleNode<T>>
 {
+    /** An empty array of descendants */
+    private static final AttributeType[] NO_DESCENDANT = new AttributeType[0];
+
     /** The ExprNode to evaluate */
     protected final SimpleNode<T> node;
 
@@ -60,6 +68,9 @@ public abstract class LeafEvaluator<T> implements Evaluator<SimpleNode<T>>
     /** The index to use if any */
     protected Index<T, String> idx;
 
+    /** The descendants of the AttributeType, which may also match */
+    protected final AttributeType[] descendants;
+
 
     /**
      * Creates a new LeafEvaluator
@@ -67,13 +78,44 @@ public abstract class LeafEvaluator<T> implements Evaluator<SimpleNode<T>>
      * @param node The LeafNode
      * @param db The Store
      * @param schemaManager The SchemaManager
+     * @throws LdapException If the descendants of the AttributeType can't be read
      */
-    public LeafEvaluator( SimpleNode<T> node, Store db, SchemaManager schemaManager )
+    public LeafEvaluator( SimpleNode<T> node, Store db, SchemaManager schemaManager ) throws LdapException
     {
         this.db = db;
         this.node = node;
         this.schemaManager = schemaManager;
         this.attributeType = node.getAttributeType();
+        this.descendants = getDescendants( schemaManager, attributeType );
+    }
+
+
+    /**
+     * Gets the descendants of an AttributeType once, so that the registry is not
+     * browsed again for each evaluated entry.
+     *
+     * @param schemaManager The SchemaManager
+     * @param attributeType The AttributeType
+     * @return The descendants of the AttributeType, possibly empty
+     * @throws LdapException If the descendants can't be read
+     */
+    static AttributeType[] getDescendants( SchemaManager schemaManager, AttributeType attributeType )
+        throws LdapException
+    {
+        if ( !schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType ) )
+        {
+            return NO_DESCENDANT;
+        }
+
+        List<AttributeType> result = new ArrayList<>();
+        Iterator<AttributeType> iterator = schemaManager.getAttributeTypeRegistry().descendants( attributeType );
+
+        while ( iterator.hasNext() )
+        {
+            result.add( iterator.next() );
+        }
+
+        return result.toArray( NO_DESCENDANT );
     }
 
 
@@ -95,23 +95,15 @@ public class OneLevelScopeEvaluator<E> implements Evaluator<ScopeNode>
     public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
     {
         ParentIdAndRdn parent = db.getRdnIndex().reverseLookup( partitionTxn, indexEntry.getId() );
-        boolean isChild = parent.getParentId().equals( baseId );
-        Entry entry = indexEntry.getEntry();
 
-        // Fetch the entry
-        if ( null == entry )
+        if ( null == parent )
         {
-            entry = db.fetch( partitionTxn, indexEntry.getId() );
-
-            if ( null == entry )
-            {
-                // The entry is not anymore present : get out
-                return false;
-            }
-
-            indexEntry.setEntry( entry );
+            // The entry is not anymore present : get out
+            return false;
         }
 
+        boolean isChild = parent.getParentId().equals( baseId );
+
         /*
          * The candidate id could be any entry in the db.  If search
          * dereferencing is not enabled then we return the results of the child
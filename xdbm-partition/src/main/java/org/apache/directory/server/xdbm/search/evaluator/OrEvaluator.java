@@ -47,6 +47,9 @@ public class OrEvaluator implements Evaluator<OrNode>
     /** The OrNode */
     private final OrNode node;
 
+    /** The order in which the evaluators are called */
+    private final AdaptiveEvaluatorOrder order;
+
 
     /**
      * Creates a new OrEvaluator
@@ -58,6 +61,7 @@ public class OrEvaluator implements Evaluator<OrNode>
     {
         this.node = node;
         this.evaluators = optimize( evaluators );
+        this.order = new AdaptiveEvaluatorOrder( this.evaluators );
     }
 
 
@@ -91,14 +95,20 @@ public class OrEvaluator implements Evaluator<OrNode>
     @Override
     public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
     {
-        for ( Evaluator<?> evaluator : evaluators )
+        Evaluator<? extends ExprNode>[] ordered = order.getEvaluators();
+
+        for ( int i = 0; i < ordered.length; i++ )
         {
-            if ( evaluator.evaluate( partitionTxn, indexEntry ) )
+            if ( ordered[i].evaluate( partitionTxn, indexEntry ) )
             {
+                order.record( ordered, i, true );
+
                 return true;
             }
         }
 
+        order.record( ordered, ordered.length - 1, false );
+
         return false;
     }
 
@@ -109,14 +119,20 @@ public class OrEvaluator implements Evaluator<OrNode>
     @Override
     public boolean evaluate( Entry entry ) throws LdapException
     {
-        for ( Evaluator<?> evaluator : evaluators )
+        Evaluator<? extends ExprNode>[] ordered = order.getEvaluators();
+
+        for ( int i = 0; i < ordered.length; i++ )
         {
-            if ( evaluator.evaluate( entry ) )
+            if ( ordered[i].evaluate( entry ) )
             {
+                order.record( ordered, i, true );
+
                 return true;
             }
         }
 
+        order.record( ordered, ordered.length - 1, false );
+
         return false;
     }
 
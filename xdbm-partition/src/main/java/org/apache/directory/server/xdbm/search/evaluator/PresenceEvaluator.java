@@ -20,8 +20,6 @@
 package org.apache.directory.server.xdbm.search.evaluator;
 
 
-import java.util.Iterator;
-
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -52,6 +50,12 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
     /** The AttributeType we will use for the evaluation */
     private final AttributeType attributeType;
 
+    /** The descendants of the AttributeType, which may also match */
+    private final AttributeType[] descendants;
+
+    /** Tells if the AttributeType is present in all the entries */
+    private final boolean alwaysPresent;
+
     /** The SchemaManager instance */
     private final SchemaManager schemaManager;
 
@@ -62,13 +66,20 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
      * @param node The PresenceNode
      * @param db The Store
      * @param schemaManager The SchemaManager
+     * @throws LdapException If the descendants of the AttributeType can't be read
      */
-    public PresenceEvaluator( PresenceNode node, Store db, SchemaManager schemaManager )
+    public PresenceEvaluator( PresenceNode node, Store db, SchemaManager schemaManager ) throws LdapException
     {
         this.db = db;
         this.node = node;
         this.schemaManager = schemaManager;
         this.attributeType = node.getAttributeType();
+        this.descendants = LeafEvaluator.getDescendants( schemaManager, attributeType );
+
+        String attrOid = attributeType.getOid();
+        alwaysPresent = attrOid.equals( SchemaConstants.OBJECT_CLASS_AT_OID )
+            || attrOid.equals( SchemaConstants.ENTRY_CSN_AT_OID )
+            || attrOid.equals( SchemaConstants.ENTRY_UUID_AT_OID );
     }
 
 
@@ -99,8 +110,20 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
     // wrapper or the raw normalized value
     public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
     {
+        if ( alwaysPresent )
+        {
+            return true;
+        }
+
         Entry entry = indexEntry.getEntry();
 
+        // If the entry has not been fetched, the presence index can tell if it contains
+        // the attribute, unless a descendant of the AttributeType may be present instead
+        if ( ( null == entry ) && ( descendants.length == 0 ) && db.hasUserIndexOn( attributeType ) )
+        {
+            return db.getPresenceIndex().forward( partitionTxn, attributeType.getOid(), indexEntry.getId() );
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
@@ -127,11 +150,7 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
     // wrapper or the raw normalized value
     public boolean evaluate( Entry entry ) throws LdapException
     {
-        String attrOid = attributeType.getOid();
-
-        if ( attrOid.equals( SchemaConstants.OBJECT_CLASS_AT_OID )
-            || attrOid.equals( SchemaConstants.ENTRY_CSN_AT_OID )
-            || attrOid.equals( SchemaConstants.ENTRY_UUID_AT_OID ) )
+        if ( alwaysPresent )
         {
             // we don't maintain a presence index for objectClass, entryUUID and entryCSN
             // however as every entry has such an attribute this evaluator always evaluates to true
@@ -150,25 +169,14 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
         // If we do not have the attribute, loop through the sub classes of
         // the attributeType.  Perhaps the entry has an attribute value of a
         // subtype (descendant) that will produce a match
-        if ( schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType ) )
+        for ( AttributeType descendant : descendants )
         {
-            // TODO check to see if descendant handling is necessary for the
-            // index so we can match properly even when for example a name
-            // attribute is used instead of more specific commonName
-            Iterator<AttributeType> descendants = schemaManager.getAttributeTypeRegistry().descendants( attributeType );
+            attr = entry.get( descendant );
 
-            do
+            if ( attr != null )
             {
-                AttributeType descendant = descendants.next();
-
-                attr = entry.get( descendant );
-
-                if ( attr != null )
-                {
-                    return true;
-                }
+                return true;
             }
-            while ( descendants.hasNext() );
         }
 
         // we fell through so a match was not found - assertion was false.
@@ -20,7 +20,6 @@
 package org.apache.directory.server.xdbm.search.evaluator;
 
 
-import java.util.Iterator;
 import java.util.regex.Pattern;
 
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -61,6 +60,9 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
     /** The AttributeType we will use for the evaluation */
     private final AttributeType attributeType;
 
+    /** The descendants of the AttributeType, which may also match */
+    private final AttributeType[] descendants;
+
     /** The associated normalizer */
     private final Normalizer normalizer;
 
@@ -79,6 +81,7 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
         this.node = node;
         this.schemaManager = schemaManager;
         this.attributeType = node.getAttributeType();
+        this.descendants = LeafEvaluator.getDescendants( schemaManager, attributeType );
 
         MatchingRule rule = attributeType.getSubstring();
 
@@ -157,7 +160,7 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
                 for ( Value value : attr )
                 {
                     String strValue = value.getString();
-                    String normalizedValue = attr.getAttributeType().getEquality().getNormalizer().normalize( strValue );
+                    String normalizedValue = value.getNormalized();
 
                     // Once match is found cleanup and return true
                     if ( regex.matcher( normalizedValue ).matches() )
@@ -195,40 +198,30 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
 
         // If we do not have the attribute, loop through the descendant
         // May be the node Attribute has descendant ?
-        if ( schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType ) )
+        for ( AttributeType descendant : descendants )
         {
-            // TODO check to see if descendant handling is necessary for the
-            // index so we can match properly even when for example a name
-            // attribute is used instead of more specific commonName
-            Iterator<AttributeType> descendants = schemaManager.getAttributeTypeRegistry().descendants( attributeType );
+            attr = entry.get( descendant );
 
-            while ( descendants.hasNext() )
+            if ( null != attr )
             {
-                AttributeType descendant = descendants.next();
-
-                attr = entry.get( descendant );
 
-                if ( null != attr )
+                /*
+                 * Cycle through the attribute values testing normalized version
+                 * obtained from using the substring matching rule's normalizer.
+                 * The test uses the comparator obtained from the appropriate
+                 * substring matching rule.
+                 */
+                for ( Value value : attr )
                 {
+                    String strValue = value.getString();
+                    String normalizedValue = value.getNormalized();
 
-                    /*
-                     * Cycle through the attribute values testing normalized version
-                     * obtained from using the substring matching rule's normalizer.
-                     * The test uses the comparator obtained from the appropriate
-                     * substring matching rule.
-                     */
-                    for ( Value value : attr )
+                    // Once match is found cleanup and return true
+                    if ( regex.matcher( normalizedValue ).matches() )
                     {
-                        String strValue = value.getString();
-                        String normalizedValue = attr.getAttributeType().getEquality().getNormalizer().normalize( strValue );
-
-                        // Once match is found cleanup and return true
-                        if ( regex.matcher( normalizedValue ).matches() )
-                        {
-                            // before returning we set the normalized value
-                            indexEntry.setKey( strValue );
-                            return true;
-                        }
+                        // before returning we set the normalized value
+                        indexEntry.setKey( strValue );
+                        return true;
                     }
                 }
             }
@@ -274,37 +267,27 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
 
         // If we do not have the attribute, loop through the descendant
         // May be the node Attribute has descendant ?
-        if ( schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType ) )
+        for ( AttributeType descendant : descendants )
         {
-            // TODO check to see if descendant handling is necessary for the
-            // index so we can match properly even when for example a name
-            // attribute is used instead of more specific commonName
-            Iterator<AttributeType> descendants = schemaManager.getAttributeTypeRegistry().descendants( attributeType );
+            attr = entry.get( descendant );
 
-            while ( descendants.hasNext() )
+            if ( null != attr )
             {
-                AttributeType descendant = descendants.next();
-
-                attr = entry.get( descendant );
 
-                if ( null != attr )
+                /*
+                 * Cycle through the attribute values testing normalized version
+                 * obtained from using the substring matching rule's normalizer.
+                 * The test uses the comparator obtained from the appropriate
+                 * substring matching rule.
+                 */
+                for ( Value value : attr )
                 {
+                    String strValue = value.getString();
 
-                    /*
-                     * Cycle through the attribute values testing normalized version
-                     * obtained from using the substring matching rule's normalizer.
-                     * The test uses the comparator obtained from the appropriate
-                     * substring matching rule.
-                     */
-                    for ( Value value : attr )
+                    // Once match is found cleanup and return true
+                    if ( regex.matcher( strValue ).matches() )
                     {
-                        String strValue = value.getString();
-
-                        // Once match is found cleanup and return true
-                        if ( regex.matcher( strValue ).matches() )
-                        {
-                            return true;
-                        }
+                        return true;
                     }
                 }
             }
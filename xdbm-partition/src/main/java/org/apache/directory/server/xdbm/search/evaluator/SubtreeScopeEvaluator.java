@@ -133,31 +133,40 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
     public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
     {
         String id = indexEntry.getId();
-        Entry entry = indexEntry.getEntry();
 
-        // Fetch the entry
-        if ( null == entry )
+        /*
+         * This condition catches situations where the candidate is equal to 
+         * the base entry and when the base entry is the context entry.  Note
+         * we do not store a mapping in the subtree index of the context entry
+         * to all it's subordinates since that would be the entire set of 
+         * entries in the db. Otherwise, the candidate Dn is read from the entry
+         * if it has already been fetched, or built from the Rdn index.
+         */
+        boolean isDescendant = baseIsContextEntry || baseId.equals( id );
+
+        if ( !isDescendant )
         {
-            entry = db.fetch( partitionTxn, indexEntry.getId() );
+            Entry entry = indexEntry.getEntry();
+            Dn dn;
 
             if ( null == entry )
             {
-                // The entry is not anymore present : get out
-                return false;
+                dn = db.getEntryDn( partitionTxn, id );
+
+                if ( null == dn )
+                {
+                    // The entry is not anymore present : get out
+                    return false;
+                }
+            }
+            else
+            {
+                dn = entry.getDn();
             }
 
-            indexEntry.setEntry( entry );
+            isDescendant = dn.isDescendantOf( node.getBaseDn() );
         }
 
-        /*
-         * This condition catches situations where the candidate is equal to 
-         * the base entry and when the base entry is the context entry.  Note
-         * we do not store a mapping in the subtree index of the context entry
-         * to all it's subordinates since that would be the entire set of 
-         * entries in the db.
-         */
-        boolean isDescendant = baseIsContextEntry || baseId.equals( id ) || entry.getDn().isDescendantOf( node.getBaseDn() );
-
         /*
          * The candidate id could be any entry in the db.  If search
          * dereferencing is not enabled then we return the results of the
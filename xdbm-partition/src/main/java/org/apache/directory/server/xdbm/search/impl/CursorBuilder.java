@@ -21,6 +21,9 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -59,6 +62,7 @@ import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.SingletonIndexCursor;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.SubstringIndex;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.cursor.ApproximateCursor;
 import org.apache.directory.server.xdbm.search.cursor.ChildrenCursor;
@@ -73,6 +77,9 @@ import org.apache.directory.server.xdbm.search.evaluator.ApproximateEvaluator;
  */
 public class CursorBuilder
 {
+    /** The maximal ratio between the candidates of a conjunction child and the current candidates to intersect them */
+    private static final long MAX_INTERSECTION_RATIO = 10L;
+
     /** The database used by this builder */
     private Store db = null;
 
@@ -673,8 +680,27 @@ public class CursorBuilder
 
             if ( regexp == null )
             {
+                cursor.close();
+
                 return nbResults;
             }
+
+            // Use the substring index if there is one, instead of browsing the whole index. The
+            // keys it selects must still be checked against the regexp, so the regular scan is
+            // done if there is none (the attribute syntax is not human readable)
+            SubstringIndex substringIndex = userIndex.getSubstringIndex();
+
+            if ( ( substringIndex != null ) && ( regexp != null ) )
+            {
+                Set<String> candidateKeys = substringIndex.getCandidates( node );
+
+                if ( candidateKeys != null )
+                {
+                    cursor.close();
+
+                    return computeSubstringCandidates( partitionTxn, userIndex, candidateKeys, regexp, uuidSet );
+                }
+            }
             
             // And loop on it
             while ( cursor.next() )
@@ -720,6 +746,42 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Adds the UUIDs of the entries having one of the keys selected by the substring
+     * index and matching the substring filter.
+     *
+     * @param regexp The substring filter regexp, which must not be null
+     */
+    private long computeSubstringCandidates( PartitionTxn partitionTxn, Index<String, String> userIndex,
+        Set<String> candidateKeys, Pattern regexp, Set<String> uuidSet ) throws LdapException, IOException
+    {
+        long nbResults = 0L;
+
+        for ( String key : candidateKeys )
+        {
+            if ( !regexp.matcher( key ).matches() )
+            {
+                continue;
+            }
+
+            Cursor<String> uuidCursor = userIndex.forwardValueCursor( partitionTxn, key );
+
+            for ( String uuid : uuidCursor )
+            {
+                // if the UUID was added increment the result count
+                if ( uuidSet.add( uuid ) )
+                {
+                    nbResults++;
+                }
+            }
+
+            uuidCursor.close();
+        }
+
+        return nbResults;
+    }
+
+
     /**
      * Creates a OrCursor over a disjunction expression branch node.
      *
@@ -773,29 +835,31 @@ public class CursorBuilder
 
 
     /**
-     * Creates an AndCursor over a conjunction expression branch node.
+     * Computes the set of candidates for a conjunction. The candidates of the child with the
+     * smallest scan count are gathered, then the candidates which can't match the other
+     * indexed children are removed, without fetching any entry from the master table :
+     * <ul>
+     *   <li>for an indexed equality or presence child, each candidate is looked up in the index</li>
+     *   <li>for a range, substring or scope child which doesn't have many more candidates,
+     *   its candidates are gathered and intersected with the current ones</li>
+     * </ul>
+     * The other children are left to the evaluator.
      *
      * @param node a conjunction expression branch node
-     * @return Cursor over the conjunction expression
+     * @return The number of candidates
      * @throws Exception on db access failures
      */
     private long computeAnd( PartitionTxn partitionTxn, AndNode node, PartitionSearchResult searchResult ) 
-        throws LdapException
+        throws LdapException, IndexNotFoundException
     {
-        int minIndex = 0;
-        long minValue = Long.MAX_VALUE;
-        long value;
-
         /*
-         * We scan the child nodes of a branch node searching for the child
-         * expression node with the smallest scan count.  This is the child
-         * we will use for iteration
+         * We sort the child nodes of the branch node by increasing scan counts. The
+         * child with the smallest scan count is the one we will use for iteration
          */
-        final List<ExprNode> children = node.getChildren();
+        final List<ExprNode> children = new ArrayList<>();
 
-        for ( int i = 0; i < children.size(); i++ )
+        for ( ExprNode child : node.getChildren() )
         {
-            ExprNode child = children.get( i );
             Object count = child.get( DefaultOptimizer.COUNT_ANNOTATION );
 
             if ( count == null )
@@ -803,25 +867,155 @@ public class CursorBuilder
                 continue;
             }
 
-            value = ( Long ) count;
-
-            if ( value == 0L )
+            if ( ( Long ) count == 0L )
             {
                 // No need to go any further : we won't have matching candidates anyway
                 return 0L;
             }
 
-            if ( value < minValue )
+            children.add( child );
+        }
+
+        if ( children.isEmpty() )
+        {
+            // Keep the previous behavior : build the first child
+            return build( partitionTxn, node.getChildren().get( 0 ), searchResult );
+        }
+
+        children.sort( ( child1, child2 ) -> Long.compare( ( Long ) child1.get( DefaultOptimizer.COUNT_ANNOTATION ),
+            ( Long ) child2.get( DefaultOptimizer.COUNT_ANNOTATION ) ) );
+
+        ExprNode minChild = children.get( 0 );
+
+        if ( ( children.size() == 1 )
+            || ( ( Long ) children.get( 1 ).get( DefaultOptimizer.COUNT_ANNOTATION ) == Long.MAX_VALUE ) )
+        {
+            // Nothing to intersect with
+            return build( partitionTxn, minChild, searchResult );
+        }
+
+        // Gather the candidates of the smallest child aside
+        Set<String> resultSet = searchResult.getCandidateSet();
+        Set<String> candidates = new HashSet<>();
+        searchResult.setCandidateSet( candidates );
+
+        try
+        {
+            long nbResults = build( partitionTxn, minChild, searchResult );
+
+            if ( nbResults == Long.MAX_VALUE )
+            {
+                return nbResults;
+            }
+
+            for ( int i = 1; ( i < children.size() ) && !candidates.isEmpty(); i++ )
             {
-                minValue = value;
-                minIndex = i;
+                intersect( partitionTxn, children.get( i ), candidates, searchResult );
             }
         }
+        finally
+        {
+            searchResult.setCandidateSet( resultSet );
+        }
+
+        resultSet.addAll( candidates );
+
+        return candidates.size();
+    }
+
+
+    /**
+     * Removes the candidates which can't match a child of a conjunction. Nothing is done if
+     * it would cost more than fetching and evaluating the candidates.
+     */
+    private void intersect( PartitionTxn partitionTxn, ExprNode child, Set<String> candidates,
+        PartitionSearchResult searchResult ) throws LdapException, IndexNotFoundException
+    {
+        long count = ( Long ) child.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+        if ( count == Long.MAX_VALUE )
+        {
+            return;
+        }
+
+        switch ( child.getAssertionType() )
+        {
+            case EQUALITY:
+                EqualityNode<?> equalityNode = ( EqualityNode<?> ) child;
+                Set<String> equalityCandidates = ( Set<String> ) child.get( DefaultOptimizer.CANDIDATES_ANNOTATION_KEY );
+
+                if ( equalityCandidates != null )
+                {
+                    // The optimizer has already gathered the candidates
+                    candidates.retainAll( equalityCandidates );
+                }
+                else if ( db.hasIndexOn( equalityNode.getAttributeType() ) )
+                {
+                    Index<Object, String> index = ( Index<Object, String> ) db.getIndex( equalityNode.getAttributeType() );
+                    Object key = equalityNode.getValue().getNormalized();
+                    Iterator<String> iterator = candidates.iterator();
+
+                    while ( iterator.hasNext() )
+                    {
+                        if ( !index.forward( partitionTxn, key, iterator.next() ) )
+                        {
+                            iterator.remove();
+                        }
+                    }
+                }
+
+                return;
+
+            case PRESENCE:
+                AttributeType attributeType = ( ( PresenceNode ) child ).getAttributeType();
+
+                if ( db.hasUserIndexOn( attributeType ) )
+                {
+                    Index<String, String> presenceIndex = db.getPresenceIndex();
+                    Iterator<String> iterator = candidates.iterator();
+
+                    while ( iterator.hasNext() )
+                    {
+                        if ( !presenceIndex.forward( partitionTxn, attributeType.getOid(), iterator.next() ) )
+                        {
+                            iterator.remove();
+                        }
+                    }
+                }
 
-        // Once found we return the number of candidates for this child
-        ExprNode minChild = children.get( minIndex );
+                return;
 
-        return build( partitionTxn, minChild, searchResult );
+            case GREATEREQ:
+            case LESSEQ:
+            case SUBSTRING:
+            case SCOPE:
+                // Gathering the child candidates is worth it only if there are not too many of them
+                if ( count > MAX_INTERSECTION_RATIO * candidates.size() )
+                {
+                    return;
+                }
+
+                if ( ( child instanceof SubstringNode ) && ( ( ( SubstringNode ) child ).getAttributeType().getSubstring() == null ) )
+                {
+                    return;
+                }
+
+                Set<String> childCandidates = new HashSet<>();
+                searchResult.setCandidateSet( childCandidates );
+
+                if ( build( partitionTxn, child, searchResult ) != Long.MAX_VALUE )
+                {
+                    candidates.retainAll( childCandidates );
+                }
+
+                searchResult.setCandidateSet( candidates );
+
+                return;
+
+            default:
+                // Left to the evaluator
+                return;
+        }
     }
 
 
@@ -51,12 +51,16 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.SubstringIndex;
 import org.apache.directory.server.xdbm.search.Optimizer;
 
 
 /**
- * Optimizer that annotates the filter using scan counts.
+ * Optimizer that annotates the filter using scan counts. The counts are estimated
+ * using the index statistics of the store when they are available, otherwise they
+ * are read from the indexes.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -66,6 +70,9 @@ public class DefaultOptimizer implements Optimizer
     
     /* Package protected*/ static final String COUNT_ANNOTATION = "count"; 
 
+    /** The maximum number of candidates gathered while annotating an equality node */
+    private static final int MAX_CANDIDATES = 100;
+
     /** the database this optimizer operates on */
     private final Store db;
     private String contextEntryId;
@@ -320,17 +327,18 @@ public class DefaultOptimizer implements Optimizer
         {
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
 
-            String normalizedKey;
-            
-            if ( node.getValue().isSchemaAware() )
-            {
-                normalizedKey = node.getValue().getNormalized();
-            }
-            else
+            String normalizedKey = getNormalizedKey( node );
+            IndexStatistics statistics = db.getStatistics().get( node.getAttributeType() );
+
+            if ( ( statistics != null ) && ( statistics.estimateEquality( normalizedKey ) >= MAX_CANDIDATES ) )
             {
-                normalizedKey = node.getAttributeType().getEquality().getNormalizer().normalize( node.getValue().getString() );
+                // Too many candidates to gather them
+                node.set( CANDIDATES_ANNOTATION_KEY, null );
+
+                return statistics.estimateEquality( normalizedKey );
             }
-            
+
+            // The candidates are gathered here, and will be used by the CursorBuilder
             Cursor<String> result = idx.forwardValueCursor( partitionTxn, ( V ) normalizedKey );
             Set<String> values = new HashSet<>();
             int nbFound = 0;
@@ -341,7 +349,7 @@ public class DefaultOptimizer implements Optimizer
                 nbFound++;
 
                 // Arbitrary stop gathering the candidates if we have more than 100
-                if ( nbFound == 100 )
+                if ( nbFound == MAX_CANDIDATES )
                 {
                     break;
                 }
@@ -349,7 +357,7 @@ public class DefaultOptimizer implements Optimizer
 
             result.close();
 
-            if ( nbFound < 100 )
+            if ( nbFound < MAX_CANDIDATES )
             {
                 // Store the found candidates in the node
                 node.set( CANDIDATES_ANNOTATION_KEY, values );
@@ -370,6 +378,22 @@ public class DefaultOptimizer implements Optimizer
     }
 
 
+    /**
+     * Gets the normalized value of a node
+     */
+    private <V> String getNormalizedKey( SimpleNode<V> node ) throws LdapException
+    {
+        if ( node.getValue().isSchemaAware() )
+        {
+            return node.getValue().getNormalized();
+        }
+        else
+        {
+            return node.getAttributeType().getEquality().getNormalizer().normalize( node.getValue().getString() );
+        }
+    }
+
+
     /**
      * Gets a scan count of the nodes that satisfy the greater or less than test
      * specified by the node.
@@ -385,6 +409,21 @@ public class DefaultOptimizer implements Optimizer
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = db.getStatistics().get( node.getAttributeType() );
+
+            if ( statistics != null )
+            {
+                String normalizedKey = getNormalizedKey( node );
+
+                if ( isGreaterThan )
+                {
+                    return statistics.estimateGreaterOrEqual( normalizedKey );
+                }
+                else
+                {
+                    return statistics.estimateLessOrEqual( normalizedKey );
+                }
+            }
 
             if ( isGreaterThan )
             {
@@ -416,8 +455,39 @@ public class DefaultOptimizer implements Optimizer
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
             Index<String, String> idx = ( Index<String, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = db.getStatistics().get( node.getAttributeType() );
 
             String initial = node.getInitial();
+            SubstringIndex substringIndex = idx.getSubstringIndex();
+
+            if ( substringIndex != null )
+            {
+                long nbKeys = substringIndex.estimate( node );
+
+                if ( nbKeys == 0L )
+                {
+                    // No key contains one of the trigrams of the filter
+                    return 0L;
+                }
+                else if ( nbKeys > 0L )
+                {
+                    long count = ( statistics != null ) ? statistics.getCount() : idx.count( partitionTxn );
+
+                    return Math.max( 1L, nbKeys * count / Math.max( 1L, substringIndex.getKeyCount() ) );
+                }
+            }
+
+            if ( statistics != null )
+            {
+                if ( Strings.isEmpty( initial ) )
+                {
+                    return statistics.getCount();
+                }
+                else
+                {
+                    return statistics.estimatePrefix( initial );
+                }
+            }
 
             if ( Strings.isEmpty( initial ) )
             {
@@ -450,6 +520,13 @@ public class DefaultOptimizer implements Optimizer
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
+            IndexStatistics statistics = db.getStatistics().get( node.getAttributeType() );
+
+            if ( statistics != null )
+            {
+                return statistics.getCount();
+            }
+
             Index<?, ?> idx = db.getIndex( node.getAttributeType() );
             return idx.count( partitionTxn );
         }
@@ -472,6 +549,12 @@ public class DefaultOptimizer implements Optimizer
              || node.getAttributeType().getOid().equals( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID ) )
         {
             Index<String, String> presenceIndex = db.getPresenceIndex();
+            IndexStatistics statistics = db.getStatistics().get( presenceIndex.getAttribute() );
+
+            if ( statistics != null )
+            {
+                return statistics.estimateEquality( node.getAttributeType().getOid() );
+            }
 
             return presenceIndex.count( partitionTxn, node.getAttributeType().getOid() );
         }
@@ -0,0 +1,164 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the IndexStatistics estimations.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatisticsTest
+{
+    private static SchemaManager schemaManager;
+    private static AttributeType ouAT;
+    private MockPartitionReadTxn mockTxn;
+    private AvlIndex<String> idx;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = IndexStatisticsTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        ouAT = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OU_AT );
+    }
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        mockTxn = new MockPartitionReadTxn();
+        idx = new AvlIndex<>( SchemaConstants.OU_AT_OID );
+        idx.init( schemaManager, ouAT );
+
+        int id = 0;
+
+        // A skewed distribution : one key is used by 500 entries, the others by one entry
+        for ( int i = 0; i < 500; i++ )
+        {
+            idx.add( mockTxn, "common", Strings.getUUID( id++ ) );
+        }
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            idx.add( mockTxn, String.format( "k%04d", i ), Strings.getUUID( id++ ) );
+        }
+    }
+
+
+    @Test
+    public void testBuild() throws Exception
+    {
+        IndexStatistics statistics = IndexStatistics.build( mockTxn, idx, 16, 4 );
+
+        assertEquals( SchemaConstants.OU_AT_OID, statistics.getAttributeOid() );
+        assertEquals( 1500L, statistics.getCount() );
+        assertEquals( 1001L, statistics.getDistinctCount() );
+    }
+
+
+    @Test
+    public void testEstimations() throws Exception
+    {
+        IndexStatistics statistics = IndexStatistics.build( mockTxn, idx, 16, 4 );
+
+        // The most common key is counted exactly
+        assertEquals( 500L, statistics.estimateEquality( "common" ) );
+        assertEquals( 1L, statistics.estimateEquality( "k0500" ) );
+
+        // An estimation is never 0
+        assertEquals( 1L, statistics.estimateEquality( "unknown" ) );
+        assertTrue( statistics.estimateGreaterOrEqual( "zzz" ) >= 1L );
+
+        long greater = statistics.estimateGreaterOrEqual( "k0500" );
+        assertTrue( ( greater > 300L ) && ( greater < 700L ) );
+
+        long less = statistics.estimateLessOrEqual( "k0500" );
+        assertTrue( ( less > 800L ) && ( less < 1200L ) );
+    }
+
+
+    @Test
+    public void testWriteRead() throws Exception
+    {
+        IndexStatistics statistics = IndexStatistics.build( mockTxn, idx, 16, 4 );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( DataOutputStream out = new DataOutputStream( baos ) )
+        {
+            statistics.write( out );
+        }
+
+        IndexStatistics read = IndexStatistics.read(
+            new DataInputStream( new ByteArrayInputStream( baos.toByteArray() ) ), ouAT );
+
+        assertEquals( statistics.getCount(), read.getCount() );
+        assertEquals( statistics.getDistinctCount(), read.getDistinctCount() );
+        assertEquals( statistics.estimateEquality( "common" ), read.estimateEquality( "common" ) );
+        assertEquals( statistics.estimateGreaterOrEqual( "k0500" ), read.estimateGreaterOrEqual( "k0500" ) );
+    }
+}
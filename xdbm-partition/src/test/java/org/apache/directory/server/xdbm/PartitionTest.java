@@ -180,6 +180,25 @@ public class PartitionTest
     }
 
 
+    /**
+     * The number of children is read from the RDN index.
+     */
+    @Test
+    public void testChildCount() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+
+        assertEquals( 3L, partition.getChildCount( txn, new Dn( schemaManager, "o=Good Times Co." ) ) );
+        assertEquals( 2L, partition.getChildCount( txn, new Dn( schemaManager, "ou=Sales,o=Good Times Co." ) ) );
+        assertEquals( 0L, partition.getChildCount( txn,
+            new Dn( schemaManager, "cn=JIM BEAN,ou=Sales,o=Good Times Co." ) ) );
+
+        // Unknown entries, and entries outside the partition
+        assertEquals( -1L, partition.getChildCount( txn, new Dn( schemaManager, "ou=Unknown,o=Good Times Co." ) ) );
+        assertEquals( -1L, partition.getChildCount( txn, new Dn( schemaManager, "ou=system" ) ) );
+    }
+
+
     /**
      * Adding an objectClass value should also add it to the objectClass index.
      */
@@ -0,0 +1,176 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the SubstringIndex candidate selection.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubstringIndexTest
+{
+    private static SchemaManager schemaManager;
+    private static AttributeType ouAT;
+    private MockPartitionReadTxn mockTxn;
+    private SubstringIndex substringIndex;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = SubstringIndexTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        ouAT = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OU_AT );
+    }
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        mockTxn = new MockPartitionReadTxn();
+        AvlIndex<String> idx = new AvlIndex<>( SchemaConstants.OU_AT_OID );
+        idx.init( schemaManager, ouAT );
+
+        idx.add( mockTxn, "john smith", Strings.getUUID( 1L ) );
+        idx.add( mockTxn, "john smith", Strings.getUUID( 2L ) );
+        idx.add( mockTxn, "smithers", Strings.getUUID( 3L ) );
+        idx.add( mockTxn, "jane doe", Strings.getUUID( 4L ) );
+        idx.add( mockTxn, "goldsmith", Strings.getUUID( 5L ) );
+
+        substringIndex = new SubstringIndex( ouAT );
+        substringIndex.build( mockTxn, idx );
+    }
+
+
+    @Test
+    public void testBuild()
+    {
+        // The duplicated key is indexed once
+        assertEquals( 4L, substringIndex.getKeyCount() );
+    }
+
+
+    @Test
+    public void testAnyComponent() throws Exception
+    {
+        SubstringNode node = new SubstringNode( ouAT, null, null );
+        node.addAny( "Smith" );
+
+        Set<String> candidates = substringIndex.getCandidates( node );
+
+        assertEquals( 3, candidates.size() );
+        assertTrue( candidates.contains( "john smith" ) );
+        assertTrue( candidates.contains( "smithers" ) );
+        assertTrue( candidates.contains( "goldsmith" ) );
+    }
+
+
+    @Test
+    public void testInitialAndFinalComponents() throws Exception
+    {
+        Set<String> candidates = substringIndex.getCandidates( new SubstringNode( ouAT, "smi", null ) );
+
+        assertTrue( candidates.contains( "smithers" ) );
+        assertFalse( candidates.contains( "jane doe" ) );
+
+        candidates = substringIndex.getCandidates( new SubstringNode( ouAT, null, "smith" ) );
+
+        assertTrue( candidates.contains( "john smith" ) );
+        assertTrue( candidates.contains( "goldsmith" ) );
+        assertFalse( candidates.contains( "jane doe" ) );
+
+        // No key contains the trigrams
+        assertTrue( substringIndex.getCandidates( new SubstringNode( ouAT, null, "xyz" ) ).isEmpty() );
+        assertEquals( 0L, substringIndex.estimate( new SubstringNode( ouAT, null, "xyz" ) ) );
+    }
+
+
+    @Test
+    public void testShortComponent() throws Exception
+    {
+        SubstringNode node = new SubstringNode( ouAT, null, null );
+        node.addAny( "sm" );
+
+        // Too short to be looked up
+        assertNull( substringIndex.getCandidates( node ) );
+        assertEquals( -1L, substringIndex.estimate( node ) );
+    }
+
+
+    @Test
+    public void testAddDrop() throws Exception
+    {
+        substringIndex.drop( "goldsmith" );
+        substringIndex.add( "blacksmith" );
+
+        Set<String> candidates = substringIndex.getCandidates( new SubstringNode( ouAT, null, "smith" ) );
+
+        assertTrue( candidates.contains( "john smith" ) );
+        assertTrue( candidates.contains( "blacksmith" ) );
+        assertFalse( candidates.contains( "goldsmith" ) );
+        assertEquals( 4L, substringIndex.getKeyCount() );
+    }
+}
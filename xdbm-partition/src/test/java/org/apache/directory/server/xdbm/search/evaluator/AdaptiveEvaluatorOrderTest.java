@@ -0,0 +1,134 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.evaluator;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.search.Evaluator;
+import org.junit.Test;
+
+
+/**
+ * Tests the reordering of the AND and OR evaluators children.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AdaptiveEvaluatorOrderTest
+{
+    /**
+     * An evaluator returning always the same result, and counting its calls.
+     */
+    private static class ConstantEvaluator implements Evaluator<PresenceNode>
+    {
+        private final PresenceNode node = new PresenceNode( "cn" );
+        private final boolean result;
+        private int nbCalls;
+
+
+        private ConstantEvaluator( boolean result )
+        {
+            this.result = result;
+        }
+
+
+        public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> entry )
+        {
+            nbCalls++;
+
+            return result;
+        }
+
+
+        public boolean evaluate( Entry entry )
+        {
+            nbCalls++;
+
+            return result;
+        }
+
+
+        public PresenceNode getExpression()
+        {
+            return node;
+        }
+
+
+        public String toString( String tabs )
+        {
+            return tabs + "ConstantEvaluator : " + result;
+        }
+    }
+
+
+    @Test
+    public void testAndRejectingEvaluatorFirst() throws Exception
+    {
+        ConstantEvaluator accepting = new ConstantEvaluator( true );
+        ConstantEvaluator rejecting = new ConstantEvaluator( false );
+        List<Evaluator<? extends ExprNode>> evaluators = new ArrayList<>();
+        evaluators.add( accepting );
+        evaluators.add( rejecting );
+
+        AndEvaluator andEvaluator = new AndEvaluator( new AndNode(), evaluators );
+
+        for ( int i = 0; i < 2048; i++ )
+        {
+            assertFalse( andEvaluator.evaluate( ( Entry ) null ) );
+        }
+
+        // The rejecting evaluator has been moved first after the first 1024 evaluations
+        assertEquals( 1024, accepting.nbCalls );
+        assertEquals( 2048, rejecting.nbCalls );
+    }
+
+
+    @Test
+    public void testOrAcceptingEvaluatorFirst() throws Exception
+    {
+        ConstantEvaluator rejecting = new ConstantEvaluator( false );
+        ConstantEvaluator accepting = new ConstantEvaluator( true );
+        List<Evaluator<? extends ExprNode>> evaluators = new ArrayList<>();
+        evaluators.add( rejecting );
+        evaluators.add( accepting );
+
+        OrEvaluator orEvaluator = new OrEvaluator( new OrNode(), evaluators );
+
+        for ( int i = 0; i < 2048; i++ )
+        {
+            assertTrue( orEvaluator.evaluate( ( Entry ) null ) );
+        }
+
+        assertEquals( 1024, rejecting.nbCalls );
+        assertEquals( 2048, accepting.nbCalls );
+    }
+}
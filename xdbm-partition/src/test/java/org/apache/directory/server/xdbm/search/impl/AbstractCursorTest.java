@@ -67,6 +67,21 @@ public class AbstractCursorTest
      * @throws Exception If anything went wrong
      */
     protected Cursor<Entry> buildCursor( PartitionTxn partitionTxn, ExprNode root ) throws Exception
+    {
+        return buildCursor( partitionTxn, root, false );
+    }
+
+
+    /**
+     * Creates a cursor from a filter
+     * 
+     * @param root The filter we are using for the cursor construction
+     * @param coveredByIndexes If the entries can be built from the indexes
+     * @return The constructed cursor
+     * @throws Exception If anything went wrong
+     */
+    protected Cursor<Entry> buildCursor( PartitionTxn partitionTxn, ExprNode root, boolean coveredByIndexes )
+        throws Exception
     {
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( partitionTxn, root );
 
@@ -113,7 +128,8 @@ public class AbstractCursorTest
         SearchOperationContext operationContext = 
             new SearchOperationContext( session, Dn.ROOT_DSE, SearchScope.ONELEVEL, null, "*", "EntryUUID" );
         
-        return new EntryFilteringCursorImpl( new EntryCursorAdaptor( partitionTxn, ( AbstractBTreePartition ) store, searchResult ),
+        return new EntryFilteringCursorImpl( new EntryCursorAdaptor( partitionTxn, ( AbstractBTreePartition ) store, searchResult,
+            coveredByIndexes ),
             operationContext, directoryService.getSchemaManager() );
     }
 }
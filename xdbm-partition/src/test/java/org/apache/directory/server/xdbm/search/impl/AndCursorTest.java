@@ -20,6 +20,7 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -50,6 +51,7 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
 import org.apache.directory.server.xdbm.StoreUtils;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -292,4 +294,51 @@ public class AndCursorTest extends AbstractCursorTest
         cursor.close();
         assertTrue( cursor.isClosed() );
     }
+
+
+    @Test
+    public void testAndCandidatesIntersection() throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(&(ou=sales)(cn=J*))" );
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        new DefaultOptimizer( store ).annotate( txn, exprNode );
+
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        Set<String> uuids = new HashSet<String>();
+        searchResult.setCandidateSet( uuids );
+
+        // Only the candidates matching both the children are kept : the ou=Sales entry
+        // and Jack Daniels are not candidates
+        long nbCandidates = cursorBuilder.build( txn, exprNode, searchResult );
+
+        Set<String> expectedUuid = new HashSet<String>();
+        expectedUuid.add( Strings.getUUID( 5 ) );
+        expectedUuid.add( Strings.getUUID( 6 ) );
+
+        assertEquals( 2L, nbCandidates );
+        assertEquals( expectedUuid, uuids );
+    }
+
+
+    @Test
+    public void testAndCursorCoveredByIndexes() throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(&(ou=sales)(cn=jim bean))" );
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+
+        Cursor<Entry> cursor = buildCursor( txn, exprNode, true );
+
+        cursor.beforeFirst();
+
+        assertTrue( cursor.next() );
+        Entry entry = cursor.get();
+
+        // The entry has been built from the indexes, without its attributes
+        assertEquals( Strings.getUUID( 6 ), entry.get( "entryUUID" ).getString() );
+        assertEquals( "cn=JIM BEAN,ou=Sales,o=Good Times Co.", entry.getDn().getName() );
+        assertFalse( entry.containsAttribute( "cn" ) );
+
+        assertFalse( cursor.next() );
+        cursor.close();
+    }
 }